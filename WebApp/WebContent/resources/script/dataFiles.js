@@ -29,9 +29,7 @@ function renderMessages(messages) {
 }
 
 function reprocessUploadedFiles() {
-  $('#uploadForm\\:fileList_data>tr').each(function() {
-    extractNext();
-  });
+  extractAll();
 }
 
 function runTypeChanged(rowIndex, runTypeIndex) {
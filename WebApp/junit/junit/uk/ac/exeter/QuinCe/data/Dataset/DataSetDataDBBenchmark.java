@@ -0,0 +1,226 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * Compares the time taken to store new sensor values using
+ * {@link DataSetDataDB#storeNewSensorValues(Connection, Collection, int)} with
+ * the single-row inserts of
+ * {@link DataSetDataDB#storeSensorValues(Connection, Collection, int)}.
+ *
+ * <p>
+ * This is a benchmark, not a test. It is tagged {@code benchmark}, is excluded
+ * from the normal {@code test} task, and is run with
+ * {@code ./gradlew benchmark}. The results are printed to the console. It
+ * runs on the H2 test database, so the absolute times are much lower than on
+ * a MySQL server, where every statement is a network round trip.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+@Tag("benchmark")
+public class DataSetDataDBBenchmark extends BaseTest {
+
+  /**
+   * The database ID of the test data set
+   */
+  private static final long DATASET_ID = 1;
+
+  /**
+   * The file columns of the test instrument that hold numeric values
+   */
+  private static final long[] NUMERIC_COLUMNS = { 1, 2, 3, 4, 5 };
+
+  /**
+   * The file column of the test instrument that holds the run type
+   */
+  private static final long RUN_TYPE_COLUMN = 6;
+
+  /**
+   * The start time of the values
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * The number of times stored in each run. Each time has a value for every
+   * column, so 10,000 times give 60,000 values.
+   */
+  private static final int TIME_COUNT = 10000;
+
+  /**
+   * The number of untimed runs of each method before the timed runs
+   */
+  private static final int WARMUP_RUNS = 3;
+
+  /**
+   * The number of timed runs of each method
+   */
+  private static final int TIMED_RUNS = 10;
+
+  /**
+   * A method that stores sensor values
+   */
+  @FunctionalInterface
+  private interface StoreMethod {
+
+    /**
+     * Store the values
+     *
+     * @param conn
+     *          A database connection
+     * @param values
+     *          The values
+     * @param generation
+     *          The generation of the values
+     * @throws MissingParamException
+     *           If any required parameters are missing
+     * @throws DatabaseException
+     *           If a database error occurs
+     */
+    void store(Connection conn, Collection<SensorValue> values,
+      int generation) throws MissingParamException, DatabaseException;
+  }
+
+  /**
+   * Create the values for one run, in the same form as a newly extracted data
+   * set
+   *
+   * @return The sensor values
+   */
+  private static List<SensorValue> makeSensorValues() {
+    List<SensorValue> result = new ArrayList<SensorValue>(
+      TIME_COUNT * (NUMERIC_COLUMNS.length + 1));
+
+    for (int i = 0; i < TIME_COUNT; i++) {
+      LocalDateTime time = START_TIME.plusSeconds(i);
+
+      for (long column : NUMERIC_COLUMNS) {
+        result.add(new SensorValue(DATASET_ID, column, time,
+          String.valueOf(column * 1000 + i * 0.001)));
+      }
+
+      result.add(new SensorValue(DATASET_ID, RUN_TYPE_COLUMN, time,
+        i % 2 == 0 ? "EQU" : "ATM"));
+    }
+
+    return result;
+  }
+
+  /**
+   * Store a set of values in a new generation, and return the time taken
+   *
+   * @param conn
+   *          A database connection
+   * @param method
+   *          The method used to store the values
+   * @param generation
+   *          The generation
+   * @return The time taken in milliseconds
+   * @throws Exception
+   *           If the values cannot be stored
+   */
+  private static double run(Connection conn, StoreMethod method,
+    int generation) throws Exception {
+
+    List<SensorValue> values = makeSensorValues();
+
+    long start = System.nanoTime();
+    method.store(conn, values, generation);
+    conn.commit();
+    double result = (System.nanoTime() - start) / 1000000D;
+
+    try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) "
+      + "FROM sensor_values WHERE dataset_id = ? AND generation = ?")) {
+
+      stmt.setLong(1, DATASET_ID);
+      stmt.setInt(2, generation);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        assertEquals(values.size(), records.getInt(1));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the median of a set of times
+   *
+   * @param times
+   *          The times
+   * @return The median
+   */
+  private static double median(double[] times) {
+    double[] sorted = Arrays.copyOf(times, times.length);
+    Arrays.sort(sorted);
+    return sorted.length % 2 == 1 ? sorted[sorted.length / 2]
+      : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+  }
+
+  /**
+   * Time the storage of {@link #TIME_COUNT} times of values with each method.
+   * The runs of the two methods alternate, so both see the same table sizes.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void storeSensorValuesBenchmark() throws Exception {
+
+    StoreMethod bulk = DataSetDataDB::storeNewSensorValues;
+    StoreMethod single = DataSetDataDB::storeSensorValues;
+
+    double[] bulkTimes = new double[TIMED_RUNS];
+    double[] singleTimes = new double[TIMED_RUNS];
+
+    try (Connection conn = getDataSource().getConnection()) {
+      conn.setAutoCommit(false);
+
+      int generation = 1;
+
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+        run(conn, bulk, generation++);
+        run(conn, single, generation++);
+      }
+
+      for (int i = 0; i < TIMED_RUNS; i++) {
+        bulkTimes[i] = run(conn, bulk, generation++);
+        singleTimes[i] = run(conn, single, generation++);
+      }
+    }
+
+    int valueCount = TIME_COUNT * (NUMERIC_COLUMNS.length + 1);
+
+    System.out.println(String.format(
+      "Storing %d sensor values, median of %d runs:", valueCount,
+      TIMED_RUNS));
+    System.out.println(String.format("  storeNewSensorValues: %8.1f ms",
+      median(bulkTimes)));
+    System.out.println(String.format("  storeSensorValues:    %8.1f ms",
+      median(singleTimes)));
+  }
+}
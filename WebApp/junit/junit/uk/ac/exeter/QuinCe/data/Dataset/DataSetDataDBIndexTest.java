@@ -0,0 +1,361 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.context.ContextConfiguration;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+
+/**
+ * Tests that the hot {@link DataSetDataDB} queries use the composite indexes
+ * added in {@code V9__covering_indexes.sql}.
+ *
+ * <p>
+ * H2 does not choose indexes in the same way as MySQL, and cannot use an index
+ * to avoid sorting unless the sort columns are the index's leading columns. So
+ * these tests run {@code EXPLAIN} on a MySQL database. They are tagged
+ * {@code mysql}, are excluded from the normal {@code test} task, and are only
+ * run by the Gradle {@code mysqlTest} task:
+ * </p>
+ *
+ * <pre>
+ * ./gradlew mysqlTest -Djdbc.url=jdbc:mysql://localhost/quince_test
+ *   -Djdbc.username=quince -Djdbc.password=quince
+ * </pre>
+ *
+ * <p>
+ * The database is cleaned and rebuilt from the application's migrations. The
+ * tests fill it with ten data sets of values, so that each query selects a
+ * small part of the tables as it would in a production database.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see "WebApp/junit/resources/context/mysqlTestContext.xml"
+ */
+@Tag("mysql")
+@EnabledIfSystemProperty(named = "jdbc.url", matches = ".+")
+@ContextConfiguration(locations = {
+  "/resources/context/mysqlTestContext.xml" }, inheritLocations = false)
+@TestInstance(Lifecycle.PER_CLASS)
+@FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+  "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+public class DataSetDataDBIndexTest extends BaseTest {
+
+  /**
+   * The data set whose queries are explained
+   */
+  private static final long DATASET_ID = 1;
+
+  /**
+   * The number of data sets in the database
+   */
+  private static final int DATASET_COUNT = 10;
+
+  /**
+   * The generation of the values that the queries select
+   */
+  private static final int GENERATION = 1;
+
+  /**
+   * The file columns of the test instrument
+   */
+  private static final long[] COLUMNS = { 1, 2, 3, 4, 5, 6 };
+
+  /**
+   * The number of times in each data set
+   */
+  private static final int TIME_COUNT = 500;
+
+  /**
+   * The time of the first value, in milliseconds since the epoch
+   */
+  private static final long START_TIME = 1559347200000L;
+
+  /**
+   * The interval between values, in milliseconds
+   */
+  private static final long INTERVAL = 60000L;
+
+  /**
+   * The ID of the test variable
+   */
+  private static final long VARIABLE_ID = 1;
+
+  /**
+   * Fill the database with sensor values, measurements and data reduction
+   * results for {@link #DATASET_COUNT} data sets. The test data set also has
+   * an older generation of values.
+   *
+   * @throws Exception
+   *           If the data cannot be stored
+   */
+  @BeforeAll
+  public void fillDatabase() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      conn.setAutoCommit(false);
+
+      try (
+        PreparedStatement dataSetStmt = conn.prepareStatement("INSERT INTO "
+          + "dataset (id, instrument_id, name, start, end, status, nrt, "
+          + "status_date, properties, last_touched, sensor_values_generation, "
+          + "measurements_generation) VALUES (?, 1, ?, ?, ?, 0, 0, ?, NULL, "
+          + "?, ?, ?)");
+
+        PreparedStatement sensorValueStmt = conn.prepareStatement("INSERT "
+          + "INTO sensor_values (dataset_id, file_column, date, double_value, "
+          + "user_qc_flag, generation) VALUES (?, ?, ?, ?, ?, ?)");
+
+        PreparedStatement measurementStmt = conn.prepareStatement("INSERT "
+          + "INTO measurements (id, dataset_id, variable_id, date, longitude, "
+          + "latitude, run_type, generation) VALUES (?, ?, ?, ?, 0, 0, ?, ?)");
+
+        PreparedStatement dataReductionStmt = conn.prepareStatement("INSERT "
+          + "INTO data_reduction (measurement_id, variable_id, "
+          + "calculation_values, qc_flag) VALUES (?, ?, '{}', ?)");
+
+        PreparedStatement generationStmt = conn.prepareStatement("UPDATE "
+          + "dataset SET sensor_values_generation = ?, "
+          + "measurements_generation = ? WHERE id = ?")) {
+
+        long measurementId = 1;
+
+        for (long dataSet = 1; dataSet <= DATASET_COUNT; dataSet++) {
+
+          // The test data set is created by the testbase migration
+          if (dataSet != DATASET_ID) {
+            dataSetStmt.setLong(1, dataSet);
+            dataSetStmt.setString(2, "Data set " + dataSet);
+            dataSetStmt.setLong(3, START_TIME);
+            dataSetStmt.setLong(4, START_TIME + TIME_COUNT * INTERVAL);
+            dataSetStmt.setLong(5, START_TIME);
+            dataSetStmt.setLong(6, START_TIME);
+            dataSetStmt.setInt(7, GENERATION);
+            dataSetStmt.setInt(8, GENERATION);
+            dataSetStmt.execute();
+          }
+
+          List<Integer> generations = new ArrayList<Integer>();
+          generations.add(GENERATION);
+          if (dataSet == DATASET_ID) {
+            generations.add(GENERATION - 1);
+          }
+
+          for (int generation : generations) {
+            for (int i = 0; i < TIME_COUNT; i++) {
+              long time = START_TIME + i * INTERVAL;
+
+              for (long column : COLUMNS) {
+                int flag = Flag.VALUE_ASSUMED_GOOD;
+                if (i % 10 == 0) {
+                  flag = Flag.VALUE_NEEDED;
+                } else if (i % 25 == 1) {
+                  flag = Flag.VALUE_FLUSHING;
+                }
+
+                sensorValueStmt.setLong(1, dataSet);
+                sensorValueStmt.setLong(2, column);
+                sensorValueStmt.setLong(3, time);
+                sensorValueStmt.setDouble(4, column * 1000 + i);
+                sensorValueStmt.setInt(5, flag);
+                sensorValueStmt.setInt(6, generation);
+                sensorValueStmt.addBatch();
+              }
+
+              measurementStmt.setLong(1, measurementId);
+              measurementStmt.setLong(2, dataSet);
+              measurementStmt.setLong(3, VARIABLE_ID);
+              measurementStmt.setLong(4, time);
+              measurementStmt.setString(5, i % 2 == 0 ? "EQU" : "ATM");
+              measurementStmt.setInt(6, generation);
+              measurementStmt.addBatch();
+
+              dataReductionStmt.setLong(1, measurementId);
+              dataReductionStmt.setLong(2, VARIABLE_ID);
+              dataReductionStmt.setInt(3, Flag.VALUE_GOOD);
+              dataReductionStmt.addBatch();
+
+              measurementId++;
+            }
+
+            sensorValueStmt.executeBatch();
+            measurementStmt.executeBatch();
+            dataReductionStmt.executeBatch();
+          }
+        }
+
+        generationStmt.setInt(1, GENERATION);
+        generationStmt.setInt(2, GENERATION);
+        generationStmt.setLong(3, DATASET_ID);
+        generationStmt.execute();
+      }
+
+      conn.commit();
+
+      // Make sure the optimizer sees the new rows
+      try (PreparedStatement analyzeStmt = conn.prepareStatement(
+        "ANALYZE TABLE sensor_values, measurements, data_reduction")) {
+        analyzeStmt.execute();
+      }
+    }
+  }
+
+  /**
+   * Get one of the private queries from {@link DataSetDataDB}, so the tests
+   * explain exactly the SQL that the application runs
+   *
+   * @param name
+   *          The name of the query's constant
+   * @return The query
+   * @throws Exception
+   *           If the query cannot be found
+   */
+  private static String getQuery(String name) throws Exception {
+    Field field = DataSetDataDB.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return (String) field.get(null);
+  }
+
+  /**
+   * Run {@code EXPLAIN} for a query and check the index used to read a
+   * table. The whole plan must not need a filesort.
+   *
+   * @param queryName
+   *          The name of the query's constant in {@link DataSetDataDB}
+   * @param table
+   *          The table, or its alias in the query
+   * @param index
+   *          The index that must be used to read the table
+   * @param params
+   *          The query parameters
+   * @throws Exception
+   *           If the query cannot be explained
+   */
+  private void checkPlan(String queryName, String table, String index,
+    long... params) throws Exception {
+
+    try (Connection conn = getDataSource().getConnection();
+      PreparedStatement stmt = conn
+        .prepareStatement("EXPLAIN " + getQuery(queryName))) {
+
+      for (int i = 0; i < params.length; i++) {
+        stmt.setLong(i + 1, params[i]);
+      }
+
+      boolean tableFound = false;
+
+      try (ResultSet plan = stmt.executeQuery()) {
+        while (plan.next()) {
+          String extra = plan.getString("Extra");
+          assertFalse(null != extra && extra.contains("Using filesort"),
+            queryName + " needs a filesort: " + extra);
+
+          if (table.equals(plan.getString("table"))) {
+            tableFound = true;
+            assertEquals(index, plan.getString("key"),
+              queryName + " uses the wrong index for " + table);
+          }
+        }
+      }
+
+      assertTrue(tableFound, queryName + " does not read " + table);
+    }
+  }
+
+  /**
+   * Test that the sensor values for a generation are read in column order
+   * using {@code SENSORVALUE_COLUMN_DATE_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void sensorValuesByColumnTest() throws Exception {
+    checkPlan("GET_SENSOR_VALUES_BY_COLUMN_QUERY", "sv",
+      "SENSORVALUE_COLUMN_DATE_idx", DATASET_ID, GENERATION);
+  }
+
+  /**
+   * Test that the sensor values for a generation are read in date order
+   * using {@code SENSORVALUE_DATE_COLUMN_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void sensorValuesByDateTest() throws Exception {
+    checkPlan("GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_QUERY", "sv",
+      "SENSORVALUE_DATE_COLUMN_idx", DATASET_ID, GENERATION);
+  }
+
+  /**
+   * Test that the sensor values in a time range are read in date order using
+   * {@code SENSORVALUE_DATE_COLUMN_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void sensorValuesByDateRangeTest() throws Exception {
+    checkPlan("GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_RANGE_QUERY", "sv",
+      "SENSORVALUE_DATE_COLUMN_idx", DATASET_ID, GENERATION,
+      START_TIME + 100 * INTERVAL, START_TIME + 200 * INTERVAL);
+  }
+
+  /**
+   * Test that the required flags are counted using
+   * {@code SENSORVALUE_FLAG_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void requiredFlagsTest() throws Exception {
+    checkPlan("GET_REQUIRED_FLAGS_QUERY", "sv", "SENSORVALUE_FLAG_idx",
+      DATASET_ID);
+  }
+
+  /**
+   * Test that the measurements for data reduction are read in variable and
+   * date order using {@code MEASUREMENT_VARIABLE_DATE_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void measurementsTest() throws Exception {
+    checkPlan("GET_MEASUREMENTS_QUERY", "measurements",
+      "MEASUREMENT_VARIABLE_DATE_idx", DATASET_ID, GENERATION);
+  }
+
+  /**
+   * Test that the data reduction results for a variable are read in date
+   * order using {@code MEASUREMENT_DATE_idx}
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void dataReductionTest() throws Exception {
+    checkPlan("GET_DATA_REDUCTION_QUERY", "m", "MEASUREMENT_DATE_idx",
+      DATASET_ID, VARIABLE_ID);
+  }
+}
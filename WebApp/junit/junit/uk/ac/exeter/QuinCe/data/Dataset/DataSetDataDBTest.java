@@ -0,0 +1,693 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetStatistics;
+import uk.ac.exeter.QuinCe.data.Dataset.Measurement;
+import uk.ac.exeter.QuinCe.data.Dataset.SearchableSensorValuesList;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.InstrumentVariable;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorsConfiguration;
+
+/**
+ * Tests for the {@link DataSetDataDB} class.
+ *
+ * <p>
+ * These tests use the data set defined in
+ * {@code WebApp/junit/resources/sql/testbase/dataset}, which belongs to the
+ * instrument in {@code WebApp/junit/resources/sql/testbase/instrument}.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class DataSetDataDBTest extends BaseTest {
+
+  /**
+   * The database ID of the test data set
+   */
+  private static final long DATASET_ID = 1;
+
+  /**
+   * The file columns of the test instrument that hold numeric values
+   */
+  private static final long[] NUMERIC_COLUMNS = { 1, 2, 3, 4, 5 };
+
+  /**
+   * The file column of the test instrument that holds the run type
+   */
+  private static final long RUN_TYPE_COLUMN = 6;
+
+  /**
+   * The start time of the test values
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * Create sensor values for the test data set. Each time has one value for
+   * each numeric column and a run type, and some numeric values are missing.
+   *
+   * @param timeCount
+   *          The number of times
+   * @return The sensor values
+   */
+  private static List<SensorValue> makeSensorValues(int timeCount) {
+    List<SensorValue> result = new ArrayList<SensorValue>();
+
+    for (int i = 0; i < timeCount; i++) {
+      LocalDateTime time = START_TIME.plusSeconds(i);
+
+      for (long column : NUMERIC_COLUMNS) {
+        String value = i % 7 == 0 ? null : String.valueOf(column * 1000 + i);
+        result.add(new SensorValue(DATASET_ID, column, time, value));
+      }
+
+      result.add(new SensorValue(DATASET_ID, RUN_TYPE_COLUMN, time,
+        i % 2 == 0 ? "EQU" : "ATM"));
+    }
+
+    return result;
+  }
+
+  /**
+   * Count the sensor values stored in a generation of the test data set
+   *
+   * @param conn
+   *          A database connection
+   * @param generation
+   *          The generation
+   * @return The number of values
+   * @throws Exception
+   *           If the values cannot be counted
+   */
+  private static int countSensorValues(Connection conn, int generation)
+    throws Exception {
+
+    try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) "
+      + "FROM sensor_values WHERE dataset_id = ? AND generation = ?")) {
+
+      stmt.setLong(1, DATASET_ID);
+      stmt.setInt(2, generation);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        return records.getInt(1);
+      }
+    }
+  }
+
+  /**
+   * Test that
+   * {@link DataSetDataDB#storeNewSensorValues(Connection, java.util.Collection, int)}
+   * stores every value when the number of values is not a multiple of the
+   * 1000 rows inserted by each statement. The values must be read back
+   * exactly as they were stored.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void storeNewSensorValuesPartialStatementTest() throws Exception {
+
+    // 417 times * 6 columns = 2502 values: two full statements and one
+    // statement of 502 rows
+    List<SensorValue> values = makeSensorValues(417);
+    assertEquals(2502, values.size());
+
+    try (Connection conn = getDataSource().getConnection()) {
+      DataSetDataDB.storeNewSensorValues(conn, values, 1);
+
+      assertEquals(values.size(), countSensorValues(conn, 1));
+      assertEquals(0, countSensorValues(conn, 0));
+
+      for (SensorValue value : values) {
+        assertFalse(value.isDirty());
+      }
+
+      Map<Long, SearchableSensorValuesList> stored = DataSetDataDB
+        .getSensorValuesByColumn(conn, DATASET_ID, 1);
+
+      assertEquals(NUMERIC_COLUMNS.length + 1, stored.size());
+
+      // Values are read back in time order for each column
+      Map<Long, Integer> positions = new HashMap<Long, Integer>();
+
+      for (SensorValue value : values) {
+        int position = positions.getOrDefault(value.getColumnId(), 0);
+        positions.put(value.getColumnId(), position + 1);
+
+        SensorValue storedValue = stored.get(value.getColumnId())
+          .get(position);
+
+        assertEquals(value.getTime(), storedValue.getTime());
+        assertEquals(value.getDoubleValue(), storedValue.getDoubleValue());
+        assertEquals(value.isText(), storedValue.isText());
+        if (value.isText()) {
+          assertEquals(value.getValue(), storedValue.getValue());
+        }
+        assertEquals(value.getUserQCFlag(), storedValue.getUserQCFlag());
+        assertEquals(value.getUserQCMessage(),
+          storedValue.getUserQCMessage());
+      }
+
+      for (SearchableSensorValuesList columnValues : stored.values()) {
+        assertEquals(417, columnValues.size());
+      }
+    }
+  }
+
+  /**
+   * Test that
+   * {@link DataSetDataDB#storeNewSensorValues(Connection, java.util.Collection, int)}
+   * stores values when there are fewer than 1000 of them, and when there are
+   * exactly 1000
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void storeNewSensorValuesStatementSizesTest() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      List<SensorValue> values = makeSensorValues(1);
+      DataSetDataDB.storeNewSensorValues(conn, values, 1);
+      assertEquals(values.size(), countSensorValues(conn, 1));
+
+      // 1000 values exactly
+      values = makeSensorValues(167).subList(0, 1000);
+      DataSetDataDB.storeNewSensorValues(conn, values, 2);
+      assertEquals(1000, countSensorValues(conn, 2));
+    }
+  }
+
+  /**
+   * Count the entries in the {@code sensor_value_text} table with a given
+   * text
+   *
+   * @param conn
+   *          A database connection
+   * @param text
+   *          The text
+   * @return The number of entries
+   * @throws Exception
+   *           If the entries cannot be counted
+   */
+  private static int countTextEntries(Connection conn, String text)
+    throws Exception {
+
+    try (PreparedStatement stmt = conn.prepareStatement(
+      "SELECT COUNT(*) FROM sensor_value_text WHERE value = ?")) {
+
+      stmt.setString(1, text);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        return records.getInt(1);
+      }
+    }
+  }
+
+  /**
+   * Test that storing text values only adds {@code sensor_value_text} entries
+   * for texts that are absent, and reuses existing entries
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void storeTextValuesOnceTest() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      try (PreparedStatement stmt = conn.prepareStatement(
+        "INSERT INTO sensor_value_text (value) VALUES ('EQU')")) {
+        stmt.execute();
+      }
+
+      DataSetDataDB.storeNewSensorValues(conn, makeSensorValues(10), 1);
+      DataSetDataDB.storeNewSensorValues(conn, makeSensorValues(10), 2);
+
+      assertEquals(1, countTextEntries(conn, "EQU"));
+      assertEquals(1, countTextEntries(conn, "ATM"));
+
+      for (int generation = 1; generation <= 2; generation++) {
+        SearchableSensorValuesList runTypes = DataSetDataDB
+          .getSensorValuesByColumn(conn, DATASET_ID, generation)
+          .get(RUN_TYPE_COLUMN);
+
+        for (int i = 0; i < runTypes.size(); i++) {
+          assertEquals(i % 2 == 0 ? "EQU" : "ATM",
+            runTypes.get(i).getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that the {@code sensor_value_text} table rejects duplicate texts,
+   * but treats texts that differ only in case as different
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest
+  @Test
+  public void textUniqueTest() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection();
+      PreparedStatement stmt = conn
+        .prepareStatement("INSERT INTO sensor_value_text (value) VALUES (?)")) {
+
+      stmt.setString(1, "EQU");
+      stmt.execute();
+
+      stmt.setString(1, "equ");
+      stmt.execute();
+
+      assertThrows(SQLException.class, () -> {
+        stmt.setString(1, "EQU");
+        stmt.execute();
+      });
+    }
+  }
+
+  /**
+   * Create measurements for the test data set
+   *
+   * @param variable
+   *          The variable being measured
+   * @param count
+   *          The number of measurements
+   * @return The measurements
+   */
+  private static List<Measurement> makeMeasurements(
+    InstrumentVariable variable, int count) {
+
+    List<Measurement> result = new ArrayList<Measurement>();
+    for (int i = 0; i < count; i++) {
+      result.add(new Measurement(DATASET_ID, variable,
+        START_TIME.plusSeconds(i), 10.5, 50.25, "EQU"));
+    }
+    return result;
+  }
+
+  /**
+   * Test that
+   * {@link DataSetDataDB#storeMeasurements(javax.sql.DataSource, Connection, List, int)}
+   * reserves measurement IDs from the given data source, without needing the
+   * application's {@code ResourceManager}, and stores the measurements with
+   * those IDs
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void storeMeasurementsTest() throws Exception {
+
+    InstrumentVariable variable = new SensorsConfiguration(getDataSource())
+      .getInstrumentVariable(1L);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      List<Measurement> first = makeMeasurements(variable, 3);
+      DataSetDataDB.storeMeasurements(getDataSource(), conn, first, 1);
+
+      List<Measurement> second = makeMeasurements(variable, 2);
+      DataSetDataDB.storeMeasurements(getDataSource(), conn, second, 1);
+
+      List<Measurement> all = new ArrayList<Measurement>(first);
+      all.addAll(second);
+
+      for (int i = 0; i < all.size(); i++) {
+        assertEquals(i + 1, all.get(i).getId());
+      }
+
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT id "
+        + "FROM measurements WHERE dataset_id = ? AND generation = 1 "
+        + "ORDER BY id")) {
+
+        stmt.setLong(1, DATASET_ID);
+
+        try (ResultSet records = stmt.executeQuery()) {
+          for (Measurement measurement : all) {
+            assertTrue(records.next());
+            assertEquals(measurement.getId(), records.getLong(1));
+          }
+          assertFalse(records.next());
+        }
+      }
+    }
+  }
+
+  /**
+   * Count the measurements stored in a generation of the test data set
+   *
+   * @param conn
+   *          A database connection
+   * @param generation
+   *          The generation
+   * @return The number of measurements
+   * @throws Exception
+   *           If the measurements cannot be counted
+   */
+  private static int countMeasurements(Connection conn, int generation)
+    throws Exception {
+
+    try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) "
+      + "FROM measurements WHERE dataset_id = ? AND generation = ?")) {
+
+      stmt.setLong(1, DATASET_ID);
+      stmt.setInt(2, generation);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        return records.getInt(1);
+      }
+    }
+  }
+
+  /**
+   * Get the entries in the purge queue, in the order they will be purged.
+   * Each entry is the content type followed by the generation.
+   *
+   * @param conn
+   *          A database connection
+   * @return The queue entries
+   * @throws Exception
+   *           If the queue cannot be read
+   */
+  private static List<List<Integer>> getPurgeQueue(Connection conn)
+    throws Exception {
+
+    List<List<Integer>> result = new ArrayList<List<Integer>>();
+
+    try (PreparedStatement stmt = conn.prepareStatement("SELECT content, "
+      + "generation FROM dataset_purge ORDER BY id");
+      ResultSet records = stmt.executeQuery()) {
+
+      while (records.next()) {
+        List<Integer> entry = new ArrayList<Integer>(2);
+        entry.add(records.getInt(1));
+        entry.add(records.getInt(2));
+        result.add(entry);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Make a purge queue entry for comparison with the result of
+   * {@link #getPurgeQueue(Connection)}
+   *
+   * @param content
+   *          The content type
+   * @param generation
+   *          The generation
+   * @return The entry
+   */
+  private static List<Integer> purgeEntry(int content, int generation) {
+    List<Integer> result = new ArrayList<Integer>(2);
+    result.add(content);
+    result.add(generation);
+    return result;
+  }
+
+  /**
+   * Get the statistics stored in the test data set's record
+   *
+   * @param conn
+   *          A database connection
+   * @return The record count and flags required
+   * @throws Exception
+   *           If the statistics cannot be read
+   */
+  private static int[] getStoredStatistics(Connection conn) throws Exception {
+    try (PreparedStatement stmt = conn.prepareStatement("SELECT "
+      + "record_count, flags_required FROM dataset WHERE id = ?")) {
+
+      stmt.setLong(1, DATASET_ID);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        return new int[] { records.getInt(1), records.getInt(2) };
+      }
+    }
+  }
+
+  /**
+   * Calculate the statistics for a set of sensor values
+   *
+   * @param values
+   *          The values, in time order
+   * @return The statistics
+   */
+  private static DataSetStatistics makeStatistics(List<SensorValue> values) {
+    return DataSetStatistics.calculate(Collections.singletonList(values));
+  }
+
+  /**
+   * Test that
+   * {@link DataSetDataDB#getNewGeneration(Connection, long, int)} returns a
+   * generation above the current generation, every stored generation and
+   * every generation queued for purging, for each type of content
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void getNewGenerationTest() throws Exception {
+
+    InstrumentVariable variable = new SensorsConfiguration(getDataSource())
+      .getInstrumentVariable(1L);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      assertEquals(1, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES));
+      assertEquals(1, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_MEASUREMENTS));
+
+      // Rows left by a failed job
+      DataSetDataDB.storeNewSensorValues(conn, makeSensorValues(2), 3);
+      assertEquals(4, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES));
+
+      // A generation waiting to be purged
+      DataSetDataDB.queuePurge(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES, 6);
+      assertEquals(7, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES));
+
+      // The measurement generations are independent of the sensor values
+      assertEquals(1, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_MEASUREMENTS));
+
+      DataSetDataDB.storeMeasurements(getDataSource(), conn,
+        makeMeasurements(variable, 2), 2);
+      assertEquals(3, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_MEASUREMENTS));
+
+      // The current generation
+      DataSetDataDB.setSensorValuesGeneration(conn, DATASET_ID, 9, 5);
+      assertEquals(10, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES));
+      assertEquals(6, DataSetDataDB.getNewGeneration(conn, DATASET_ID,
+        DataSetDataDB.PURGE_MEASUREMENTS));
+    }
+  }
+
+  /**
+   * Test that
+   * {@link DataSetDataDB#setSensorValuesGeneration(Connection, long, int, int)}
+   * switches the data set to the new generations and queues the old
+   * measurements for purging before the old sensor values they use
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void setSensorValuesGenerationQueueTest() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      DataSetDataDB.setSensorValuesGeneration(conn, DATASET_ID, 1, 1);
+
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT "
+        + "sensor_values_generation, measurements_generation FROM dataset "
+        + "WHERE id = ?")) {
+
+        stmt.setLong(1, DATASET_ID);
+
+        try (ResultSet records = stmt.executeQuery()) {
+          records.next();
+          assertEquals(1, records.getInt(1));
+          assertEquals(1, records.getInt(2));
+        }
+      }
+
+      List<List<Integer>> expected = new ArrayList<List<Integer>>();
+      expected.add(purgeEntry(DataSetDataDB.PURGE_MEASUREMENTS, 0));
+      expected.add(purgeEntry(DataSetDataDB.PURGE_SENSOR_VALUES, 0));
+      assertEquals(expected, getPurgeQueue(conn));
+
+      // If the measurements generation doesn't change, only the sensor
+      // values are queued
+      DataSetDataDB.setSensorValuesGeneration(conn, DATASET_ID, 2, 1);
+      expected.add(purgeEntry(DataSetDataDB.PURGE_SENSOR_VALUES, 1));
+      assertEquals(expected, getPurgeQueue(conn));
+    }
+  }
+
+  /**
+   * Test that statistics calculated for a new sensor values generation are
+   * held until
+   * {@link DataSetDataDB#setSensorValuesGeneration(Connection, long, int, int)}
+   * switches the data set to that generation, so the data set's statistics
+   * describe its current values until then
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void pendingStatisticsTest() throws Exception {
+
+    DataSetStatistics current = makeStatistics(makeSensorValues(5));
+    DataSetStatistics pending = makeStatistics(makeSensorValues(8));
+
+    try (Connection conn = getDataSource().getConnection()) {
+      DataSetDB.storeStatistics(conn, DATASET_ID, current);
+      DataSetDB.storePendingStatistics(conn, DATASET_ID, 1, pending);
+
+      assertEquals(current.getRecordCount(), getStoredStatistics(conn)[0]);
+      assertEquals(pending.getRecordCount(),
+        DataSetDB.getPendingStatistics(conn, DATASET_ID, 1).getRecordCount());
+
+      DataSetDataDB.setSensorValuesGeneration(conn, DATASET_ID, 1, 1);
+
+      int[] stored = getStoredStatistics(conn);
+      assertEquals(pending.getRecordCount(), stored[0]);
+      assertEquals(pending.getFlagsRequired(), stored[1]);
+      assertNull(DataSetDB.getPendingStatistics(conn, DATASET_ID, 1));
+    }
+  }
+
+  /**
+   * Test that {@link DataSetDataDB#purgeChunk(Connection, int)} removes the
+   * queued generations in chunks, in the order they were queued, and only
+   * removes each queue entry once its rows have gone
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void purgeChunkTest() throws Exception {
+
+    InstrumentVariable variable = new SensorsConfiguration(getDataSource())
+      .getInstrumentVariable(1L);
+
+    try (Connection conn = getDataSource().getConnection()) {
+
+      // 60 sensor values and 3 measurements in generation 0, and the same
+      // in generation 1
+      for (int generation = 0; generation < 2; generation++) {
+        DataSetDataDB.storeNewSensorValues(conn, makeSensorValues(10),
+          generation);
+        DataSetDataDB.storeMeasurements(getDataSource(), conn,
+          makeMeasurements(variable, 3), generation);
+      }
+
+      DataSetDataDB.setSensorValuesGeneration(conn, DATASET_ID, 1, 1);
+
+      // The measurements are removed first
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(0, countMeasurements(conn, 0));
+      assertEquals(60, countSensorValues(conn, 0));
+      assertEquals(2, getPurgeQueue(conn).size());
+
+      // The measurements entry is removed once it has no rows left
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(1, getPurgeQueue(conn).size());
+
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(35, countSensorValues(conn, 0));
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(10, countSensorValues(conn, 0));
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(0, countSensorValues(conn, 0));
+
+      assertTrue(DataSetDataDB.purgeChunk(conn, 25));
+      assertEquals(0, getPurgeQueue(conn).size());
+      assertFalse(DataSetDataDB.purgeChunk(conn, 25));
+
+      // The current generation is untouched
+      assertEquals(60, countSensorValues(conn, 1));
+      assertEquals(3, countMeasurements(conn, 1));
+    }
+  }
+
+  /**
+   * Test that the statistics held for a sensor values generation that never
+   * became current are removed when the generation is purged
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void purgePendingStatisticsTest() throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      List<SensorValue> values = makeSensorValues(10);
+      DataSetDataDB.storeNewSensorValues(conn, values, 1);
+      DataSetDB.storePendingStatistics(conn, DATASET_ID, 1,
+        makeStatistics(values));
+
+      // The job processing the generation failed
+      DataSetDataDB.queuePurge(conn, DATASET_ID,
+        DataSetDataDB.PURGE_SENSOR_VALUES, 1);
+
+      while (DataSetDataDB.purgeChunk(conn, 100)) {
+        // Keep purging
+      }
+
+      assertEquals(0, countSensorValues(conn, 1));
+      assertNull(DataSetDB.getPendingStatistics(conn, DATASET_ID, 1));
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+
+/**
+ * Tests for the binary encoding of {@link AutoQCResult}s.
+ *
+ * <p>
+ * Results are built from JSON, which is how they were stored before the
+ * binary encoding was introduced. A result survives a round trip if its JSON
+ * is unchanged after it has been encoded and decoded.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class AutoQCResultTest extends BaseTest {
+
+  /**
+   * Build the JSON for a single routine flag. The fields are in the order
+   * written by {@link AutoQCResult#toJson()}.
+   *
+   * @param routineName
+   *          The routine name
+   * @param flagValue
+   *          The flag value
+   * @param requiredValue
+   *          The required value
+   * @param actualValue
+   *          The actual value
+   * @return The JSON
+   */
+  private static String makeFlagJson(String routineName, int flagValue,
+    String requiredValue, String actualValue) {
+
+    StringBuilder json = new StringBuilder("{\"routineName\":\"");
+    json.append(routineName);
+    json.append('"');
+
+    if (null != requiredValue) {
+      json.append(",\"requiredValue\":\"");
+      json.append(requiredValue);
+      json.append('"');
+    }
+
+    if (null != actualValue) {
+      json.append(",\"actualValue\":\"");
+      json.append(actualValue);
+      json.append('"');
+    }
+
+    json.append(",\"flagValue\":");
+    json.append(flagValue);
+    json.append('}');
+    return json.toString();
+  }
+
+  /**
+   * Build the JSON for a result
+   *
+   * @param flags
+   *          The JSON for each flag
+   * @return The JSON
+   */
+  private static String makeResultJson(String... flags) {
+    return '[' + String.join(",", flags) + ']';
+  }
+
+  /**
+   * Create the JSON for results that must survive a round trip
+   *
+   * @return The results
+   */
+  @SuppressWarnings("unused")
+  private static Stream<String> createResults() {
+    return Stream.of(
+      // Each known routine
+      makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5")),
+      makeResultJson(makeFlagJson("HighDelta", 4, "0.5", "1.25")),
+      makeResultJson(makeFlagJson("ConstantValue", 3, "3.0", "4.0")),
+      makeResultJson(makeFlagJson("Outlier", 3, "2.0", "3.5")),
+      makeResultJson(makeFlagJson("PositionQC", 4, null, null)),
+
+      // Unknown routine, stored by name
+      makeResultJson(makeFlagJson("SomeOtherRoutine", 3, "a", "b")),
+      makeResultJson(makeFlagJson("Routiné", 3, "é", "ü")),
+
+      // Missing and empty values
+      makeResultJson(makeFlagJson("RangeCheck", 3, null, "12.5")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", null)),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "", "")),
+
+      // Values that are numbers, but not in canonical double format, must
+      // keep their original text
+      makeResultJson(makeFlagJson("RangeCheck", 3, "12", "0.0005")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "5.0E-4", "1e3")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "-0", "-0.0")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "NaN", "Infinity")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "-", "1.2.3")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "0.1", "-123456.789")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "1.0E10", "1.0E-10")),
+      makeResultJson(makeFlagJson("RangeCheck", 3, "+1.0", " 1.0")),
+
+      // Several flags
+      makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5"),
+        makeFlagJson("HighDelta", 4, "0.5", "1.25"),
+        makeFlagJson("SomeOtherRoutine", 2, null, null)));
+  }
+
+  /**
+   * Test that a result is unchanged after it has been encoded and decoded
+   *
+   * @param json
+   *          The JSON of the result
+   */
+  @ParameterizedTest
+  @MethodSource("createResults")
+  public void roundTripTest(String json) {
+    AutoQCResult result = AutoQCResult.buildFromJson(json);
+    assertEquals(json, result.toJson());
+
+    AutoQCResult decoded = AutoQCResult.decode(result.encode());
+
+    assertEquals(result.size(), decoded.size());
+    assertEquals(json, decoded.toJson());
+    assertEquals(result.getOverallFlag(), decoded.getOverallFlag());
+  }
+
+  /**
+   * Test that the overall flag can be read from an encoded result without
+   * decoding it
+   *
+   * @param json
+   *          The JSON of the result
+   */
+  @ParameterizedTest
+  @MethodSource("createResults")
+  public void encodedOverallFlagTest(String json) {
+    AutoQCResult result = AutoQCResult.buildFromJson(json);
+    assertEquals(result.getOverallFlag(),
+      AutoQCResult.getOverallFlag(result.encode()));
+  }
+
+  /**
+   * Test that the overall flag is the most significant flag in the result
+   */
+  @Test
+  public void overallFlagTest() {
+    AutoQCResult result = AutoQCResult.buildFromJson(
+      makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5"),
+        makeFlagJson("HighDelta", 4, "0.5", "1.25"),
+        makeFlagJson("Outlier", 3, "2.0", "3.5")));
+
+    assertEquals(Flag.BAD, AutoQCResult.getOverallFlag(result.encode()));
+  }
+
+  /**
+   * Test that an empty result is encoded as {@code null}, and that
+   * {@code null} and empty encodings are decoded as empty results
+   */
+  @Test
+  public void emptyResultTest() {
+    assertNull(new AutoQCResult().encode());
+    assertTrue(AutoQCResult.decode(null).isEmpty());
+    assertTrue(AutoQCResult.decode(new byte[0]).isEmpty());
+    assertEquals(Flag.GOOD, AutoQCResult.getOverallFlag(null));
+  }
+
+  /**
+   * Test that numeric values in canonical format are stored more compactly
+   * than the same values as text
+   */
+  @Test
+  public void numericEncodingSizeTest() {
+    byte[] numeric = AutoQCResult
+      .buildFromJson(makeResultJson(
+        makeFlagJson("RangeCheck", 3, "1234.5678", "-98765.4321")))
+      .encode();
+
+    byte[] text = AutoQCResult
+      .buildFromJson(makeResultJson(
+        makeFlagJson("RangeCheck", 3, "1234.56789", "-98765.43210")))
+      .encode();
+
+    // Version, overall flag, count, routine ID, flag, then two parameters of
+    // a marker and eight bytes
+    assertEquals(23, numeric.length);
+    assertTrue(text.length > numeric.length);
+  }
+
+  /**
+   * Test that an encoding with an unknown version is rejected
+   */
+  @Test
+  public void decodeInvalidVersionTest() {
+    byte[] encoded = AutoQCResult
+      .buildFromJson(
+        makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5")))
+      .encode();
+    encoded[0] = 99;
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      AutoQCResult.decode(encoded);
+    });
+  }
+
+  /**
+   * Test that an encoding with an unknown routine ID is rejected
+   */
+  @Test
+  public void decodeInvalidRoutineTest() {
+    byte[] encoded = AutoQCResult
+      .buildFromJson(
+        makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5")))
+      .encode();
+    encoded[3] = (byte) 200;
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      AutoQCResult.decode(encoded);
+    });
+  }
+
+  /**
+   * Test that a truncated encoding is rejected
+   */
+  @Test
+  public void decodeTruncatedTest() {
+    byte[] encoded = AutoQCResult
+      .buildFromJson(
+        makeResultJson(makeFlagJson("RangeCheck", 3, "10.0", "12.5")))
+      .encode();
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      AutoQCResult.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    });
+  }
+
+  /**
+   * Test that a result with more flags than the encoding can hold is rejected
+   */
+  @Test
+  public void tooManyFlagsTest() {
+    String[] flags = new String[256];
+    Arrays.fill(flags, makeFlagJson("RangeCheck", 3, "10.0", "12.5"));
+    AutoQCResult result = AutoQCResult.buildFromJson(makeResultJson(flags));
+
+    assertThrows(IllegalStateException.class, () -> {
+      result.encode();
+    });
+  }
+}
@@ -0,0 +1,324 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.SearchableSensorValuesList;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValueColumn;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
+
+/**
+ * Tests for the {@link SensorValueColumn} class
+ *
+ * @author Steve Jones
+ *
+ */
+public class SensorValueColumnTest extends BaseTest {
+
+  /**
+   * The dataset ID used for the test values
+   */
+  private static final long DATASET_ID = 1;
+
+  /**
+   * The column ID used for the test values
+   */
+  private static final long COLUMN_ID = 2;
+
+  /**
+   * The time of the first test value
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * An automatic QC result with one flag
+   */
+  private static final String AUTO_QC_JSON = "[{\"routineName\":"
+    + "\"RangeCheck\",\"requiredValue\":\"10.0\",\"actualValue\":\"12.5\","
+    + "\"flagValue\":3}]";
+
+  /**
+   * Create sensor values as if they had been read from the database. The
+   * values are a mixture of numbers, missing values and text, with and
+   * without QC information.
+   *
+   * @param count
+   *          The number of values
+   * @return The sensor values
+   */
+  private static List<SensorValue> makeStoredValues(int count) {
+    List<SensorValue> result = new ArrayList<SensorValue>(count);
+
+    for (int i = 0; i < count; i++) {
+      LocalDateTime time = START_TIME.plusSeconds(i * 10);
+
+      SensorValue value;
+      switch (i % 4) {
+      case 0: {
+        value = new SensorValue(i + 1, DATASET_ID, COLUMN_ID, time, null,
+          i * 0.25, (AutoQCResult) null, Flag.ASSUMED_GOOD, null);
+        break;
+      }
+      case 1: {
+        value = new SensorValue(i + 1, DATASET_ID, COLUMN_ID, time, null,
+          Double.NaN, (AutoQCResult) null, Flag.BAD, "Missing");
+        break;
+      }
+      case 2: {
+        value = new SensorValue(i + 1, DATASET_ID, COLUMN_ID, time,
+          i % 8 == 2 ? "EQU" : "ATM", Double.NaN, (AutoQCResult) null,
+          Flag.ASSUMED_GOOD, null);
+        break;
+      }
+      default: {
+        value = new SensorValue(i + 1, DATASET_ID, COLUMN_ID, time, null,
+          -i * 1.5, AutoQCResult.buildFromJson(AUTO_QC_JSON), Flag.NEEDED,
+          "Out of range");
+      }
+      }
+
+      result.add(value);
+    }
+
+    return result;
+  }
+
+  /**
+   * Check that two sensor values hold the same information
+   *
+   * @param expected
+   *          The expected value
+   * @param actual
+   *          The actual value
+   */
+  private static void assertSensorValue(SensorValue expected,
+    SensorValue actual) {
+
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getDatasetId(), actual.getDatasetId());
+    assertEquals(expected.getColumnId(), actual.getColumnId());
+    assertEquals(expected.getTime(), actual.getTime());
+    assertEquals(expected.getDoubleValue(), actual.getDoubleValue());
+    assertEquals(expected.isText(), actual.isText());
+    if (expected.isText()) {
+      assertEquals(expected.getValue(), actual.getValue());
+    }
+    assertEquals(expected.getUserQCFlag(), actual.getUserQCFlag());
+    assertEquals(expected.getUserQCMessage(), actual.getUserQCMessage());
+    assertEquals(expected.getAutoQcFlag(), actual.getAutoQcFlag());
+    assertEquals(expected.getAutoQcResult().toJson(),
+      actual.getAutoQcResult().toJson());
+    assertEquals(expected.isDirty(), actual.isDirty());
+  }
+
+  /**
+   * Test that sensor values are unchanged when they are converted to a column
+   * and back. More values are used than the initial capacity of a column.
+   */
+  @Test
+  public void roundTripTest() {
+    List<SensorValue> values = makeStoredValues(3000);
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      values);
+
+    assertEquals(values.size(), column.size());
+
+    SearchableSensorValuesList converted = column.toSensorValues();
+    assertEquals(values.size(), converted.size());
+
+    for (int i = 0; i < values.size(); i++) {
+      assertSensorValue(values.get(i), converted.get(i));
+      assertSensorValue(values.get(i), column.getSensorValue(i));
+    }
+  }
+
+  /**
+   * Test that the column accessors return the values' information
+   */
+  @Test
+  public void accessorsTest() {
+    List<SensorValue> values = makeStoredValues(8);
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      values);
+
+    assertEquals(DATASET_ID, column.getDatasetId());
+    assertEquals(COLUMN_ID, column.getColumnId());
+
+    assertEquals(1, column.getId(0));
+    assertEquals(START_TIME, column.getTime(0));
+    assertEquals(0.0, column.getDoubleValue(0));
+    assertNull(column.getText(0));
+    assertEquals("", column.getUserQCMessage(0));
+
+    assertTrue(column.isNaN(1));
+    assertNull(column.getText(1));
+    assertEquals(Flag.BAD, column.getUserQCFlag(1));
+
+    assertTrue(column.isNaN(2));
+    assertEquals("EQU", column.getText(2));
+    assertEquals("ATM", column.getText(6));
+
+    assertEquals(-4.5, column.getDoubleValue(3));
+    assertEquals(Flag.QUESTIONABLE, column.getAutoQcFlag(3));
+    assertEquals(AUTO_QC_JSON, column.getAutoQcResult(3).toJson());
+    assertEquals(Flag.GOOD, column.getAutoQcFlag(0));
+    assertTrue(column.getAutoQcResult(0).isEmpty());
+  }
+
+  /**
+   * Test that {@link SensorValueColumn#indexOf(LocalDateTime)} finds the
+   * latest value at or before a time
+   */
+  @Test
+  public void indexOfTest() {
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      makeStoredValues(100));
+
+    assertEquals(-1, column.indexOf(START_TIME.minusSeconds(1)));
+    assertEquals(0, column.indexOf(START_TIME));
+    assertEquals(0, column.indexOf(START_TIME.plusSeconds(9)));
+    assertEquals(1, column.indexOf(START_TIME.plusSeconds(10)));
+    assertEquals(50, column.indexOf(START_TIME.plusSeconds(505)));
+    assertEquals(99, column.indexOf(START_TIME.plusDays(1)));
+  }
+
+  /**
+   * Test that changing the user QC of a value marks only that value as
+   * needing to be saved
+   */
+  @Test
+  public void setUserQCTest() {
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      makeStoredValues(10));
+
+    assertTrue(column.getDirtySensorValues().isEmpty());
+
+    column.setUserQC(4, Flag.QUESTIONABLE, "Looks odd");
+
+    assertTrue(column.isDirty(4));
+    assertFalse(column.isDirty(5));
+    assertEquals(Flag.QUESTIONABLE, column.getUserQCFlag(4));
+    assertEquals("Looks odd", column.getUserQCMessage(4));
+
+    List<SensorValue> dirty = column.getDirtySensorValues();
+    assertEquals(1, dirty.size());
+    assertEquals(5, dirty.get(0).getId());
+    assertTrue(dirty.get(0).isDirty());
+    assertEquals("Looks odd", dirty.get(0).getUserQCMessage());
+
+    column.clearDirtyFlag();
+    assertTrue(column.getDirtySensorValues().isEmpty());
+  }
+
+  /**
+   * Test that QC changes made to converted sensor values are copied back to
+   * the column, and that unchanged values are not marked as dirty
+   *
+   * @throws RecordNotFoundException
+   *           If the automatic QC cannot be cleared
+   */
+  @Test
+  public void updateTest() throws RecordNotFoundException {
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      makeStoredValues(10));
+
+    SearchableSensorValuesList values = column.toSensorValues();
+    values.get(3).clearAutomaticQC();
+    values.get(4).setUserQC(Flag.BAD, "Broken");
+
+    column.update(values);
+
+    assertTrue(column.getAutoQcResult(3).isEmpty());
+    assertEquals(Flag.ASSUMED_GOOD, column.getUserQCFlag(3));
+    assertEquals(Flag.BAD, column.getUserQCFlag(4));
+    assertEquals("Broken", column.getUserQCMessage(4));
+
+    assertEquals(2, column.getDirtySensorValues().size());
+    assertFalse(column.isDirty(0));
+  }
+
+  /**
+   * Test that a list of sensor values of the wrong size cannot be copied
+   * back to a column
+   */
+  @Test
+  public void updateWrongSizeTest() {
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      makeStoredValues(10));
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      column.update(makeStoredValues(9));
+    });
+  }
+
+  /**
+   * Test that new values are marked as dirty, and that automatic QC cannot be
+   * changed for values that are not in the database
+   */
+  @Test
+  public void newValueTest() {
+    List<SensorValue> values = new ArrayList<SensorValue>();
+    values.add(new SensorValue(DATASET_ID, COLUMN_ID, START_TIME, "12.5"));
+
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      values);
+
+    assertTrue(column.isDirty(0));
+    assertEquals(12.5, column.getDoubleValue(0));
+
+    assertThrows(RecordNotFoundException.class, () -> {
+      column.clearAutomaticQC(0);
+    });
+  }
+
+  /**
+   * Test that columns sharing a string table hold each string once
+   */
+  @Test
+  public void sharedStringTableTest() {
+    SensorValueColumn.StringTable strings = new SensorValueColumn.StringTable();
+
+    SensorValueColumn column1 = new SensorValueColumn(DATASET_ID, 1, strings);
+    SensorValueColumn column2 = new SensorValueColumn(DATASET_ID, 2, strings);
+
+    column1.add(1, 0, Double.NaN, "EQU", null, Flag.ASSUMED_GOOD, "Message");
+    column2.add(2, 0, Double.NaN, "EQU", null, Flag.ASSUMED_GOOD, "Message");
+    column2.add(3, 1000, 1.0, null, null, Flag.ASSUMED_GOOD, "");
+
+    // null, "EQU" and "Message"
+    assertEquals(3, strings.size());
+    assertEquals("EQU", column2.getText(0));
+    assertEquals("", column2.getUserQCMessage(1));
+  }
+
+  /**
+   * Test that values outside the column cannot be read
+   */
+  @Test
+  public void invalidIndexTest() {
+    SensorValueColumn column = SensorValueColumn.of(DATASET_ID, COLUMN_ID,
+      makeStoredValues(10));
+
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      column.getDoubleValue(10);
+    });
+
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      column.getTime(-1);
+    });
+  }
+}
@@ -0,0 +1,101 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+
+/**
+ * Tests for the string values of {@link SensorValue}s
+ *
+ * @author Steve Jones
+ *
+ */
+public class SensorValueTest extends BaseTest {
+
+  /**
+   * The time used for all values
+   */
+  private static final LocalDateTime TIME = LocalDateTime.of(2019, 6, 1, 0,
+    0, 0);
+
+  /**
+   * Create numbers and the strings that they should be converted to
+   *
+   * @return The test arguments
+   */
+  @SuppressWarnings("unused")
+  private static Stream<Arguments> createNumbers() {
+    return Stream.of(Arguments.of(0.0005D, "0.0005"),
+      Arguments.of(-0.0005D, "-0.0005"), Arguments.of(12D, "12"),
+      Arguments.of(12.5D, "12.5"), Arguments.of(-3.25D, "-3.25"),
+      Arguments.of(0D, "0"), Arguments.of(1200D, "1200"),
+      Arguments.of(0.1D, "0.1"), Arguments.of(123456.789D, "123456.789"),
+      Arguments.of(1.0E10D, "10000000000"), Arguments.of(1.0E-7D, "0.0000001"),
+      Arguments.of(Double.POSITIVE_INFINITY, "Infinity"));
+  }
+
+  /**
+   * Test that {@link SensorValue#getValue()} converts a value created as a
+   * number to a string without an exponent or trailing zeros
+   *
+   * @param number
+   *          The number
+   * @param expected
+   *          The expected string
+   */
+  @ParameterizedTest
+  @MethodSource("createNumbers")
+  public void numericValueTest(double number, String expected) {
+    SensorValue value = new SensorValue(1L, 1L, TIME, number);
+    assertEquals(expected, value.getValue());
+  }
+
+  /**
+   * Test that {@link SensorValue#getValue()} converts a numeric value loaded
+   * from the database in the same way as a value created as a number
+   *
+   * @param number
+   *          The number
+   * @param expected
+   *          The expected string
+   */
+  @ParameterizedTest
+  @MethodSource("createNumbers")
+  public void databaseNumericValueTest(double number, String expected) {
+    SensorValue value = new SensorValue(1L, 1L, 1L, TIME, null, number,
+      (byte[]) null, Flag.ASSUMED_GOOD, null);
+    assertEquals(expected, value.getValue());
+  }
+
+  /**
+   * Test that {@link SensorValue#getValue()} returns the original string for a
+   * value created from a string
+   */
+  @Test
+  public void stringValueTest() {
+    assertEquals("12.50", new SensorValue(1L, 1L, TIME, "12.50").getValue());
+    assertEquals("5.0E-4", new SensorValue(1L, 1L, TIME, "5.0E-4").getValue());
+    assertEquals("EQU", new SensorValue(1L, 1L, TIME, "EQU").getValue());
+  }
+
+  /**
+   * Test that {@link SensorValue#getValue()} returns {@code null} for missing
+   * values
+   */
+  @Test
+  public void missingValueTest() {
+    assertNull(new SensorValue(1L, 1L, TIME, Double.NaN).getValue());
+    assertNull(new SensorValue(1L, 1L, TIME, (String) null).getValue());
+  }
+}
@@ -0,0 +1,290 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.TimeSelection;
+import uk.ac.exeter.QuinCe.data.Dataset.TimeSelection.Strategy;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Tests for the {@link TimeSelection} class.
+ *
+ * <p>
+ * The data set used in these tests has 5000 rows, ten milliseconds apart.
+ * The selection thresholds are 20 windows for range scans and 1000 times for
+ * an {@code IN} list.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class TimeSelectionTest extends BaseTest {
+
+  /**
+   * The maximum number of windows selected as ranges
+   */
+  private static final int MAX_RANGES = 20;
+
+  /**
+   * The maximum number of times selected with an {@code IN} list
+   */
+  private static final int MAX_IN_LIST = 1000;
+
+  /**
+   * The number of rows in the test data set
+   */
+  private static final int ROW_COUNT = 5000;
+
+  /**
+   * The interval between rows in milliseconds
+   */
+  private static final int ROW_INTERVAL = 10;
+
+  /**
+   * Query used to check the selected times. Every millisecond covered by the
+   * test data set is a candidate row, so range scans return times that are
+   * not row IDs.
+   */
+  private static final String CHECK_QUERY = "SELECT X FROM SYSTEM_RANGE(0, "
+    + ROW_COUNT * ROW_INTERVAL + ") WHERE " + TimeSelection.TIMES_TOKEN
+    + " ORDER BY X";
+
+  /**
+   * Get the time of a row in the test data set
+   *
+   * @param row
+   *          The row index
+   * @return The row time
+   */
+  private static LocalDateTime rowTime(int row) {
+    return DateTimeUtils.longToDate(row * ROW_INTERVAL);
+  }
+
+  /**
+   * Get all the row IDs of the test data set
+   *
+   * @return The row IDs
+   */
+  private static List<LocalDateTime> makeRowIds() {
+    List<LocalDateTime> result = new ArrayList<LocalDateTime>(ROW_COUNT);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      result.add(rowTime(i));
+    }
+    return result;
+  }
+
+  /**
+   * Get the times of windows of contiguous rows. Each window is separated
+   * from the next by one row.
+   *
+   * @param windowCount
+   *          The number of windows
+   * @param windowSize
+   *          The number of rows in each window
+   * @return The times
+   */
+  private static List<LocalDateTime> makeWindows(int windowCount,
+    int windowSize) {
+    List<LocalDateTime> result = new ArrayList<LocalDateTime>();
+    for (int window = 0; window < windowCount; window++) {
+      int start = window * (windowSize + 1);
+      for (int i = 0; i < windowSize; i++) {
+        result.add(rowTime(start + i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the times of every other row, so that no two times are contiguous
+   *
+   * @param count
+   *          The number of times
+   * @return The times
+   */
+  private static List<LocalDateTime> makeScattered(int count) {
+    List<LocalDateTime> result = new ArrayList<LocalDateTime>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(rowTime(i * 2));
+    }
+    return result;
+  }
+
+  /**
+   * Create sets of requested times and the strategy that should be chosen for
+   * each of them
+   *
+   * @return The test arguments
+   */
+  @SuppressWarnings("unused")
+  private static Stream<Arguments> createSelections() {
+    return Stream.of(Arguments.of("One window", makeWindows(1, 3000),
+      Strategy.RANGES),
+      Arguments.of("Maximum windows", makeWindows(MAX_RANGES, 5),
+        Strategy.RANGES),
+      Arguments.of("Too many windows", makeWindows(MAX_RANGES + 1, 5),
+        Strategy.IN_LIST),
+      Arguments.of("Maximum scattered times", makeScattered(MAX_IN_LIST),
+        Strategy.IN_LIST),
+      Arguments.of("Too many scattered times",
+        makeScattered(MAX_IN_LIST + 1), Strategy.TEMP_TABLE),
+      Arguments.of("Single time", makeScattered(1), Strategy.RANGES));
+  }
+
+  /**
+   * Test that {@link TimeSelection#select(List, List)} chooses the expected
+   * strategy
+   *
+   * @param description
+   *          A description of the requested times
+   * @param times
+   *          The requested times
+   * @param strategy
+   *          The expected strategy
+   */
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("createSelections")
+  public void selectStrategyTest(String description,
+    List<LocalDateTime> times, Strategy strategy) {
+    assertEquals(strategy,
+      TimeSelection.select(times, makeRowIds()).getStrategy());
+  }
+
+  /**
+   * Test that the strategy does not depend on the order of the requested
+   * times
+   */
+  @Test
+  public void selectUnsortedTest() {
+    List<LocalDateTime> times = makeWindows(MAX_RANGES, 5);
+    Collections.reverse(times);
+
+    assertEquals(Strategy.RANGES,
+      TimeSelection.select(times, makeRowIds()).getStrategy());
+  }
+
+  /**
+   * Test that each time is treated as its own window when the row IDs are not
+   * known
+   */
+  @Test
+  public void selectNoRowIdsTest() {
+    assertEquals(Strategy.RANGES,
+      TimeSelection.select(makeWindows(1, MAX_RANGES), null).getStrategy());
+    assertEquals(Strategy.IN_LIST, TimeSelection
+      .select(makeWindows(1, MAX_RANGES + 1), null).getStrategy());
+    assertEquals(Strategy.TEMP_TABLE, TimeSelection
+      .select(makeWindows(1, MAX_IN_LIST + 1), null).getStrategy());
+  }
+
+  /**
+   * Test that times that are not row IDs each start a new window
+   */
+  @Test
+  public void selectTimesNotInRowIdsTest() {
+    List<LocalDateTime> times = new ArrayList<LocalDateTime>();
+    for (int i = 0; i <= MAX_RANGES; i++) {
+      times.add(DateTimeUtils.longToDate(i * ROW_INTERVAL + 1));
+    }
+
+    assertEquals(Strategy.IN_LIST,
+      TimeSelection.select(times, makeRowIds()).getStrategy());
+  }
+
+  /**
+   * Test that {@link TimeSelection#contains(long)} only accepts requested
+   * times for a range selection
+   */
+  @Test
+  public void rangesContainsTest() {
+    TimeSelection selection = TimeSelection.select(makeWindows(2, 5),
+      makeRowIds());
+
+    assertTrue(selection.contains(0));
+    assertTrue(selection.contains(4 * ROW_INTERVAL));
+    assertFalse(selection.contains(5 * ROW_INTERVAL));
+    assertFalse(selection.contains(ROW_INTERVAL + 1));
+    assertTrue(selection.contains(6 * ROW_INTERVAL));
+  }
+
+  /**
+   * Test that running a query built with each strategy returns exactly the
+   * requested times, and that the temporary table is emptied afterwards
+   *
+   * @param description
+   *          A description of the requested times
+   * @param times
+   *          The requested times
+   * @param strategy
+   *          The expected strategy
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("createSelections")
+  public void queryTest(String description, List<LocalDateTime> times,
+    Strategy strategy) throws Exception {
+
+    TimeSelection selection = TimeSelection.select(times, makeRowIds());
+
+    TreeSet<Long> expected = new TreeSet<Long>();
+    for (LocalDateTime time : times) {
+      expected.add(DateTimeUtils.dateToLong(time));
+    }
+
+    TreeSet<Long> selected = new TreeSet<Long>();
+
+    try (Connection conn = getDataSource().getConnection()) {
+      selection.prepare(conn);
+
+      String sql = selection.makeSql(CHECK_QUERY, "X");
+      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        int nextParam = selection.setParams(stmt, 1);
+        assertEquals(stmt.getParameterMetaData().getParameterCount() + 1,
+          nextParam);
+
+        try (ResultSet records = stmt.executeQuery()) {
+          while (records.next()) {
+            long time = records.getLong(1);
+            if (selection.contains(time)) {
+              selected.add(time);
+            }
+          }
+        }
+      }
+
+      selection.finish(conn);
+
+      if (strategy == Strategy.TEMP_TABLE) {
+        try (PreparedStatement stmt = conn
+          .prepareStatement("SELECT COUNT(*) FROM load_times");
+          ResultSet records = stmt.executeQuery()) {
+          records.next();
+          assertEquals(0, records.getInt(1));
+        }
+      }
+    }
+
+    assertEquals(expected, selected);
+  }
+}
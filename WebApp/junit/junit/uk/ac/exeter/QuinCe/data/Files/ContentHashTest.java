@@ -0,0 +1,261 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Files.ContentHash;
+
+/**
+ * Tests for the {@link ContentHash} class
+ *
+ * @author Steve Jones
+ *
+ */
+public class ContentHashTest extends BaseTest {
+
+  /**
+   * The lines of an existing file
+   */
+  private static final List<String> EXISTING = Arrays.asList("Date,Value",
+    "2019-06-01 00:00:00,1.5", "2019-06-01 00:01:00,2.5");
+
+  /**
+   * Calculate the SHA-256 hash of some bytes as a hex string
+   *
+   * @param bytes
+   *          The bytes
+   * @return The hash
+   * @throws NoSuchAlgorithmException
+   *           If the SHA-256 algorithm is not available
+   */
+  private static String sha256(byte[] bytes) throws NoSuchAlgorithmException {
+    return new String(
+      Hex.encodeHex(MessageDigest.getInstance("SHA-256").digest(bytes)));
+  }
+
+  /**
+   * Get the bytes of a file's contents, with lines joined by {@code \n}
+   *
+   * @param lines
+   *          The lines
+   * @return The contents
+   */
+  private static byte[] getBytes(List<String> lines) {
+    return String.join("\n", lines).getBytes(Charset.defaultCharset());
+  }
+
+  /**
+   * Create the lines of the existing file with extra lines on the end
+   *
+   * @param extraLines
+   *          The extra lines
+   * @return The lines
+   */
+  private static List<String> append(String... extraLines) {
+    List<String> result = new ArrayList<String>(EXISTING);
+    result.addAll(Arrays.asList(extraLines));
+    return result;
+  }
+
+  /**
+   * Test that {@link ContentHash#calculate(List)} gives the hash, length and
+   * line count of the lines joined with {@code \n}
+   *
+   * @throws NoSuchAlgorithmException
+   *           If the SHA-256 algorithm is not available
+   */
+  @Test
+  public void calculateTest() throws NoSuchAlgorithmException {
+    List<String> lines = Arrays.asList("a", "", "béc", "d");
+    byte[] bytes = getBytes(lines);
+
+    ContentHash hash = ContentHash.calculate(lines);
+
+    assertEquals(sha256(bytes), hash.getHash());
+    assertEquals(bytes.length, hash.getLength());
+    assertEquals(4, hash.getLineCount());
+    assertNull(hash.getPrefixHash());
+  }
+
+  /**
+   * Test that the hash of empty contents is calculated
+   *
+   * @throws NoSuchAlgorithmException
+   *           If the SHA-256 algorithm is not available
+   */
+  @Test
+  public void calculateEmptyTest() throws NoSuchAlgorithmException {
+    ContentHash hash = ContentHash.calculate(new ArrayList<String>(), 0);
+
+    assertEquals(sha256(new byte[0]), hash.getHash());
+    assertEquals(0, hash.getLength());
+    assertEquals(0, hash.getLineCount());
+    assertEquals(hash.getHash(), hash.getPrefixHash());
+  }
+
+  /**
+   * Test that the prefix hash is correct for every prefix length, including
+   * prefixes that end at a line separator and in the middle of a multi-byte
+   * character
+   *
+   * @throws NoSuchAlgorithmException
+   *           If the SHA-256 algorithm is not available
+   */
+  @Test
+  public void prefixHashTest() throws NoSuchAlgorithmException {
+    List<String> lines = Arrays.asList("ab", "", "céd", "ef");
+    byte[] bytes = getBytes(lines);
+    String fullHash = ContentHash.calculate(lines).getHash();
+
+    for (int prefix = 0; prefix <= bytes.length; prefix++) {
+      ContentHash hash = ContentHash.calculate(lines, prefix);
+
+      assertEquals(sha256(Arrays.copyOf(bytes, prefix)), hash.getPrefixHash(),
+        "Prefix " + prefix);
+      assertEquals(prefix, hash.getPrefixLength());
+      assertEquals(fullHash, hash.getHash());
+    }
+  }
+
+  /**
+   * Test that no prefix hash is calculated if the contents are shorter than
+   * the prefix
+   */
+  @Test
+  public void prefixLongerThanContentsTest() {
+    List<String> lines = Arrays.asList("ab", "cd");
+    assertNull(ContentHash.calculate(lines, 6).getPrefixHash());
+  }
+
+  /**
+   * Test that a file with extra lines on the end is detected as an append
+   */
+  @Test
+  public void appendedLinesTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+    ContentHash hash = ContentHash.calculate(
+      append("2019-06-01 00:02:00,3.5", "2019-06-01 00:03:00,4.5"),
+      existing.getLength());
+
+    assertTrue(hash.startsWith(existing));
+    assertNotEquals(existing.getHash(), hash.getHash());
+  }
+
+  /**
+   * Test that a file with characters added to its last line is detected as
+   * an append, since the stored bytes are a prefix of the new contents
+   */
+  @Test
+  public void appendedToLastLineTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+
+    List<String> lines = new ArrayList<String>(EXISTING);
+    lines.set(lines.size() - 1, lines.get(lines.size() - 1) + "5");
+    ContentHash hash = ContentHash.calculate(lines, existing.getLength());
+
+    assertTrue(hash.startsWith(existing));
+  }
+
+  /**
+   * Test that an exact copy of a file starts with the file and has the same
+   * hash, so that it is not stored again
+   */
+  @Test
+  public void exactCopyTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+    ContentHash hash = ContentHash.calculate(new ArrayList<String>(EXISTING),
+      existing.getLength());
+
+    assertTrue(hash.startsWith(existing));
+    assertEquals(existing.getHash(), hash.getHash());
+    assertEquals(existing.getHash(), hash.getPrefixHash());
+    assertEquals(existing.getLength(), hash.getLength());
+  }
+
+  /**
+   * Test that a file of the same length as the existing file but with
+   * different contents is not detected as an append
+   */
+  @Test
+  public void equalLengthDifferentContentsTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+
+    List<String> lines = new ArrayList<String>(EXISTING);
+    lines.set(1, lines.get(1).replace("1.5", "1.6"));
+    ContentHash hash = ContentHash.calculate(lines, existing.getLength());
+
+    assertEquals(existing.getLength(), hash.getLength());
+    assertFalse(hash.startsWith(existing));
+    assertNotEquals(existing.getHash(), hash.getHash());
+  }
+
+  /**
+   * Test that a longer file whose start differs from the existing file is not
+   * detected as an append
+   */
+  @Test
+  public void changedAndAppendedTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+
+    List<String> lines = append("2019-06-01 00:02:00,3.5");
+    lines.set(0, "Date,Value2");
+    ContentHash hash = ContentHash.calculate(lines, existing.getLength());
+
+    assertFalse(hash.startsWith(existing));
+  }
+
+  /**
+   * Test that a file that is shorter than the existing file is not detected
+   * as an append
+   */
+  @Test
+  public void shorterFileTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+    ContentHash hash = ContentHash.calculate(EXISTING.subList(0, 2),
+      existing.getLength());
+
+    assertFalse(hash.startsWith(existing));
+  }
+
+  /**
+   * Test that a hash calculated without a prefix is never detected as an
+   * append
+   */
+  @Test
+  public void noPrefixTest() {
+    ContentHash existing = ContentHash.calculate(EXISTING);
+    ContentHash hash = ContentHash.calculate(append("2019-06-01 00:02:00,3.5"));
+
+    assertFalse(hash.startsWith(existing));
+  }
+
+  /**
+   * Test that a hash recorded in the database can be compared with a newly
+   * calculated hash
+   */
+  @Test
+  public void storedHashTest() {
+    ContentHash calculated = ContentHash.calculate(EXISTING);
+    ContentHash stored = new ContentHash(calculated.getHash(),
+      calculated.getLength(), calculated.getLineCount());
+
+    ContentHash hash = ContentHash.calculate(append("2019-06-01 00:02:00,3.5"),
+      stored.getLength());
+
+    assertTrue(hash.startsWith(stored));
+  }
+}
@@ -0,0 +1,458 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.DataFileMessage;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinitionException;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentCache;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentStub;
+import uk.ac.exeter.QuinCe.data.Instrument.MissingRunTypeException;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
+
+/**
+ * Tests for the validation of {@link DataFile}s.
+ *
+ * <p>
+ * Large files are validated in parallel chunks of 20,000 lines. These tests
+ * check that the messages are exactly the same as those from validating the
+ * file in one pass, as it was before the chunks were introduced.
+ * </p>
+ *
+ * <p>
+ * The tests use the file definition of the instrument in
+ * {@code WebApp/junit/resources/sql/testbase/instrument}, which has 65
+ * space-separated columns, two column header rows, the run type in column 2
+ * and the date and time in columns 3 and 4.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class DataFileTest extends BaseTest {
+
+  /**
+   * The number of lines validated in each chunk
+   */
+  private static final int CHUNK_SIZE = 20000;
+
+  /**
+   * The number of column header rows in the test file definition
+   */
+  private static final int HEADER_ROWS = 2;
+
+  /**
+   * A run type that is ignored, so its lines' column counts are not checked
+   */
+  private static final String IGNORED_RUN_TYPE = "skip";
+
+  /**
+   * A run type that is not recognised
+   */
+  private static final String UNKNOWN_RUN_TYPE = "unknown";
+
+  /**
+   * The format of the date column
+   */
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+    .ofPattern("dd/MM/yy");
+
+  /**
+   * The format of the time column
+   */
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+    .ofPattern("HH:mm:ss");
+
+  /**
+   * The time of the first line
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * Load the test file definition, with the {@link #IGNORED_RUN_TYPE} added.
+   * The date and time formats in the test base contain a literal
+   * {@code \n}, which H2 does not convert to a line break, so they are
+   * replaced first.
+   *
+   * @return The file definition
+   * @throws Exception
+   *           If the file definition cannot be loaded
+   */
+  private FileDefinition loadFileDefinition() throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      try (PreparedStatement stmt = conn.prepareStatement("UPDATE "
+        + "file_definition SET date_props = ?, time_props = ? WHERE id = 1")) {
+
+        stmt.setString(1, "formatString=dd/MM/yy");
+        stmt.setString(2, "formatString=HH:mm:ss");
+        stmt.execute();
+      }
+
+      try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO "
+        + "run_type (file_definition_id, run_name, category_code) "
+        + "VALUES (1, ?, ?)")) {
+
+        stmt.setString(1, IGNORED_RUN_TYPE);
+        stmt.setLong(2, RunTypeCategory.IGNORED_TYPE);
+        stmt.execute();
+      }
+    }
+
+    initResourceManager();
+    InstrumentCache.getInstance().clear();
+    return new InstrumentStub(1, "Benguela Stream").getFullInstrument()
+      .getFileDefinitions().get(0);
+  }
+
+  /**
+   * Create a data line
+   *
+   * @param time
+   *          The line's time
+   * @param runType
+   *          The run type
+   * @param columnCount
+   *          The number of columns
+   * @return The line
+   */
+  private static String makeLine(LocalDateTime time, String runType,
+    int columnCount) {
+
+    String[] fields = new String[columnCount];
+    Arrays.fill(fields, "0");
+    fields[2] = runType;
+    fields[3] = DATE_FORMAT.format(time);
+    fields[4] = TIME_FORMAT.format(time);
+    return String.join(" ", fields);
+  }
+
+  /**
+   * Create the contents of a file with valid lines at one second intervals
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param lineCount
+   *          The number of data lines
+   * @return The file contents
+   */
+  private static List<String> makeContents(FileDefinition fileDefinition,
+    int lineCount) {
+
+    List<String> contents = new ArrayList<String>(lineCount + HEADER_ROWS);
+    contents.add("Header 1");
+    contents.add("Header 2");
+
+    for (int i = 0; i < lineCount; i++) {
+      contents.add(makeLine(START_TIME.plusSeconds(i), IGNORED_RUN_TYPE,
+        fileDefinition.getColumnCount()));
+    }
+
+    return contents;
+  }
+
+  /**
+   * Make a data line invalid. Depending on {@code type}, the line has an
+   * invalid date, an unknown run type with the wrong number of columns, or
+   * all three problems.
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param contents
+   *          The file contents
+   * @param dataLine
+   *          The index of the data line
+   * @param type
+   *          The type of error
+   */
+  private static void breakLine(FileDefinition fileDefinition,
+    List<String> contents, int dataLine, int type) {
+
+    int line = dataLine + HEADER_ROWS;
+    LocalDateTime time = START_TIME.plusSeconds(dataLine);
+
+    switch (type % 3) {
+    case 0: {
+      contents.set(line, makeLine(time, IGNORED_RUN_TYPE,
+        fileDefinition.getColumnCount()).replaceFirst(
+          DATE_FORMAT.format(time), "99/99/19"));
+      break;
+    }
+    case 1: {
+      contents.set(line, makeLine(time, UNKNOWN_RUN_TYPE, 10));
+      break;
+    }
+    default: {
+      contents.set(line, makeLine(time, UNKNOWN_RUN_TYPE, 10)
+        .replaceFirst(DATE_FORMAT.format(time), "99/99/19"));
+    }
+    }
+  }
+
+  /**
+   * Validate a file in one pass, as {@link DataFile#validate()} did before
+   * files were split into chunks
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param contents
+   *          The file contents
+   * @return The messages
+   */
+  private static TreeSet<DataFileMessage> validateSequentially(
+    FileDefinition fileDefinition, List<String> contents) {
+
+    TreeSet<DataFileMessage> messages = new TreeSet<DataFileMessage>();
+
+    for (int lineNumber = HEADER_ROWS; lineNumber < contents
+      .size(); lineNumber++) {
+      String line = contents.get(lineNumber);
+
+      try {
+        fileDefinition.getDateTimeSpecification().getDateTime(null,
+          fileDefinition.extractFields(line));
+      } catch (DateTimeSpecificationException e) {
+        addMessage(messages, lineNumber, e.getMessage());
+      }
+
+      boolean checkColumnCount = true;
+
+      try {
+        RunTypeCategory runType = fileDefinition.getRunTypeCategory(line);
+        if (runType.equals(RunTypeCategory.IGNORED)) {
+          checkColumnCount = false;
+        }
+      } catch (FileDefinitionException e) {
+        addMessage(messages, lineNumber, e.getMessage());
+      }
+
+      if (checkColumnCount && fileDefinition.extractFields(line)
+        .size() != fileDefinition.getColumnCount()) {
+        addMessage(messages, lineNumber, "Incorrect number of columns");
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * Add a message in the same way as {@link DataFile}, which keeps at most 24
+   * messages followed by a "Too many messages..." message
+   *
+   * @param messages
+   *          The messages
+   * @param lineNumber
+   *          The line number
+   * @param message
+   *          The message text
+   */
+  private static void addMessage(TreeSet<DataFileMessage> messages,
+    int lineNumber, String message) {
+
+    if (messages.size() == 24) {
+      messages.add(new DataFileMessage("Too many messages..."));
+    } else if (messages.size() < 24) {
+      messages.add(new DataFileMessage(lineNumber, message));
+    }
+  }
+
+  /**
+   * Check that a file gives the same messages when it is validated in chunks
+   * as it does when it is validated in one pass
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param contents
+   *          The file contents
+   * @return The messages
+   * @throws Exception
+   *           If the file cannot be created
+   */
+  private static List<String> assertSameMessages(
+    FileDefinition fileDefinition, List<String> contents) throws Exception {
+
+    List<String> expected = new ArrayList<String>();
+    for (DataFileMessage message : validateSequentially(fileDefinition,
+      contents)) {
+      expected.add(message.toString());
+    }
+
+    DataFile file = new DataFile(null, fileDefinition, "test.txt", contents);
+
+    List<String> actual = new ArrayList<String>();
+    for (DataFileMessage message : file.getMessages()) {
+      actual.add(message.toString());
+    }
+
+    assertEquals(expected, actual);
+    return actual;
+  }
+
+  /**
+   * Test that a valid file spanning several chunks has no messages
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void validFileTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+    List<String> contents = makeContents(fileDefinition, CHUNK_SIZE * 2 + 10);
+
+    assertEquals(0, assertSameMessages(fileDefinition, contents).size());
+  }
+
+  /**
+   * Test that repeated and backward times are accepted, as they were when
+   * the file was validated in one pass. Extraction removes the repeated
+   * times.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void repeatedTimesTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+    List<String> contents = makeContents(fileDefinition, CHUNK_SIZE + 10);
+
+    // Repeat the last time of the first chunk at the start of the second,
+    // and go backwards within the first chunk
+    contents.set(CHUNK_SIZE + HEADER_ROWS, contents.get(CHUNK_SIZE + 1));
+    contents.set(100, contents.get(50));
+
+    assertEquals(0, assertSameMessages(fileDefinition, contents).size());
+  }
+
+  /**
+   * Test that errors on either side of a chunk boundary give the same
+   * messages in the same order as validating the file in one pass
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void chunkBoundaryTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+    List<String> contents = makeContents(fileDefinition, CHUNK_SIZE * 3);
+
+    int[] brokenLines = { 0, 5, CHUNK_SIZE - 2, CHUNK_SIZE - 1, CHUNK_SIZE,
+      CHUNK_SIZE + 1, CHUNK_SIZE * 2 - 1, CHUNK_SIZE * 2 };
+
+    for (int i = 0; i < brokenLines.length; i++) {
+      breakLine(fileDefinition, contents, brokenLines[i], i);
+    }
+
+    List<String> messages = assertSameMessages(fileDefinition, contents);
+    assertTrue(messages.size() > brokenLines.length);
+    assertTrue(messages.size() < 25);
+  }
+
+  /**
+   * Test that the messages are limited in the same way as validating the
+   * file in one pass when the limit is reached in a later chunk, exactly at a
+   * chunk boundary, and in the first chunk
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void messageLimitTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+
+    // Limit reached in the second chunk
+    List<String> contents = makeContents(fileDefinition, CHUNK_SIZE * 2 + 50);
+    for (int i = 0; i < 8; i++) {
+      breakLine(fileDefinition, contents, CHUNK_SIZE - 8 + i, i);
+      breakLine(fileDefinition, contents, CHUNK_SIZE + i, i);
+      breakLine(fileDefinition, contents, CHUNK_SIZE * 2 + i, i);
+    }
+
+    List<String> messages = assertSameMessages(fileDefinition, contents);
+    assertEquals(25, messages.size());
+    assertTrue(messages.contains("Too many messages..."));
+
+    // Exactly 24 messages in the first chunk, so the limit message is
+    // triggered by the first message of the second chunk
+    contents = makeContents(fileDefinition, CHUNK_SIZE * 2);
+    for (int i = 0; i < 12; i++) {
+      breakLine(fileDefinition, contents, CHUNK_SIZE - 12 + i, 1);
+    }
+    breakLine(fileDefinition, contents, CHUNK_SIZE, 0);
+    breakLine(fileDefinition, contents, CHUNK_SIZE + 1, 0);
+
+    messages = assertSameMessages(fileDefinition, contents);
+    assertEquals(25, messages.size());
+    assertTrue(messages.contains("Too many messages..."));
+
+    // Limit reached in the first chunk, with errors in every chunk
+    contents = makeContents(fileDefinition, CHUNK_SIZE * 3);
+    for (int i = 0; i < CHUNK_SIZE * 3; i += 500) {
+      breakLine(fileDefinition, contents, i, i);
+    }
+
+    messages = assertSameMessages(fileDefinition, contents);
+    assertEquals(25, messages.size());
+  }
+
+  /**
+   * Test that unknown run types in every chunk are all recorded as missing
+   * run types, even after the message limit is reached
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void missingRunTypesTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+    List<String> contents = makeContents(fileDefinition, CHUNK_SIZE * 2 + 10);
+
+    for (int i = 0; i < 30; i++) {
+      breakLine(fileDefinition, contents, i, 1);
+    }
+
+    int lastLine = contents.size() - 1;
+    contents.set(lastLine, contents.get(lastLine).replace(IGNORED_RUN_TYPE,
+      "other"));
+
+    DataFile file = new DataFile(null, fileDefinition, "test.txt", contents);
+
+    List<String> runTypes = new ArrayList<String>();
+    for (String line : Arrays.asList(contents.get(HEADER_ROWS),
+      contents.get(lastLine))) {
+      try {
+        fileDefinition.getRunTypeCategory(line);
+      } catch (MissingRunTypeException e) {
+        runTypes.add(e.getRunType().getRunName());
+      }
+    }
+
+    assertEquals(Arrays.asList(UNKNOWN_RUN_TYPE, "other"), runTypes);
+    assertEquals(2, file.getMissingRunTypes().size());
+  }
+}
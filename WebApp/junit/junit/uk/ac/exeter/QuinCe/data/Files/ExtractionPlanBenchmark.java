@@ -0,0 +1,410 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.ExtractionPlan;
+import uk.ac.exeter.QuinCe.data.Files.ParsedDataFile;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentCache;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentStub;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.Calibration;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.CalibrationSet;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignments;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * Compares the per-line cost of extracting sensor values using an
+ * {@link ExtractionPlan} with the loop that was used before the plans were
+ * introduced.
+ *
+ * <p>
+ * The instrument has 40 sensor columns assigned to the file definition being
+ * extracted, and 20 more assigned to two other file definitions. Ten of the
+ * extracted columns have sensor calibrations. The old loop scans every sensor
+ * assignment for each line, compares its file description, finds the
+ * column's value by its ID and searches for the column's calibration. The
+ * plan loop walks the plan's entries. Both loops create the
+ * {@link SensorValue}s and apply the calibrations, as the extraction job
+ * does. The file is parsed once before the loops are timed.
+ * </p>
+ *
+ * <p>
+ * This is a benchmark, not a test. It is tagged {@code benchmark}, is excluded
+ * from the normal {@code test} task, and is run with
+ * {@code ./gradlew benchmark}. The results are printed to the console.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see ExtractionPlanTest
+ */
+@Tag("benchmark")
+public class ExtractionPlanBenchmark extends BaseTest {
+
+  /**
+   * The number of data lines in the file
+   */
+  private static final int LINE_COUNT = 20000;
+
+  /**
+   * The number of sensor types in the instrument
+   */
+  private static final int SENSOR_TYPE_COUNT = 30;
+
+  /**
+   * The first file column used by the sensor assignments
+   */
+  private static final int FIRST_SENSOR_COLUMN = 10;
+
+  /**
+   * The number of column header rows in the test file definition
+   */
+  private static final int HEADER_ROWS = 2;
+
+  /**
+   * The number of untimed runs of each loop before the timed runs
+   */
+  private static final int WARMUP_RUNS = 10;
+
+  /**
+   * The number of timed runs of each loop
+   */
+  private static final int TIMED_RUNS = 10;
+
+  /**
+   * The format of the date column
+   */
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+    .ofPattern("dd/MM/yy");
+
+  /**
+   * The format of the time column
+   */
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+    .ofPattern("HH:mm:ss");
+
+  /**
+   * The time of the first line
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * The data set ID given to the sensor values
+   */
+  private static final long DATASET_ID = 1;
+
+  /**
+   * Load the test file definition. The date and time formats in the test base
+   * contain a literal {@code \n}, which H2 does not convert to a line break,
+   * so they are replaced first.
+   *
+   * @return The file definition
+   * @throws Exception
+   *           If the file definition cannot be loaded
+   */
+  private FileDefinition loadFileDefinition() throws Exception {
+    try (Connection conn = getDataSource().getConnection();
+      PreparedStatement stmt = conn.prepareStatement("UPDATE "
+        + "file_definition SET date_props = ?, time_props = ? WHERE id = 1")) {
+
+      stmt.setString(1, "formatString=dd/MM/yy");
+      stmt.setString(2, "formatString=HH:mm:ss");
+      stmt.execute();
+    }
+
+    initResourceManager();
+    InstrumentCache.getInstance().clear();
+    return new InstrumentStub(1, "Benguela Stream").getFullInstrument()
+      .getFileDefinitions().get(0);
+  }
+
+  /**
+   * Create the sensor assignments. The first ten sensor types have two
+   * columns in the extracted file and one in each of the other files. The
+   * remaining types have one column in the extracted file.
+   *
+   * @param fileDefinition
+   *          The file definition being extracted
+   * @param calibrationTargets
+   *          The map to which the calibration targets are added
+   * @return The sensor assignments
+   * @throws Exception
+   *           If the assignments cannot be created
+   */
+  private SensorAssignments makeAssignments(FileDefinition fileDefinition,
+    Map<String, String> calibrationTargets) throws Exception {
+
+    SensorAssignments result = new SensorAssignments(getDataSource(),
+      Arrays.asList(1L));
+    result.clear();
+
+    String[] files = { fileDefinition.getFileDescription(), "Met", "Aux" };
+    long id = 1;
+    int extractedColumn = FIRST_SENSOR_COLUMN;
+
+    for (int type = 0; type < SENSOR_TYPE_COUNT; type++) {
+      SensorType sensorType = new SensorType(1000 + type, "Type " + type,
+        "Group", null, null, null, false, false, type, null, "C" + type,
+        "Heading " + type);
+
+      List<SensorAssignment> assignments = new ArrayList<SensorAssignment>();
+
+      for (int file = 0; file < files.length; file++) {
+        int count = file == 0 ? (type < 10 ? 2 : 1) : (type < 10 ? 1 : 0);
+
+        for (int i = 0; i < count; i++) {
+          int column = file == 0 ? extractedColumn++ : (int) id;
+          assignments.add(new SensorAssignment(id, files[file], column,
+            "Sensor " + id, true, false, "NaN"));
+
+          if (file == 0 && id % 4 == 0) {
+            calibrationTargets.put(String.valueOf(id), "Sensor " + id);
+          }
+
+          id++;
+        }
+      }
+
+      result.put(sensorType, assignments);
+    }
+
+    return result;
+  }
+
+  /**
+   * Create the contents of a file with lines at one second intervals. Each
+   * sensor column has a different value.
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @return The file contents
+   */
+  private static List<String> makeContents(FileDefinition fileDefinition) {
+
+    List<String> contents = new ArrayList<String>(LINE_COUNT + HEADER_ROWS);
+    contents.add("Header 1");
+    contents.add("Header 2");
+
+    String[] fields = new String[fileDefinition.getColumnCount()];
+
+    for (int line = 0; line < LINE_COUNT; line++) {
+      LocalDateTime time = START_TIME.plusSeconds(line);
+
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = String.valueOf(i + line % 100 * 0.25);
+      }
+
+      fields[2] = "skip";
+      fields[3] = DATE_FORMAT.format(time);
+      fields[4] = TIME_FORMAT.format(time);
+      contents.add(String.join(" ", fields));
+    }
+
+    return contents;
+  }
+
+  /**
+   * Extract the values from a parsed file using the loop that was used before
+   * extraction plans were introduced
+   *
+   * @param parsedFile
+   *          The parsed file
+   * @param fileDefinition
+   *          The file's definition
+   * @param assignments
+   *          The sensor assignments
+   * @param calibrations
+   *          The sensor calibrations
+   * @return The number of values extracted
+   */
+  private static int runOld(ParsedDataFile parsedFile,
+    FileDefinition fileDefinition, SensorAssignments assignments,
+    CalibrationSet calibrations) {
+
+    int result = 0;
+
+    for (int row = 0; row < parsedFile.getRowCount(); row++) {
+      LocalDateTime time = parsedFile.getTime(row);
+      List<SensorValue> values = new ArrayList<SensorValue>();
+
+      if (null != fileDefinition.getLongitudeSpecification()) {
+        values.add(new SensorValue(DATASET_ID,
+          FileDefinition.LONGITUDE_COLUMN_ID, time,
+          parsedFile.getValue(FileDefinition.LONGITUDE_COLUMN_ID, row)));
+      }
+
+      if (null != fileDefinition.getLatitudeSpecification()) {
+        values.add(new SensorValue(DATASET_ID,
+          FileDefinition.LATITUDE_COLUMN_ID, time,
+          parsedFile.getValue(FileDefinition.LATITUDE_COLUMN_ID, row)));
+      }
+
+      for (Map.Entry<SensorType, List<SensorAssignment>> entry : assignments
+        .entrySet()) {
+
+        for (SensorAssignment assignment : entry.getValue()) {
+          if (assignment.getDataFile()
+            .equals(fileDefinition.getFileDescription())) {
+
+            SensorValue value = new SensorValue(DATASET_ID,
+              assignment.getDatabaseId(), time,
+              parsedFile.getValue(assignment.getDatabaseId(), row));
+
+            Calibration sensorCalibration = calibrations.getTargetCalibration(
+              String.valueOf(assignment.getDatabaseId()));
+
+            if (null != sensorCalibration) {
+              value.calibrateValue(sensorCalibration);
+            }
+
+            values.add(value);
+          }
+        }
+      }
+
+      result += values.size();
+    }
+
+    return result;
+  }
+
+  /**
+   * Extract the values from a parsed file using an extraction plan, as
+   * {@code ExtractDataSetJob} does
+   *
+   * @param parsedFile
+   *          The parsed file
+   * @param plan
+   *          The extraction plan
+   * @return The number of values extracted
+   */
+  private static int runPlan(ParsedDataFile parsedFile, ExtractionPlan plan) {
+
+    int result = 0;
+
+    for (int row = 0; row < parsedFile.getRowCount(); row++) {
+      LocalDateTime time = parsedFile.getTime(row);
+      List<SensorValue> values = new ArrayList<SensorValue>();
+
+      for (int i = 0; i < plan.getEntryCount(); i++) {
+        ExtractionPlan.Entry entry = plan.getEntry(i);
+
+        SensorValue value = new SensorValue(DATASET_ID, entry.getColumnId(),
+          time, parsedFile.getValueAt(entry.getValueIndex(), row));
+
+        if (null != entry.getCalibration()) {
+          value.calibrateValue(entry.getCalibration());
+        }
+
+        values.add(value);
+      }
+
+      result += values.size();
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the median of a set of times
+   *
+   * @param times
+   *          The times
+   * @return The median
+   */
+  private static double median(double[] times) {
+    double[] sorted = Arrays.copyOf(times, times.length);
+    Arrays.sort(sorted);
+    return sorted.length % 2 == 1 ? sorted[sorted.length / 2]
+      : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+  }
+
+  /**
+   * Time the old and plan-based extraction loops. The runs of the two loops
+   * alternate. Both must extract the same number of values.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void extractionBenchmark() throws Exception {
+
+    FileDefinition fileDefinition = loadFileDefinition();
+
+    Map<String, String> calibrationTargets = new HashMap<String, String>();
+    SensorAssignments assignments = makeAssignments(fileDefinition,
+      calibrationTargets);
+
+    CalibrationSet calibrations = new CalibrationSet(1, "SENSOR_CALIBRATION",
+      calibrationTargets) {
+      private static final long serialVersionUID = 1L;
+    };
+
+    ExtractionPlan plan = ExtractionPlan.compile(fileDefinition, assignments,
+      calibrations);
+
+    File fileStore = Files.createTempDirectory("benchmark").toFile();
+
+    try {
+      DataFile file = new DataFile(fileStore.getAbsolutePath(),
+        fileDefinition, "benchmark.txt", makeContents(fileDefinition));
+      ParsedDataFile parsedFile = ParsedDataFile.getParsedFile(file, plan);
+      assertEquals(LINE_COUNT, parsedFile.getRowCount());
+
+      int expectedCount = LINE_COUNT * plan.getEntryCount();
+
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+        assertEquals(expectedCount,
+          runOld(parsedFile, fileDefinition, assignments, calibrations));
+        assertEquals(expectedCount, runPlan(parsedFile, plan));
+      }
+
+      double[] oldTimes = new double[TIMED_RUNS];
+      double[] planTimes = new double[TIMED_RUNS];
+
+      for (int i = 0; i < TIMED_RUNS; i++) {
+        long start = System.nanoTime();
+        runOld(parsedFile, fileDefinition, assignments, calibrations);
+        oldTimes[i] = (System.nanoTime() - start) / 1000D / LINE_COUNT;
+
+        start = System.nanoTime();
+        runPlan(parsedFile, plan);
+        planTimes[i] = (System.nanoTime() - start) / 1000D / LINE_COUNT;
+      }
+
+      System.out.println(String.format(
+        "Extracting %d lines of %d columns, median of %d runs:", LINE_COUNT,
+        plan.getEntryCount(), TIMED_RUNS));
+      System.out.println(String.format("  assignment scan: %6.2f us/line",
+        median(oldTimes)));
+      System.out.println(String.format("  extraction plan: %6.2f us/line",
+        median(planTimes)));
+    } finally {
+      Files.walk(fileStore.toPath()).sorted(Comparator.reverseOrder())
+        .map(java.nio.file.Path::toFile).forEach(File::delete);
+    }
+  }
+}
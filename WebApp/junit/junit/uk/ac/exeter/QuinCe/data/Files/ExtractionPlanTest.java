@@ -0,0 +1,146 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Files.ExtractionPlan;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentStub;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * Tests for the {@link ExtractionPlan} class.
+ *
+ * <p>
+ * These tests use the instrument defined in the test base
+ * {@code WebApp/junit/resources/sql/testbase/instrument}, which has one file
+ * definition with longitude and latitude, five sensor columns and a run type
+ * column.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class ExtractionPlanTest extends BaseTest {
+
+  /**
+   * Load the test base instrument
+   *
+   * @return The instrument
+   * @throws Exception
+   *           If the instrument cannot be loaded
+   */
+  private Instrument loadInstrument() throws Exception {
+    initResourceManager();
+    return new InstrumentStub(1, "Benguela Stream").getFullInstrument();
+  }
+
+  /**
+   * Test that the plan has one entry for each of the file definition's sensor
+   * assignments, holding the assignment's details. Sensor values must have
+   * consecutive value indexes in assignment order, and run types must have no
+   * value index.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void compileTest() throws Exception {
+    Instrument instrument = loadInstrument();
+    FileDefinition fileDefinition = instrument.getFileDefinitions().get(0);
+
+    ExtractionPlan plan = ExtractionPlan.compile(fileDefinition,
+      instrument.getSensorAssignments(), null);
+
+    assertSame(fileDefinition, plan.getFileDefinition());
+
+    Map<Long, ExtractionPlan.Entry> entries = new HashMap<Long, ExtractionPlan.Entry>();
+    int nextValueIndex = 0;
+    int runTypeCount = 0;
+
+    for (int i = 0; i < plan.getEntryCount(); i++) {
+      ExtractionPlan.Entry entry = plan.getEntry(i);
+      entries.put(entry.getColumnId(), entry);
+
+      if (entry.isRunType()) {
+        runTypeCount++;
+        assertEquals(ExtractionPlan.NO_VALUE_INDEX, entry.getValueIndex());
+      } else {
+        assertEquals(nextValueIndex, entry.getValueIndex());
+        nextValueIndex++;
+      }
+
+      assertNull(entry.getCalibration());
+    }
+
+    assertEquals(1, runTypeCount);
+
+    int assignmentCount = 0;
+    for (Map.Entry<SensorType, List<SensorAssignment>> sensorEntry : instrument
+      .getSensorAssignments().entrySet()) {
+
+      boolean runType = sensorEntry.getKey()
+        .equals(SensorType.RUN_TYPE_SENSOR_TYPE);
+
+      for (SensorAssignment assignment : sensorEntry.getValue()) {
+        assignmentCount++;
+
+        ExtractionPlan.Entry entry = entries.get(assignment.getDatabaseId());
+        assertEquals(assignment.getColumn(), entry.getFileColumn());
+        assertEquals(assignment.getMissingValue(), entry.getMissingValue());
+        assertEquals(runType, entry.isRunType());
+      }
+    }
+
+    assertEquals(6, assignmentCount);
+    assertEquals(assignmentCount + 2, plan.getEntryCount());
+  }
+
+  /**
+   * Test that the longitude and latitude are extracted first, followed by the
+   * sensor assignments in order
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void entryOrderTest() throws Exception {
+    Instrument instrument = loadInstrument();
+    FileDefinition fileDefinition = instrument.getFileDefinitions().get(0);
+
+    ExtractionPlan plan = ExtractionPlan.compile(fileDefinition,
+      instrument.getSensorAssignments(), null);
+
+    assertEquals(FileDefinition.LONGITUDE_COLUMN_ID,
+      plan.getEntry(0).getColumnId());
+    assertEquals(FileDefinition.LATITUDE_COLUMN_ID,
+      plan.getEntry(1).getColumnId());
+
+    int entry = 2;
+    for (List<SensorAssignment> assignments : instrument.getSensorAssignments()
+      .values()) {
+      for (SensorAssignment assignment : assignments) {
+        assertEquals(assignment.getDatabaseId(),
+          plan.getEntry(entry).getColumnId());
+        entry++;
+      }
+    }
+
+    assertEquals(plan.getEntryCount(), entry);
+  }
+}
@@ -0,0 +1,429 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Files.ContentHash;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
+import uk.ac.exeter.QuinCe.data.Files.FileStore;
+import uk.ac.exeter.QuinCe.data.Files.SpooledUpload;
+import uk.ac.exeter.QuinCe.data.Files.UploadTooLargeException;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentCache;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentStub;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
+
+/**
+ * Tests for {@link SpooledUpload}s, and for storing them in the
+ * {@link FileStore}.
+ *
+ * <p>
+ * The storage tests use the file definition of the instrument in
+ * {@code WebApp/junit/resources/sql/testbase/instrument}, which has 65
+ * space-separated columns, two column header rows, and the date and time in
+ * columns 3 and 4.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class SpooledUploadTest extends BaseTest {
+
+  /**
+   * The maximum upload size used by the tests
+   */
+  private static final long MAX_SIZE = 100;
+
+  /**
+   * The format of the date column
+   */
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+    .ofPattern("dd/MM/yy");
+
+  /**
+   * The format of the time column
+   */
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+    .ofPattern("HH:mm:ss");
+
+  /**
+   * The time of the first data line
+   */
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * The file store used by the tests
+   */
+  private File fileStore;
+
+  /**
+   * Create an empty file store
+   *
+   * @throws IOException
+   *           If the file store cannot be created
+   */
+  @BeforeEach
+  public void createFileStore() throws IOException {
+    fileStore = Files.createTempDirectory("filestore").toFile();
+  }
+
+  /**
+   * Remove the file store and everything in it
+   *
+   * @throws IOException
+   *           If the file store cannot be removed
+   */
+  @AfterEach
+  public void deleteFileStore() throws IOException {
+    Files.walk(fileStore.toPath()).sorted(Comparator.reverseOrder())
+      .map(java.nio.file.Path::toFile).forEach(File::delete);
+  }
+
+  /**
+   * Spool a string as an upload
+   *
+   * @param upload
+   *          The upload contents
+   * @param maxSize
+   *          The maximum upload size
+   * @return The spooled upload
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  private SpooledUpload spool(String upload, long maxSize)
+    throws IOException {
+
+    InputStream in = new ByteArrayInputStream(
+      upload.getBytes(StandardCharsets.UTF_8));
+    return SpooledUpload.spool(fileStore.getAbsolutePath(), in, maxSize);
+  }
+
+  /**
+   * Get the files in the spool directory
+   *
+   * @return The spooled files
+   */
+  private String[] getSpooledFiles() {
+    String[] result = new File(fileStore, "uploads").list();
+    return null == result ? new String[0] : result;
+  }
+
+  /**
+   * Test that an upload larger than the maximum size is rejected, and that
+   * its partially spooled file is removed
+   */
+  @Test
+  public void tooLargeTest() {
+    char[] upload = new char[(int) MAX_SIZE + 1];
+    Arrays.fill(upload, 'a');
+
+    assertThrows(UploadTooLargeException.class,
+      () -> spool(new String(upload), MAX_SIZE));
+    assertEquals(0, getSpooledFiles().length);
+  }
+
+  /**
+   * Test that an upload that is exactly the maximum size is accepted
+   *
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  @Test
+  public void maxSizeTest() throws IOException {
+    char[] upload = new char[(int) MAX_SIZE];
+    Arrays.fill(upload, 'a');
+
+    SpooledUpload spooled = spool(new String(upload), MAX_SIZE);
+    assertEquals(1, spooled.getLines().size());
+    assertEquals(MAX_SIZE, spooled.getContentHash().getLength());
+    spooled.delete();
+  }
+
+  /**
+   * Test that the upload's spooled file is removed by
+   * {@link SpooledUpload#delete()}
+   *
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  @Test
+  public void deleteTest() throws IOException {
+    SpooledUpload spooled = spool("a\nb", MAX_SIZE);
+    assertEquals(1, getSpooledFiles().length);
+
+    spooled.delete();
+    assertEquals(0, getSpooledFiles().length);
+  }
+
+  /**
+   * Test that {@code \n}, {@code \r\n} and {@code \r} are all treated as line
+   * terminators, and that runs of terminators are treated as a single line
+   * break
+   *
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  @Test
+  public void lineTerminatorsTest() throws IOException {
+    SpooledUpload spooled = spool("a\r\nb\rc\nd\r\n\r\n\n\re\n", MAX_SIZE);
+    assertEquals(Arrays.asList("a", "b", "c", "d", "e"), spooled.getLines());
+    spooled.delete();
+  }
+
+  /**
+   * Test that lines of whitespace are kept within the file, but removed from
+   * the end of the file
+   *
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  @Test
+  public void blankLinesTest() throws IOException {
+    SpooledUpload spooled = spool("a\n  \nb\n \t\n  \n", MAX_SIZE);
+    assertTrue(spooled.hasContent());
+    assertEquals(Arrays.asList("a", "  ", "b"), spooled.getLines());
+    assertEquals(3, spooled.getContentHash().getLineCount());
+    spooled.delete();
+  }
+
+  /**
+   * Test that an upload containing only whitespace has no content
+   *
+   * @throws IOException
+   *           If the upload cannot be spooled
+   */
+  @Test
+  public void emptyUploadTest() throws IOException {
+    SpooledUpload spooled = spool(" \n\t\r\n  ", MAX_SIZE);
+    assertFalse(spooled.hasContent());
+    assertEquals(0, spooled.getLines().size());
+    spooled.delete();
+  }
+
+  /**
+   * Test that the hash calculated while an upload is spooled is the same as
+   * the hash that a {@link DataFile} calculates from the upload's lines
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void contentHashTest() throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+
+    String[] uploads = { "a", "a\nb\nc", "a\r\nb\r\n", "\n  a\n\n b \n\t\n",
+      "x\n  \ny\r\rz", "café\n°C\n" };
+
+    for (String upload : uploads) {
+      SpooledUpload spooled = spool(upload, MAX_SIZE);
+
+      DataFile dataFile = new DataFile(fileStore.getAbsolutePath(),
+        fileDefinition, "test.txt", new ArrayList<String>(spooled.getLines()));
+
+      ContentHash expected = dataFile.getContentHash();
+      ContentHash actual = spooled.getContentHash();
+
+      assertEquals(expected.getHash(), actual.getHash(), upload);
+      assertEquals(expected.getLength(), actual.getLength(), upload);
+      assertEquals(expected.getLineCount(), actual.getLineCount(), upload);
+
+      spooled.delete();
+    }
+  }
+
+  /**
+   * Load the test file definition. The date and time formats in the test base
+   * contain a literal {@code \n}, which H2 does not convert to a line break,
+   * so they are replaced first.
+   *
+   * @return The file definition
+   * @throws Exception
+   *           If the file definition cannot be loaded
+   */
+  private FileDefinition loadFileDefinition() throws Exception {
+    try (Connection conn = getDataSource().getConnection();
+      PreparedStatement stmt = conn.prepareStatement("UPDATE "
+        + "file_definition SET date_props = ?, time_props = ? WHERE id = 1")) {
+
+      stmt.setString(1, "formatString=dd/MM/yy");
+      stmt.setString(2, "formatString=HH:mm:ss");
+      stmt.execute();
+    }
+
+    initResourceManager();
+    InstrumentCache.getInstance().clear();
+    return new InstrumentStub(1, "Benguela Stream").getFullInstrument()
+      .getFileDefinitions().get(0);
+  }
+
+  /**
+   * Create an upload with a set number of data lines at one second intervals
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param lineCount
+   *          The number of data lines
+   * @return The upload contents
+   */
+  private static String makeUpload(FileDefinition fileDefinition,
+    int lineCount) {
+
+    List<String> lines = new ArrayList<String>(lineCount + 2);
+    lines.add("Header 1");
+    lines.add("Header 2");
+
+    String[] fields = new String[fileDefinition.getColumnCount()];
+    Arrays.fill(fields, "0");
+
+    for (int i = 0; i < lineCount; i++) {
+      LocalDateTime time = START_TIME.plusSeconds(i);
+      fields[3] = DATE_FORMAT.format(time);
+      fields[4] = TIME_FORMAT.format(time);
+      lines.add(String.join(" ", fields));
+    }
+
+    // Uploads use Windows line endings, which are not stored
+    return String.join("\r\n", lines) + "\r\n";
+  }
+
+  /**
+   * Get the bytes that should be in the file store for an upload
+   *
+   * @param spooled
+   *          The spooled upload
+   * @return The expected bytes
+   * @throws IOException
+   *           If the upload's lines cannot be read
+   */
+  private static byte[] getExpectedBytes(SpooledUpload spooled)
+    throws IOException {
+    return String.join("\n", spooled.getLines())
+      .getBytes(Charset.defaultCharset());
+  }
+
+  /**
+   * Retrieve a stored file from the database
+   *
+   * @param appConfig
+   *          The application configuration
+   * @param id
+   *          The file's database ID
+   * @return The file
+   * @throws Exception
+   *           If the file cannot be retrieved
+   */
+  private DataFile getStoredFile(Properties appConfig, long id)
+    throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      return DataFileDB.getDataFiles(conn, appConfig, Arrays.asList(id))
+        .get(0);
+    }
+  }
+
+  /**
+   * Spool an upload, store it as a new file, and check the stored contents
+   *
+   * @param compress
+   *          Indicates whether the compressed file store is used
+   * @throws Exception
+   *           If any errors occur
+   */
+  private void storeTest(boolean compress) throws Exception {
+    FileDefinition fileDefinition = loadFileDefinition();
+    Properties config = ResourceManager.getInstance().getConfig();
+    config.setProperty(FileStore.COMPRESS_PROPERTY, String.valueOf(compress));
+
+    try {
+      Properties appConfig = new Properties();
+      appConfig.setProperty("filestore", fileStore.getAbsolutePath());
+
+      SpooledUpload spooled = spool(makeUpload(fileDefinition, 100), 100000);
+      DataFile dataFile = spooled.makeDataFile(fileStore.getAbsolutePath(),
+        fileDefinition, "test.txt");
+
+      DataFileDB.storeFile(getDataSource(), appConfig, dataFile, -1);
+
+      // The spooled file is left for the caller to delete
+      assertEquals(1, getSpooledFiles().length);
+      assertArrayEquals(getExpectedBytes(spooled),
+        getStoredFile(appConfig, dataFile.getDatabaseId()).getBytes());
+
+      // Store a longer version of the file, so the new data is appended
+      SpooledUpload longer = spool(makeUpload(fileDefinition, 150), 100000);
+      DataFile longerFile = longer.makeDataFile(fileStore.getAbsolutePath(),
+        fileDefinition, "test.txt");
+
+      DataFileDB.storeFile(getDataSource(), appConfig, longerFile,
+        dataFile.getDatabaseId());
+
+      DataFile storedFile = getStoredFile(appConfig, dataFile.getDatabaseId());
+      assertArrayEquals(getExpectedBytes(longer), storedFile.getBytes());
+      assertEquals(longer.getContentHash().getHash(),
+        storedFile.getContentHash().getHash());
+
+      spooled.delete();
+      longer.delete();
+      assertEquals(0, getSpooledFiles().length);
+    } finally {
+      config.remove(FileStore.COMPRESS_PROPERTY);
+    }
+  }
+
+  /**
+   * Test that a spooled upload is streamed into the uncompressed file store
+   * with the same contents as its lines
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void storePlainTest() throws Exception {
+    storeTest(false);
+  }
+
+  /**
+   * Test that a spooled upload is streamed into the compressed file store
+   * with the same contents as its lines
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument" })
+  @Test
+  public void storeCompressedTest() throws Exception {
+    storeTest(true);
+  }
+}
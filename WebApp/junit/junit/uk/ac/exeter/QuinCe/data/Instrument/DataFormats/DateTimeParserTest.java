@@ -0,0 +1,250 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeParser;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+
+/**
+ * Tests for the {@link DateTimeParser}s created by
+ * {@link DateTimeSpecification#getParser()}.
+ *
+ * <p>
+ * Each parser must give exactly the same date/time, or exactly the same error
+ * message, as
+ * {@link DateTimeSpecification#getDateTime(LocalDateTime, java.util.List)}.
+ * The lines for each specification are parsed in order by a single parser so
+ * that its cached date is also exercised.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class DateTimeParserTest extends BaseTest {
+
+  /**
+   * The header date used for Hours From Start specifications
+   */
+  private static final LocalDateTime HEADER_DATE = LocalDateTime.of(2019, 6,
+    1, 0, 0, 0);
+
+  /**
+   * Create a specification with assignments to consecutive columns starting
+   * at zero. Formats are given for the assignments that need them, and are
+   * {@code null} otherwise.
+   *
+   * @param assignments
+   *          Alternating assignment names and formats
+   * @return The specification
+   * @throws DateTimeSpecificationException
+   *           If the assignments cannot be made
+   */
+  private static DateTimeSpecification makeSpec(String... assignments)
+    throws DateTimeSpecificationException {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    for (int i = 0; i < assignments.length; i += 2) {
+      spec.assign(assignments[i], i / 2, assignments[i + 1]);
+    }
+    return spec;
+  }
+
+  /**
+   * Create the specifications and the lines to be parsed with each of them
+   *
+   * @return The test arguments
+   * @throws DateTimeSpecificationException
+   *           If any specification cannot be created
+   */
+  @SuppressWarnings("unused")
+  private static Stream<Arguments> createSpecifications()
+    throws DateTimeSpecificationException {
+
+    DateTimeSpecification hoursFromStart = new DateTimeSpecification(true);
+    hoursFromStart.assignHoursFromStart(0, "Start: ", "",
+      "yyyy-MM-dd HH:mm:ss");
+
+    return Stream.of(
+      Arguments.of("ISO date/time",
+        makeSpec(DateTimeSpecification.DATE_TIME_NAME, "yyyy-MM-dd HH:mm:ss"),
+        new String[] { "2019-06-01 12:34:56,1", "2019-06-01 12:35:56,2",
+          "2019-06-02 00:00:00", "2019-12-31 23:59:59", "2020-02-29 01:02:03",
+          "2019-02-29 01:02:03", "2019-04-31 01:02:03", "2019-13-01 00:00:00",
+          "2019-06-01 24:00:00", "2019-06-01 12:60:00", "2019-06-01 1:02:03",
+          "2019-06-01T12:34:56", "2019-06-01 12:34:56.5", "2019/06/01 12:34:56",
+          "", ",1", "garbage", "  2019-06-01 12:34:56  ", "1999-01-01 00:00:00",
+          "1970-01-01 00:00:00", "1969-12-31 23:59:59" }),
+      Arguments.of("Two digit year date/time",
+        makeSpec(DateTimeSpecification.DATE_TIME_NAME, "dd/MM/yy HH:mm:ss"),
+        new String[] { "01/06/19 12:34:56", "01/06/19 12:34:57",
+          "31/12/99 23:59:59", "29/02/19 00:00:00", "00/01/19 00:00:00",
+          "1/06/19 12:34:56", "01/06/2019 12:34:56" }),
+      Arguments.of("Quoted literal date/time",
+        makeSpec(DateTimeSpecification.DATE_TIME_NAME,
+          "yyyy-MM-dd'T'HH:mm:ss'Z'"),
+        new String[] { "2019-06-01T12:34:56Z", "2019-06-01T12:34:56",
+          "2019-06-01 12:34:56Z", "2019-06-01T12:34:56z" }),
+      Arguments.of("Text month date/time",
+        makeSpec(DateTimeSpecification.DATE_TIME_NAME, "dd MMM yyyy HH:mm"),
+        new String[] { "01 Jun 2019 12:34", "31 Dec 2019 23:59",
+          "01 June 2019 12:34", "01 Foo 2019 12:34" }),
+      Arguments.of("Date and time strings",
+        makeSpec(DateTimeSpecification.DATE_NAME, "yyyy-MM-dd",
+          DateTimeSpecification.TIME_NAME, "HH:mm:ss"),
+        new String[] { "2019-06-01,12:34:56", "2019-06-01,23:59:59",
+          "2019-06-02,00:00:00", "2019-02-30,00:00:00", "2019-06-01,25:00:00",
+          "2019-06-01,", ",12:34:56", "2019-6-1,12:34:56", "2019-06-01,1234" }),
+      Arguments.of("Date string and time fields",
+        makeSpec(DateTimeSpecification.DATE_NAME, "dd/MM/yyyy",
+          DateTimeSpecification.HOUR_NAME, null,
+          DateTimeSpecification.MINUTE_NAME, null,
+          DateTimeSpecification.SECOND_NAME, null),
+        new String[] { "01/06/2019,12,34,56", "01/06/2019,12,34,57",
+          "01/06/2019,24,00,00", "01/06/2019,12,60,00", "01/06/2019,12,34,",
+          "01/06/2019,a,34,56", "01/06/2019,1.5,34,56", "32/06/2019,12,34,56" }),
+      Arguments.of("Year, month and day fields with time string",
+        makeSpec(DateTimeSpecification.YEAR_NAME, null,
+          DateTimeSpecification.MONTH_NAME, null,
+          DateTimeSpecification.DAY_NAME, null,
+          DateTimeSpecification.TIME_NAME, "HH:mm:ss"),
+        new String[] { "2019,6,1,12:34:56", "2019,06,01,12:34:57",
+          "19,6,1,12:34:56", "99,12,31,23:59:59", "2019,2,29,00:00:00",
+          "2019,13,1,00:00:00", "2019,,1,00:00:00", "2019,6,,00:00:00",
+          ",6,1,00:00:00", "2019,x,1,00:00:00", "2019,6,1,24:00:00" }),
+      Arguments.of("Year, month, day, hour, minute and second fields",
+        makeSpec(DateTimeSpecification.YEAR_NAME, null,
+          DateTimeSpecification.MONTH_NAME, null,
+          DateTimeSpecification.DAY_NAME, null,
+          DateTimeSpecification.HOUR_NAME, null,
+          DateTimeSpecification.MINUTE_NAME, null,
+          DateTimeSpecification.SECOND_NAME, null),
+        new String[] { "2019,6,1,12,34,56", "2019,6,1,12,34,57",
+          "2019,6,2,0,0,0", "2019,6,1,23,59,60", "2019,6,1,-1,0,0",
+          "2019,6,1,,0,0", "2019,6,1,1,2,3.5", "1,1,1,0,0,0" }),
+      Arguments.of("Year and Julian day fields with time string",
+        makeSpec(DateTimeSpecification.YEAR_NAME, null,
+          DateTimeSpecification.JDAY_NAME, null,
+          DateTimeSpecification.TIME_NAME, "HH:mm:ss"),
+        new String[] { "2019,152,12:34:56", "2019,152,12:34:57",
+          "2019,365,23:59:59", "2019,366,00:00:00", "2020,366,00:00:00",
+          "2019,0,00:00:00", "2019,,00:00:00", ",152,00:00:00",
+          "2019,15.2,00:00:00" }),
+      Arguments.of("Year and Julian day with time fields",
+        makeSpec(DateTimeSpecification.YEAR_NAME, null,
+          DateTimeSpecification.JDAY_TIME_NAME, null),
+        new String[] { "2019,152.5", "2019,152.523148", "2019,1", "2019,1.0",
+          "2019,365.99999", "2019,400.25", "2019,0.5", "2019,-3.25",
+          "2019,", ",152.5", "2019,abc", "2019.5,152.5", "2019,1e2" }),
+      Arguments.of("Hours from start of file", hoursFromStart,
+        new String[] { "0", "0.5", "1.25", "1.2500001", "24", "-1.5",
+          "1,234.5", "1e2", "NaN", "", "abc", "0.000138888" }));
+  }
+
+  /**
+   * Test that a compiled parser gives the same result as
+   * {@link DateTimeSpecification#getDateTime(LocalDateTime, java.util.List)}
+   * for every line, including the error message for invalid lines.
+   *
+   * @param description
+   *          A description of the specification
+   * @param spec
+   *          The specification
+   * @param lines
+   *          The lines to parse
+   */
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("createSpecifications")
+  public void parserMatchesGetDateTimeTest(String description,
+    DateTimeSpecification spec, String[] lines) {
+
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    DateTimeParser parser = spec.getParser();
+
+    for (String line : lines) {
+      tokenizer.tokenize(line);
+
+      LocalDateTime expected = null;
+      String expectedError = null;
+      try {
+        expected = spec.getDateTime(HEADER_DATE, tokenizer.getFields());
+      } catch (DateTimeSpecificationException e) {
+        expectedError = e.getMessage();
+      }
+
+      LocalDateTime actual = null;
+      String actualError = null;
+      try {
+        actual = parser.parse(HEADER_DATE, tokenizer);
+      } catch (DateTimeSpecificationException e) {
+        actualError = e.getMessage();
+      }
+
+      assertEquals(expected, actual, "Line '" + line + "'");
+      assertEquals(expectedError, actualError, "Line '" + line + "'");
+    }
+  }
+
+  /**
+   * Test that an Hours From Start parser reports a missing header date in the
+   * same way as
+   * {@link DateTimeSpecification#getDateTime(LocalDateTime, java.util.List)}
+   *
+   * @throws DateTimeSpecificationException
+   *           If the specification cannot be created
+   */
+  @Test
+  public void hoursFromStartNullHeaderDateTest()
+    throws DateTimeSpecificationException {
+
+    DateTimeSpecification spec = new DateTimeSpecification(true);
+    spec.assignHoursFromStart(0, "Start: ", "", "yyyy-MM-dd HH:mm:ss");
+
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("1.5");
+
+    String expectedError = null;
+    try {
+      spec.getDateTime(null, tokenizer.getFields());
+    } catch (DateTimeSpecificationException e) {
+      expectedError = e.getMessage();
+    }
+
+    String actualError = null;
+    try {
+      spec.getParser().parse(null, tokenizer);
+    } catch (DateTimeSpecificationException e) {
+      actualError = e.getMessage();
+    }
+
+    assertEquals(expectedError, actualError);
+  }
+
+  /**
+   * Test that {@link DateTimeParser#parseMillis(LocalDateTime, FieldTokenizer)}
+   * gives the milliseconds value of the parsed date/time
+   *
+   * @throws DateTimeSpecificationException
+   *           If the specification cannot be created or the line cannot be
+   *           parsed
+   */
+  @Test
+  public void parseMillisTest() throws DateTimeSpecificationException {
+    DateTimeSpecification spec = makeSpec(
+      DateTimeSpecification.DATE_TIME_NAME, "yyyy-MM-dd HH:mm:ss");
+
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("2019-06-01 12:34:56");
+
+    assertEquals(1559392496000L, spec.getParser().parseMillis(null, tokenizer));
+  }
+}
@@ -0,0 +1,230 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.StringUtils;
+
+/**
+ * Compares the speed of {@link FieldTokenizer} with the
+ * {@link String#split(String, int)} based field extraction that it replaced.
+ *
+ * <p>
+ * Each run reads every field of a set of data lines and converts it to a
+ * number, as the extraction of a data set does. The old path splits and trims
+ * the line and calls {@link Double#parseDouble(String)}. The new path
+ * tokenizes the line and calls {@link FieldTokenizer#parseDouble(int)}. The
+ * lines are run for each of the separators that file definitions can use.
+ * </p>
+ *
+ * <p>
+ * This is a benchmark, not a test. It is tagged {@code benchmark}, is excluded
+ * from the normal {@code test} task, and is run with
+ * {@code ./gradlew benchmark}. The results are printed to the console.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see FieldTokenizerTest
+ */
+@Tag("benchmark")
+public class FieldTokenizerBenchmark extends BaseTest {
+
+  /**
+   * The number of lines in each run
+   */
+  private static final int LINE_COUNT = 20000;
+
+  /**
+   * The number of fields on each line
+   */
+  private static final int FIELD_COUNT = 40;
+
+  /**
+   * The number of untimed runs of each path before the timed runs
+   */
+  private static final int WARMUP_RUNS = 20;
+
+  /**
+   * The number of timed runs of each path
+   */
+  private static final int TIMED_RUNS = 20;
+
+  /**
+   * The field extraction that was used before {@link FieldTokenizer}
+   *
+   * @param separator
+   *          The separator
+   * @param dataLine
+   *          The line
+   * @return The fields
+   * @see FieldTokenizerTest
+   */
+  private static List<String> oldExtractFields(String separator,
+    String dataLine) {
+    List<String> values = new ArrayList<String>();
+    if (separator.equals(" ")) {
+      dataLine = dataLine.trim().replaceAll("  *", " ");
+    }
+
+    values = Arrays.asList(dataLine.split(separator, dataLine.length()));
+    return StringUtils.trimList(values);
+  }
+
+  /**
+   * Create the data lines for a separator. The fields are numbers with up to
+   * four decimal places. Lines separated by spaces have between one and four
+   * spaces between fields, as in fixed-width files.
+   *
+   * @param separator
+   *          The separator
+   * @return The lines
+   */
+  private static List<String> makeLines(String separator) {
+    Random random = new Random(42);
+    List<String> result = new ArrayList<String>(LINE_COUNT);
+
+    for (int i = 0; i < LINE_COUNT; i++) {
+      StringBuilder line = new StringBuilder();
+
+      for (int field = 0; field < FIELD_COUNT; field++) {
+        if (field > 0) {
+          line.append(separator);
+          if (separator.equals(" ")) {
+            for (int s = random.nextInt(4); s > 0; s--) {
+              line.append(' ');
+            }
+          }
+        }
+
+        double value = random.nextDouble() * 2000 - 1000;
+        line.append(String.format(Locale.ROOT, "%.4f", value));
+      }
+
+      result.add(line.toString());
+    }
+
+    return result;
+  }
+
+  /**
+   * Read every field of the lines using the old field extraction
+   *
+   * @param separator
+   *          The separator
+   * @param lines
+   *          The lines
+   * @return The sum of the values, so the work cannot be optimised away
+   */
+  private static double runOld(String separator, List<String> lines) {
+    double result = 0;
+
+    for (String line : lines) {
+      for (String field : oldExtractFields(separator, line)) {
+        result += Double.parseDouble(field.replace(",", ""));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Read every field of the lines using a {@link FieldTokenizer}
+   *
+   * @param separator
+   *          The separator
+   * @param lines
+   *          The lines
+   * @return The sum of the values, so the work cannot be optimised away
+   */
+  private static double runTokenizer(String separator, List<String> lines) {
+    double result = 0;
+
+    FieldTokenizer tokenizer = new FieldTokenizer(separator);
+    for (String line : lines) {
+      int fieldCount = tokenizer.tokenize(line);
+      for (int i = 0; i < fieldCount; i++) {
+        result += tokenizer.parseDouble(i);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the median of a set of times
+   *
+   * @param times
+   *          The times
+   * @return The median
+   */
+  private static double median(double[] times) {
+    double[] sorted = Arrays.copyOf(times, times.length);
+    Arrays.sort(sorted);
+    return sorted.length % 2 == 1 ? sorted[sorted.length / 2]
+      : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+  }
+
+  /**
+   * Time the old and new field extraction for each separator. The runs of
+   * the two paths alternate. Both must give the same sum of values.
+   */
+  @Test
+  public void fieldExtractionBenchmark() {
+
+    String[] separators = { ",", "\t", ";", " " };
+    String[] names = { "comma", "tab", "semicolon", "multi-space" };
+
+    System.out.println(String.format(
+      "Reading %d lines of %d numeric fields, median of %d runs:",
+      LINE_COUNT, FIELD_COUNT, TIMED_RUNS));
+    System.out.println(
+      "  separator        split/trim   FieldTokenizer   speedup");
+
+    for (int s = 0; s < separators.length; s++) {
+      String separator = separators[s];
+      List<String> lines = makeLines(separator);
+
+      double oldSum = 0;
+      double newSum = 0;
+
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+        oldSum = runOld(separator, lines);
+        newSum = runTokenizer(separator, lines);
+      }
+
+      assertEquals(oldSum, newSum);
+
+      double[] oldTimes = new double[TIMED_RUNS];
+      double[] newTimes = new double[TIMED_RUNS];
+
+      for (int i = 0; i < TIMED_RUNS; i++) {
+        long start = System.nanoTime();
+        oldSum = runOld(separator, lines);
+        oldTimes[i] = (System.nanoTime() - start) / (double) LINE_COUNT;
+
+        start = System.nanoTime();
+        newSum = runTokenizer(separator, lines);
+        newTimes[i] = (System.nanoTime() - start) / (double) LINE_COUNT;
+      }
+
+      assertEquals(oldSum, newSum);
+
+      double oldMedian = median(oldTimes);
+      double newMedian = median(newTimes);
+
+      System.out.println(String.format(
+        "  %-13s %9.0f ns/line %9.0f ns/line %8.1fx", names[s], oldMedian,
+        newMedian, oldMedian / newMedian));
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.StringUtils;
+
+/**
+ * Tests for the {@link FieldTokenizer} class.
+ *
+ * <p>
+ * The tokenizer replaced a {@link String#split(String, int)} based field
+ * extraction in {@code FileDefinition}. These tests check that it produces
+ * exactly the same fields and numeric values as the old code.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class FieldTokenizerTest extends BaseTest {
+
+  /**
+   * The separators that can be used in file definitions
+   */
+  private static final String[] SEPARATORS = { ",", "\t", ";", " " };
+
+  /**
+   * Test lines. Each {@code |} is replaced with the separator under test.
+   */
+  private static final String[] LINES = { "a|b|c", "", "a", "|", "||",
+    "a||b", "|a|b", "a|b|", "a|b||", "  a | b  |c  ", " a|b ", "\"a|b\"|c",
+    "\"a\"|\"\"|\"c\"", "\\a|\\b|c\\", "\\|a", "a\t|\tb", "1.5|-2|NaN|",
+    "2019-01-01T00:00:00Z|12.5|0.0005" };
+
+  /**
+   * Create all combinations of separator and test line
+   *
+   * @return The test arguments
+   */
+  @SuppressWarnings("unused")
+  private static Stream<Arguments> createSeparatorLines() {
+    List<Arguments> arguments = new ArrayList<Arguments>();
+    for (String separator : SEPARATORS) {
+      for (String line : LINES) {
+        arguments.add(Arguments.of(separator, line.replace("|", separator)));
+      }
+    }
+
+    // Lines with several spaces between fields
+    arguments.add(Arguments.of(" ", "a  b   c"));
+    arguments.add(Arguments.of(" ", "   a  b   c   "));
+    arguments.add(Arguments.of(" ", "a \t b"));
+    arguments.add(Arguments.of(",", "a ,  , b"));
+
+    return arguments.stream();
+  }
+
+  /**
+   * Create numeric field values. These include values that are converted
+   * directly by the tokenizer and values that must be passed to
+   * {@link Double#parseDouble(String)}.
+   *
+   * @return The numeric values
+   */
+  @SuppressWarnings("unused")
+  private static Stream<String> createNumbers() {
+    return Stream.of("0", "12", "-12", "+3.25", "0.0005", "-0.0005", "12.",
+      ".5", "1,234.5", "1,2,3", "  42.125  ", "000123.4500", "0.1", "0.3",
+      "123456789012345", "1234567890.12345", "12345678901234567",
+      "0.12345678901234567", "1.000000000000000000001", "1.5e3", "-2E-4",
+      "NaN", "Infinity", "-Infinity", "1e400", "4.9e-324", "0x10p0", "1d",
+      "2f");
+  }
+
+  /**
+   * Create field values that are not valid numbers
+   *
+   * @return The invalid values
+   */
+  @SuppressWarnings("unused")
+  private static Stream<String> createNonNumbers() {
+    return Stream.of("", "abc", "-", "+", ".", "1.2.3", "1-2", "--1", "1e",
+      "nan", "12abc");
+  }
+
+  /**
+   * The field extraction that was used before {@link FieldTokenizer}
+   *
+   * @param separator
+   *          The separator
+   * @param dataLine
+   *          The line
+   * @return The fields
+   */
+  private static List<String> oldExtractFields(String separator,
+    String dataLine) {
+    List<String> values = new ArrayList<String>();
+    if (separator.equals(" ")) {
+      dataLine = dataLine.trim().replaceAll("  *", " ");
+    }
+
+    values = Arrays.asList(dataLine.split(separator, dataLine.length()));
+    return StringUtils.trimList(values);
+  }
+
+  /**
+   * Test that {@link FieldTokenizer#tokenize(CharSequence)} extracts the same
+   * fields as the old field extraction. The lines include quoted fields
+   * (which were never treated specially), empty fields, trailing separators,
+   * whitespace and leading backslashes.
+   *
+   * @param separator
+   *          The separator
+   * @param line
+   *          The line
+   */
+  @ParameterizedTest
+  @MethodSource("createSeparatorLines")
+  public void tokenizeMatchesOldExtractionTest(String separator, String line) {
+    List<String> expected = oldExtractFields(separator, line);
+
+    FieldTokenizer tokenizer = new FieldTokenizer(separator);
+    int fieldCount = tokenizer.tokenize(line);
+
+    assertEquals(expected, tokenizer.getFields());
+    assertEquals(expected.size(), fieldCount);
+    assertEquals(expected.size(), tokenizer.getFieldCount());
+
+    for (int i = 0; i < fieldCount; i++) {
+      assertEquals(expected.get(i), tokenizer.getField(i));
+      assertEquals(expected.get(i),
+        tokenizer.getFieldSequence(i).toString());
+      assertEquals(expected.get(i).isEmpty(), tokenizer.isEmpty(i));
+      assertEquals(true, tokenizer.fieldEquals(i, expected.get(i)));
+    }
+  }
+
+  /**
+   * Test that a tokenizer can be reused for lines with different numbers of
+   * fields
+   */
+  @Test
+  public void tokenizeReuseTest() {
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+
+    assertEquals(3, tokenizer.tokenize("a,b,c"));
+    assertEquals(1, tokenizer.tokenize("d"));
+    assertEquals(Arrays.asList("d"), tokenizer.getFields());
+    assertEquals(4, tokenizer.tokenize("e,,f,"));
+    assertEquals(Arrays.asList("e", "", "f", ""), tokenizer.getFields());
+  }
+
+  /**
+   * Test that {@link FieldTokenizer#parseDouble(int)} gives exactly the same
+   * value as the old conversion, which removed commas and called
+   * {@link Double#parseDouble(String)}. This covers the direct conversion and
+   * the cases that fall back to {@link Double#parseDouble(String)}: more than
+   * 15 digits, exponents and {@code NaN}/{@code Infinity}.
+   *
+   * @param value
+   *          The field value
+   */
+  @ParameterizedTest
+  @MethodSource("createNumbers")
+  public void parseDoubleMatchesOldConversionTest(String value) {
+    double expected = Double.parseDouble(value.trim().replace(",", ""));
+
+    FieldTokenizer tokenizer = new FieldTokenizer(";");
+    tokenizer.tokenize("x;" + value + ";y");
+
+    assertEquals(Double.doubleToRawLongBits(expected),
+      Double.doubleToRawLongBits(tokenizer.parseDouble(1)));
+  }
+
+  /**
+   * Test that {@link FieldTokenizer#parseDouble(int)} rejects values that the
+   * old conversion rejected
+   *
+   * @param value
+   *          The field value
+   */
+  @ParameterizedTest
+  @MethodSource("createNonNumbers")
+  public void parseDoubleInvalidTest(String value) {
+    assertThrows(NumberFormatException.class, () -> {
+      Double.parseDouble(value.trim().replace(",", ""));
+    });
+
+    FieldTokenizer tokenizer = new FieldTokenizer(";");
+    tokenizer.tokenize("x;" + value + ";y");
+
+    assertThrows(NumberFormatException.class, () -> {
+      tokenizer.parseDouble(1);
+    });
+  }
+
+  /**
+   * Test that a multi-character separator is rejected
+   */
+  @Test
+  public void invalidSeparatorTest() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new FieldTokenizer(", ");
+    });
+  }
+}
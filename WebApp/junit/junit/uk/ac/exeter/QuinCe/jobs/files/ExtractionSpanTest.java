@@ -0,0 +1,280 @@
+package junit.uk.ac.exeter.QuinCe.jobs.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.jobs.files.ExtractDataSetJob;
+import uk.ac.exeter.QuinCe.jobs.files.ExtractionSpan;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Tests for the {@link ExtractionSpan} used by incremental extractions
+ *
+ * @author Steve Jones
+ *
+ */
+public class ExtractionSpanTest extends BaseTest {
+
+  /**
+   * The time that the files were extracted
+   */
+  private static final LocalDateTime EXTRACTED = LocalDateTime.of(2019, 7, 1,
+    0, 0, 0);
+
+  /**
+   * A modification time after the extraction
+   */
+  private static final LocalDateTime MODIFIED = LocalDateTime.of(2019, 7, 2,
+    0, 0, 0);
+
+  /**
+   * The data set
+   */
+  private DataSet dataSet;
+
+  /**
+   * The data set's files
+   */
+  private List<DataFile> files;
+
+  /**
+   * The modification times of the data set's files
+   */
+  private Map<Long, LocalDateTime> modifications;
+
+  /**
+   * Set up a data set covering June 2019 with two files that have been
+   * extracted, covering the 1st to the 10th and the 11th to the 20th
+   */
+  @BeforeEach
+  public void setup() {
+    dataSet = new DataSet(1L, "Test", day(1), day(30), false);
+    files = new ArrayList<DataFile>();
+    modifications = new HashMap<Long, LocalDateTime>();
+
+    addFile(1L, day(1), day(10), EXTRACTED);
+    addFile(2L, day(11), day(20), EXTRACTED);
+
+    ExtractionSpan.recordExtraction(dataSet, files, modifications);
+  }
+
+  /**
+   * Get midnight on the specified day of June 2019
+   *
+   * @param day
+   *          The day of the month
+   * @return The time
+   */
+  private static LocalDateTime day(int day) {
+    return LocalDateTime.of(2019, 6, day, 0, 0, 0);
+  }
+
+  /**
+   * Add a file to the data set, replacing any existing file with the same ID
+   *
+   * @param id
+   *          The file ID
+   * @param start
+   *          The start of the file
+   * @param end
+   *          The end of the file
+   * @param modified
+   *          The modification time of the file
+   */
+  private void addFile(long id, LocalDateTime start, LocalDateTime end,
+    LocalDateTime modified) {
+
+    removeFile(id);
+    files.add(
+      new DataFile(null, id, null, "file" + id + ".csv", start, end, 10));
+    modifications.put(id, modified);
+  }
+
+  /**
+   * Remove a file from the data set
+   *
+   * @param id
+   *          The file ID
+   */
+  private void removeFile(long id) {
+    files.removeIf(f -> f.getDatabaseId() == id);
+    modifications.remove(id);
+  }
+
+  /**
+   * Test that the span is empty if no files have changed
+   */
+  @Test
+  public void noChangesTest() {
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertTrue(span.isEmpty());
+  }
+
+  /**
+   * Test that the whole data set must be extracted if no previous extraction
+   * has been recorded
+   */
+  @Test
+  public void noPreviousExtractionTest() {
+    DataSet newDataSet = new DataSet(1L, "New", day(1), day(30), false);
+    assertNull(ExtractionSpan.getSpan(newDataSet, files, modifications));
+  }
+
+  /**
+   * Test that the span covers a new file
+   */
+  @Test
+  public void newFileTest() {
+    addFile(3L, day(21), day(25), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertFalse(span.isEmpty());
+    assertEquals(day(21), span.getStart());
+    assertEquals(day(25), span.getEnd());
+  }
+
+  /**
+   * Test that the span covers a file that has been extended
+   */
+  @Test
+  public void extendedFileTest() {
+    addFile(2L, day(11), day(25), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(11), span.getStart());
+    assertEquals(day(25), span.getEnd());
+  }
+
+  /**
+   * Test that the span covers the previously extracted range of a file that
+   * has been replaced with a shorter version, so the values that are no
+   * longer in the file are removed
+   */
+  @Test
+  public void shrunkFileTest() {
+    addFile(2L, day(14), day(16), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(11), span.getStart());
+    assertEquals(day(20), span.getEnd());
+  }
+
+  /**
+   * Test that the span covers both the old and new ranges of a file that has
+   * been replaced with one covering a different period
+   */
+  @Test
+  public void movedFileTest() {
+    addFile(1L, day(5), day(15), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(1), span.getStart());
+    assertEquals(day(15), span.getEnd());
+  }
+
+  /**
+   * Test that the span is limited to the bounds of the data set
+   */
+  @Test
+  public void clipToDataSetTest() {
+    addFile(3L, day(25), LocalDateTime.of(2019, 7, 5, 0, 0, 0), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(25), span.getStart());
+    assertEquals(day(30), span.getEnd());
+  }
+
+  /**
+   * Test that the whole data set must be extracted if a file has been
+   * removed from it
+   */
+  @Test
+  public void removedFileTest() {
+    removeFile(1L);
+    assertNull(ExtractionSpan.getSpan(dataSet, files, modifications));
+  }
+
+  /**
+   * Test that the whole data set must be extracted if a file has been
+   * removed, even if another file has been added
+   */
+  @Test
+  public void removedAndAddedFileTest() {
+    removeFile(1L);
+    addFile(3L, day(21), day(25), MODIFIED);
+    assertNull(ExtractionSpan.getSpan(dataSet, files, modifications));
+  }
+
+  /**
+   * Test that the whole data set must be extracted if a file has been
+   * modified and its previously extracted range was not recorded
+   */
+  @Test
+  public void unknownPreviousRangeTest() {
+    dataSet.setProperty(ExtractDataSetJob.EXTRACTED_RANGES_PROPERTY,
+      "1:" + DateTimeUtils.dateToLong(day(1)) + ":"
+        + DateTimeUtils.dateToLong(day(10)));
+
+    addFile(2L, day(11), day(25), MODIFIED);
+    assertNull(ExtractionSpan.getSpan(dataSet, files, modifications));
+  }
+
+  /**
+   * Test that a new file can be extracted incrementally if the ranges of the
+   * previously extracted files were not recorded
+   */
+  @Test
+  public void newFileWithoutRangesTest() {
+    dataSet.setProperty(ExtractDataSetJob.EXTRACTED_RANGES_PROPERTY, "");
+
+    addFile(3L, day(21), day(25), MODIFIED);
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(21), span.getStart());
+    assertEquals(day(25), span.getEnd());
+  }
+
+  /**
+   * Test that a recorded extraction is used as the basis for the next span
+   */
+  @Test
+  public void recordExtractionTest() {
+    addFile(2L, day(14), day(16), MODIFIED);
+    ExtractionSpan.recordExtraction(dataSet, files, modifications);
+
+    assertEquals("1,2",
+      dataSet.getProperty(ExtractDataSetJob.EXTRACTED_FILES_PROPERTY));
+    assertTrue(ExtractionSpan.getSpan(dataSet, files, modifications)
+      .isEmpty());
+
+    // The file's previous range is now the shrunk range
+    addFile(2L, day(15), day(16),
+      LocalDateTime.of(2019, 7, 3, 0, 0, 0));
+
+    ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+      modifications);
+    assertEquals(day(14), span.getStart());
+    assertEquals(day(16), span.getEnd());
+  }
+}
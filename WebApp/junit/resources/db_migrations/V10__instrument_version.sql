@@ -0,0 +1,9 @@
+-- The version of an instrument's details. It is incremented whenever the
+-- instrument's definition changes, so that cached copies of the instrument
+-- are reloaded.
+ALTER TABLE instrument ADD COLUMN version INT NOT NULL DEFAULT 0;
+
+
+-- ROLLBACK
+
+-- ALTER TABLE instrument DROP COLUMN version;
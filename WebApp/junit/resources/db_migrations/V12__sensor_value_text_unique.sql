@@ -0,0 +1,18 @@
+-- Make sensor_value_text unique on its text, so each run type is stored once
+-- and new entries can be added only if they are absent. The text is compared
+-- exactly (case and accents included), as it is in the application.
+
+-- Point sensor values at the first copy of any duplicated text, and remove
+-- the other copies
+UPDATE sensor_values SET text_value = (SELECT MIN(kept.id) FROM sensor_value_text svt, sensor_value_text kept WHERE svt.id = sensor_values.text_value AND kept.value = svt.value) WHERE text_value IS NOT NULL;
+
+DELETE FROM sensor_value_text WHERE id > (SELECT MIN(kept.id) FROM sensor_value_text kept WHERE kept.value = sensor_value_text.value);
+
+DROP INDEX SENSORVALUETEXT_VALUE_idx;
+CREATE UNIQUE INDEX SENSORVALUETEXT_VALUE_UNIQUE ON sensor_value_text(value);
+
+
+-- ROLLBACK
+
+-- DROP INDEX SENSORVALUETEXT_VALUE_UNIQUE;
+-- CREATE INDEX SENSORVALUETEXT_VALUE_idx ON sensor_value_text(value);
@@ -0,0 +1,9 @@
+-- Automatic QC results in a compact binary form (see AutoQCResult.encode).
+-- Existing JSON results in auto_qc are converted by the application when the
+-- data set's automatic QC is next run, and are read as JSON until then.
+ALTER TABLE sensor_values ADD COLUMN auto_qc_data BLOB NULL;
+
+
+-- ROLLBACK
+
+-- ALTER TABLE sensor_values DROP COLUMN auto_qc_data;
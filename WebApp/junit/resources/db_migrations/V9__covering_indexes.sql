@@ -0,0 +1,68 @@
+-- Composite indexes matched to the DataSetDataDB queries. All the queries
+-- select the data set's current generation, so each index starts with
+-- (dataset_id, generation) and continues with the query's filter and sort
+-- columns. This lets MySQL read the rows in order without a filesort, and
+-- answer the count, date and ID queries from the index alone.
+--
+-- Indexes replaced by the new composites, which are dropped:
+--
+-- SENSORVALUE_GENERATION_idx (V8): (dataset_id, generation) is a prefix of
+--   all three new sensor_values indexes, so the range deletes, generation
+--   purge and MAX(generation) queries can use any of them.
+-- USERQCFLAG (V2): Every query on user_qc_flag also filters on dataset_id
+--   and generation. Required flag counts use SENSORVALUE_FLAG_idx, and the
+--   flushing filter is checked in SENSORVALUE_DATE_COLUMN_idx.
+-- FILECOLUMN (V2): Every query on file_column also filters on dataset_id and
+--   generation. Values by column and by sensor use
+--   SENSORVALUE_COLUMN_DATE_idx.
+-- MEASUREMENT_GENERATION_idx (V8): (dataset_id, generation) is a prefix of
+--   all three new measurements indexes. The range deletes and measurement
+--   times use MEASUREMENT_DATE_idx (date is its next column), and the
+--   generation purge and MAX(generation) queries can use any of them.
+--
+-- SENSORVALUE_DATASET_idx and MEASUREMENT_DATASET_idx (V1) are kept, because
+-- the dataset foreign keys need them.
+
+-- Values by column (AutoQC), by sensor and run types
+CREATE INDEX SENSORVALUE_COLUMN_DATE_idx ON sensor_values (dataset_id, generation, file_column, date);
+
+-- Values by date (data reduction, measurement location, QC pages), distinct
+-- dates and record counts. user_qc_flag is included so the flushing filter is
+-- checked in the index.
+CREATE INDEX SENSORVALUE_DATE_COLUMN_idx ON sensor_values (dataset_id, generation, date, file_column, user_qc_flag);
+
+-- Required flag counts
+CREATE INDEX SENSORVALUE_FLAG_idx ON sensor_values (dataset_id, generation, user_qc_flag);
+
+DROP INDEX SENSORVALUE_GENERATION_idx;
+DROP INDEX USERQCFLAG;
+DROP INDEX FILECOLUMN;
+
+-- Measurements for data reduction
+CREATE INDEX MEASUREMENT_VARIABLE_DATE_idx ON measurements (dataset_id, generation, variable_id, date);
+
+-- Measurement times by run type
+CREATE INDEX MEASUREMENT_RUNTYPE_DATE_idx ON measurements (dataset_id, generation, run_type, date);
+
+-- Data reduction results by date
+CREATE INDEX MEASUREMENT_DATE_idx ON measurements (dataset_id, generation, date);
+
+DROP INDEX MEASUREMENT_GENERATION_idx;
+
+-- Highest queued generation for a data set
+CREATE INDEX DATASETPURGE_DATASET_idx ON dataset_purge (dataset_id, content, generation);
+
+
+-- ROLLBACK
+
+-- DROP INDEX DATASETPURGE_DATASET_idx;
+-- CREATE INDEX MEASUREMENT_GENERATION_idx ON measurements (dataset_id, generation);
+-- DROP INDEX MEASUREMENT_DATE_idx;
+-- DROP INDEX MEASUREMENT_RUNTYPE_DATE_idx;
+-- DROP INDEX MEASUREMENT_VARIABLE_DATE_idx;
+-- CREATE INDEX FILECOLUMN ON sensor_values (file_column);
+-- CREATE INDEX USERQCFLAG ON sensor_values (user_qc_flag);
+-- CREATE INDEX SENSORVALUE_GENERATION_idx ON sensor_values (dataset_id, generation);
+-- DROP INDEX SENSORVALUE_FLAG_idx;
+-- DROP INDEX SENSORVALUE_DATE_COLUMN_idx;
+-- DROP INDEX SENSORVALUE_COLUMN_DATE_idx;
@@ -0,0 +1,7 @@
+-- Data set for the Benguela Stream instrument (see testbase/instrument)
+
+INSERT INTO dataset (id, instrument_id, name, start, end, status, nrt,
+  status_date, properties, last_touched, sensor_values_generation,
+  measurements_generation)
+  VALUES (1, 1, 'BSBS20190601', 1559347200000, 1559433600000, 0, 0,
+  1559347200000, NULL, 1559347200000, 0, 0);
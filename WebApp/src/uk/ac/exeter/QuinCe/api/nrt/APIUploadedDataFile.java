@@ -2,10 +2,16 @@ package uk.ac.exeter.QuinCe.api.nrt;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.SpooledUpload;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.web.files.UploadedDataFile;
 
 /**
@@ -24,7 +30,12 @@ public class APIUploadedDataFile extends UploadedDataFile {
   /**
    * The file contents
    */
-  private String contents;
+  private String contents = null;
+
+  /**
+   * The spooled file contents, for files streamed to the file store
+   */
+  private SpooledUpload spooledUpload = null;
 
   /**
    * Basic constructor for pre-prepared strings
@@ -59,13 +70,93 @@ public class APIUploadedDataFile extends UploadedDataFile {
       StandardCharsets.UTF_8.displayName());
   }
 
+  /**
+   * Constructor for a file that has been streamed to the file store. The
+   * contents are read from the spooled file instead of being held in memory.
+   *
+   * @param filename
+   *          The filename
+   * @param spooledUpload
+   *          The spooled file
+   */
+  protected APIUploadedDataFile(String filename,
+    SpooledUpload spooledUpload) {
+    super();
+    this.filename = filename;
+    this.spooledUpload = spooledUpload;
+  }
+
   @Override
   public String getName() {
     return filename;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Spooled files are extracted through {@link #getContentLines()}, which
+   * reads the lines without joining them into a single string. This is only
+   * used if the whole contents are requested through {@link #getLines()}.
+   * </p>
+   *
+   * @throws UncheckedIOException
+   *           If the spooled file cannot be read
+   */
   @Override
   protected String getFileContents() {
-    return contents;
+    String result = contents;
+
+    if (null != spooledUpload) {
+      try {
+        result = String.join("\n", spooledUpload.getLines());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  protected List<String> getContentLines() throws IOException {
+    List<String> result;
+
+    if (null == spooledUpload) {
+      result = super.getContentLines();
+    } else if (!spooledUpload.hasContent()) {
+      result = null;
+    } else {
+      result = spooledUpload.getLines();
+    }
+
+    return result;
+  }
+
+  @Override
+  protected DataFile makeDataFile(String fileStore,
+    FileDefinition fileDefinition, List<String> lines)
+    throws IOException, MissingParamException {
+
+    DataFile result;
+
+    if (null == spooledUpload) {
+      result = super.makeDataFile(fileStore, fileDefinition, lines);
+    } else {
+      result = spooledUpload.makeDataFile(fileStore, fileDefinition,
+        getName());
+    }
+
+    return result;
+  }
+
+  /**
+   * Remove the spooled file from the file store, if there is one. This must
+   * be called once the upload has been processed.
+   */
+  protected void discard() {
+    if (null != spooledUpload) {
+      spooledUpload.delete();
+    }
   }
 }
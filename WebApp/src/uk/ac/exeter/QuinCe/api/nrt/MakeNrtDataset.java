@@ -22,6 +22,7 @@ import uk.ac.exeter.QuinCe.jobs.JobManager;
 import uk.ac.exeter.QuinCe.jobs.files.CreateNrtDataset;
 import uk.ac.exeter.QuinCe.jobs.files.ExtractDataSetJob;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
@@ -105,12 +106,19 @@ public class MakeNrtDataset {
     } else {
 
       // See if any data files have been uploaded/updated since the NRT dataset
-      // was created. If so, recreate it.
+      // was created or last extracted. If so, recreate it.
       LocalDateTime lastFileModification = DataFileDB
         .getLastFileModification(conn, instrument.getDatabaseId());
 
+      LocalDateTime datasetTime = existingDataset.getCreatedDate();
+      String extractionTime = existingDataset
+        .getProperty(ExtractDataSetJob.EXTRACTION_TIME_PROPERTY);
+      if (null != extractionTime) {
+        datasetTime = DateTimeUtils.longToDate(Long.parseLong(extractionTime));
+      }
+
       if (null != lastFileModification
-        && lastFileModification.isAfter(existingDataset.getCreatedDate())) {
+        && lastFileModification.isAfter(datasetTime)) {
         createDataset = true;
       }
     }
@@ -1,6 +1,8 @@
 package uk.ac.exeter.QuinCe.api.nrt;
 
 import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
 
 import javax.sql.DataSource;
 import javax.ws.rs.Consumes;
@@ -16,13 +18,23 @@ import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
+import uk.ac.exeter.QuinCe.data.Files.SpooledUpload;
+import uk.ac.exeter.QuinCe.data.Files.UploadTooLargeException;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
-import uk.ac.exeter.QuinCe.web.files.UploadedDataFile;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
  * API call for uploading new files for an instrument
+ *
+ * <p>
+ * Uploads are streamed to a temporary file in the file store rather than
+ * being read into memory. Files larger than the size set in the
+ * {@link #MAX_SIZE_PROPERTY} configuration property are rejected with status
+ * 413. The number of uploads processed at the same time is limited by the
+ * {@link #MAX_CONCURRENT_PROPERTY} property; further uploads are rejected with
+ * status 503 and should be retried later.
+ * </p>
  * 
  * @author Steve Jones
  *
@@ -30,6 +42,32 @@ import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 @Path("/nrt/UploadFile")
 public class UploadFile {
 
+  /**
+   * Configuration property for the maximum upload size in bytes
+   */
+  public static final String MAX_SIZE_PROPERTY = "nrt.upload.max_size";
+
+  /**
+   * Configuration property for the maximum number of concurrent uploads
+   */
+  public static final String MAX_CONCURRENT_PROPERTY = "nrt.upload.max_concurrent";
+
+  /**
+   * The default maximum upload size (100 MB)
+   */
+  private static final long DEFAULT_MAX_SIZE = 104857600L;
+
+  /**
+   * The default maximum number of concurrent uploads
+   */
+  private static final int DEFAULT_MAX_CONCURRENT = 4;
+
+  /**
+   * Permits for concurrent uploads. Created when the first upload is
+   * received.
+   */
+  private static Semaphore uploadPermits = null;
+
   /**
    * Main API method
    * 
@@ -45,36 +83,62 @@ public class UploadFile {
     int result = Status.OK.getStatusCode();
     String resultBody = null;
 
-    try {
-      ResourceManager resourceManager = ResourceManager.getInstance();
-      DataSource dataSource = resourceManager.getDBDataSource();
-      Instrument instrument = InstrumentDB.getInstrument(dataSource,
-        instrumentId, resourceManager.getSensorsConfiguration(),
-        resourceManager.getRunTypeCategoryConfiguration());
-
-      // We don't allow uploads for non-NRT instruments
-      if (!instrument.getNrt()) {
-        result = Status.FORBIDDEN.getStatusCode();
-        resultBody = "Not an NRT instrument";
-      } else {
-        UploadedDataFile upload = new APIUploadedDataFile(
-          fileDetail.getFileName(), is);
-
-        // Extract and check the file
-        upload.extractFile(instrument, resourceManager.getConfig(), true, true);
-
-        // See if extraction was successful
-        if (!upload.isStore()) {
-          result = upload.getStatusCode();
-          resultBody = upload.getMessages();
+    ResourceManager resourceManager = ResourceManager.getInstance();
+    Properties config = resourceManager.getConfig();
+    long maxSize = getLongProperty(config, MAX_SIZE_PROPERTY,
+      DEFAULT_MAX_SIZE);
+
+    Semaphore permits = getUploadPermits(config);
+
+    if (fileDetail.getSize() > maxSize) {
+      result = Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode();
+      resultBody = new UploadTooLargeException(maxSize).getMessage();
+    } else if (!permits.tryAcquire()) {
+      result = Status.SERVICE_UNAVAILABLE.getStatusCode();
+      resultBody = "Too many uploads in progress. Please try again later";
+    } else {
+      APIUploadedDataFile upload = null;
+
+      try {
+        DataSource dataSource = resourceManager.getDBDataSource();
+        Instrument instrument = InstrumentDB.getInstrument(dataSource,
+          instrumentId, resourceManager.getSensorsConfiguration(),
+          resourceManager.getRunTypeCategoryConfiguration());
+
+        // We don't allow uploads for non-NRT instruments
+        if (!instrument.getNrt()) {
+          result = Status.FORBIDDEN.getStatusCode();
+          resultBody = "Not an NRT instrument";
         } else {
-          DataFileDB.storeFile(dataSource, resourceManager.getConfig(),
-            upload.getDataFile(), upload.getReplacementFile());
+          upload = new APIUploadedDataFile(fileDetail.getFileName(),
+            SpooledUpload.spool(config.getProperty("filestore"), is,
+              maxSize));
+
+          // Extract and check the file
+          upload.extractFile(instrument, config, true, true);
+
+          // See if extraction was successful
+          if (!upload.isStore()) {
+            result = upload.getStatusCode();
+            resultBody = upload.getMessages();
+          } else {
+            DataFileDB.storeFile(dataSource, config, upload.getDataFile(),
+              upload.getReplacementFile());
+          }
+        }
+      } catch (UploadTooLargeException e) {
+        result = Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode();
+        resultBody = e.getMessage();
+      } catch (Exception e) {
+        result = Status.INTERNAL_SERVER_ERROR.getStatusCode();
+        resultBody = e.getMessage();
+      } finally {
+        if (null != upload) {
+          upload.discard();
         }
+
+        permits.release();
       }
-    } catch (Exception e) {
-      result = Status.INTERNAL_SERVER_ERROR.getStatusCode();
-      resultBody = e.getMessage();
     }
 
     ResponseBuilder responseBuilder = Response.status(result);
@@ -84,4 +148,48 @@ public class UploadFile {
 
     return responseBuilder.build();
   }
+
+  /**
+   * Get the permits for concurrent uploads, creating them if necessary
+   *
+   * @param config
+   *          The application configuration
+   * @return The permits
+   */
+  private static synchronized Semaphore getUploadPermits(Properties config) {
+    if (null == uploadPermits) {
+      uploadPermits = new Semaphore((int) getLongProperty(config,
+        MAX_CONCURRENT_PROPERTY, DEFAULT_MAX_CONCURRENT));
+    }
+
+    return uploadPermits;
+  }
+
+  /**
+   * Read a numeric configuration property
+   *
+   * @param config
+   *          The application configuration
+   * @param property
+   *          The property name
+   * @param defaultValue
+   *          The value to use if the property is missing or invalid
+   * @return The property value
+   */
+  private static long getLongProperty(Properties config, String property,
+    long defaultValue) {
+
+    long result = defaultValue;
+
+    String value = config.getProperty(property);
+    if (null != value) {
+      try {
+        result = Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        result = defaultValue;
+      }
+    }
+
+    return result;
+  }
 }
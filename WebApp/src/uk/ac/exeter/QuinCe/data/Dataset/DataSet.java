@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Properties;
 
 import org.primefaces.json.JSONArray;
+import org.primefaces.json.JSONObject;
 
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
@@ -237,6 +238,23 @@ public class DataSet {
    */
   private double maxLat = 0.0;
 
+  /**
+   * The summary statistics for the data set's values. {@code null} if they
+   * have not been calculated.
+   */
+  private DataSetStatistics statistics = null;
+
+  /**
+   * The generation of the data set's current sensor values
+   */
+  private int sensorValuesGeneration = 0;
+
+  /**
+   * The generation of the data set's current measurements and data reduction
+   * results
+   */
+  private int measurementsGeneration = 0;
+
   /**
    * Constructor for all fields
    *
@@ -573,6 +591,25 @@ public class DataSet {
     return result;
   }
 
+  /**
+   * Get the data set's properties as a JSON object string
+   *
+   * @return The properties, or {@code null} if no properties have been set
+   */
+  public String getPropertiesAsJSONString() {
+    String result = null;
+
+    if (null != properties && properties.size() > 0) {
+      JSONObject json = new JSONObject();
+      for (String key : properties.stringPropertyNames()) {
+        json.put(key, properties.getProperty(key));
+      }
+      result = json.toString();
+    }
+
+    return result;
+  }
+
   /**
    * Determine whether or not a given status value is valid
    *
@@ -731,6 +768,71 @@ public class DataSet {
 
   }
 
+  /**
+   * Set the summary statistics for the dataset's values. If the statistics
+   * include positions, the dataset's bounds are also set.
+   *
+   * @param statistics
+   *          The statistics
+   */
+  public void setStatistics(DataSetStatistics statistics) {
+    this.statistics = statistics;
+
+    if (statistics.hasBounds()) {
+      setBounds(statistics.getMinLon(), statistics.getMinLat(),
+        statistics.getMaxLon(), statistics.getMaxLat());
+    }
+  }
+
+  /**
+   * Get the summary statistics for the dataset's values
+   *
+   * @return The statistics, or {@code null} if they have not been calculated
+   */
+  public DataSetStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Set the generations of the data set's current contents, as stored in the
+   * database
+   *
+   * @param sensorValuesGeneration
+   *          The sensor values generation
+   * @param measurementsGeneration
+   *          The measurements generation
+   */
+  protected void setGenerations(int sensorValuesGeneration,
+    int measurementsGeneration) {
+    this.sensorValuesGeneration = sensorValuesGeneration;
+    this.measurementsGeneration = measurementsGeneration;
+  }
+
+  /**
+   * Get the generation of the data set's current sensor values. Processing
+   * that replaces all the sensor values writes them in a new generation.
+   *
+   * @return The sensor values generation
+   * @see DataSetDataDB#setSensorValuesGeneration(java.sql.Connection, long,
+   *      int, int)
+   */
+  public int getSensorValuesGeneration() {
+    return sensorValuesGeneration;
+  }
+
+  /**
+   * Get the generation of the data set's current measurements and data
+   * reduction results. Processing that replaces all the measurements writes
+   * them in a new generation.
+   *
+   * @return The measurements generation
+   * @see DataSetDataDB#setMeasurementsGeneration(java.sql.Connection, long,
+   *      int)
+   */
+  public int getMeasurementsGeneration() {
+    return measurementsGeneration;
+  }
+
   /**
    * Get the geographical bounds of the dataset This is a list of six values:
    *
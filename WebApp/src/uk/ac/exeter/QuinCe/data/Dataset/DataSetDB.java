@@ -59,6 +59,47 @@ public class DataSetDB {
     + "messages_json = ?, min_longitude = ?, max_longitude = ?, " // 12
     + "min_latitude = ?, max_latitude = ? WHERE id = ?"; // 15
 
+  /**
+   * Statement to store the summary statistics for a data set
+   *
+   * @see #storeStatistics(Connection, long, DataSetStatistics)
+   */
+  private static final String STORE_STATISTICS_STATEMENT = "UPDATE dataset SET "
+    + "record_count = ?, flags_required = ?, column_statistics = ? "
+    + "WHERE id = ?";
+
+  /**
+   * Statement to store the summary statistics for a pending generation of a
+   * data set's sensor values
+   *
+   * @see #storePendingStatistics(Connection, long, int, DataSetStatistics)
+   */
+  private static final String STORE_PENDING_STATISTICS_STATEMENT = "INSERT "
+    + "INTO dataset_pending_statistics (dataset_id, generation, "
+    + "record_count, flags_required, column_statistics) VALUES (?, ?, ?, ?, ?)";
+
+  /**
+   * Query to get the summary statistics for a pending generation of a data
+   * set's sensor values
+   */
+  private static final String GET_PENDING_STATISTICS_QUERY = "SELECT "
+    + "record_count, flags_required, column_statistics FROM "
+    + "dataset_pending_statistics WHERE dataset_id = ? AND generation = ?";
+
+  /**
+   * Statement to remove the summary statistics for a pending generation of a
+   * data set's sensor values
+   */
+  private static final String DELETE_PENDING_STATISTICS_STATEMENT = "DELETE "
+    + "FROM dataset_pending_statistics WHERE dataset_id = ? AND generation = ?";
+
+  /**
+   * Statement to remove the summary statistics for all pending generations of
+   * a data set's sensor values
+   */
+  private static final String DELETE_ALL_PENDING_STATISTICS_STATEMENT = "DELETE "
+    + "FROM dataset_pending_statistics WHERE dataset_id = ?";
+
   /**
    * Statement to delete a dataset record
    */
@@ -78,7 +119,9 @@ public class DataSetDB {
       "SELECT " + "d.id, d.instrument_id, d.name, d.start, d.end, d.status, " // 6
         + "d.status_date, d.nrt, d.properties, d.created, d.last_touched, " // 11
         + "COALESCE(d.messages_json, '[]'), " // 12
-        + "d.min_longitude, d.max_longitude, d.min_latitude, d.max_latitude " // 16
+        + "d.min_longitude, d.max_longitude, d.min_latitude, d.max_latitude, " // 16
+        + "d.record_count, d.flags_required, d.column_statistics, " // 19
+        + "d.sensor_values_generation, d.measurements_generation " // 21
         + "FROM dataset d WHERE ");
 
     sql.append(Stream.of(whereFields).map(field -> "d." + field + " = ? ")
@@ -187,6 +230,15 @@ public class DataSetDB {
     LocalDateTime statusDate = DateTimeUtils.longToDate(record.getLong(7));
     boolean nrt = record.getBoolean(8);
     Properties properties = null; // 9
+    String propertiesJson = record.getString(9);
+    if (null != propertiesJson) {
+      properties = new Properties();
+      JSONObject propertiesObject = new JSONObject(propertiesJson);
+      for (String key : propertiesObject.keySet()) {
+        properties.setProperty(key, propertiesObject.getString(key));
+      }
+    }
+
     LocalDateTime createdDate = DateTimeUtils
       .longToDate(record.getTimestamp(10).getTime());
 
@@ -208,9 +260,20 @@ public class DataSetDB {
     double minLat = record.getDouble(15);
     double maxLat = record.getDouble(16);
 
-    return new DataSet(id, instrumentId, name, start, end, status, statusDate,
-      nrt, properties, createdDate, lastTouched, messages, minLon, minLat,
-      maxLon, maxLat);
+    DataSet dataSet = new DataSet(id, instrumentId, name, start, end, status,
+      statusDate, nrt, properties, createdDate, lastTouched, messages, minLon,
+      minLat, maxLon, maxLat);
+
+    // Data sets processed before statistics were added don't have them
+    int recordCount = record.getInt(17);
+    if (!record.wasNull()) {
+      dataSet.setStatistics(new DataSetStatistics(recordCount,
+        record.getInt(18), record.getString(19)));
+    }
+
+    dataSet.setGenerations(record.getInt(20), record.getInt(21));
+
+    return dataSet;
   }
 
   /**
@@ -298,7 +361,13 @@ public class DataSetDB {
       stmt.setInt(5, dataSet.getStatus());
       stmt.setLong(6, DateTimeUtils.dateToLong(dataSet.getStatusDate()));
       stmt.setBoolean(7, dataSet.isNrt());
-      stmt.setNull(8, Types.VARCHAR);
+      String propertiesJson = dataSet.getPropertiesAsJSONString();
+      if (null != propertiesJson) {
+        stmt.setString(8, propertiesJson);
+      } else {
+        stmt.setNull(8, Types.VARCHAR);
+      }
+
       stmt.setLong(9, DateTimeUtils.dateToLong(LocalDateTime.now()));
 
       if (dataSet.getMessageCount() > 0) {
@@ -528,6 +597,197 @@ public class DataSetDB {
     saveDataSet(conn, dataSet);
   }
 
+  /**
+   * Store the summary statistics for a data set. The statistics are not
+   * stored by {@link #updateDataSet(Connection, DataSet)}, so that data set
+   * objects loaded before the statistics were calculated can't overwrite them.
+   * The bounds are stored with the rest of the data set.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param statistics
+   *          The statistics
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static void storeStatistics(Connection conn, long datasetId,
+    DataSetStatistics statistics)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(statistics, "statistics");
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(STORE_STATISTICS_STATEMENT)) {
+
+      stmt.setInt(1, statistics.getRecordCount());
+      stmt.setInt(2, statistics.getFlagsRequired());
+      stmt.setString(3, statistics.getColumnsJson());
+      stmt.setLong(4, datasetId);
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while storing data set statistics",
+        e);
+    }
+  }
+
+  /**
+   * Store the summary statistics for a new generation of a data set's sensor
+   * values that is not yet the current generation. The statistics are held
+   * until the data set is switched to the generation (see
+   * {@link #applyPendingStatistics(Connection, long, int)}), so the data set's
+   * own statistics continue to describe its current values. Any statistics
+   * already stored for the generation are replaced.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The sensor values generation
+   * @param statistics
+   *          The statistics
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static void storePendingStatistics(Connection conn, long datasetId,
+    int generation, DataSetStatistics statistics)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(statistics, "statistics");
+    deletePendingStatistics(conn, datasetId, generation);
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(STORE_PENDING_STATISTICS_STATEMENT)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+      stmt.setInt(3, statistics.getRecordCount());
+      stmt.setInt(4, statistics.getFlagsRequired());
+      stmt.setString(5, statistics.getColumnsJson());
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException(
+        "Error while storing pending data set statistics", e);
+    }
+  }
+
+  /**
+   * Get the summary statistics stored for a pending generation of a data
+   * set's sensor values
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The sensor values generation
+   * @return The statistics, or {@code null} if none have been stored
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @see #storePendingStatistics(Connection, long, int, DataSetStatistics)
+   */
+  public static DataSetStatistics getPendingStatistics(Connection conn,
+    long datasetId, int generation)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    DataSetStatistics result = null;
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_PENDING_STATISTICS_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+
+      try (ResultSet record = stmt.executeQuery()) {
+        if (record.next()) {
+          result = new DataSetStatistics(record.getInt(1), record.getInt(2),
+            record.getString(3));
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException(
+        "Error while getting pending data set statistics", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Make the statistics stored for a pending generation of a data set's
+   * sensor values the data set's statistics, and remove them from the pending
+   * statistics. If no statistics were stored for the generation, the data
+   * set's statistics are left unchanged. The changes are not committed.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The sensor values generation
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @see DataSetDataDB#setSensorValuesGeneration(Connection, long, int, int)
+   */
+  public static void applyPendingStatistics(Connection conn, long datasetId,
+    int generation) throws MissingParamException, DatabaseException {
+
+    DataSetStatistics statistics = getPendingStatistics(conn, datasetId,
+      generation);
+
+    if (null != statistics) {
+      storeStatistics(conn, datasetId, statistics);
+      deletePendingStatistics(conn, datasetId, generation);
+    }
+  }
+
+  /**
+   * Remove the statistics stored for a pending generation of a data set's
+   * sensor values. The changes are not committed.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The sensor values generation
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static void deletePendingStatistics(Connection conn, long datasetId,
+    int generation) throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(DELETE_PENDING_STATISTICS_STATEMENT)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException(
+        "Error while removing pending data set statistics", e);
+    }
+  }
+
   /**
    * Retrieve the most recent data set for an instrument
    *
@@ -675,6 +935,12 @@ public class DataSetDB {
       DataSetDataDB.deleteMeasurements(conn, dataSet.getId());
       DataSetDataDB.deleteSensorValues(conn, dataSet.getId());
 
+      try (PreparedStatement pendingStatement = conn
+        .prepareStatement(DELETE_ALL_PENDING_STATISTICS_STATEMENT)) {
+        pendingStatement.setLong(1, dataSet.getId());
+        pendingStatement.execute();
+      }
+
       datasetStatement = conn.prepareStatement(DELETE_DATASET_QUERY);
       datasetStatement.setLong(1, dataSet.getId());
       datasetStatement.execute();
@@ -10,10 +10,13 @@ import java.sql.Types;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -78,55 +81,206 @@ public class DataSetDataDB {
   public static final String DIAGNOSTICS_FIELDSET_NAME = "Diagnostics";
 
   /**
-   * Statement to store a sensor value
+   * Statement to store a sensor value. Numeric values are stored in the
+   * {@code double_value} column, and text values are stored as references to
+   * the {@code sensor_value_text} table. The {@code value} column is only used
+   * by values stored before the typed columns were added. Automatic QC results
+   * are stored in their binary form in {@code auto_qc_data}.
    */
   private static final String STORE_NEW_SENSOR_VALUE_STATEMENT = "INSERT INTO "
-    + "sensor_values (dataset_id, file_column, date, value, "
-    + "auto_qc, user_qc_flag, user_qc_message) "
-    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    + "sensor_values (dataset_id, file_column, date, double_value, "
+    + "text_value, auto_qc_data, user_qc_flag, user_qc_message, generation) "
+    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /**
+   * The start of a statement to insert multiple sensor values. The values for
+   * each row are added using {@link #SENSOR_VALUE_ROW}.
+   */
+  private static final String BULK_STORE_SENSOR_VALUES_STATEMENT = "INSERT INTO "
+    + "sensor_values (dataset_id, file_column, date, double_value, "
+    + "text_value, auto_qc_data, user_qc_flag, user_qc_message, generation) "
+    + "VALUES ";
+
+  /**
+   * The parameters for a single row in the
+   * {@link #BULK_STORE_SENSOR_VALUES_STATEMENT}
+   */
+  private static final String SENSOR_VALUE_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /**
+   * Query to find the IDs of sensor value text entries
+   */
+  private static final String GET_SENSOR_VALUE_TEXT_QUERY = "SELECT "
+    + "id, value FROM sensor_value_text WHERE value IN "
+    + DatabaseUtils.IN_PARAMS_TOKEN;
+
+  /**
+   * Statement to add a sensor value text entry
+   */
+  private static final String STORE_SENSOR_VALUE_TEXT_STATEMENT = "INSERT INTO "
+    + "sensor_value_text (value) VALUES (?)";
+
+  /**
+   * Query to find the ID of a sensor value text entry that was added by
+   * another transaction. This is a locking read, so it sees the latest
+   * committed entry.
+   */
+  private static final String GET_SENSOR_VALUE_TEXT_ID_QUERY = "SELECT "
+    + "id FROM sensor_value_text WHERE value = ? FOR UPDATE";
+
+  /**
+   * The start of the SQL state for integrity constraint violations, which
+   * include duplicate keys
+   */
+  private static final String INTEGRITY_VIOLATION_STATE = "23";
+
+  /**
+   * The fields of a sensor value record, as read by
+   * {@link #sensorValueFromResultSet(ResultSet, long)}. The text of the value
+   * comes from the {@code sensor_value_text} table, or from the {@code value}
+   * column for values stored before the typed columns were added. The
+   * automatic QC result is read from {@code auto_qc_data}, or from the JSON
+   * {@code auto_qc} column for values that have not been converted (see
+   * {@link #readAutoQC(ResultSet)}). Must be used with
+   * {@link #SENSOR_VALUE_TABLES} or {@link #SENSOR_VALUE_GENERATION_TABLES}.
+   */
+  private static final String SENSOR_VALUE_FIELDS = "sv.id, sv.file_column, "
+    + "sv.date, COALESCE(svt.value, sv.value), sv.double_value, " // 5
+    + "sv.auto_qc_data, sv.user_qc_flag, sv.user_qc_message, " // 8
+    + "sv.auto_qc "; // 9
+
+  /**
+   * The tables from which the {@link #SENSOR_VALUE_FIELDS} are read. Only the
+   * data set's current generation of sensor values is included. The
+   * {@code dataset} table is available as {@code d}.
+   */
+  private static final String SENSOR_VALUE_TABLES = "sensor_values sv "
+    + "INNER JOIN dataset d ON sv.dataset_id = d.id "
+    + "AND sv.generation = d.sensor_values_generation "
+    + "LEFT JOIN sensor_value_text svt ON sv.text_value = svt.id ";
+
+  /**
+   * The tables from which the {@link #SENSOR_VALUE_FIELDS} are read for a
+   * specific generation of sensor values. The query must include a condition
+   * on {@code sv.generation}. This is used by the processing jobs, which may
+   * be working on a generation that is not yet the data set's current one.
+   */
+  private static final String SENSOR_VALUE_GENERATION_TABLES = "sensor_values sv "
+    + "LEFT JOIN sensor_value_text svt ON sv.text_value = svt.id ";
+
+  /**
+   * The measurements for the current generation of a data set, with the
+   * {@code measurements} table available as {@code m}
+   */
+  private static final String MEASUREMENT_TABLES = "measurements m "
+    + "INNER JOIN dataset d ON m.dataset_id = d.id "
+    + "AND m.generation = d.measurements_generation ";
+
+  /**
+   * Join to the measurement values that use each sensor value, for the
+   * current generation of measurements. Used with {@link #SENSOR_VALUE_TABLES}.
+   */
+  private static final String USED_SENSOR_VALUE_JOIN = "LEFT JOIN "
+    + "(measurement_values mv INNER JOIN measurements m "
+    + "ON mv.measurement_id = m.id) ON sv.id = mv.sensor_value_id "
+    + "AND m.generation = d.measurements_generation ";
+
+  /**
+   * The maximum number of rows inserted by each
+   * {@link #BULK_STORE_SENSOR_VALUES_STATEMENT}
+   */
+  private static final int BULK_INSERT_ROWS = 1000;
 
   private static final String UPDATE_SENSOR_VALUE_STATEMENT = "UPDATE sensor_values "
-    + "SET auto_qc=?, user_qc_flag=?, user_qc_message=? WHERE id = ?";
+    + "SET auto_qc=NULL, auto_qc_data=?, user_qc_flag=?, user_qc_message=? "
+    + "WHERE id = ?";
+
+  /**
+   * Query to find the sensor values for a data set whose automatic QC results
+   * are only stored as JSON
+   */
+  private static final String GET_LEGACY_AUTO_QC_QUERY = "SELECT "
+    + "sv.id, sv.auto_qc FROM " + SENSOR_VALUE_TABLES
+    + "WHERE sv.dataset_id = ? AND sv.auto_qc IS NOT NULL "
+    + "AND sv.auto_qc_data IS NULL";
+
+  /**
+   * Statement to replace a JSON automatic QC result with its binary form
+   */
+  private static final String CONVERT_AUTO_QC_STATEMENT = "UPDATE "
+    + "sensor_values SET auto_qc_data = ?, auto_qc = NULL WHERE id = ?";
 
   /**
-   * Statement to remove all sensor values for a data set
+   * Statement to remove all sensor values for a data set, of every generation
    */
   private static final String DELETE_SENSOR_VALUES_STATEMENT = "DELETE FROM "
     + "sensor_values WHERE dataset_id = ?";
 
+  /**
+   * Statement to remove the sensor values in a generation of a data set within
+   * a time range
+   */
+  private static final String DELETE_SENSOR_VALUES_RANGE_STATEMENT = "DELETE "
+    + "FROM sensor_values WHERE dataset_id = ? AND generation = ? "
+    + "AND date >= ? AND date <= ?";
+
+  /**
+   * Query to get the sensor values in a generation of a dataset, ordered by
+   * column
+   */
   private static final String GET_SENSOR_VALUES_BY_COLUMN_QUERY = "SELECT "
-    + "id, file_column, date, value, auto_qc, " // 5
-    + "user_qc_flag, user_qc_message " // 7
-    + "FROM sensor_values WHERE dataset_id = ? " + "ORDER BY file_column, date";
+    + SENSOR_VALUE_FIELDS + "FROM " + SENSOR_VALUE_GENERATION_TABLES
+    + "WHERE sv.dataset_id = ? AND sv.generation = ? "
+    + "ORDER BY sv.file_column, sv.date";
 
   /**
-   * Query to get all the sensor values for a dataset. Flushing values are
-   * ignored.
+   * Query to get all the sensor values in a generation of a dataset. Flushing
+   * values are ignored.
    */
   private static final String GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_QUERY = "SELECT "
-    + "id, file_column, date, value, auto_qc, " // 5
-    + "user_qc_flag, user_qc_message " // 7
-    + "FROM sensor_values WHERE dataset_id = ? AND user_qc_flag != "
-    + Flag.VALUE_FLUSHING + " ORDER BY date, file_column";
+    + SENSOR_VALUE_FIELDS + "FROM " + SENSOR_VALUE_GENERATION_TABLES
+    + "WHERE sv.dataset_id = ? AND sv.generation = ? "
+    + "AND sv.user_qc_flag != " + Flag.VALUE_FLUSHING
+    + " ORDER BY sv.date, sv.file_column";
+
+  /**
+   * Query to get the sensor values in a generation of a dataset within a time
+   * range. Flushing values are ignored.
+   */
+  private static final String GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_RANGE_QUERY = "SELECT "
+    + SENSOR_VALUE_FIELDS + "FROM " + SENSOR_VALUE_GENERATION_TABLES
+    + "WHERE sv.dataset_id = ? AND sv.generation = ? "
+    + "AND sv.date >= ? AND sv.date <= ? "
+    + "AND sv.user_qc_flag != " + Flag.VALUE_FLUSHING
+    + " ORDER BY sv.date, sv.file_column";
 
   /**
-   * Statement to store a measurement record
+   * Statement to store a measurement record. The ID is reserved from the
+   * {@link #MEASUREMENT_ID_SEQUENCE} before the record is stored.
    */
   private static final String STORE_MEASUREMENT_STATEMENT = "INSERT INTO "
-    + "measurements (dataset_id, variable_id, date, longitude, latitude, run_type) "
-    + "VALUES (?, ?, ?, ?, ?, ?)";
+    + "measurements (id, dataset_id, variable_id, date, longitude, latitude, "
+    + "run_type, generation) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /**
+   * The ID sequence for measurement records
+   *
+   * @see DatabaseUtils#reserveIds(DataSource, String, int)
+   */
+  private static final String MEASUREMENT_ID_SEQUENCE = "measurements";
 
   /**
-   * Query to get all measurement records for a dataset
+   * Query to get all measurement records for a generation of a dataset
    */
   private static final String GET_MEASUREMENTS_QUERY = "SELECT "
     + "id, variable_id, date, longitude, latitude, run_type "
-    + "FROM measurements WHERE dataset_id = ? "
+    + "FROM measurements WHERE dataset_id = ? AND generation = ? "
     + "ORDER BY variable_id ASC, date ASC";
 
   private static final String GET_MEASUREMENT_TIMES_QUERY = "SELECT "
-    + "date FROM measurements WHERE dataset_id = ? " + "AND run_type IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY date ASC";
+    + "m.date FROM " + MEASUREMENT_TABLES + "WHERE m.dataset_id = ? "
+    + "AND m.run_type IN " + DatabaseUtils.IN_PARAMS_TOKEN
+    + " ORDER BY m.date ASC";
 
   /**
    * Statement to store a Measurement Value
@@ -153,38 +307,156 @@ public class DataSetDataDB {
   private static final String DELETE_MEASUREMENTS_STATEMENT = "DELETE FROM "
     + "measurements WHERE dataset_id = ?";
 
+  private static final String DELETE_DATA_REDUCTION_RANGE_STATEMENT = "DELETE "
+    + "FROM data_reduction WHERE measurement_id IN "
+    + "(SELECT id FROM measurements WHERE dataset_id = ? AND generation = ? "
+    + "AND date >= ? AND date <= ?)";
+
+  private static final String DELETE_MEASUREMENT_VALUES_RANGE_STATEMENT = "DELETE "
+    + "FROM measurement_values WHERE measurement_id IN "
+    + "(SELECT id FROM measurements WHERE dataset_id = ? AND generation = ? "
+    + "AND date >= ? AND date <= ?)";
+
+  private static final String DELETE_MEASUREMENTS_RANGE_STATEMENT = "DELETE "
+    + "FROM measurements WHERE dataset_id = ? AND generation = ? "
+    + "AND date >= ? AND date <= ?";
+
+  /**
+   * Purge queue content type for sensor values
+   *
+   * @see #queuePurge(Connection, long, int, int)
+   */
+  public static final int PURGE_SENSOR_VALUES = 0;
+
+  /**
+   * Purge queue content type for measurements, along with their measurement
+   * values and data reduction results
+   *
+   * @see #queuePurge(Connection, long, int, int)
+   */
+  public static final int PURGE_MEASUREMENTS = 1;
+
+  /**
+   * Query to get the current sensor values generation for a data set, the
+   * highest generation stored, and the highest generation queued for purging
+   */
+  private static final String GET_SENSOR_VALUES_GENERATIONS_QUERY = "SELECT "
+    + "d.sensor_values_generation, "
+    + "(SELECT MAX(generation) FROM sensor_values WHERE dataset_id = d.id), "
+    + "(SELECT MAX(generation) FROM dataset_purge WHERE dataset_id = d.id "
+    + "AND content = " + PURGE_SENSOR_VALUES + ") FROM dataset d WHERE d.id = ?";
+
+  /**
+   * Query to get the current measurements generation for a data set, the
+   * highest generation stored, and the highest generation queued for purging
+   */
+  private static final String GET_MEASUREMENTS_GENERATIONS_QUERY = "SELECT "
+    + "d.measurements_generation, "
+    + "(SELECT MAX(generation) FROM measurements WHERE dataset_id = d.id), "
+    + "(SELECT MAX(generation) FROM dataset_purge WHERE dataset_id = d.id "
+    + "AND content = " + PURGE_MEASUREMENTS + ") FROM dataset d WHERE d.id = ?";
+
+  /**
+   * Statement to switch a data set to new generations of sensor values and
+   * measurements
+   */
+  private static final String SET_SENSOR_VALUES_GENERATION_STATEMENT = "UPDATE "
+    + "dataset SET sensor_values_generation = ?, measurements_generation = ? "
+    + "WHERE id = ?";
+
+  /**
+   * Statement to switch a data set to a new generation of measurements
+   */
+  private static final String SET_MEASUREMENTS_GENERATION_STATEMENT = "UPDATE "
+    + "dataset SET measurements_generation = ? WHERE id = ?";
+
+  /**
+   * Statement to add an entry to the purge queue
+   */
+  private static final String QUEUE_PURGE_STATEMENT = "INSERT INTO "
+    + "dataset_purge (dataset_id, content, generation, created) "
+    + "VALUES (?, ?, ?, ?)";
+
+  /**
+   * Query to get the oldest entry in the purge queue
+   */
+  private static final String GET_NEXT_PURGE_QUERY = "SELECT "
+    + "id, dataset_id, content, generation FROM dataset_purge "
+    + "ORDER BY id ASC LIMIT 1";
+
+  /**
+   * Statement to remove an entry from the purge queue
+   */
+  private static final String DELETE_PURGE_STATEMENT = "DELETE FROM "
+    + "dataset_purge WHERE id = ?";
+
+  /**
+   * Query to get a chunk of the sensor value IDs in a generation
+   */
+  private static final String GET_PURGE_SENSOR_VALUE_IDS_QUERY = "SELECT id "
+    + "FROM sensor_values WHERE dataset_id = ? AND generation = ? LIMIT ?";
+
+  /**
+   * Query to get a chunk of the measurement IDs in a generation
+   */
+  private static final String GET_PURGE_MEASUREMENT_IDS_QUERY = "SELECT id "
+    + "FROM measurements WHERE dataset_id = ? AND generation = ? LIMIT ?";
+
+  /**
+   * Statements to remove a chunk of measurements by ID, in the order they
+   * must be run
+   */
+  private static final String[] PURGE_MEASUREMENTS_STATEMENTS = {
+    "DELETE FROM data_reduction WHERE measurement_id IN "
+      + DatabaseUtils.IN_PARAMS_TOKEN,
+    "DELETE FROM measurement_values WHERE measurement_id IN "
+      + DatabaseUtils.IN_PARAMS_TOKEN,
+    "DELETE FROM measurements WHERE id IN " + DatabaseUtils.IN_PARAMS_TOKEN };
+
+  /**
+   * Statement to remove a chunk of sensor values by ID
+   */
+  private static final String PURGE_SENSOR_VALUES_STATEMENT = "DELETE FROM "
+    + "sensor_values WHERE id IN " + DatabaseUtils.IN_PARAMS_TOKEN;
+
+  /**
+   * Query to get the sensor values for a set of times. The time condition is
+   * added by {@link TimeSelection#makeSql(String, String)}.
+   */
   private static final String GET_SENSOR_VALUES_BY_DATE_QUERY = "SELECT "
-    + "sv.id, sv.file_column, sv.date, sv.value, sv.auto_qc, " // 5
-    + "sv.user_qc_flag, sv.user_qc_message, mv.measurement_id " // 8
-    + "FROM sensor_values sv LEFT JOIN measurement_values mv "
-    + "ON sv.id = mv.sensor_value_id WHERE sv.dataset_id = ? "
-    + "AND sv.date IN " + DatabaseUtils.IN_PARAMS_TOKEN + " "
-    + "ORDER BY sv.date ASC";
+    + SENSOR_VALUE_FIELDS + ", mv.measurement_id " // 10
+    + "FROM " + SENSOR_VALUE_TABLES + USED_SENSOR_VALUE_JOIN
+    + "WHERE sv.dataset_id = ? "
+    + "AND " + TimeSelection.TIMES_TOKEN + " ORDER BY sv.date ASC";
 
   private static final String GET_SENSOR_VALUES_BY_SENSOR_QUERY = "SELECT "
-    + "sv.id, sv.file_column, sv.date, sv.value, sv.auto_qc, " // 5
-    + "sv.user_qc_flag, sv.user_qc_message, mv.measurement_id " // 8
-    + "FROM sensor_values sv LEFT JOIN measurement_values mv "
-    + "ON sv.id = mv.sensor_value_id WHERE sv.dataset_id = ? "
+    + SENSOR_VALUE_FIELDS + ", mv.measurement_id " // 10
+    + "FROM " + SENSOR_VALUE_TABLES + USED_SENSOR_VALUE_JOIN
+    + "WHERE sv.dataset_id = ? "
     + "AND sv.file_column IN " + DatabaseUtils.IN_PARAMS_TOKEN + " "
     + "ORDER BY sv.date ASC";
 
   private static final String GET_SENSOR_VALUE_DATES_QUERY = "SELECT DISTINCT "
-    + "date FROM sensor_values WHERE dataset_id = ? ORDER BY date ASC";
+    + "sv.date FROM " + SENSOR_VALUE_TABLES + "WHERE sv.dataset_id = ? "
+    + "ORDER BY sv.date ASC";
 
   private static final String GET_REQUIRED_FLAGS_QUERY = "SELECT "
-    + "COUNT(*) FROM sensor_values WHERE dataset_id = ? "
-    + "AND user_qc_flag = " + Flag.VALUE_NEEDED;
+    + "COUNT(*) FROM " + SENSOR_VALUE_TABLES + "WHERE sv.dataset_id = ? "
+    + "AND sv.user_qc_flag = " + Flag.VALUE_NEEDED;
 
+  /**
+   * Query to get the data reduction results for a set of times. The time
+   * condition is added by {@link TimeSelection#makeSql(String, String)}.
+   */
   private static final String GET_DATA_REDUCTION_DATE_FILTER_QUERY = "SELECT "
     + "m.date, dr.variable_id, dr.calculation_values, dr.qc_flag, dr.qc_message "
-    + "FROM measurements m INNER JOIN data_reduction dr "
-    + "ON (m.id = dr.measurement_id) WHERE m.dataset_id = ? " + "AND m.date IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY m.date ASC";
+    + "FROM " + MEASUREMENT_TABLES + "INNER JOIN data_reduction dr "
+    + "ON (m.id = dr.measurement_id) WHERE m.dataset_id = ? AND "
+    + TimeSelection.TIMES_TOKEN + " ORDER BY m.date ASC";
 
   private static final String GET_DATA_REDUCTION_QUERY = "SELECT "
-    + "m.date, dr.calculation_values, qc_flag "
-    + "FROM measurements m INNER JOIN data_reduction dr "
+    + "m.date, dr.calculation_values, dr.qc_flag "
+    + "FROM " + MEASUREMENT_TABLES + "INNER JOIN data_reduction dr "
     + "ON (m.id = dr.measurement_id) WHERE m.dataset_id = ? "
     + "AND dr.variable_id = ? ORDER BY m.date ASC";
 
@@ -192,12 +464,36 @@ public class DataSetDataDB {
     + "user_qc_flag = ?, user_qc_message = ? " + "WHERE id = ?";
 
   private static final String GET_RECORD_COUNT_QUERY = "SELECT "
-    + "COUNT(DISTINCT(date)) FROM sensor_values WHERE dataset_id = ?";
+    + "COUNT(DISTINCT(sv.date)) FROM " + SENSOR_VALUE_TABLES
+    + "WHERE sv.dataset_id = ?";
+
+  /**
+   * Query for the record count stored in a dataset's statistics
+   *
+   * @see DataSetStatistics
+   */
+  private static final String GET_STORED_RECORD_COUNT_QUERY = "SELECT "
+    + "record_count FROM dataset WHERE id = ?";
+
+  /**
+   * Query for the number of required flags stored in a dataset's statistics
+   *
+   * @see DataSetStatistics
+   */
+  private static final String GET_STORED_FLAGS_REQUIRED_QUERY = "SELECT "
+    + "flags_required FROM dataset WHERE id = ?";
+
+  /**
+   * Statement to adjust the number of required flags stored in a dataset's
+   * statistics
+   */
+  private static final String UPDATE_FLAGS_REQUIRED_STATEMENT = "UPDATE "
+    + "dataset SET flags_required = flags_required + ? WHERE id = ?";
 
   private static final String GET_RUN_TYPES_QUERY = "SELECT "
-    + "date, value FROM sensor_values "
-    + " WHERE dataset_id = ? AND file_column IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY date ASC";
+    + "sv.date, COALESCE(svt.value, sv.value) FROM " + SENSOR_VALUE_TABLES
+    + "WHERE sv.dataset_id = ? AND sv.file_column IN "
+    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY sv.date ASC";
 
   /**
    * Take a list of fields, and return those which come from the dataset data.
@@ -305,20 +601,24 @@ public class DataSetDataDB {
    * Values will only be stored if their {@code dirty} flag is set.
    *
    * If a sensor value has a database ID, it will be updated. Otherwise it will
-   * be stored as a new record. Note that the new records will not be given an
-   * ID; they must be re-read from the database afterwards.
+   * be stored as a new record in the specified generation. Note that the new
+   * records will not be given an ID; they must be re-read from the database
+   * afterwards.
    *
    * @param conn
    *          A database connection
    * @param sensorValues
    *          The sensor values
+   * @param generation
+   *          The generation of the new records
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
+   * @see DataSet#getSensorValuesGeneration()
    */
   public static void storeSensorValues(Connection conn,
-    Collection<SensorValue> sensorValues)
+    Collection<SensorValue> sensorValues, int generation)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(conn, "conn");
@@ -328,6 +628,8 @@ public class DataSetDataDB {
     PreparedStatement updateStmt = null;
 
     try {
+      Map<String, Integer> textIds = getTextIds(conn, sensorValues);
+
       addStmt = conn.prepareStatement(STORE_NEW_SENSOR_VALUE_STATEMENT);
       updateStmt = conn.prepareStatement(UPDATE_SENSOR_VALUE_STATEMENT);
 
@@ -338,19 +640,15 @@ public class DataSetDataDB {
             addStmt.setLong(1, value.getDatasetId());
             addStmt.setLong(2, value.getColumnId());
             addStmt.setLong(3, DateTimeUtils.dateToLong(value.getTime()));
-            if (null == value.getValue()) {
-              addStmt.setNull(4, Types.VARCHAR);
-            } else {
-              addStmt.setString(4, value.getValue());
-            }
-
-            addStmt.setString(5, value.getAutoQcResult().toJson());
-            addStmt.setInt(6, value.getUserQCFlag().getFlagValue());
-            addStmt.setString(7, value.getUserQCMessage());
+            setValueParams(addStmt, 4, value, textIds);
+            addStmt.setBytes(6, value.getEncodedAutoQcResult());
+            addStmt.setInt(7, value.getUserQCFlag().getFlagValue());
+            addStmt.setString(8, value.getUserQCMessage());
+            addStmt.setInt(9, generation);
 
             addStmt.addBatch();
           } else {
-            updateStmt.setString(1, value.getAutoQcResult().toJson());
+            updateStmt.setBytes(1, value.getEncodedAutoQcResult());
             updateStmt.setInt(2, value.getUserQCFlag().getFlagValue());
             updateStmt.setString(3, value.getUserQCMessage());
             updateStmt.setLong(4, value.getId());
@@ -373,163 +671,772 @@ public class DataSetDataDB {
   }
 
   /**
-   * Remove all sensor values for a dataset
+   * Store a set of new sensor values in the database using multi-row
+   * {@code INSERT} statements. This is much faster than
+   * {@link #storeSensorValues(Connection, Collection, int)} for large numbers of
+   * values, and is intended for storing the values of a newly extracted
+   * dataset.
+   *
+   * <p>
+   * Values will only be stored if their {@code dirty} flag is set. Any values
+   * that are already in the database are updated using
+   * {@link #storeSensorValues(Connection, Collection, int)}. As with that
+   * method, the new records will not be given an ID.
+   * </p>
    *
    * @param conn
    *          A database connection
-   * @param datasetId
-   *          The dataset's database ID
+   * @param sensorValues
+   *          The sensor values
+   * @param generation
+   *          The generation of the new records
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
    */
-  public static void deleteSensorValues(Connection conn, long datasetId)
+  public static void storeNewSensorValues(Connection conn,
+    Collection<SensorValue> sensorValues, int generation)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(conn, "conn");
-    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(sensorValues, "sensorValues");
 
-    PreparedStatement stmt = null;
+    List<SensorValue> newValues = new ArrayList<SensorValue>(
+      sensorValues.size());
+    List<SensorValue> existingValues = new ArrayList<SensorValue>();
+
+    for (SensorValue value : sensorValues) {
+      if (value.isDirty()) {
+        if (value.isInDatabase()) {
+          existingValues.add(value);
+        } else {
+          newValues.add(value);
+        }
+      }
+    }
+
+    PreparedStatement fullStmt = null;
+    PreparedStatement lastStmt = null;
 
     try {
-      stmt = conn.prepareStatement(DELETE_SENSOR_VALUES_STATEMENT);
+      Map<String, Integer> textIds = getTextIds(conn, newValues);
+      int position = 0;
 
-      stmt.setLong(1, datasetId);
-      stmt.execute();
+      while (position < newValues.size()) {
+        int rows = Math.min(BULK_INSERT_ROWS, newValues.size() - position);
+
+        PreparedStatement stmt;
+        if (rows == BULK_INSERT_ROWS) {
+          if (null == fullStmt) {
+            fullStmt = conn.prepareStatement(makeBulkInsertStatement(rows));
+          }
+          stmt = fullStmt;
+        } else {
+          lastStmt = conn.prepareStatement(makeBulkInsertStatement(rows));
+          stmt = lastStmt;
+        }
+
+        int param = 1;
+        for (int i = position; i < position + rows; i++) {
+          SensorValue value = newValues.get(i);
+
+          stmt.setLong(param++, value.getDatasetId());
+          stmt.setLong(param++, value.getColumnId());
+          stmt.setLong(param++, DateTimeUtils.dateToLong(value.getTime()));
+          param = setValueParams(stmt, param, value, textIds);
+          stmt.setBytes(param++, value.getEncodedAutoQcResult());
+          stmt.setInt(param++, value.getUserQCFlag().getFlagValue());
+          stmt.setString(param++, value.getUserQCMessage());
+          stmt.setInt(param++, generation);
+        }
+
+        stmt.execute();
+        position += rows;
+      }
     } catch (SQLException e) {
       throw new DatabaseException("Error storing sensor values", e);
     } finally {
-      DatabaseUtils.closeStatements(stmt);
+      DatabaseUtils.closeStatements(fullStmt, lastStmt);
+    }
+
+    SensorValue.clearDirtyFlag(newValues);
+
+    if (existingValues.size() > 0) {
+      storeSensorValues(conn, existingValues, generation);
     }
   }
 
   /**
-   * Get all the sensor values for a dataset grouped by their column in the
-   * source data file(s)
+   * Build a statement to insert the specified number of sensor values
+   *
+   * @param rows
+   *          The number of values
+   * @return The statement SQL
+   */
+  private static String makeBulkInsertStatement(int rows) {
+    StringBuilder sql = new StringBuilder(
+      BULK_STORE_SENSOR_VALUES_STATEMENT.length()
+        + rows * (SENSOR_VALUE_ROW.length() + 1));
+
+    sql.append(BULK_STORE_SENSOR_VALUES_STATEMENT);
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        sql.append(',');
+      }
+      sql.append(SENSOR_VALUE_ROW);
+    }
+
+    return sql.toString();
+  }
+
+  /**
+   * Set the {@code double_value} and {@code text_value} parameters for a
+   * sensor value in an insert statement
+   *
+   * @param stmt
+   *          The statement
+   * @param param
+   *          The index of the {@code double_value} parameter
+   * @param value
+   *          The sensor value
+   * @param textIds
+   *          The IDs of the text entries, from
+   *          {@link #getTextIds(Connection, Collection)}
+   * @return The index of the parameter following the value parameters
+   * @throws SQLException
+   *           If the parameters cannot be set
+   */
+  private static int setValueParams(PreparedStatement stmt, int param,
+    SensorValue value, Map<String, Integer> textIds) throws SQLException {
+
+    if (value.isNaN()) {
+      stmt.setNull(param, Types.DOUBLE);
+    } else {
+      stmt.setDouble(param, value.getDoubleValue());
+    }
+
+    if (value.isText()) {
+      stmt.setInt(param + 1, textIds.get(value.getValue()));
+    } else {
+      stmt.setNull(param + 1, Types.INTEGER);
+    }
+
+    return param + 2;
+  }
+
+  /**
+   * Get the IDs of the {@code sensor_value_text} entries for the text values
+   * in a set of new sensor values, adding entries for any text that is not
+   * already in the table.
+   *
+   * <p>
+   * The table is unique on the text, which is compared exactly. Each text is
+   * only added if it is absent: if another transaction adds the same text
+   * first, its entry is used instead. New texts are added in sorted order so
+   * that concurrent transactions adding several of the same texts wait for
+   * each other instead of deadlocking.
+   * </p>
    *
    * @param conn
    *          A database connection
-   * @param datasetId
-   *          The database ID of the dataset whose values are to be retrieved
-   * @return The values
-   * @throws RecordNotFoundException
-   *           If the instrument configuration does not match the values
-   * @throws DatabaseException
-   *           If a database error occurs
+   * @param sensorValues
+   *          The sensor values
+   * @return The text entry IDs, keyed by text
    * @throws MissingParamException
-   *           If any required parameters are missing
+   *           If the query cannot be constructed
+   * @throws SQLException
+   *           If a database error occurs
    */
-  public static Map<Long, SearchableSensorValuesList> getSensorValuesByColumn(
-    Connection conn, long datasetId)
-    throws RecordNotFoundException, DatabaseException, MissingParamException {
+  private static Map<String, Integer> getTextIds(Connection conn,
+    Collection<SensorValue> sensorValues)
+    throws MissingParamException, SQLException {
 
-    MissingParam.checkMissing(conn, "conn");
-    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    Map<String, Integer> result = new HashMap<String, Integer>();
 
-    Map<Long, SearchableSensorValuesList> values = new HashMap<Long, SearchableSensorValuesList>();
-    PreparedStatement stmt = null;
-    ResultSet records = null;
+    Set<String> texts = new HashSet<String>();
+    for (SensorValue value : sensorValues) {
+      if (value.isDirty() && !value.isInDatabase() && value.isText()) {
+        texts.add(value.getValue());
+      }
+    }
 
-    try {
+    if (texts.size() > 0) {
+      List<String> textList = new ArrayList<String>(texts);
 
-      stmt = conn.prepareStatement(GET_SENSOR_VALUES_BY_COLUMN_QUERY);
-      stmt.setLong(1, datasetId);
+      try (PreparedStatement stmt = conn.prepareStatement(DatabaseUtils
+        .makeInStatementSql(GET_SENSOR_VALUE_TEXT_QUERY, textList.size()))) {
 
-      records = stmt.executeQuery();
+        for (int i = 0; i < textList.size(); i++) {
+          stmt.setString(i + 1, textList.get(i));
+        }
+
+        try (ResultSet records = stmt.executeQuery()) {
+          while (records.next()) {
+            String text = records.getString(2);
+            if (texts.contains(text)) {
+              result.put(text, records.getInt(1));
+            }
+          }
+        }
+      }
 
-      long currentColumnId = -1;
-      SearchableSensorValuesList currentSensorValues = new SearchableSensorValuesList();
+      Collections.sort(textList);
 
-      while (records.next()) {
-        SensorValue sensorValue = sensorValueFromResultSet(records, datasetId);
+      try (
+        PreparedStatement storeStmt = conn.prepareStatement(
+          STORE_SENSOR_VALUE_TEXT_STATEMENT, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement findStmt = conn
+          .prepareStatement(GET_SENSOR_VALUE_TEXT_ID_QUERY)) {
 
-        if (sensorValue.getColumnId() != currentColumnId) {
-          if (currentColumnId != -1) {
-            values.put(currentColumnId, currentSensorValues);
+        for (String text : textList) {
+          if (!result.containsKey(text)) {
+            result.put(text, storeText(storeStmt, findStmt, text));
           }
-
-          currentColumnId = sensorValue.getColumnId();
-          currentSensorValues = new SearchableSensorValuesList();
         }
-
-        currentSensorValues.add(sensorValue);
       }
+    }
+
+    return result;
+  }
+
+  /**
+   * Add a {@code sensor_value_text} entry if it is absent. If another
+   * transaction has added the same text since it was looked up, the unique
+   * key rejects the new entry and the existing entry's ID is returned.
+   *
+   * @param storeStmt
+   *          The {@link #STORE_SENSOR_VALUE_TEXT_STATEMENT}
+   * @param findStmt
+   *          The {@link #GET_SENSOR_VALUE_TEXT_ID_QUERY}
+   * @param text
+   *          The text
+   * @return The entry ID
+   * @throws SQLException
+   *           If a database error occurs
+   */
+  private static int storeText(PreparedStatement storeStmt,
+    PreparedStatement findStmt, String text) throws SQLException {
+
+    int result;
 
-      if (currentColumnId == -1) {
-        throw new RecordNotFoundException(
-          "No sensor values found for dataset " + datasetId);
-      } else {
-        values.put(currentColumnId, currentSensorValues);
+    try {
+      storeStmt.setString(1, text);
+      storeStmt.execute();
+
+      try (ResultSet keys = storeStmt.getGeneratedKeys()) {
+        keys.next();
+        result = keys.getInt(1);
+      }
+    } catch (SQLException e) {
+      if (null == e.getSQLState()
+        || !e.getSQLState().startsWith(INTEGRITY_VIOLATION_STATE)) {
+        throw e;
       }
 
-    } catch (Exception e) {
-      throw new DatabaseException("Error while retrieving sensor values", e);
-    } finally {
-      DatabaseUtils.closeResultSets(records);
-      DatabaseUtils.closeStatements(stmt);
+      findStmt.setString(1, text);
+      try (ResultSet records = findStmt.executeQuery()) {
+        if (!records.next()) {
+          throw e;
+        }
+        result = records.getInt(1);
+      }
     }
 
-    return values;
+    return result;
   }
 
   /**
-   * Get all the sensor values for a data set The returned list is ordered by
-   * timestamp and then grouped by the values' source {@code file_column}
-   * database records. Any sensor values whose user QC flag is set to FLUSHING
-   * will not be included.
+   * Convert the automatic QC results for a data set that are stored as JSON
+   * into their binary form. Values whose results have already been converted
+   * are not touched.
    *
    * @param conn
    *          A database connection
    * @param datasetId
-   *          The dataset whose values are to be retrieved
-   * @return The values
+   *          The dataset's database ID
+   * @return The number of values converted
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
+   * @see AutoQCResult#encode()
    */
-  public static DateColumnGroupedSensorValues getSensorValuesByDateAndColumn(
-    Connection conn, Instrument instrument, long datasetId)
+  public static int convertLegacyAutoQC(Connection conn, long datasetId)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(datasetId, "datasetId");
 
-    DateColumnGroupedSensorValues result = new DateColumnGroupedSensorValues(
-      instrument);
+    int count = 0;
 
-    PreparedStatement stmt = null;
+    PreparedStatement readStmt = null;
     ResultSet records = null;
+    PreparedStatement convertStmt = null;
 
     try {
-      stmt = conn.prepareStatement(GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_QUERY);
-      stmt.setLong(1, datasetId);
+      readStmt = conn.prepareStatement(GET_LEGACY_AUTO_QC_QUERY);
+      readStmt.setLong(1, datasetId);
+      records = readStmt.executeQuery();
+
+      convertStmt = conn.prepareStatement(CONVERT_AUTO_QC_STATEMENT);
 
-      records = stmt.executeQuery();
       while (records.next()) {
-        result.add(sensorValueFromResultSet(records, datasetId));
+        convertStmt.setBytes(1,
+          AutoQCResult.buildFromJson(records.getString(2)).encode());
+        convertStmt.setLong(2, records.getLong(1));
+        convertStmt.addBatch();
+        count++;
+
+        if (count % BULK_INSERT_ROWS == 0) {
+          convertStmt.executeBatch();
+        }
       }
-    } catch (Exception e) {
-      throw new DatabaseException("Error while retrieving sensor values", e);
+
+      convertStmt.executeBatch();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error converting automatic QC results", e);
     } finally {
       DatabaseUtils.closeResultSets(records);
-      DatabaseUtils.closeStatements(stmt);
+      DatabaseUtils.closeStatements(readStmt, convertStmt);
     }
 
-    return result;
+    return count;
   }
 
   /**
-   * Build a SensorValue object from a ResultSet
+   * Remove all sensor values for a dataset, of every generation. This is only
+   * intended for deleting a whole data set; replaced generations are removed
+   * in the background (see {@link #purgeChunk(Connection, int)}).
    *
-   * @param record
-   *          The ResultSet
+   * @param conn
+   *          A database connection
    * @param datasetId
-   *          The ID of the value's parent dataset
-   * @return The SensorValue
-   * @throws SQLException
-   *           If any values cannot be read
+   *          The dataset's database ID
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static void deleteSensorValues(Connection conn, long datasetId)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    PreparedStatement stmt = null;
+
+    try {
+      stmt = conn.prepareStatement(DELETE_SENSOR_VALUES_STATEMENT);
+
+      stmt.setLong(1, datasetId);
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error storing sensor values", e);
+    } finally {
+      DatabaseUtils.closeStatements(stmt);
+    }
+  }
+
+  /**
+   * Remove the sensor values in a generation of a dataset that fall within a
+   * time range. Any measurements using them must be removed first with
+   * {@link #deleteMeasurements(Connection, long, int, LocalDateTime, LocalDateTime)}.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @param generation
+   *          The sensor values generation
+   * @param start
+   *          The start of the range (inclusive)
+   * @param end
+   *          The end of the range (inclusive)
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static void deleteSensorValues(Connection conn, long datasetId,
+    int generation, LocalDateTime start, LocalDateTime end)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(start, "start");
+    MissingParam.checkMissing(end, "end");
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(DELETE_SENSOR_VALUES_RANGE_STATEMENT)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+      stmt.setLong(3, DateTimeUtils.dateToLong(start));
+      stmt.setLong(4, DateTimeUtils.dateToLong(end));
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error deleting sensor values", e);
+    }
+  }
+
+  /**
+   * Get all the sensor values in a generation of a dataset grouped by their
+   * column in the source data file(s)
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The database ID of the dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @return The values
+   * @throws RecordNotFoundException
+   *           If the instrument configuration does not match the values
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see #streamSensorValuesByColumn(Connection, long, int,
+   *      SensorValueColumnVisitor)
+   */
+  public static Map<Long, SearchableSensorValuesList> getSensorValuesByColumn(
+    Connection conn, long datasetId, int generation)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    Map<Long, SearchableSensorValuesList> values = new HashMap<Long, SearchableSensorValuesList>();
+
+    try {
+      streamSensorValuesByColumn(conn, datasetId, generation, values::put);
+    } catch (RecordNotFoundException | DatabaseException
+      | MissingParamException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+
+    return values;
+  }
+
+  /**
+   * Stream all the sensor values in a generation of a dataset from the
+   * database, passing the values for each column in the source data file(s)
+   * to a visitor. Only one column's values are held in memory at a time.
+   *
+   * @param conn
+   *          A database connection. It cannot be used by the visitor.
+   * @param datasetId
+   *          The database ID of the dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @param visitor
+   *          The visitor
+   * @throws RecordNotFoundException
+   *           If there are no values for the dataset
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws Exception
+   *           If the visitor throws an exception
+   * @see DatabaseUtils#createStreamingStatement(Connection, String)
+   */
+  public static void streamSensorValuesByColumn(Connection conn,
+    long datasetId, int generation, SensorValueColumnVisitor visitor)
+    throws Exception {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(visitor, "visitor");
+
+    try (PreparedStatement stmt = DatabaseUtils.createStreamingStatement(conn,
+      GET_SENSOR_VALUES_BY_COLUMN_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        long currentColumnId = -1;
+        SearchableSensorValuesList currentSensorValues = new SearchableSensorValuesList();
+
+        while (records.next()) {
+          SensorValue sensorValue = sensorValueFromResultSet(records,
+            datasetId);
+
+          if (sensorValue.getColumnId() != currentColumnId) {
+            if (currentColumnId != -1) {
+              visitor.visit(currentColumnId, currentSensorValues);
+            }
+
+            currentColumnId = sensorValue.getColumnId();
+            currentSensorValues = new SearchableSensorValuesList();
+          }
+
+          currentSensorValues.add(sensorValue);
+        }
+
+        if (currentColumnId == -1) {
+          throw new RecordNotFoundException(
+            "No sensor values found for dataset " + datasetId);
+        } else {
+          visitor.visit(currentColumnId, currentSensorValues);
+        }
+      }
+    } catch (SQLException | InvalidFlagException e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+  }
+
+  /**
+   * Get all the sensor values for a dataset grouped by their column in the
+   * source data file(s), held as {@link SensorValueColumn}s. The values are
+   * read directly into the columns without creating {@link SensorValue}
+   * objects. All the columns share a single string table.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The database ID of the dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @return The values
+   * @throws RecordNotFoundException
+   *           If there are no values for the dataset
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see #getSensorValuesByColumn(Connection, long, int)
+   */
+  public static Map<Long, SensorValueColumn> getSensorValueColumns(
+    Connection conn, long datasetId, int generation)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    Map<Long, SensorValueColumn> values = new HashMap<Long, SensorValueColumn>();
+    SensorValueColumn.StringTable strings = new SensorValueColumn.StringTable();
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_SENSOR_VALUES_BY_COLUMN_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        SensorValueColumn currentColumn = null;
+
+        while (records.next()) {
+          long columnId = records.getLong(2);
+
+          if (null == currentColumn || currentColumn.getColumnId() != columnId) {
+            if (null != currentColumn) {
+              currentColumn.trimToSize();
+            }
+
+            currentColumn = new SensorValueColumn(datasetId, columnId, strings);
+            values.put(columnId, currentColumn);
+          }
+
+          String text = records.getString(4);
+          double doubleValue = records.getDouble(5);
+          if (records.wasNull()) {
+            // Values stored before the typed columns were added only have
+            // text, which may be a number
+            doubleValue = SensorValue.parseDouble(text);
+          }
+
+          if (!Double.isNaN(doubleValue)) {
+            text = null;
+          }
+
+          currentColumn.add(records.getLong(1), records.getLong(3),
+            doubleValue, text, readAutoQC(records),
+            new Flag(records.getInt(7)), records.getString(8));
+        }
+
+        if (null == currentColumn) {
+          throw new RecordNotFoundException(
+            "No sensor values found for dataset " + datasetId);
+        }
+
+        currentColumn.trimToSize();
+      }
+    } catch (SQLException | InvalidFlagException e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+
+    return values;
+  }
+
+  /**
+   * Get all the sensor values in a generation of a data set The returned list
+   * is ordered by timestamp and then grouped by the values' source
+   * {@code file_column} database records. Any sensor values whose user QC flag
+   * is set to FLUSHING will not be included.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @return The values
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static DateColumnGroupedSensorValues getSensorValuesByDateAndColumn(
+    Connection conn, Instrument instrument, long datasetId, int generation)
+    throws MissingParamException, DatabaseException {
+
+    return getSensorValuesByDateAndColumn(conn, instrument, datasetId,
+      generation, null, null);
+  }
+
+  /**
+   * Get the sensor values in a generation of a data set within a time range.
+   * The values are ordered and grouped in the same way as
+   * {@link #getSensorValuesByDateAndColumn(Connection, Instrument, long, int)}.
+   *
+   * @param conn
+   *          A database connection
+   * @param instrument
+   *          The instrument to which the dataset belongs
+   * @param datasetId
+   *          The dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @param start
+   *          The start of the range (inclusive). If {@code null}, all values
+   *          are retrieved.
+   * @param end
+   *          The end of the range (inclusive)
+   * @return The values
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static DateColumnGroupedSensorValues getSensorValuesByDateAndColumn(
+    Connection conn, Instrument instrument, long datasetId, int generation,
+    LocalDateTime start, LocalDateTime end)
+    throws MissingParamException, DatabaseException {
+
+    DateColumnGroupedSensorValues result = new DateColumnGroupedSensorValues(
+      instrument);
+
+    try {
+      streamSensorValuesByDate(conn, instrument, datasetId, generation, start,
+        end, result::put);
+    } catch (DatabaseException | MissingParamException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Stream the sensor values in a generation of a data set from the database,
+   * passing the values for each time to a visitor. The values for each time
+   * are grouped by sensor type. Only one time's values are held in memory at
+   * a time. Any sensor values whose user QC flag is set to FLUSHING will not
+   * be included.
+   *
+   * @param conn
+   *          A database connection. It cannot be used by the visitor.
+   * @param instrument
+   *          The instrument to which the dataset belongs
+   * @param datasetId
+   *          The dataset whose values are to be retrieved
+   * @param generation
+   *          The sensor values generation
+   * @param start
+   *          The start of the time range (inclusive). If {@code null}, all
+   *          values are retrieved.
+   * @param end
+   *          The end of the time range (inclusive)
+   * @param visitor
+   *          The visitor
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws Exception
+   *           If the visitor throws an exception
+   * @see DatabaseUtils#createStreamingStatement(Connection, String)
+   */
+  public static void streamSensorValuesByDate(Connection conn,
+    Instrument instrument, long datasetId, int generation,
+    LocalDateTime start, LocalDateTime end, SensorValueDateVisitor visitor)
+    throws Exception {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(instrument, "instrument");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(visitor, "visitor");
+    if (null != start) {
+      MissingParam.checkMissing(end, "end");
+    }
+
+    SensorAssignments sensorAssignments = instrument.getSensorAssignments();
+
+    String query = null == start ? GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_QUERY
+      : GET_SENSOR_VALUES_BY_DATE_AND_COLUMN_RANGE_QUERY;
+
+    try (PreparedStatement stmt = DatabaseUtils.createStreamingStatement(conn,
+      query)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+      if (null != start) {
+        stmt.setLong(3, DateTimeUtils.dateToLong(start));
+        stmt.setLong(4, DateTimeUtils.dateToLong(end));
+      }
+
+      try (ResultSet records = stmt.executeQuery()) {
+        LocalDateTime currentTime = null;
+        Map<SensorType, List<SensorValue>> currentValues = null;
+
+        while (records.next()) {
+          SensorValue value = sensorValueFromResultSet(records, datasetId);
+
+          if (!value.getTime().equals(currentTime)) {
+            if (null != currentTime) {
+              visitor.visit(currentTime, currentValues);
+            }
+
+            currentTime = value.getTime();
+            currentValues = new HashMap<SensorType, List<SensorValue>>();
+          }
+
+          DateColumnGroupedSensorValues.addToGroup(currentValues,
+            sensorAssignments, value);
+        }
+
+        if (null != currentTime) {
+          visitor.visit(currentTime, currentValues);
+        }
+      }
+    } catch (SQLException | InvalidFlagException e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+  }
+
+  /**
+   * Build a SensorValue object from a ResultSet
+   *
+   * @param record
+   *          The ResultSet
+   * @param datasetId
+   *          The ID of the value's parent dataset
+   * @return The SensorValue
+   * @throws SQLException
+   *           If any values cannot be read
    * @throws InvalidFlagException
    *           If the stored Flag value is invalid
    */
@@ -540,72 +1447,127 @@ public class DataSetDataDB {
     long fileColumnId = record.getLong(2);
     LocalDateTime time = DateTimeUtils.longToDate(record.getLong(3));
     String value = record.getString(4);
-    AutoQCResult autoQC = AutoQCResult.buildFromJson(record.getString(5));
-    Flag userQCFlag = new Flag(record.getInt(6));
-    String userQCMessage = record.getString(7);
+    double doubleValue = record.getDouble(5);
+    if (record.wasNull()) {
+      doubleValue = Double.NaN;
+    }
+    Flag userQCFlag = new Flag(record.getInt(7));
+    String userQCMessage = record.getString(8);
+
+    SensorValue result;
+
+    // The binary QC result is decoded by the SensorValue when it is needed
+    byte[] encodedAutoQC = record.getBytes(6);
+    if (null != encodedAutoQC) {
+      result = new SensorValue(valueId, datasetId, fileColumnId, time, value,
+        doubleValue, encodedAutoQC, userQCFlag, userQCMessage);
+    } else {
+      result = new SensorValue(valueId, datasetId, fileColumnId, time, value,
+        doubleValue, AutoQCResult.buildFromJson(record.getString(9)),
+        userQCFlag, userQCMessage);
+    }
 
-    return new SensorValue(valueId, datasetId, fileColumnId, time, value,
-      autoQC, userQCFlag, userQCMessage);
+    return result;
+  }
+
+  /**
+   * Read the automatic QC result from a record containing the
+   * {@link #SENSOR_VALUE_FIELDS}. Results stored as JSON before the binary
+   * form was introduced are read from the JSON.
+   *
+   * @param record
+   *          The record
+   * @return The automatic QC result
+   * @throws SQLException
+   *           If the result cannot be read
+   */
+  private static AutoQCResult readAutoQC(ResultSet record)
+    throws SQLException {
+
+    AutoQCResult result;
+
+    byte[] encoded = record.getBytes(6);
+    if (null != encoded) {
+      result = AutoQCResult.decode(encoded);
+    } else {
+      result = AutoQCResult.buildFromJson(record.getString(9));
+    }
+
+    return result;
   }
 
   /**
-   * Store a set of measurements in the database. The resulting database IDs are
-   * added to the Measurement objects
+   * Store a set of measurements in the database. A block of IDs is reserved
+   * for the measurements and added to the Measurement objects before they are
+   * stored, so the measurements can be written in a single batch without
+   * reading generated keys back from the database.
+   *
+   * <p>
+   * The IDs are reserved on a separate connection from {@code dataSource},
+   * which must be the source that {@code conn} came from.
+   * </p>
    *
+   * @param dataSource
+   *          A data source
    * @param conn
    *          A database connection
    * @param measurements
    *          The measurements to be stored
+   * @param generation
+   *          The generation of the measurements
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
+   * @see DataSet#getMeasurementsGeneration()
+   * @see DatabaseUtils#reserveIds(DataSource, String, int)
    */
-  public static void storeMeasurements(Connection conn,
-    List<Measurement> measurements)
+  public static void storeMeasurements(DataSource dataSource, Connection conn,
+    List<Measurement> measurements, int generation)
     throws MissingParamException, DatabaseException {
 
+    MissingParam.checkMissing(dataSource, "dataSource");
     MissingParam.checkMissing(conn, "conn");
-    MissingParam.checkMissing(measurements, "measurements");
-
-    PreparedStatement stmt = null;
-    ResultSet createdKeys = null;
-
-    try {
+    MissingParam.checkMissing(measurements, "measurements", true);
 
-      stmt = conn.prepareStatement(STORE_MEASUREMENT_STATEMENT,
-        Statement.RETURN_GENERATED_KEYS);
+    if (measurements.size() > 0) {
+      PreparedStatement stmt = null;
 
-      // Batch up all the measurements
-      for (Measurement measurement : measurements) {
-        stmt.setLong(1, measurement.getDatasetId());
-        stmt.setLong(2, measurement.getVariable().getId());
-        stmt.setLong(3, DateTimeUtils.dateToLong(measurement.getTime()));
-        stmt.setDouble(4, measurement.getLongitude());
-        stmt.setDouble(5, measurement.getLatitude());
-        stmt.setString(6, measurement.getRunType());
-        stmt.addBatch();
-      }
+      try {
+        long nextId = DatabaseUtils.reserveIds(dataSource,
+          MEASUREMENT_ID_SEQUENCE, measurements.size());
+
+        stmt = conn.prepareStatement(STORE_MEASUREMENT_STATEMENT);
+
+        // Batch up all the measurements
+        for (Measurement measurement : measurements) {
+          measurement.setDatabaseId(nextId);
+          nextId++;
+
+          stmt.setLong(1, measurement.getId());
+          stmt.setLong(2, measurement.getDatasetId());
+          stmt.setLong(3, measurement.getVariable().getId());
+          stmt.setLong(4, DateTimeUtils.dateToLong(measurement.getTime()));
+          stmt.setDouble(5, measurement.getLongitude());
+          stmt.setDouble(6, measurement.getLatitude());
+          stmt.setString(7, measurement.getRunType());
+          stmt.setInt(8, generation);
+          stmt.addBatch();
+        }
 
-      // Store them, and get the keys back
-      stmt.executeBatch();
-      createdKeys = stmt.getGeneratedKeys();
-      int currentMeasurement = -1;
-      while (createdKeys.next()) {
-        currentMeasurement++;
-        measurements.get(currentMeasurement)
-          .setDatabaseId(createdKeys.getLong(1));
+        stmt.executeBatch();
+      } catch (SQLException e) {
+        throw new DatabaseException("Error while storing measurements", e);
+      } finally {
+        DatabaseUtils.closeStatements(stmt);
       }
-    } catch (Exception e) {
-      throw new DatabaseException("Error while storing measurements", e);
-    } finally {
-      DatabaseUtils.closeResultSets(createdKeys);
-      DatabaseUtils.closeStatements(stmt);
     }
   }
 
   /**
-   * Get the number of measurements in a dataset
+   * Get the number of measurements in a dataset. The count is taken from the
+   * dataset's statistics; it is only counted from the sensor values if the
+   * statistics have not been calculated.
    *
    * @param conn
    * @param datasetId
@@ -625,12 +1587,16 @@ public class DataSetDataDB {
     ResultSet count = null;
 
     try {
-      stmt = conn.prepareStatement(GET_RECORD_COUNT_QUERY);
-      stmt.setLong(1, datasetId);
+      result = getStoredCount(conn, GET_STORED_RECORD_COUNT_QUERY, datasetId);
+
+      if (result == -1) {
+        stmt = conn.prepareStatement(GET_RECORD_COUNT_QUERY);
+        stmt.setLong(1, datasetId);
 
-      count = stmt.executeQuery();
-      if (count.next()) {
-        result = count.getInt(1);
+        count = stmt.executeQuery();
+        if (count.next()) {
+          result = count.getInt(1);
+        }
       }
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting measurement count", e);
@@ -643,7 +1609,8 @@ public class DataSetDataDB {
   }
 
   /**
-   * Get the set of measurements for a dataset, ordered by date and variable
+   * Get the set of measurements in a generation of a dataset, ordered by date
+   * and variable
    *
    * @param conn
    *          A database connection
@@ -651,6 +1618,8 @@ public class DataSetDataDB {
    *          The instrument to which the dataset belongs
    * @param datasetId
    *          The database ID of the dataset
+   * @param generation
+   *          The measurements generation
    * @return The measurements
    * @throws DatabaseException
    *           If a database error occurs
@@ -658,7 +1627,7 @@ public class DataSetDataDB {
    *           If any required parameters are missing
    */
   public static List<Measurement> getMeasurements(Connection conn,
-    Instrument instrument, long datasetId)
+    Instrument instrument, long datasetId, int generation)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(conn, "conn");
@@ -673,6 +1642,7 @@ public class DataSetDataDB {
 
       stmt = conn.prepareStatement(GET_MEASUREMENTS_QUERY);
       stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
 
       records = stmt.executeQuery();
       while (records.next()) {
@@ -711,171 +1681,544 @@ public class DataSetDataDB {
    * @throws MissingParamException
    *           If any required parameters are missing
    */
-  public static void storeMeasurementValues(Connection conn,
-    List<MeasurementValue> measurementValues)
-    throws MissingParamException, DatabaseException {
+  public static void storeMeasurementValues(Connection conn,
+    List<MeasurementValue> measurementValues)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(measurementValues, "measurementValues");
+
+    PreparedStatement stmt = null;
+
+    try {
+
+      stmt = conn.prepareStatement(STORE_MEASUREMENT_VALUE_STATEMENT);
+
+      // Batch up all the measurements
+      for (MeasurementValue measurementValue : measurementValues) {
+        stmt.setLong(1, measurementValue.getMeasurementId());
+        stmt.setLong(2, measurementValue.getSensorValueId());
+        stmt.addBatch();
+      }
+
+      // Store them, and get the keys back
+      stmt.executeBatch();
+    } catch (Exception e) {
+      throw new DatabaseException("Error while storing measurements", e);
+    } finally {
+      DatabaseUtils.closeStatements(stmt);
+    }
+  }
+
+  /**
+   * Store the results of data reduction in the database
+   *
+   * @param conn
+   *          A database connection
+   * @param values
+   *          The calculation values for the data reduction, as extracted from
+   *          the sensor values
+   * @param dataReductionRecords
+   *          The data reduction calculations
+   * @throws DatabaseException
+   *           If the data cannot be stored
+   */
+  public static void storeDataReduction(Connection conn,
+    Collection<CalculationValue> values,
+    List<DataReductionRecord> dataReductionRecords) throws DatabaseException {
+
+    PreparedStatement valueStmt = null;
+    PreparedStatement dataReductionStmt = null;
+
+    try {
+      valueStmt = conn.prepareStatement(STORE_MEASUREMENT_VALUE_STATEMENT);
+
+      // First the used sensor values
+      for (CalculationValue value : values) {
+        for (long id : value.getUsedSensorValueIds()) {
+          valueStmt.setLong(1, value.getMeasurementId());
+          valueStmt.setLong(2, value.getVariableId());
+          valueStmt.setLong(3, id);
+
+          valueStmt.addBatch();
+        }
+      }
+
+      valueStmt.executeBatch();
+
+      // And now the data reduction record
+      dataReductionStmt = conn.prepareStatement(STORE_DATA_REDUCTION_STATEMENT);
+      for (DataReductionRecord dataReduction : dataReductionRecords) {
+        dataReductionStmt.setLong(1, dataReduction.getMeasurementId());
+        dataReductionStmt.setLong(2, dataReduction.getVariableId());
+        dataReductionStmt.setString(3, dataReduction.getCalculationJson());
+        dataReductionStmt.setInt(4, dataReduction.getQCFlag().getFlagValue());
+        dataReductionStmt.setString(5, StringUtils
+          .collectionToDelimited(dataReduction.getQCMessages(), ";"));
+
+        dataReductionStmt.addBatch();
+      }
+
+      dataReductionStmt.executeBatch();
+
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while storing data reduction", e);
+    } finally {
+      DatabaseUtils.closeStatements(valueStmt);
+    }
+  }
+
+  /**
+   * Remove all measurement details from a data set, of every generation. This
+   * is only intended for deleting a whole data set; replaced generations are
+   * removed in the background (see {@link #purgeChunk(Connection, int)}).
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The database ID of the data set
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static void deleteMeasurements(Connection conn, long datasetId)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    PreparedStatement delDataReductionStmt = null;
+    PreparedStatement delMeasurementValuesStmt = null;
+    PreparedStatement delMeasurementsStmt = null;
+
+    try {
+      conn.setAutoCommit(false);
+
+      delDataReductionStmt = conn
+        .prepareStatement(DELETE_DATA_REDUCTION_STATEMENT);
+      delDataReductionStmt.setLong(1, datasetId);
+      delDataReductionStmt.execute();
+
+      delMeasurementValuesStmt = conn
+        .prepareStatement(DELETE_MEASUREMENT_VALUES_STATEMENT);
+      delMeasurementValuesStmt.setLong(1, datasetId);
+      delMeasurementValuesStmt.execute();
+
+      delMeasurementsStmt = conn
+        .prepareStatement(DELETE_MEASUREMENTS_STATEMENT);
+      delMeasurementsStmt.setLong(1, datasetId);
+      delMeasurementsStmt.execute();
+
+      conn.commit();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while deleting measurements", e);
+    } finally {
+      DatabaseUtils.closeStatements(delMeasurementsStmt,
+        delMeasurementValuesStmt, delDataReductionStmt);
+    }
+  }
+
+  /**
+   * Remove the measurement details in a generation of a data set within a
+   * time range, ready for them to be recalculated. Unlike
+   * {@link #deleteMeasurements(Connection, long)}, the changes are not
+   * committed.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The database ID of the data set
+   * @param generation
+   *          The measurements generation
+   * @param start
+   *          The start of the range (inclusive)
+   * @param end
+   *          The end of the range (inclusive)
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static void deleteMeasurements(Connection conn, long datasetId,
+    int generation, LocalDateTime start, LocalDateTime end)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkMissing(start, "start");
+    MissingParam.checkMissing(end, "end");
+
+    String[] statements = { DELETE_DATA_REDUCTION_RANGE_STATEMENT,
+      DELETE_MEASUREMENT_VALUES_RANGE_STATEMENT,
+      DELETE_MEASUREMENTS_RANGE_STATEMENT };
+
+    try {
+      for (String statement : statements) {
+        try (PreparedStatement stmt = conn.prepareStatement(statement)) {
+          stmt.setLong(1, datasetId);
+          stmt.setInt(2, generation);
+          stmt.setLong(3, DateTimeUtils.dateToLong(start));
+          stmt.setLong(4, DateTimeUtils.dateToLong(end));
+          stmt.execute();
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while deleting measurements", e);
+    }
+  }
+
+  /**
+   * Get the number to use for a new generation of a data set's contents. The
+   * number is higher than any generation that has been stored or queued for
+   * purging, so rows left by failed processing are never mixed into the new
+   * generation.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param content
+   *          The content type ({@link #PURGE_SENSOR_VALUES} or
+   *          {@link #PURGE_MEASUREMENTS})
+   * @return The new generation number
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws RecordNotFoundException
+   *           If the data set does not exist
+   */
+  public static int getNewGeneration(Connection conn, long datasetId,
+    int content)
+    throws MissingParamException, DatabaseException, RecordNotFoundException {
+
+    return newGeneration(getGenerations(conn, datasetId, content));
+  }
+
+  /**
+   * Get the new generation number from the result of
+   * {@link #getGenerations(Connection, long, int)}
+   *
+   * @param generations
+   *          The existing generations
+   * @return The new generation number
+   */
+  private static int newGeneration(int[] generations) {
+    return Math.max(generations[0], Math.max(generations[1], generations[2]))
+      + 1;
+  }
+
+  /**
+   * Get the current generation of a data set's contents, the highest
+   * generation stored and the highest generation queued for purging. Missing
+   * values are returned as zero.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param content
+   *          The content type
+   * @return The generations
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws RecordNotFoundException
+   *           If the data set does not exist
+   */
+  private static int[] getGenerations(Connection conn, long datasetId,
+    int content)
+    throws MissingParamException, DatabaseException, RecordNotFoundException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    String query = content == PURGE_SENSOR_VALUES
+      ? GET_SENSOR_VALUES_GENERATIONS_QUERY
+      : GET_MEASUREMENTS_GENERATIONS_QUERY;
+
+    try (PreparedStatement stmt = conn.prepareStatement(query)) {
+      stmt.setLong(1, datasetId);
+
+      try (ResultSet record = stmt.executeQuery()) {
+        if (!record.next()) {
+          throw new RecordNotFoundException("Data set not found", "dataset",
+            datasetId);
+        }
+
+        return new int[] { record.getInt(1), record.getInt(2),
+          record.getInt(3) };
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error getting data set generations", e);
+    }
+  }
+
+  /**
+   * Make new generations of sensor values and the measurements calculated
+   * from them the current ones for a data set. The statistics stored for the
+   * new sensor values generation become the data set's statistics. The old
+   * measurements and sensor values are queued for purging, in that order. The
+   * changes are not committed, so the switch, the statistics and the purge
+   * entries are made together when the caller commits.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The data set's database ID
+   * @param sensorValuesGeneration
+   *          The new sensor values generation
+   * @param measurementsGeneration
+   *          The new measurements generation
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws RecordNotFoundException
+   *           If the data set does not exist
+   */
+  public static void setSensorValuesGeneration(Connection conn, long datasetId,
+    int sensorValuesGeneration, int measurementsGeneration)
+    throws MissingParamException, DatabaseException, RecordNotFoundException {
 
-    MissingParam.checkMissing(conn, "conn");
-    MissingParam.checkMissing(measurementValues, "measurementValues");
+    int oldSensorValues = getGenerations(conn, datasetId,
+      PURGE_SENSOR_VALUES)[0];
+    int oldMeasurements = getGenerations(conn, datasetId,
+      PURGE_MEASUREMENTS)[0];
 
-    PreparedStatement stmt = null;
+    try (PreparedStatement stmt = conn
+      .prepareStatement(SET_SENSOR_VALUES_GENERATION_STATEMENT)) {
 
-    try {
+      stmt.setInt(1, sensorValuesGeneration);
+      stmt.setInt(2, measurementsGeneration);
+      stmt.setLong(3, datasetId);
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error setting sensor values generation", e);
+    }
 
-      stmt = conn.prepareStatement(STORE_MEASUREMENT_VALUE_STATEMENT);
+    DataSetDB.applyPendingStatistics(conn, datasetId, sensorValuesGeneration);
 
-      // Batch up all the measurements
-      for (MeasurementValue measurementValue : measurementValues) {
-        stmt.setLong(1, measurementValue.getMeasurementId());
-        stmt.setLong(2, measurementValue.getSensorValueId());
-        stmt.addBatch();
-      }
+    if (oldMeasurements != measurementsGeneration) {
+      queuePurge(conn, datasetId, PURGE_MEASUREMENTS, oldMeasurements);
+    }
 
-      // Store them, and get the keys back
-      stmt.executeBatch();
-    } catch (Exception e) {
-      throw new DatabaseException("Error while storing measurements", e);
-    } finally {
-      DatabaseUtils.closeStatements(stmt);
+    if (oldSensorValues != sensorValuesGeneration) {
+      queuePurge(conn, datasetId, PURGE_SENSOR_VALUES, oldSensorValues);
     }
   }
 
   /**
-   * Store the results of data reduction in the database
+   * Make a new generation of measurements the current one for a data set, and
+   * queue the old generation for purging. The changes are not committed.
    *
    * @param conn
    *          A database connection
-   * @param values
-   *          The calculation values for the data reduction, as extracted from
-   *          the sensor values
-   * @param dataReductionRecords
-   *          The data reduction calculations
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The new measurements generation
    * @throws DatabaseException
-   *           If the data cannot be stored
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws RecordNotFoundException
+   *           If the data set does not exist
    */
-  public static void storeDataReduction(Connection conn,
-    Collection<CalculationValue> values,
-    List<DataReductionRecord> dataReductionRecords) throws DatabaseException {
-
-    PreparedStatement valueStmt = null;
-    PreparedStatement dataReductionStmt = null;
-
-    try {
-      valueStmt = conn.prepareStatement(STORE_MEASUREMENT_VALUE_STATEMENT);
-
-      // First the used sensor values
-      for (CalculationValue value : values) {
-        for (long id : value.getUsedSensorValueIds()) {
-          valueStmt.setLong(1, value.getMeasurementId());
-          valueStmt.setLong(2, value.getVariableId());
-          valueStmt.setLong(3, id);
-
-          valueStmt.addBatch();
-        }
-      }
+  public static void setMeasurementsGeneration(Connection conn, long datasetId,
+    int generation)
+    throws MissingParamException, DatabaseException, RecordNotFoundException {
 
-      valueStmt.executeBatch();
+    int oldGeneration = getGenerations(conn, datasetId, PURGE_MEASUREMENTS)[0];
 
-      // And now the data reduction record
-      dataReductionStmt = conn.prepareStatement(STORE_DATA_REDUCTION_STATEMENT);
-      for (DataReductionRecord dataReduction : dataReductionRecords) {
-        dataReductionStmt.setLong(1, dataReduction.getMeasurementId());
-        dataReductionStmt.setLong(2, dataReduction.getVariableId());
-        dataReductionStmt.setString(3, dataReduction.getCalculationJson());
-        dataReductionStmt.setInt(4, dataReduction.getQCFlag().getFlagValue());
-        dataReductionStmt.setString(5, StringUtils
-          .collectionToDelimited(dataReduction.getQCMessages(), ";"));
+    if (oldGeneration != generation) {
+      try (PreparedStatement stmt = conn
+        .prepareStatement(SET_MEASUREMENTS_GENERATION_STATEMENT)) {
 
-        dataReductionStmt.addBatch();
+        stmt.setInt(1, generation);
+        stmt.setLong(2, datasetId);
+        stmt.execute();
+      } catch (SQLException e) {
+        throw new DatabaseException("Error setting measurements generation",
+          e);
       }
 
-      dataReductionStmt.executeBatch();
-
-    } catch (SQLException e) {
-      throw new DatabaseException("Error while storing data reduction", e);
-    } finally {
-      DatabaseUtils.closeStatements(valueStmt);
+      queuePurge(conn, datasetId, PURGE_MEASUREMENTS, oldGeneration);
     }
   }
 
   /**
-   * Remove all measurement details from a data set, ready for them to be
-   * recalculated
+   * Queue a generation of a data set's contents to be removed by
+   * {@link #purgeChunk(Connection, int)}. Entries are purged in the order
+   * they are queued, so measurements must be queued before the sensor values
+   * they use. The changes are not committed.
    *
-   * @param dataSource
-   *          A data source
+   * @param conn
+   *          A database connection
    * @param datasetId
-   *          The database ID of the data set
+   *          The data set's database ID
+   * @param content
+   *          The content type ({@link #PURGE_SENSOR_VALUES} or
+   *          {@link #PURGE_MEASUREMENTS})
+   * @param generation
+   *          The generation to be removed
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
    */
-  public static void deleteMeasurements(DataSource dataSource, long datasetId)
-    throws DatabaseException, MissingParamException {
+  public static void queuePurge(Connection conn, long datasetId, int content,
+    int generation) throws MissingParamException, DatabaseException {
 
-    MissingParam.checkMissing(dataSource, "dataSource");
+    MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(datasetId, "datasetId");
 
-    Connection conn = null;
+    try (PreparedStatement stmt = conn
+      .prepareStatement(QUEUE_PURGE_STATEMENT)) {
 
-    try {
-      conn = dataSource.getConnection();
-      deleteMeasurements(conn, datasetId);
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, content);
+      stmt.setInt(3, generation);
+      stmt.setLong(4, DateTimeUtils.dateToLong(LocalDateTime.now()));
+      stmt.execute();
     } catch (SQLException e) {
-      throw new DatabaseException("Error while deleting measurements", e);
-    } finally {
-      DatabaseUtils.closeConnection(conn);
+      throw new DatabaseException("Error queueing data set purge", e);
     }
   }
 
   /**
-   * Remove all measurement details from a data set, ready for them to be
-   * recalculated
+   * Remove a chunk of rows for the oldest entry in the purge queue. Once the
+   * entry has no rows left it is removed from the queue, along with any
+   * statistics stored for a sensor values generation that never became
+   * current. The changes are not committed, so each chunk can be committed on
+   * its own to keep transactions small.
    *
-   * @param dataSource
-   *          A data source
-   * @param datasetId
-   *          The database ID of the data set
+   * @param conn
+   *          A database connection
+   * @param chunkSize
+   *          The maximum number of measurements or sensor values to remove
+   * @return {@code true} if anything was purged; {@code false} if the queue is
+   *         empty
    * @throws DatabaseException
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
    */
-  public static void deleteMeasurements(Connection conn, long datasetId)
+  public static boolean purgeChunk(Connection conn, int chunkSize)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(conn, "conn");
-    MissingParam.checkZeroPositive(datasetId, "datasetId");
+    MissingParam.checkPositive(chunkSize, "chunkSize");
 
-    PreparedStatement delDataReductionStmt = null;
-    PreparedStatement delMeasurementValuesStmt = null;
-    PreparedStatement delMeasurementsStmt = null;
+    boolean result = false;
 
-    try {
-      conn.setAutoCommit(false);
+    try (PreparedStatement queueStmt = conn
+      .prepareStatement(GET_NEXT_PURGE_QUERY);
+      ResultSet entry = queueStmt.executeQuery()) {
 
-      delDataReductionStmt = conn
-        .prepareStatement(DELETE_DATA_REDUCTION_STATEMENT);
-      delDataReductionStmt.setLong(1, datasetId);
-      delDataReductionStmt.execute();
+      if (entry.next()) {
+        result = true;
 
-      delMeasurementValuesStmt = conn
-        .prepareStatement(DELETE_MEASUREMENT_VALUES_STATEMENT);
-      delMeasurementValuesStmt.setLong(1, datasetId);
-      delMeasurementValuesStmt.execute();
+        long purgeId = entry.getLong(1);
+        long datasetId = entry.getLong(2);
+        int content = entry.getInt(3);
+        int generation = entry.getInt(4);
 
-      delMeasurementsStmt = conn
-        .prepareStatement(DELETE_MEASUREMENTS_STATEMENT);
-      delMeasurementsStmt.setLong(1, datasetId);
-      delMeasurementsStmt.execute();
+        List<Long> ids = getPurgeIds(conn,
+          content == PURGE_SENSOR_VALUES ? GET_PURGE_SENSOR_VALUE_IDS_QUERY
+            : GET_PURGE_MEASUREMENT_IDS_QUERY,
+          datasetId, generation, chunkSize);
 
-      conn.commit();
+        if (ids.isEmpty()) {
+          try (PreparedStatement deleteStmt = conn
+            .prepareStatement(DELETE_PURGE_STATEMENT)) {
+            deleteStmt.setLong(1, purgeId);
+            deleteStmt.execute();
+          }
+
+          if (content == PURGE_SENSOR_VALUES) {
+            DataSetDB.deletePendingStatistics(conn, datasetId, generation);
+          }
+        } else if (content == PURGE_SENSOR_VALUES) {
+          deleteByIds(conn, PURGE_SENSOR_VALUES_STATEMENT, ids);
+        } else {
+          for (String statement : PURGE_MEASUREMENTS_STATEMENTS) {
+            deleteByIds(conn, statement, ids);
+          }
+        }
+      }
     } catch (SQLException e) {
-      throw new DatabaseException("Error while deleting measurements", e);
-    } finally {
-      DatabaseUtils.closeStatements(delMeasurementsStmt,
-        delMeasurementValuesStmt, delDataReductionStmt);
+      throw new DatabaseException("Error purging data set contents", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a chunk of the row IDs in a generation of a data set's contents
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The ID query
+   * @param datasetId
+   *          The data set's database ID
+   * @param generation
+   *          The generation
+   * @param chunkSize
+   *          The maximum number of IDs
+   * @return The IDs
+   * @throws SQLException
+   *           If a database error occurs
+   */
+  private static List<Long> getPurgeIds(Connection conn, String query,
+    long datasetId, int generation, int chunkSize) throws SQLException {
+
+    List<Long> ids = new ArrayList<Long>(chunkSize);
+
+    try (PreparedStatement stmt = conn.prepareStatement(query)) {
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, generation);
+      stmt.setInt(3, chunkSize);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        while (records.next()) {
+          ids.add(records.getLong(1));
+        }
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Run a delete statement for a set of IDs
+   *
+   * @param conn
+   *          A database connection
+   * @param statement
+   *          The statement, with an {@link DatabaseUtils#IN_PARAMS_TOKEN} for
+   *          the IDs
+   * @param ids
+   *          The IDs
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If the statement cannot be constructed
+   */
+  private static void deleteByIds(Connection conn, String statement,
+    List<Long> ids) throws SQLException, MissingParamException {
+
+    try (PreparedStatement stmt = conn.prepareStatement(
+      DatabaseUtils.makeInStatementSql(statement, ids.size()))) {
+
+      for (int i = 0; i < ids.size(); i++) {
+        stmt.setLong(i + 1, ids.get(i));
+      }
+
+      stmt.execute();
     }
   }
 
@@ -927,15 +2270,22 @@ public class DataSetDataDB {
 
     int result = 0;
 
-    try (Connection conn = dataSource.getConnection();
-      PreparedStatement stmt = conn
-        .prepareStatement(GET_REQUIRED_FLAGS_QUERY);) {
+    try (Connection conn = dataSource.getConnection()) {
 
-      stmt.setLong(1, datasetId);
+      result = getStoredCount(conn, GET_STORED_FLAGS_REQUIRED_QUERY,
+        datasetId);
 
-      try (ResultSet records = stmt.executeQuery();) {
-        records.next();
-        result = records.getInt(1);
+      if (result == -1) {
+        try (PreparedStatement stmt = conn
+          .prepareStatement(GET_REQUIRED_FLAGS_QUERY);) {
+
+          stmt.setLong(1, datasetId);
+
+          try (ResultSet records = stmt.executeQuery();) {
+            records.next();
+            result = records.getInt(1);
+          }
+        }
       }
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting flag info", e);
@@ -944,35 +2294,114 @@ public class DataSetDataDB {
     return result;
   }
 
-  public static void setQC(DataSource dataSource, List<FieldValue> updateValues)
+  /**
+   * Get a count stored in a dataset's statistics
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The query for the count
+   * @param datasetId
+   *          The dataset's database ID
+   * @return The count, or -1 if the statistics have not been calculated
+   * @throws SQLException
+   *           If a database error occurs
+   * @see DataSetStatistics
+   */
+  private static int getStoredCount(Connection conn, String query,
+    long datasetId) throws SQLException {
+
+    int result = -1;
+
+    try (PreparedStatement stmt = conn.prepareStatement(query)) {
+      stmt.setLong(1, datasetId);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        if (records.next()) {
+          result = records.getInt(1);
+          if (records.wasNull()) {
+            result = -1;
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Store the user QC flags and comments for a set of sensor values. The
+   * number of required flags in the dataset's statistics is adjusted for any
+   * values whose {@link Flag#NEEDED} flag has been replaced.
+   *
+   * @param dataSource
+   *          A data source
+   * @param datasetId
+   *          The database ID of the dataset that the values belong to
+   * @param updateValues
+   *          The updated values
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static void setQC(DataSource dataSource, long datasetId,
+    List<FieldValue> updateValues)
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(dataSource, "dataSource");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
     MissingParam.checkMissing(updateValues, "updateValues", true);
 
     if (updateValues.size() > 0) {
       Connection conn = null;
       PreparedStatement stmt = null;
+      PreparedStatement flagsStmt = null;
 
       try {
 
         conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
         stmt = conn.prepareStatement(SET_QC_STATEMENT);
 
+        int flagsRequiredChange = 0;
+
         for (FieldValue value : updateValues) {
           stmt.setInt(1, value.getQcFlag().getFlagValue());
           stmt.setString(2, value.getQcComment());
           stmt.setLong(3, value.getValueId());
 
           stmt.addBatch();
+
+          if (value.isNeededInDatabase()) {
+            flagsRequiredChange--;
+          }
+
+          if (value.getQcFlag().equals(Flag.NEEDED)) {
+            flagsRequiredChange++;
+          }
         }
 
         stmt.executeBatch();
 
+        if (flagsRequiredChange != 0) {
+          flagsStmt = conn.prepareStatement(UPDATE_FLAGS_REQUIRED_STATEMENT);
+          flagsStmt.setInt(1, flagsRequiredChange);
+          flagsStmt.setLong(2, datasetId);
+          flagsStmt.execute();
+        }
+
+        conn.commit();
+
+        for (FieldValue value : updateValues) {
+          value.setStored();
+        }
+
       } catch (SQLException e) {
+        DatabaseUtils.rollBack(conn);
         throw new DatabaseException("Error updating QC values", e);
       } finally {
-        DatabaseUtils.closeStatements(stmt);
+        DatabaseUtils.closeStatements(stmt, flagsStmt);
         DatabaseUtils.closeConnection(conn);
       }
     }
@@ -988,9 +2417,14 @@ public class DataSetDataDB {
     MissingParam.checkMissing(times, "times", true);
 
     if (times.size() > 0) {
+      TimeSelection selection = TimeSelection.select(times,
+        output.getRowIds());
+
       try (Connection conn = dataSource.getConnection();) {
-        loadQCSensorValuesByTime(conn, output, times);
-        loadDataReductionData(conn, output, times);
+        selection.prepare(conn);
+        loadQCSensorValuesByTime(conn, output, selection);
+        loadDataReductionData(conn, output, selection);
+        selection.finish(conn);
       } catch (Exception e) {
         throw new DatabaseException("Error while loading measurement data", e);
       }
@@ -1018,22 +2452,58 @@ public class DataSetDataDB {
     MissingParam.checkMissing(output, "output");
     MissingParam.checkMissing(times, "times", false);
 
+    TimeSelection selection = TimeSelection.select(times, output.getRowIds());
+
+    try {
+      selection.prepare(conn);
+      loadQCSensorValuesByTime(conn, output, selection);
+      selection.finish(conn);
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting sensor values", e);
+    }
+  }
+
+  /**
+   * Load the sensor values for a selection of times. The selection must
+   * already have been prepared.
+   *
+   * @param conn
+   *          A database connection
+   * @param output
+   *          The data to which the values are added
+   * @param selection
+   *          The times to load
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MeasurementDataException
+   *           If the values cannot be added to the output
+   * @throws RecordNotFoundException
+   *           If any values are missing
+   * @throws RoutineException
+   *           If the automatic QC results cannot be read
+   * @throws InvalidFlagException
+   *           If a stored QC flag is invalid
+   * @see TimeSelection#prepare(Connection)
+   */
+  private static void loadQCSensorValuesByTime(Connection conn,
+    DatasetMeasurementData output, TimeSelection selection)
+    throws MissingParamException, DatabaseException, MeasurementDataException,
+    RecordNotFoundException, RoutineException, InvalidFlagException {
+
     // Get the Run Type column IDs
     List<Long> runTypeColumns = output.getInstrument().getSensorAssignments()
       .getRunTypeColumnIDs();
 
-    String sensorValuesSQL = DatabaseUtils
-      .makeInStatementSql(GET_SENSOR_VALUES_BY_DATE_QUERY, times.size());
+    String sensorValuesSQL = selection
+      .makeSql(GET_SENSOR_VALUES_BY_DATE_QUERY, "sv.date");
 
     try (PreparedStatement stmt = conn.prepareStatement(sensorValuesSQL)) {
       stmt.setLong(1, output.getDatasetId());
+      selection.setParams(stmt, 2);
 
-      // Add dates starting at parameter index 2
-      for (int i = 0; i < times.size(); i++) {
-        stmt.setLong(i + 2, DateTimeUtils.dateToLong(times.get(i)));
-      }
-
-      readQCSensorValues(output, stmt, runTypeColumns);
+      readQCSensorValues(output, stmt, runTypeColumns, selection);
 
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting sensor values", e);
@@ -1081,7 +2551,7 @@ public class DataSetDataDB {
         stmt.setLong(i + 2, searchFields.get(i));
       }
 
-      readQCSensorValues(output, stmt, runTypeColumns);
+      readQCSensorValues(output, stmt, runTypeColumns, null);
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting sensor values", e);
     }
@@ -1089,7 +2559,7 @@ public class DataSetDataDB {
   }
 
   private static void readQCSensorValues(DatasetMeasurementData output,
-    PreparedStatement stmt, List<Long> runTypeColumns)
+    PreparedStatement stmt, List<Long> runTypeColumns, TimeSelection selection)
     throws SQLException, MissingParamException, MeasurementDataException,
     RecordNotFoundException, RoutineException, InvalidFlagException {
 
@@ -1104,8 +2574,13 @@ public class DataSetDataDB {
       // Loop through all the sensor value records
       while (records.next()) {
 
-        // Loop through all the sensor value records while (records.next()) {
-        LocalDateTime time = DateTimeUtils.longToDate(records.getLong(3));
+        // Skip times that were returned by a range scan but not requested
+        long millis = records.getLong(3);
+        if (null != selection && !selection.contains(millis)) {
+          continue;
+        }
+
+        LocalDateTime time = DateTimeUtils.longToDate(millis);
 
         // If the time has changed, process the current set of collected //
         // values
@@ -1153,16 +2628,22 @@ public class DataSetDataDB {
 
     long valueId = record.getLong(1);
     long fileColumn = record.getLong(2);
-    Double sensorValue = StringUtils.doubleFromString(record.getString(4));
-    AutoQCResult autoQC = AutoQCResult.buildFromJson(record.getString(5));
-    Flag userQCFlag = new Flag(record.getInt(6));
-    String qcComment = record.getString(7);
+
+    // Values stored before the typed columns were added only have text
+    Double sensorValue = record.getDouble(5);
+    if (record.wasNull()) {
+      sensorValue = StringUtils.doubleFromString(record.getString(4));
+    }
+
+    AutoQCResult autoQC = readAutoQC(record);
+    Flag userQCFlag = new Flag(record.getInt(7));
+    String qcComment = record.getString(8);
 
     // See if this value has been used in the data set
     // Position and diagnostics are always marked as used
     // Get the measurement ID from the ResultSet. If it was null,
     // then it isn't used in the dataset for a measurement
-    record.getLong(8);
+    record.getLong(10);
     boolean used = !record.wasNull();
 
     boolean ghost = userQCFlag.equals(Flag.FLUSHING);
@@ -1177,7 +2658,7 @@ public class DataSetDataDB {
   }
 
   private static void loadDataReductionData(Connection conn,
-    DatasetMeasurementData output, List<LocalDateTime> times)
+    DatasetMeasurementData output, TimeSelection selection)
     throws MissingParamException, DatabaseException, InvalidFlagException,
     RoutineException, VariableNotFoundException, DataReductionException {
 
@@ -1185,25 +2666,25 @@ public class DataSetDataDB {
       .getSensorsConfiguration();
 
     try {
-      String sensorValuesSQL = DatabaseUtils
-        .makeInStatementSql(GET_DATA_REDUCTION_DATE_FILTER_QUERY, times.size());
+      String sensorValuesSQL = selection
+        .makeSql(GET_DATA_REDUCTION_DATE_FILTER_QUERY, "m.date");
 
       try (PreparedStatement sensorValuesStmt = conn
         .prepareStatement(sensorValuesSQL)) {
 
         sensorValuesStmt.setLong(1, output.getDatasetId());
-
-        // Add dates starting at parameter index 2
-        for (int i = 0; i < times.size(); i++) {
-          sensorValuesStmt.setLong(i + 2,
-            DateTimeUtils.dateToLong(times.get(i)));
-        }
+        selection.setParams(sensorValuesStmt, 2);
 
         try (ResultSet records = sensorValuesStmt.executeQuery();) {
 
           while (records.next()) {
 
-            LocalDateTime time = DateTimeUtils.longToDate(records.getLong(1));
+            long millis = records.getLong(1);
+            if (!selection.contains(millis)) {
+              continue;
+            }
+
+            LocalDateTime time = DateTimeUtils.longToDate(millis);
             long variableId = records.getLong(2);
             String valuesJson = records.getString(3);
             Flag qcFlag = new Flag(records.getInt(4));
@@ -0,0 +1,457 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+
+/**
+ * Summary statistics for the sensor values in a data set, accumulated in a
+ * single pass over the values.
+ *
+ * <p>
+ * The statistics are calculated while values are extracted and after
+ * automatic QC, and stored with the data set so that pages can show summaries
+ * without scanning the {@code sensor_values} table. They hold:
+ * </p>
+ * <ul>
+ * <li>The geographic bounds of the position values</li>
+ * <li>The number of records (distinct value times)</li>
+ * <li>The number of values whose QC must be checked by the user</li>
+ * <li>The count, missing count, range and user QC flag counts for each
+ * column</li>
+ * </ul>
+ *
+ * <p>
+ * Values must be added in time order, so that the record count can be
+ * calculated without holding every time. {@link #calculate(Collection)}
+ * merges the values from separate columns into time order.
+ * </p>
+ *
+ * <p>
+ * The bounds are stored in the data set's own fields, so statistics loaded
+ * from the database do not include them.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see DataSetDB#storeStatistics(java.sql.Connection, long, DataSetStatistics)
+ */
+public class DataSetStatistics {
+
+  /**
+   * Gson instance for the column statistics. Columns with no numeric values
+   * have {@code NaN} ranges, which must be allowed.
+   */
+  private static final Gson GSON = new GsonBuilder()
+    .serializeSpecialFloatingPointValues().create();
+
+  /**
+   * The type of the column statistics map, for Gson
+   */
+  private static final Type COLUMNS_TYPE = new TypeToken<TreeMap<Long, ColumnStatistics>>() {
+  }.getType();
+
+  /**
+   * The minimum longitude
+   */
+  private double minLon = Double.NaN;
+
+  /**
+   * The maximum longitude
+   */
+  private double maxLon = Double.NaN;
+
+  /**
+   * The minimum latitude
+   */
+  private double minLat = Double.NaN;
+
+  /**
+   * The maximum latitude
+   */
+  private double maxLat = Double.NaN;
+
+  /**
+   * The number of distinct value times
+   */
+  private int recordCount = 0;
+
+  /**
+   * The number of values with a {@link Flag#NEEDED} user QC flag
+   */
+  private int flagsRequired = 0;
+
+  /**
+   * The statistics for each column
+   */
+  private TreeMap<Long, ColumnStatistics> columns = new TreeMap<Long, ColumnStatistics>();
+
+  /**
+   * The time of the last value added
+   */
+  private LocalDateTime lastTime = null;
+
+  /**
+   * Create an empty set of statistics
+   */
+  public DataSetStatistics() {
+    // Nothing to do
+  }
+
+  /**
+   * Restore statistics from their database values
+   *
+   * @param recordCount
+   *          The record count
+   * @param flagsRequired
+   *          The number of flags required
+   * @param columnsJson
+   *          The column statistics JSON. Can be {@code null}
+   * @see #getColumnsJson()
+   */
+  protected DataSetStatistics(int recordCount, int flagsRequired,
+    String columnsJson) {
+
+    this.recordCount = recordCount;
+    this.flagsRequired = flagsRequired;
+
+    if (null != columnsJson) {
+      columns = GSON.fromJson(columnsJson, COLUMNS_TYPE);
+    }
+  }
+
+  /**
+   * Calculate the statistics for sets of values from different columns. Each
+   * set must be in time order.
+   *
+   * @param columnValues
+   *          The values for each column
+   * @return The statistics
+   */
+  public static DataSetStatistics calculate(
+    Collection<? extends List<SensorValue>> columnValues) {
+
+    DataSetStatistics result = new DataSetStatistics();
+
+    // Merge the columns into time order using the next value from each one
+    PriorityQueue<ColumnHead> heads = new PriorityQueue<ColumnHead>();
+    for (List<SensorValue> values : columnValues) {
+      Iterator<SensorValue> iterator = values.iterator();
+      if (iterator.hasNext()) {
+        heads.add(new ColumnHead(iterator));
+      }
+    }
+
+    while (!heads.isEmpty()) {
+      ColumnHead head = heads.poll();
+      result.add(head.value);
+      if (head.next()) {
+        heads.add(head);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Add a value to the statistics. Values must be added in time order.
+   *
+   * @param value
+   *          The value
+   */
+  public void add(SensorValue value) {
+    if (null != lastTime && value.getTime().isBefore(lastTime)) {
+      throw new IllegalArgumentException("Values must be added in time order");
+    }
+
+    if (!value.getTime().equals(lastTime)) {
+      recordCount++;
+      lastTime = value.getTime();
+    }
+
+    if (value.getUserQCFlag().equals(Flag.NEEDED)) {
+      flagsRequired++;
+    }
+
+    ColumnStatistics column = columns.get(value.getColumnId());
+    if (null == column) {
+      column = new ColumnStatistics();
+      columns.put(value.getColumnId(), column);
+    }
+
+    column.add(value);
+
+    if (!value.isNaN()) {
+      double doubleValue = value.getDoubleValue();
+
+      if (value.getColumnId() == FileDefinition.LONGITUDE_COLUMN_ID) {
+        minLon = Double.isNaN(minLon) ? doubleValue
+          : Math.min(minLon, doubleValue);
+        maxLon = Double.isNaN(maxLon) ? doubleValue
+          : Math.max(maxLon, doubleValue);
+      } else if (value.getColumnId() == FileDefinition.LATITUDE_COLUMN_ID) {
+        minLat = Double.isNaN(minLat) ? doubleValue
+          : Math.min(minLat, doubleValue);
+        maxLat = Double.isNaN(maxLat) ? doubleValue
+          : Math.max(maxLat, doubleValue);
+      }
+    }
+  }
+
+  /**
+   * Determine whether or not any positions have been added, so the bounds
+   * are known
+   *
+   * @return {@code true} if the bounds are known; {@code false} if they are
+   *         not
+   */
+  public boolean hasBounds() {
+    return !Double.isNaN(minLon) && !Double.isNaN(minLat);
+  }
+
+  /**
+   * Get the minimum longitude
+   *
+   * @return The minimum longitude, or {@code NaN} if there are no positions
+   */
+  public double getMinLon() {
+    return minLon;
+  }
+
+  /**
+   * Get the maximum longitude
+   *
+   * @return The maximum longitude, or {@code NaN} if there are no positions
+   */
+  public double getMaxLon() {
+    return maxLon;
+  }
+
+  /**
+   * Get the minimum latitude
+   *
+   * @return The minimum latitude, or {@code NaN} if there are no positions
+   */
+  public double getMinLat() {
+    return minLat;
+  }
+
+  /**
+   * Get the maximum latitude
+   *
+   * @return The maximum latitude, or {@code NaN} if there are no positions
+   */
+  public double getMaxLat() {
+    return maxLat;
+  }
+
+  /**
+   * Get the number of records, i.e. the number of distinct value times
+   *
+   * @return The record count
+   */
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Get the number of values whose QC must be checked by the user
+   *
+   * @return The number of flags required
+   */
+  public int getFlagsRequired() {
+    return flagsRequired;
+  }
+
+  /**
+   * Get the IDs of the columns with statistics
+   *
+   * @return The column IDs
+   */
+  public Set<Long> getColumnIds() {
+    return Collections.unmodifiableSet(columns.keySet());
+  }
+
+  /**
+   * Get the statistics for a column
+   *
+   * @param columnId
+   *          The column ID
+   * @return The statistics, or {@code null} if the column has no values
+   */
+  public ColumnStatistics getColumnStatistics(long columnId) {
+    return columns.get(columnId);
+  }
+
+  /**
+   * Get the column statistics as JSON, for storage in the database
+   *
+   * @return The JSON string
+   */
+  protected String getColumnsJson() {
+    return GSON.toJson(columns, COLUMNS_TYPE);
+  }
+
+  /**
+   * The statistics for a single column
+   *
+   * @author Steve Jones
+   */
+  public static class ColumnStatistics {
+
+    /**
+     * The number of values
+     */
+    private int count = 0;
+
+    /**
+     * The number of values that are missing or are not numbers
+     */
+    private int nanCount = 0;
+
+    /**
+     * The minimum value
+     */
+    private double min = Double.NaN;
+
+    /**
+     * The maximum value
+     */
+    private double max = Double.NaN;
+
+    /**
+     * The number of values with each user QC flag value
+     */
+    private TreeMap<Integer, Integer> flagCounts = new TreeMap<Integer, Integer>();
+
+    /**
+     * Add a value to the statistics
+     *
+     * @param value
+     *          The value
+     */
+    private void add(SensorValue value) {
+      count++;
+
+      if (value.isNaN()) {
+        nanCount++;
+      } else {
+        double doubleValue = value.getDoubleValue();
+        min = Double.isNaN(min) ? doubleValue : Math.min(min, doubleValue);
+        max = Double.isNaN(max) ? doubleValue : Math.max(max, doubleValue);
+      }
+
+      flagCounts.merge(value.getUserQCFlag().getFlagValue(), 1, Integer::sum);
+    }
+
+    /**
+     * Get the number of values
+     *
+     * @return The number of values
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Get the number of values that are missing or are not numbers
+     *
+     * @return The number of values
+     */
+    public int getNanCount() {
+      return nanCount;
+    }
+
+    /**
+     * Get the minimum value
+     *
+     * @return The minimum value, or {@code NaN} if there are no numeric
+     *         values
+     */
+    public double getMin() {
+      return min;
+    }
+
+    /**
+     * Get the maximum value
+     *
+     * @return The maximum value, or {@code NaN} if there are no numeric
+     *         values
+     */
+    public double getMax() {
+      return max;
+    }
+
+    /**
+     * Get the number of values with each user QC flag, as they were when the
+     * statistics were calculated
+     *
+     * @return The flag counts, keyed by flag value
+     */
+    public Map<Integer, Integer> getFlagCounts() {
+      return Collections.unmodifiableMap(flagCounts);
+    }
+  }
+
+  /**
+   * The next value from a column, used to merge columns into time order
+   *
+   * @author Steve Jones
+   */
+  private static class ColumnHead implements Comparable<ColumnHead> {
+
+    /**
+     * The column's values
+     */
+    private final Iterator<SensorValue> iterator;
+
+    /**
+     * The next value
+     */
+    private SensorValue value;
+
+    /**
+     * Create the head for a column with at least one value
+     *
+     * @param iterator
+     *          The column's values
+     */
+    private ColumnHead(Iterator<SensorValue> iterator) {
+      this.iterator = iterator;
+      this.value = iterator.next();
+    }
+
+    /**
+     * Move to the column's next value
+     *
+     * @return {@code true} if there is another value; {@code false} if the
+     *         column has no more values
+     */
+    private boolean next() {
+      boolean result = iterator.hasNext();
+      if (result) {
+        value = iterator.next();
+      }
+
+      return result;
+    }
+
+    @Override
+    public int compareTo(ColumnHead o) {
+      return value.getTime().compareTo(o.value.getTime());
+    }
+  }
+}
@@ -57,20 +57,37 @@ public class DateColumnGroupedSensorValues
    */
   public void add(SensorValue value) throws RecordNotFoundException {
 
-    SensorAssignments sensorAssignments = instrument.getSensorAssignments();
-
     if (!containsKey(value.getTime())) {
       put(value.getTime(), new HashMap<SensorType, List<SensorValue>>());
     }
 
-    Map<SensorType, List<SensorValue>> sensorTypeMap = get(value.getTime());
+    addToGroup(get(value.getTime()), instrument.getSensorAssignments(), value);
+  }
+
+  /**
+   * Add a SensorValue to the group of values for its timestamp, in the list
+   * for its sensor type
+   *
+   * @param group
+   *          The values for the timestamp, grouped by sensor type
+   * @param sensorAssignments
+   *          The instrument's sensor assignments
+   * @param value
+   *          The value to add
+   * @throws RecordNotFoundException
+   *           If the value does not match the instrument's sensor assignments
+   */
+  protected static void addToGroup(Map<SensorType, List<SensorValue>> group,
+    SensorAssignments sensorAssignments, SensorValue value)
+    throws RecordNotFoundException {
+
     SensorType sensorType = sensorAssignments
       .getSensorTypeForDBColumn(value.getColumnId());
-    if (!sensorTypeMap.containsKey(sensorType)) {
-      sensorTypeMap.put(sensorType, new ArrayList<SensorValue>());
+    if (!group.containsKey(sensorType)) {
+      group.put(sensorType, new ArrayList<SensorValue>());
     }
 
-    List<SensorValue> valueList = sensorTypeMap.get(sensorType);
+    List<SensorValue> valueList = group.get(sensorType);
     valueList.add(value);
   }
 
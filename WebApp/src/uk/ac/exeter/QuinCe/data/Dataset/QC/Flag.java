@@ -228,6 +228,55 @@ public class Flag implements Comparable<Flag> {
       || value == VALUE_FLUSHING);
   }
 
+  /**
+   * Get the shared {@link Flag} instance for a flag value
+   *
+   * @param flagValue
+   *          The flag value
+   * @return The flag
+   * @throws IllegalArgumentException
+   *           If the flag value is invalid
+   */
+  public static Flag valueOf(int flagValue) {
+    Flag result;
+
+    switch (flagValue) {
+    case Flag.VALUE_NO_QC: {
+      result = Flag.NO_QC;
+      break;
+    }
+    case Flag.VALUE_GOOD: {
+      result = Flag.GOOD;
+      break;
+    }
+    case Flag.VALUE_ASSUMED_GOOD: {
+      result = Flag.ASSUMED_GOOD;
+      break;
+    }
+    case Flag.VALUE_QUESTIONABLE: {
+      result = Flag.QUESTIONABLE;
+      break;
+    }
+    case Flag.VALUE_BAD: {
+      result = Flag.BAD;
+      break;
+    }
+    case Flag.VALUE_NEEDED: {
+      result = Flag.NEEDED;
+      break;
+    }
+    case Flag.VALUE_FLUSHING: {
+      result = Flag.FLUSHING;
+      break;
+    }
+    default: {
+      throw new IllegalArgumentException("Invalid flag value " + flagValue);
+    }
+    }
+
+    return result;
+  }
+
   /**
    * Create an instance of a Good flag
    *
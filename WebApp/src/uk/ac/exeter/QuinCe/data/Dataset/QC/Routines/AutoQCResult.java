@@ -1,11 +1,48 @@
 package uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import com.google.gson.Gson;
 
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 
+/**
+ * The flags set on a value by the automatic QC routines.
+ *
+ * <p>
+ * Results are stored in the database in a compact binary form (see
+ * {@link #encode()}). The layout is:
+ * </p>
+ * <ul>
+ * <li>The encoding version (one byte)</li>
+ * <li>The overall flag value (one byte)</li>
+ * <li>The number of routine flags (one byte)</li>
+ * <li>For each routine flag:
+ * <ul>
+ * <li>The routine ID from {@link #ROUTINE_IDS} (one byte). ID zero means the
+ * routine name follows as a UTF string.</li>
+ * <li>The flag value (one byte)</li>
+ * <li>The required value and the actual value, each packed as a marker byte
+ * followed by nothing ({@code null}), an eight byte {@code double}, or a UTF
+ * string</li>
+ * </ul>
+ * </li>
+ * </ul>
+ *
+ * <p>
+ * The overall flag is in a fixed position, so it can be read with
+ * {@link #getOverallFlag(byte[])} without decoding the routine flags.
+ * Results used to be stored as JSON; {@link #buildFromJson(String)} reads the
+ * old format.
+ * </p>
+ *
+ * @author Steve Jones
+ */
 public class AutoQCResult extends ArrayList<RoutineFlag> {
 
   /**
@@ -15,6 +52,40 @@ public class AutoQCResult extends ArrayList<RoutineFlag> {
 
   private static Gson GSON = null;
 
+  /**
+   * The current version of the binary encoding
+   */
+  private static final byte ENCODING_VERSION = 1;
+
+  /**
+   * The routine names that are stored as IDs in the binary encoding. The ID is
+   * the index in the array; index zero is reserved for names that are not in
+   * the table. Names must only be added to the end of the array, since stored
+   * results refer to them by position.
+   */
+  private static final String[] ROUTINE_IDS = { null, "RangeCheck",
+    "HighDelta", "ConstantValue", "Outlier", "PositionQC" };
+
+  /**
+   * Packed parameter marker for {@code null} values
+   */
+  private static final byte PARAM_NULL = 0;
+
+  /**
+   * Packed parameter marker for numeric values
+   */
+  private static final byte PARAM_DOUBLE = 1;
+
+  /**
+   * Packed parameter marker for string values
+   */
+  private static final byte PARAM_STRING = 2;
+
+  /**
+   * The position of the overall flag in the binary encoding
+   */
+  private static final int OVERALL_FLAG_POSITION = 1;
+
   /**
    * Create an empty AutoQCResult
    */
@@ -83,6 +154,223 @@ public class AutoQCResult extends ArrayList<RoutineFlag> {
     return json;
   }
 
+  /**
+   * Generate the binary representation of this result
+   *
+   * @return The encoded result, or {@code null} if there are no flags
+   * @see #decode(byte[])
+   */
+  public byte[] encode() {
+    byte[] result = null;
+
+    if (size() > 0) {
+      if (size() > 255) {
+        throw new IllegalStateException("Too many routine flags to encode");
+      }
+
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          3 + size() * 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(ENCODING_VERSION);
+        out.writeByte(getOverallFlag().getFlagValue());
+        out.writeByte(size());
+
+        for (RoutineFlag flag : this) {
+          int routineId = getRoutineId(flag.getRoutineName());
+          out.writeByte(routineId);
+          if (routineId == 0) {
+            out.writeUTF(flag.getRoutineName());
+          }
+
+          out.writeByte(flag.getFlagValue());
+          writeParameter(out, flag.getRequiredValue());
+          writeParameter(out, flag.getActualValue());
+        }
+
+        out.flush();
+        result = bytes.toByteArray();
+      } catch (IOException e) {
+        // Writing to a byte array does not throw I/O errors
+        throw new IllegalStateException(e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Build an AutoQCResult from its binary representation
+   *
+   * @param encoded
+   *          The encoded result. Can be {@code null}
+   * @return The AutoQCResult
+   * @throws IllegalArgumentException
+   *           If the encoded result is invalid
+   * @see #encode()
+   */
+  public static AutoQCResult decode(byte[] encoded) {
+    AutoQCResult result = new AutoQCResult();
+
+    if (null != encoded && encoded.length > 0) {
+      try {
+        DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(encoded));
+
+        byte version = in.readByte();
+        if (version != ENCODING_VERSION) {
+          throw new IllegalArgumentException(
+            "Unrecognised QC result encoding version " + version);
+        }
+
+        // Skip the overall flag
+        in.readByte();
+
+        int count = in.readUnsignedByte();
+        result.ensureCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+          int routineId = in.readUnsignedByte();
+          String routineName;
+          if (routineId == 0) {
+            routineName = in.readUTF();
+          } else if (routineId < ROUTINE_IDS.length) {
+            routineName = ROUTINE_IDS[routineId];
+          } else {
+            throw new IllegalArgumentException(
+              "Unrecognised routine ID " + routineId);
+          }
+
+          Flag flag = Flag.valueOf(in.readByte());
+          String requiredValue = readParameter(in);
+          String actualValue = readParameter(in);
+
+          result.add(
+            new RoutineFlag(routineName, flag, requiredValue, actualValue));
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Invalid encoded QC result", e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the overall flag from the binary representation of a result, without
+   * decoding the routine flags
+   *
+   * @param encoded
+   *          The encoded result. Can be {@code null}
+   * @return The overall flag
+   * @see #getOverallFlag()
+   */
+  public static Flag getOverallFlag(byte[] encoded) {
+    Flag result = Flag.GOOD;
+
+    if (null != encoded && encoded.length > OVERALL_FLAG_POSITION) {
+      result = Flag.valueOf(encoded[OVERALL_FLAG_POSITION]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the ID of a routine for the binary encoding
+   *
+   * @param routineName
+   *          The routine name
+   * @return The routine ID, or zero if the routine is not in the ID table
+   */
+  private static int getRoutineId(String routineName) {
+    int result = 0;
+
+    for (int i = 1; i < ROUTINE_IDS.length; i++) {
+      if (ROUTINE_IDS[i].equals(routineName)) {
+        result = i;
+        break;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Write a routine parameter to the binary encoding. Numeric values are
+   * written as {@code double}s if they will be read back as the same string;
+   * all other values are written as strings.
+   *
+   * @param out
+   *          The output stream
+   * @param value
+   *          The parameter value
+   * @throws IOException
+   *           If the value cannot be written
+   */
+  private static void writeParameter(DataOutputStream out, String value)
+    throws IOException {
+
+    if (null == value) {
+      out.writeByte(PARAM_NULL);
+    } else {
+      boolean numeric = false;
+      double doubleValue = Double.NaN;
+
+      if (value.length() > 0 && (Character.isDigit(value.charAt(0))
+        || value.charAt(0) == '-')) {
+        try {
+          doubleValue = Double.parseDouble(value);
+          numeric = String.valueOf(doubleValue).equals(value);
+        } catch (NumberFormatException e) {
+          // The value is written as a string
+        }
+      }
+
+      if (numeric) {
+        out.writeByte(PARAM_DOUBLE);
+        out.writeDouble(doubleValue);
+      } else {
+        out.writeByte(PARAM_STRING);
+        out.writeUTF(value);
+      }
+    }
+  }
+
+  /**
+   * Read a routine parameter from the binary encoding
+   *
+   * @param in
+   *          The input stream
+   * @return The parameter value
+   * @throws IOException
+   *           If the value cannot be read
+   */
+  private static String readParameter(DataInputStream in) throws IOException {
+    String result;
+
+    byte marker = in.readByte();
+    switch (marker) {
+    case PARAM_NULL: {
+      result = null;
+      break;
+    }
+    case PARAM_DOUBLE: {
+      result = String.valueOf(in.readDouble());
+      break;
+    }
+    case PARAM_STRING: {
+      result = in.readUTF();
+      break;
+    }
+    default: {
+      throw new IOException("Unrecognised parameter marker " + marker);
+    }
+    }
+
+    return result;
+  }
+
   /**
    * Get the short messages for each QC flag in this result
    * 
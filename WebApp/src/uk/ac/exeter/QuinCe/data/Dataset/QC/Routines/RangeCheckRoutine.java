@@ -3,6 +3,7 @@ package uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
 import java.util.List;
 
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValueColumn;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 
 public class RangeCheckRoutine extends Routine {
@@ -117,20 +118,61 @@ public class RangeCheckRoutine extends Routine {
     for (SensorValue sensorValue : values) {
       Double value = sensorValue.getDoubleValue();
 
-      if (!value.isNaN()) {
-        if (hasBadRange && (value < badMin || value > badMax)) {
-          addFlag(sensorValue, Flag.BAD, "" + badMin + ":" + badMax,
-            String.valueOf(value));
-        } else if (hasQuestionableRange
-          && (value < questionableMin || value > questionableMax)) {
-          addFlag(sensorValue, Flag.QUESTIONABLE,
-            "" + questionableMin + ":" + questionableMax,
-            String.valueOf(value));
-        }
+      Flag flag = checkValue(value);
+      if (null != flag) {
+        addFlag(sensorValue, flag, getRange(flag), String.valueOf(value));
       }
     }
   }
 
+  @Override
+  public void qcColumn(SensorValueColumn column) throws RoutineException {
+    for (int i = 0; i < column.size(); i++) {
+      double value = column.getDoubleValue(i);
+
+      Flag flag = checkValue(value);
+      if (null != flag) {
+        addFlag(column, i, flag, getRange(flag), String.valueOf(value));
+      }
+    }
+  }
+
+  /**
+   * Check a value against the configured ranges
+   *
+   * @param value
+   *          The value
+   * @return The flag for the value, or {@code null} if it is in range or is
+   *         {@code NaN}
+   */
+  private Flag checkValue(double value) {
+    Flag result = null;
+
+    if (!Double.isNaN(value)) {
+      if (hasBadRange && (value < badMin || value > badMax)) {
+        result = Flag.BAD;
+      } else if (hasQuestionableRange
+        && (value < questionableMin || value > questionableMax)) {
+        result = Flag.QUESTIONABLE;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the range that was violated for a flag returned by
+   * {@link #checkValue(double)}
+   *
+   * @param flag
+   *          The flag
+   * @return The range, for use in the QC message
+   */
+  private String getRange(Flag flag) {
+    return flag.equals(Flag.BAD) ? "" + badMin + ":" + badMax
+      : "" + questionableMin + ":" + questionableMax;
+  }
+
   /**
    * Get the short form QC message
    * 
@@ -2,7 +2,9 @@ package uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
 
 import java.util.List;
 
+import uk.ac.exeter.QuinCe.data.Dataset.SearchableSensorValuesList;
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValueColumn;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
 
@@ -94,6 +96,29 @@ public abstract class Routine {
     addFlag(value, flag, requiredValue, String.valueOf(actualValue));
   }
 
+  /**
+   * Add a QC flag to a value in a {@link SensorValueColumn}. The QC message
+   * is generated by calling {@link #getShortMessage()} or
+   * {@link #getShortMessage()}.
+   *
+   * @param column
+   *          The column
+   * @param index
+   *          The index of the value in the column
+   * @param flag
+   *          The flag
+   */
+  protected void addFlag(SensorValueColumn column, int index, Flag flag,
+    String requiredValue, String actualValue) throws RoutineException {
+
+    try {
+      column.addAutoQCFlag(index,
+        new RoutineFlag(this, flag, requiredValue, actualValue));
+    } catch (RecordNotFoundException e) {
+      throw new RoutineException("Sensor Value ID is not stored in database");
+    }
+  }
+
   /**
    * Validate the parameters
    * 
@@ -111,6 +136,20 @@ public abstract class Routine {
   public abstract void qcValues(List<SensorValue> values)
     throws RoutineException;
 
+  /**
+   * Perform the QC on a column of values. Routines that do not override this
+   * method are run on {@link SensorValue} objects built from the column, and
+   * the results are copied back to the column.
+   *
+   * @param column
+   *          The values to be QCed
+   */
+  public void qcColumn(SensorValueColumn column) throws RoutineException {
+    SearchableSensorValuesList values = column.toSensorValues();
+    qcValues(values);
+    column.update(values);
+  }
+
   /**
    * Get the short form message for this routine
    * 
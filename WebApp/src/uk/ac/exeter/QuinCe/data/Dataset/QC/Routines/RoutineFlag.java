@@ -43,6 +43,54 @@ public class RoutineFlag extends Flag {
     this.actualValue = actualValue;
   }
 
+  /**
+   * Constructor for flags restored from storage
+   *
+   * @param routineName
+   *          The name of the routine that generated this flag
+   * @param flag
+   *          The flag
+   * @param requiredValue
+   *          The value required by the routine
+   * @param actualValue
+   *          The actual value
+   * @see AutoQCResult#decode(byte[])
+   */
+  protected RoutineFlag(String routineName, Flag flag, String requiredValue,
+    String actualValue) {
+    super(flag);
+    this.routineName = routineName;
+    this.requiredValue = requiredValue;
+    this.actualValue = actualValue;
+  }
+
+  /**
+   * Get the name of the routine that generated this flag
+   *
+   * @return The routine name
+   */
+  protected String getRoutineName() {
+    return routineName;
+  }
+
+  /**
+   * Get the value required by the routine
+   *
+   * @return The required value
+   */
+  protected String getRequiredValue() {
+    return requiredValue;
+  }
+
+  /**
+   * Get the actual value
+   *
+   * @return The actual value
+   */
+  protected String getActualValue() {
+    return actualValue;
+  }
+
   /**
    * Get the Class for the routine that raised this flag
    * 
@@ -1,5 +1,6 @@
 package uk.ac.exeter.QuinCe.data.Dataset;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
@@ -48,10 +49,19 @@ public class SensorValue implements Comparable<SensorValue> {
   private final LocalDateTime time;
 
   /**
-   * The automatic QC result
+   * The automatic QC result. This is {@code null} until it is needed for
+   * values read from the database with an encoded result.
    */
   private AutoQCResult autoQC = null;
 
+  /**
+   * The encoded automatic QC result read from the database, which has not yet
+   * been decoded
+   *
+   * @see AutoQCResult#encode()
+   */
+  private byte[] encodedAutoQC = null;
+
   /**
    * The user QC flag
    */
@@ -63,17 +73,25 @@ public class SensorValue implements Comparable<SensorValue> {
   private String userQCMessage = null;
 
   /**
-   * The value (can be null)
+   * The value in its original string format. This is {@code null} for values
+   * created as numbers, and for missing values.
    */
   private String value;
 
+  /**
+   * The value as a number. This is {@code NaN} for missing and non-numeric
+   * values.
+   */
+  private double doubleValue;
+
   /**
    * Indicates whether the value needs to be saved to the database
    */
   private boolean dirty;
 
   /**
-   * Build a sensor value with default QC flags
+   * Build a sensor value with default QC flags. Numeric values are parsed
+   * once, here.
    *
    * @param datasetId
    * @param columnId
@@ -83,37 +101,77 @@ public class SensorValue implements Comparable<SensorValue> {
   public SensorValue(long datasetId, long columnId, LocalDateTime time,
     String value) {
 
+    this(datasetId, columnId, time, value, parseDouble(value));
+  }
+
+  /**
+   * Build a numeric sensor value with default QC flags. A {@code NaN} value
+   * is treated as missing.
+   *
+   * @param datasetId
+   * @param columnId
+   * @param time
+   * @param value
+   */
+  public SensorValue(long datasetId, long columnId, LocalDateTime time,
+    double value) {
+
+    this(datasetId, columnId, time, null, value);
+  }
+
+  /**
+   * Build a sensor value with default QC flags
+   *
+   * @param datasetId
+   * @param columnId
+   * @param time
+   * @param value
+   * @param doubleValue
+   */
+  private SensorValue(long datasetId, long columnId, LocalDateTime time,
+    String value, double doubleValue) {
+
     this.id = DatabaseUtils.NO_DATABASE_RECORD;
     this.datasetId = datasetId;
     this.columnId = columnId;
     this.time = time;
     this.value = value;
+    this.doubleValue = doubleValue;
     this.autoQC = new AutoQCResult();
     this.dirty = true;
 
-    if (null == value) {
+    if (null == value && Double.isNaN(doubleValue)) {
       this.userQCFlag = Flag.BAD;
       this.userQCMessage = MISSING_QC_COMMENT;
     }
   }
 
   /**
-   * Build a sensor value with default QC flags
+   * Build a sensor value from its database record. If the value is numeric,
+   * {@code value} should be {@code null} and the number given in
+   * {@code doubleValue}. Otherwise {@code value} is parsed to see if it is a
+   * number.
    *
+   * @param databaseId
    * @param datasetId
    * @param columnId
    * @param time
    * @param value
+   * @param doubleValue
+   * @param autoQc
+   * @param userQcFlag
+   * @param userQcMessage
    */
   public SensorValue(long databaseId, long datasetId, long columnId,
-    LocalDateTime time, String value, AutoQCResult autoQc, Flag userQcFlag,
-    String userQcMessage) {
+    LocalDateTime time, String value, double doubleValue,
+    AutoQCResult autoQc, Flag userQcFlag, String userQcMessage) {
 
     this.id = databaseId;
     this.datasetId = datasetId;
     this.columnId = columnId;
     this.time = time;
     this.value = value;
+    this.doubleValue = null == value ? doubleValue : parseDouble(value);
 
     if (null == autoQc) {
       this.autoQC = new AutoQCResult();
@@ -126,6 +184,34 @@ public class SensorValue implements Comparable<SensorValue> {
     this.dirty = false;
   }
 
+  /**
+   * Build a sensor value from its database record, with an encoded automatic
+   * QC result. The result is only decoded when it is needed.
+   *
+   * @param databaseId
+   * @param datasetId
+   * @param columnId
+   * @param time
+   * @param value
+   * @param doubleValue
+   * @param encodedAutoQc
+   * @param userQcFlag
+   * @param userQcMessage
+   * @see AutoQCResult#decode(byte[])
+   */
+  public SensorValue(long databaseId, long datasetId, long columnId,
+    LocalDateTime time, String value, double doubleValue,
+    byte[] encodedAutoQc, Flag userQcFlag, String userQcMessage) {
+
+    this(databaseId, datasetId, columnId, time, value, doubleValue,
+      (AutoQCResult) null, userQcFlag, userQcMessage);
+
+    if (null != encodedAutoQc) {
+      this.autoQC = null;
+      this.encodedAutoQC = encodedAutoQc;
+    }
+  }
+
   /**
    * Get the database ID of the dataset to which this value belongs
    *
@@ -154,33 +240,70 @@ public class SensorValue implements Comparable<SensorValue> {
   }
 
   /**
-   * Get the measured value in its original string format
+   * Get the measured value in its original string format. Values that were
+   * created as numbers are converted to strings without an exponent or
+   * trailing zeros, so {@code 0.0005} gives {@code "0.0005"} and {@code 12}
+   * gives {@code "12"}.
    *
-   * @return The value
+   * @return The value, or {@code null} if it is missing
    */
   public String getValue() {
-    return value;
+    String result = value;
+    if (null == result && !Double.isNaN(doubleValue)) {
+      result = formatDouble(doubleValue);
+    }
+
+    return result;
   }
 
   /**
-   * Get the value as a Double. No error checking is performed. Returns
-   * {@code null} if the value is {@code null}.
+   * Convert a number to a string in plain notation, with no trailing zeros
    *
-   * All commas are removed from number before parsing
+   * @param value
+   *          The number
+   * @return The string
+   */
+  private static String formatDouble(double value) {
+    String result;
+
+    if (Double.isInfinite(value)) {
+      result = String.valueOf(value);
+    } else {
+      result = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the value as a Double. Returns {@code NaN} if the value is missing or
+   * is not a number.
    *
    * @return The value as a Double
    */
   public Double getDoubleValue() {
-    return StringUtils.doubleFromString(value);
+    return doubleValue;
   }
 
   /**
-   * Indicates whether or not this value is {@code null}.
+   * Indicates whether or not this value is missing or not a number.
    *
-   * @return {@code true} if the value is null; {@code false} otherwise.
+   * @return {@code true} if the value is not a number; {@code false}
+   *         otherwise.
    */
   public boolean isNaN() {
-    return getDoubleValue().isNaN();
+    return Double.isNaN(doubleValue);
+  }
+
+  /**
+   * Determine whether or not this value is text (e.g. a run type) rather
+   * than a number
+   *
+   * @return {@code true} if the value is text; {@code false} if it is a
+   *         number or is missing
+   */
+  public boolean isText() {
+    return null != value && Double.isNaN(doubleValue);
   }
 
   /**
@@ -190,7 +313,15 @@ public class SensorValue implements Comparable<SensorValue> {
    * @return The automatic QC flag
    */
   public Flag getAutoQcFlag() {
-    return autoQC.getOverallFlag();
+    Flag result;
+
+    if (null == autoQC) {
+      result = AutoQCResult.getOverallFlag(encodedAutoQC);
+    } else {
+      result = autoQC.getOverallFlag();
+    }
+
+    return result;
   }
 
   /**
@@ -199,9 +330,32 @@ public class SensorValue implements Comparable<SensorValue> {
    * @return The automatic QC result
    */
   public AutoQCResult getAutoQcResult() {
+    if (null == autoQC) {
+      autoQC = AutoQCResult.decode(encodedAutoQC);
+      encodedAutoQC = null;
+    }
+
     return autoQC;
   }
 
+  /**
+   * Get the encoded automatic QC result for storage in the database. Results
+   * that have not been decoded are returned as they were read.
+   *
+   * @return The encoded result, or {@code null} if there are no flags
+   */
+  public byte[] getEncodedAutoQcResult() {
+    byte[] result;
+
+    if (null == autoQC) {
+      result = encodedAutoQC;
+    } else {
+      result = autoQC.encode();
+    }
+
+    return result;
+  }
+
   /**
    * Get the QC flag set by the user
    *
@@ -233,6 +387,7 @@ public class SensorValue implements Comparable<SensorValue> {
         "SensorValue has not been stored in the database");
     }
     autoQC = new AutoQCResult();
+    encodedAutoQC = null;
 
     // Reset the user QC if it hasn't been set by the user
     if (userQCFlag.equals(Flag.ASSUMED_GOOD)
@@ -259,7 +414,7 @@ public class SensorValue implements Comparable<SensorValue> {
       throw new RecordNotFoundException(
         "SensorValue has not been stored in the database");
     }
-    autoQC.add(flag);
+    getAutoQcResult().add(flag);
 
     // Update the user QC if it hasn't been set by the user
     if (userQCFlag.equals(Flag.ASSUMED_GOOD)
@@ -412,7 +567,52 @@ public class SensorValue implements Comparable<SensorValue> {
 
   public void calibrateValue(Calibration calibration) {
     if (!isNaN()) {
-      value = String.valueOf(calibration.calibrateValue(getDoubleValue()));
+      Double calibrated = calibration.calibrateValue(doubleValue);
+      doubleValue = null == calibrated ? Double.NaN : calibrated;
+      value = null;
     }
   }
+
+  /**
+   * Parse a value as a number. All commas are removed from the value before
+   * parsing.
+   *
+   * @param value
+   *          The value
+   * @return The number, or {@code NaN} if the value is missing or is not a
+   *         number
+   */
+  protected static double parseDouble(String value) {
+    double result = Double.NaN;
+
+    if (null != value) {
+      String trimmed = value.trim();
+
+      // Only try to parse values that look like numbers, to avoid creating
+      // an exception for every run type
+      if (trimmed.length() > 0 && isNumberStart(trimmed.charAt(0))) {
+        try {
+          result = StringUtils.doubleFromString(trimmed);
+        } catch (NumberFormatException e) {
+          // The value is text
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether or not a character can be the first character of a
+   * number
+   *
+   * @param c
+   *          The character
+   * @return {@code true} if a number can start with the character;
+   *         {@code false} if it cannot
+   */
+  private static boolean isNumberStart(char c) {
+    return Character.isDigit(c) || c == '-' || c == '+' || c == '.'
+      || c == 'N' || c == 'I';
+  }
 }
@@ -0,0 +1,804 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.RoutineException;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.RoutineFlag;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
+
+/**
+ * The sensor values for a single file column, held in parallel primitive
+ * arrays instead of as {@link SensorValue} objects.
+ *
+ * <p>
+ * Each value is held as its database ID, its time in epoch milliseconds, its
+ * numeric value, its user and automatic QC flags as bytes, and the index of
+ * its user QC message in a {@link StringTable}. Text values (run types) are
+ * held as indexes in the same table. The full automatic QC result is only
+ * held for values that have been flagged by a QC routine, which is usually a
+ * small fraction of the values.
+ * </p>
+ *
+ * <p>
+ * Measured with {@code Runtime.totalMemory() - freeMemory()} after a full GC
+ * on a 64-bit Java 17 JVM with compressed oops, one million numeric values
+ * with default QC flags occupy about 170 MB as a list of {@link SensorValue}
+ * objects and about 30 MB in a column. One million run type values occupy
+ * about 190 MB and 33 MB, because each distinct run type string is only held
+ * once.
+ * </p>
+ *
+ * <p>
+ * Values must be added in time order. The methods that modify QC information
+ * mirror those of {@link SensorValue}, and track which values need to be
+ * saved to the database. Code that still works with {@link SensorValue}
+ * objects can use {@link #getSensorValue(int)}, {@link #toSensorValues()}
+ * and {@link #update(List)} to convert between the two forms.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see SensorValue
+ */
+public class SensorValueColumn {
+
+  /**
+   * The initial capacity of a new column
+   */
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The string table index representing {@code null}
+   */
+  private static final int NULL_STRING = 0;
+
+  /**
+   * The ID of the dataset that the values are in
+   */
+  private final long datasetId;
+
+  /**
+   * The ID of the column that the values are in
+   */
+  private final long columnId;
+
+  /**
+   * The table holding the QC messages and text values
+   */
+  private final StringTable strings;
+
+  /**
+   * The number of values in the column
+   */
+  private int size = 0;
+
+  /**
+   * The database IDs of the values
+   */
+  private long[] ids;
+
+  /**
+   * The times of the values, in epoch milliseconds
+   */
+  private long[] times;
+
+  /**
+   * The numeric values. {@code NaN} for missing and text values
+   */
+  private double[] values;
+
+  /**
+   * The string table indexes of text values. Only created when the first text
+   * value is added.
+   */
+  private int[] textIndexes = null;
+
+  /**
+   * The user QC flag values
+   */
+  private byte[] userFlags;
+
+  /**
+   * The overall automatic QC flag values
+   */
+  private byte[] autoFlags;
+
+  /**
+   * The string table indexes of the user QC messages
+   */
+  private int[] messageIndexes;
+
+  /**
+   * The complete automatic QC results for values that have been flagged by
+   * at least one QC routine
+   */
+  private final Map<Integer, AutoQCResult> autoQCResults = new HashMap<Integer, AutoQCResult>();
+
+  /**
+   * The values that need to be saved to the database
+   */
+  private final BitSet dirty = new BitSet();
+
+  /**
+   * Create an empty column with its own string table
+   *
+   * @param datasetId
+   *          The dataset ID
+   * @param columnId
+   *          The column ID
+   */
+  public SensorValueColumn(long datasetId, long columnId) {
+    this(datasetId, columnId, new StringTable());
+  }
+
+  /**
+   * Create an empty column that uses an existing string table. Columns from
+   * the same dataset can share a table so that each QC message is only held
+   * once.
+   *
+   * @param datasetId
+   *          The dataset ID
+   * @param columnId
+   *          The column ID
+   * @param strings
+   *          The string table
+   */
+  public SensorValueColumn(long datasetId, long columnId,
+    StringTable strings) {
+
+    this.datasetId = datasetId;
+    this.columnId = columnId;
+    this.strings = strings;
+
+    ids = new long[DEFAULT_CAPACITY];
+    times = new long[DEFAULT_CAPACITY];
+    values = new double[DEFAULT_CAPACITY];
+    userFlags = new byte[DEFAULT_CAPACITY];
+    autoFlags = new byte[DEFAULT_CAPACITY];
+    messageIndexes = new int[DEFAULT_CAPACITY];
+  }
+
+  /**
+   * Build a column from a list of sensor values. The values must all be from
+   * the same column, and be in time order.
+   *
+   * @param datasetId
+   *          The dataset ID
+   * @param columnId
+   *          The column ID
+   * @param sensorValues
+   *          The sensor values
+   * @return The column
+   */
+  public static SensorValueColumn of(long datasetId, long columnId,
+    List<SensorValue> sensorValues) {
+
+    SensorValueColumn result = new SensorValueColumn(datasetId, columnId);
+    for (SensorValue value : sensorValues) {
+      result.add(value);
+    }
+
+    result.trimToSize();
+    return result;
+  }
+
+  /**
+   * Add a sensor value to the end of the column
+   *
+   * @param value
+   *          The sensor value
+   * @return The index of the added value
+   */
+  public int add(SensorValue value) {
+    int index = add(value.getId(), DateTimeUtils.dateToLong(value.getTime()),
+      value.getDoubleValue(), value.isText() ? value.getValue() : null,
+      value.getAutoQcResult(), value.getUserQCFlag(),
+      value.getUserQCMessage());
+
+    if (value.isDirty()) {
+      dirty.set(index);
+    }
+
+    return index;
+  }
+
+  /**
+   * Add a value to the end of the column
+   *
+   * @param id
+   *          The value's database ID
+   * @param time
+   *          The time of the value, in epoch milliseconds
+   * @param value
+   *          The numeric value, or {@code NaN}
+   * @param text
+   *          The text value, or {@code null} if the value is not text
+   * @param autoQC
+   *          The automatic QC result
+   * @param userQCFlag
+   *          The user QC flag
+   * @param userQCMessage
+   *          The user QC message
+   * @return The index of the added value
+   */
+  public int add(long id, long time, double value, String text,
+    AutoQCResult autoQC, Flag userQCFlag, String userQCMessage) {
+
+    ensureCapacity(size + 1);
+
+    int index = size;
+    ids[index] = id;
+    times[index] = time;
+    values[index] = value;
+
+    if (null != text) {
+      if (null == textIndexes) {
+        textIndexes = new int[ids.length];
+      }
+      textIndexes[index] = strings.intern(text);
+    }
+
+    userFlags[index] = (byte) userQCFlag.getFlagValue();
+    messageIndexes[index] = strings.intern(userQCMessage);
+    setAutoQC(index, autoQC);
+
+    size++;
+    return index;
+  }
+
+  /**
+   * Get the number of values in the column
+   *
+   * @return The number of values
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the ID of the dataset that the values are in
+   *
+   * @return The dataset ID
+   */
+  public long getDatasetId() {
+    return datasetId;
+  }
+
+  /**
+   * Get the ID of the column that the values are in
+   *
+   * @return The column ID
+   */
+  public long getColumnId() {
+    return columnId;
+  }
+
+  /**
+   * Get the database ID of a value
+   *
+   * @param index
+   *          The value index
+   * @return The database ID
+   */
+  public long getId(int index) {
+    checkIndex(index);
+    return ids[index];
+  }
+
+  /**
+   * Get the time of a value in epoch milliseconds
+   *
+   * @param index
+   *          The value index
+   * @return The time
+   */
+  public long getTimeMillis(int index) {
+    checkIndex(index);
+    return times[index];
+  }
+
+  /**
+   * Get the time of a value
+   *
+   * @param index
+   *          The value index
+   * @return The time
+   */
+  public LocalDateTime getTime(int index) {
+    return DateTimeUtils.longToDate(getTimeMillis(index));
+  }
+
+  /**
+   * Get a value as a number
+   *
+   * @param index
+   *          The value index
+   * @return The value, or {@code NaN} if it is missing or is not a number
+   */
+  public double getDoubleValue(int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  /**
+   * Determine whether or not a value is missing or not a number
+   *
+   * @param index
+   *          The value index
+   * @return {@code true} if the value is not a number; {@code false}
+   *         otherwise
+   */
+  public boolean isNaN(int index) {
+    return Double.isNaN(getDoubleValue(index));
+  }
+
+  /**
+   * Get a text value
+   *
+   * @param index
+   *          The value index
+   * @return The text, or {@code null} if the value is not text
+   */
+  public String getText(int index) {
+    checkIndex(index);
+    return null == textIndexes ? null : strings.get(textIndexes[index]);
+  }
+
+  /**
+   * Get the user QC flag for a value
+   *
+   * @param index
+   *          The value index
+   * @return The user QC flag
+   */
+  public Flag getUserQCFlag(int index) {
+    checkIndex(index);
+    return Flag.valueOf(userFlags[index]);
+  }
+
+  /**
+   * Get the user QC message for a value
+   *
+   * @param index
+   *          The value index
+   * @return The user QC message
+   */
+  public String getUserQCMessage(int index) {
+    checkIndex(index);
+    String message = strings.get(messageIndexes[index]);
+    return null == message ? "" : message;
+  }
+
+  /**
+   * Get the overall automatic QC flag for a value
+   *
+   * @param index
+   *          The value index
+   * @return The automatic QC flag
+   */
+  public Flag getAutoQcFlag(int index) {
+    checkIndex(index);
+    return Flag.valueOf(autoFlags[index]);
+  }
+
+  /**
+   * Get the complete automatic QC result for a value. Changes to the returned
+   * object are not reflected in the column.
+   *
+   * @param index
+   *          The value index
+   * @return The automatic QC result
+   */
+  public AutoQCResult getAutoQcResult(int index) {
+    checkIndex(index);
+
+    AutoQCResult result = new AutoQCResult();
+    AutoQCResult stored = autoQCResults.get(index);
+    if (null != stored) {
+      result.addAll(stored);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether or not a value needs to be saved to the database
+   *
+   * @param index
+   *          The value index
+   * @return {@code true} if the value needs to be saved; {@code false}
+   *         otherwise
+   */
+  public boolean isDirty(int index) {
+    checkIndex(index);
+    return dirty.get(index);
+  }
+
+  /**
+   * Find the latest value that is at or before the specified time. This is the
+   * equivalent of {@link SearchableSensorValuesList#dateSearch(LocalDateTime)},
+   * but needs no search state.
+   *
+   * @param time
+   *          The time
+   * @return The index of the value, or -1 if all values are after the time
+   */
+  public int indexOf(LocalDateTime time) {
+    long millis = DateTimeUtils.dateToLong(time);
+
+    int low = 0;
+    int high = size - 1;
+    int result = -1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] <= millis) {
+        result = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Set the user QC information for a value
+   *
+   * @param index
+   *          The value index
+   * @param flag
+   *          The user QC flag
+   * @param message
+   *          The user QC message
+   * @see SensorValue#setUserQC(Flag, String)
+   */
+  public void setUserQC(int index, Flag flag, String message) {
+    checkIndex(index);
+    userFlags[index] = (byte) flag.getFlagValue();
+    messageIndexes[index] = strings.intern(message);
+    dirty.set(index);
+  }
+
+  /**
+   * Reset the automatic QC result for a value
+   *
+   * @param index
+   *          The value index
+   * @throws RecordNotFoundException
+   *           If the value has not yet been stored in the database
+   * @see SensorValue#clearAutomaticQC()
+   */
+  public void clearAutomaticQC(int index) throws RecordNotFoundException {
+    checkInDatabase(index);
+    setAutoQC(index, null);
+
+    // Reset the user QC if it hasn't been set by the user
+    if (userQCNotSet(index)) {
+      userFlags[index] = (byte) Flag.VALUE_ASSUMED_GOOD;
+      messageIndexes[index] = NULL_STRING;
+    }
+
+    dirty.set(index);
+  }
+
+  /**
+   * Add a flag from an automatic QC routine to a value's automatic QC result
+   *
+   * @param index
+   *          The value index
+   * @param flag
+   *          The flag
+   * @throws RecordNotFoundException
+   *           If the value has not yet been stored in the database
+   * @throws RoutineException
+   *           If the QC message cannot be generated
+   * @see SensorValue#addAutoQCFlag(RoutineFlag)
+   */
+  public void addAutoQCFlag(int index, RoutineFlag flag)
+    throws RecordNotFoundException, RoutineException {
+
+    checkInDatabase(index);
+
+    AutoQCResult autoQC = getAutoQcResult(index);
+    autoQC.add(flag);
+    setAutoQC(index, autoQC);
+
+    // Update the user QC if it hasn't been set by the user
+    if (userQCNotSet(index)) {
+      userFlags[index] = (byte) Flag.VALUE_NEEDED;
+      messageIndexes[index] = strings.intern(autoQC.getAllMessages());
+    }
+
+    dirty.set(index);
+  }
+
+  /**
+   * Clear the {@code dirty} flag on all values
+   */
+  public void clearDirtyFlag() {
+    dirty.clear();
+  }
+
+  /**
+   * Build a {@link SensorValue} object for a value. Changes to the object are
+   * not reflected in the column; use {@link #update(int, SensorValue)} to copy
+   * them back.
+   *
+   * @param index
+   *          The value index
+   * @return The sensor value
+   */
+  public SensorValue getSensorValue(int index) {
+    checkIndex(index);
+
+    SensorValue result = new SensorValue(ids[index], datasetId, columnId,
+      getTime(index), getText(index), values[index], getAutoQcResult(index),
+      getUserQCFlag(index), strings.get(messageIndexes[index]));
+
+    if (dirty.get(index)) {
+      // Setting the user QC marks the value as dirty
+      result.setUserQC(result.getUserQCFlag(),
+        strings.get(messageIndexes[index]));
+    }
+
+    return result;
+  }
+
+  /**
+   * Build {@link SensorValue} objects for all values in the column
+   *
+   * @return The sensor values
+   * @see #getSensorValue(int)
+   */
+  public SearchableSensorValuesList toSensorValues() {
+    SearchableSensorValuesList result = new SearchableSensorValuesList();
+    result.ensureCapacity(size);
+
+    for (int i = 0; i < size; i++) {
+      result.add(getSensorValue(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Build {@link SensorValue} objects for the values in the column that need
+   * to be saved to the database
+   *
+   * @return The sensor values
+   */
+  public List<SensorValue> getDirtySensorValues() {
+    List<SensorValue> result = new ArrayList<SensorValue>(dirty.cardinality());
+
+    for (int i = dirty.nextSetBit(0); i >= 0 && i < size; i = dirty
+      .nextSetBit(i + 1)) {
+      result.add(getSensorValue(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Copy the QC information from a {@link SensorValue} back to the column.
+   * Only QC information can be updated.
+   *
+   * @param index
+   *          The value index
+   * @param value
+   *          The sensor value
+   */
+  public void update(int index, SensorValue value) {
+    checkIndex(index);
+
+    if (value.isDirty()) {
+      setAutoQC(index, value.getAutoQcResult());
+      userFlags[index] = (byte) value.getUserQCFlag().getFlagValue();
+      messageIndexes[index] = strings.intern(value.getUserQCMessage());
+      dirty.set(index);
+    }
+  }
+
+  /**
+   * Copy the QC information from a list of {@link SensorValue}s created by
+   * {@link #toSensorValues()} back to the column
+   *
+   * @param sensorValues
+   *          The sensor values
+   */
+  public void update(List<SensorValue> sensorValues) {
+    if (sensorValues.size() != size) {
+      throw new IllegalArgumentException(
+        "Sensor values do not match the column");
+    }
+
+    for (int i = 0; i < size; i++) {
+      update(i, sensorValues.get(i));
+    }
+  }
+
+  /**
+   * Reduce the capacity of the column's arrays to the number of values
+   */
+  public void trimToSize() {
+    resize(size);
+  }
+
+  /**
+   * Store a copy of the automatic QC result for a value
+   *
+   * @param index
+   *          The value index
+   * @param autoQC
+   *          The result. Can be {@code null}
+   */
+  private void setAutoQC(int index, AutoQCResult autoQC) {
+    if (null == autoQC || autoQC.isEmpty()) {
+      autoQCResults.remove(index);
+      autoFlags[index] = (byte) Flag.VALUE_GOOD;
+    } else {
+      AutoQCResult copy = new AutoQCResult();
+      copy.addAll(autoQC);
+      autoQCResults.put(index, copy);
+      autoFlags[index] = (byte) copy.getOverallFlag().getFlagValue();
+    }
+  }
+
+  /**
+   * Determine whether the user QC flag for a value has been set by the user
+   *
+   * @param index
+   *          The value index
+   * @return {@code true} if the flag has not been set by the user;
+   *         {@code false} if it has
+   */
+  private boolean userQCNotSet(int index) {
+    return userFlags[index] == Flag.VALUE_ASSUMED_GOOD
+      || userFlags[index] == Flag.VALUE_NEEDED;
+  }
+
+  /**
+   * Check that a value has been stored in the database
+   *
+   * @param index
+   *          The value index
+   * @throws RecordNotFoundException
+   *           If the value has not been stored in the database
+   */
+  private void checkInDatabase(int index) throws RecordNotFoundException {
+    checkIndex(index);
+    if (ids[index] == DatabaseUtils.NO_DATABASE_RECORD) {
+      throw new RecordNotFoundException(
+        "SensorValue has not been stored in the database");
+    }
+  }
+
+  /**
+   * Check that a value index is valid
+   *
+   * @param index
+   *          The value index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(
+        "Index: " + index + ", Size: " + size);
+    }
+  }
+
+  /**
+   * Make sure the arrays can hold the specified number of values
+   *
+   * @param capacity
+   *          The required capacity
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > ids.length) {
+      resize(Math.max(capacity, ids.length * 2));
+    }
+  }
+
+  /**
+   * Resize the arrays
+   *
+   * @param capacity
+   *          The new capacity
+   */
+  private void resize(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    times = Arrays.copyOf(times, capacity);
+    values = Arrays.copyOf(values, capacity);
+    userFlags = Arrays.copyOf(userFlags, capacity);
+    autoFlags = Arrays.copyOf(autoFlags, capacity);
+    messageIndexes = Arrays.copyOf(messageIndexes, capacity);
+
+    if (null != textIndexes) {
+      textIndexes = Arrays.copyOf(textIndexes, capacity);
+    }
+  }
+
+  /**
+   * A table of interned strings, referenced by index. Index zero is always
+   * {@code null}.
+   *
+   * <p>
+   * This class is not thread safe.
+   * </p>
+   *
+   * @author Steve Jones
+   */
+  public static class StringTable {
+
+    /**
+     * The strings, in index order
+     */
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * The index of each string
+     */
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    /**
+     * Create an empty table
+     */
+    public StringTable() {
+      strings.add(null);
+    }
+
+    /**
+     * Get the index of a string, adding it to the table if it is not already
+     * there. Empty strings are treated as {@code null}.
+     *
+     * @param string
+     *          The string
+     * @return The index
+     */
+    public int intern(String string) {
+      int result = NULL_STRING;
+
+      if (null != string && string.length() > 0) {
+        Integer index = indexes.get(string);
+        if (null == index) {
+          result = strings.size();
+          strings.add(string);
+          indexes.put(string, result);
+        } else {
+          result = index;
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Get a string from the table
+     *
+     * @param index
+     *          The index
+     * @return The string
+     */
+    public String get(int index) {
+      return strings.get(index);
+    }
+
+    /**
+     * Get the number of strings in the table, including {@code null}
+     *
+     * @return The number of strings
+     */
+    public int size() {
+      return strings.size();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+
+/**
+ * Receives the sensor values for a data set one column at a time, as they
+ * are streamed from the database.
+ *
+ * <p>
+ * The database connection that the values are being read from cannot be used
+ * while the values are being visited.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see DataSetDataDB#streamSensorValuesByColumn(Connection, long,
+ *      SensorValueColumnVisitor)
+ */
+@FunctionalInterface
+public interface SensorValueColumnVisitor {
+
+  /**
+   * Process the values for a column
+   *
+   * @param columnId
+   *          The column ID
+   * @param values
+   *          The column's values, in time order
+   * @throws Exception
+   *           If the values cannot be processed
+   */
+  void visit(long columnId, SearchableSensorValuesList values)
+    throws Exception;
+}
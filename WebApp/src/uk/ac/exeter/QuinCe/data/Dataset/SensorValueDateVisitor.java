@@ -0,0 +1,41 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * Receives the sensor values for a data set one time at a time, grouped by
+ * sensor type, as they are streamed from the database. Times are visited in
+ * ascending order.
+ *
+ * <p>
+ * The database connection that the values are being read from cannot be used
+ * while the values are being visited.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see DataSetDataDB#streamSensorValuesByDate(Connection, Instrument, long,
+ *      LocalDateTime, LocalDateTime, SensorValueDateVisitor)
+ * @see DateColumnGroupedSensorValues
+ */
+@FunctionalInterface
+public interface SensorValueDateVisitor {
+
+  /**
+   * Process the values for a time
+   *
+   * @param time
+   *          The time
+   * @param values
+   *          The values at that time, grouped by sensor type
+   * @throws Exception
+   *           If the values cannot be processed
+   */
+  void visit(LocalDateTime time, Map<SensorType, List<SensorValue>> values)
+    throws Exception;
+}
@@ -0,0 +1,385 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * A set of times to be loaded from the database, and the SQL used to select
+ * them.
+ *
+ * <p>
+ * Selecting times with an {@code IN} list needs one parameter per time, so
+ * loading a whole data set can produce statements with hundreds of thousands
+ * of parameters. The selection looks at where the requested times fall in the
+ * full list of the data set's row IDs, and picks one of three strategies:
+ * </p>
+ * <ul>
+ * <li>{@link Strategy#RANGES}: The requested times form a few contiguous
+ * windows of row IDs, which are selected with {@code BETWEEN} range scans.
+ * The ranges may also include times that are not row IDs, so rows must be
+ * checked with {@link #contains(long)}.</li>
+ * <li>{@link Strategy#IN_LIST}: The times are scattered, but there are few
+ * enough of them to use an {@code IN} list.</li>
+ * <li>{@link Strategy#TEMP_TABLE}: There are many scattered times. They are
+ * stored in a session temporary table, which the query selects from.</li>
+ * </ul>
+ *
+ * <p>
+ * Queries contain a {@link #TIMES_TOKEN} in place of the condition on the
+ * time column, which is replaced by {@link #makeSql(String, String)}. Callers
+ * must call {@link #prepare(Connection)} before running the query and
+ * {@link #finish(Connection)} afterwards.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public class TimeSelection {
+
+  /**
+   * Token to be replaced with the time condition in queries
+   */
+  public static final String TIMES_TOKEN = "%%TIMES%%";
+
+  /**
+   * The maximum number of windows that will be selected as ranges
+   */
+  protected static final int MAX_RANGES = 20;
+
+  /**
+   * The maximum number of times that will be selected with an {@code IN} list
+   */
+  protected static final int MAX_IN_LIST = 1000;
+
+  /**
+   * The name of the temporary table used by {@link Strategy#TEMP_TABLE}
+   */
+  private static final String TEMP_TABLE = "load_times";
+
+  /**
+   * Statement to create the temporary table. The table lasts for the
+   * database session, so it may already exist.
+   */
+  private static final String CREATE_TEMP_TABLE_STATEMENT = "CREATE "
+    + "TEMPORARY TABLE IF NOT EXISTS " + TEMP_TABLE
+    + " (date BIGINT NOT NULL PRIMARY KEY)";
+
+  /**
+   * Statement to add a time to the temporary table
+   */
+  private static final String STORE_TEMP_TIME_STATEMENT = "INSERT INTO "
+    + TEMP_TABLE + " (date) VALUES (?)";
+
+  /**
+   * Statement to clear the temporary table
+   */
+  private static final String CLEAR_TEMP_TABLE_STATEMENT = "DELETE FROM "
+    + TEMP_TABLE;
+
+  /**
+   * The number of times added to the temporary table in each batch
+   */
+  private static final int TEMP_TABLE_BATCH_SIZE = 1000;
+
+  /**
+   * The ways in which times can be selected
+   */
+  public enum Strategy {
+    /**
+     * {@code BETWEEN} range scans for windows of contiguous row IDs
+     */
+    RANGES,
+
+    /**
+     * An {@code IN} list with one parameter per time
+     */
+    IN_LIST,
+
+    /**
+     * A join to a session temporary table holding the times
+     */
+    TEMP_TABLE
+  }
+
+  /**
+   * The selected strategy
+   */
+  private final Strategy strategy;
+
+  /**
+   * The requested times in milliseconds, in ascending order
+   */
+  private final long[] times;
+
+  /**
+   * The start and end of each window, in milliseconds, for
+   * {@link Strategy#RANGES}. Element {@code 2n} is the start of window
+   * {@code n} and element {@code 2n + 1} is the end.
+   */
+  private final long[] ranges;
+
+  /**
+   * The requested times, for checking the rows returned by range scans
+   */
+  private final Set<Long> timeSet;
+
+  /**
+   * Create a selection
+   *
+   * @param strategy
+   *          The strategy
+   * @param times
+   *          The requested times
+   * @param ranges
+   *          The window bounds
+   */
+  private TimeSelection(Strategy strategy, long[] times, long[] ranges) {
+    this.strategy = strategy;
+    this.times = times;
+    this.ranges = ranges;
+
+    if (strategy == Strategy.RANGES) {
+      timeSet = new HashSet<Long>(times.length * 2);
+      for (long time : times) {
+        timeSet.add(time);
+      }
+    } else {
+      timeSet = null;
+    }
+  }
+
+  /**
+   * Choose how to select a set of times.
+   *
+   * <p>
+   * The times are divided into windows of contiguous row IDs. If there are no
+   * more than {@link #MAX_RANGES} windows, they are selected as ranges.
+   * Otherwise an {@code IN} list is used for up to {@link #MAX_IN_LIST} times,
+   * and a temporary table for any more than that.
+   * </p>
+   *
+   * @param times
+   *          The requested times
+   * @param rowIds
+   *          All the row IDs of the data set, in ascending order. Can be
+   *          {@code null} or empty if they are not known, in which case each
+   *          time is treated as its own window.
+   * @return The selection
+   */
+  public static TimeSelection select(List<LocalDateTime> times,
+    List<LocalDateTime> rowIds) {
+
+    List<LocalDateTime> sortedTimes = new ArrayList<LocalDateTime>(times);
+    Collections.sort(sortedTimes);
+
+    long[] millis = new long[sortedTimes.size()];
+    List<Long> windows = new ArrayList<Long>();
+
+    int lastRowIndex = Integer.MIN_VALUE;
+
+    for (int i = 0; i < sortedTimes.size(); i++) {
+      LocalDateTime time = sortedTimes.get(i);
+      millis[i] = DateTimeUtils.dateToLong(time);
+
+      int rowIndex = null == rowIds ? -1
+        : Collections.binarySearch(rowIds, time);
+
+      // Start a new window unless this time is the row after the previous one
+      boolean newWindow = rowIndex < 0 || lastRowIndex < 0
+        || rowIndex != lastRowIndex + 1;
+
+      if (newWindow) {
+        // Only count the windows we might use
+        if (windows.size() <= MAX_RANGES * 2) {
+          windows.add(millis[i]);
+          windows.add(millis[i]);
+        }
+      } else if (windows.size() <= MAX_RANGES * 2) {
+        windows.set(windows.size() - 1, millis[i]);
+      }
+
+      lastRowIndex = rowIndex;
+    }
+
+    TimeSelection result;
+
+    if (windows.size() <= MAX_RANGES * 2) {
+      long[] ranges = new long[windows.size()];
+      for (int i = 0; i < ranges.length; i++) {
+        ranges[i] = windows.get(i);
+      }
+
+      result = new TimeSelection(Strategy.RANGES, millis, ranges);
+    } else if (millis.length <= MAX_IN_LIST) {
+      result = new TimeSelection(Strategy.IN_LIST, millis, null);
+    } else {
+      result = new TimeSelection(Strategy.TEMP_TABLE, millis, null);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the selected strategy
+   *
+   * @return The strategy
+   */
+  public Strategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Replace the {@link #TIMES_TOKEN} in a query with the condition for the
+   * selected times
+   *
+   * @param query
+   *          The query
+   * @param column
+   *          The time column to be checked
+   * @return The query with the time condition
+   * @throws MissingParamException
+   *           If there are no times
+   */
+  public String makeSql(String query, String column)
+    throws MissingParamException {
+
+    String condition;
+
+    switch (strategy) {
+    case RANGES: {
+      StringBuilder sql = new StringBuilder("(");
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (i > 0) {
+          sql.append(" OR ");
+        }
+        sql.append(column);
+        sql.append(" BETWEEN ? AND ?");
+      }
+      sql.append(')');
+      condition = sql.toString();
+      break;
+    }
+    case IN_LIST: {
+      condition = DatabaseUtils.makeInStatementSql(
+        column + " IN " + DatabaseUtils.IN_PARAMS_TOKEN, times.length);
+      break;
+    }
+    default: {
+      condition = column + " IN (SELECT date FROM " + TEMP_TABLE + ")";
+    }
+    }
+
+    return query.replace(TIMES_TOKEN, condition);
+  }
+
+  /**
+   * Set the parameters for the time condition in a statement
+   *
+   * @param stmt
+   *          The statement
+   * @param firstParam
+   *          The index of the first time parameter
+   * @return The index of the next parameter after the time parameters
+   * @throws SQLException
+   *           If the parameters cannot be set
+   */
+  public int setParams(PreparedStatement stmt, int firstParam)
+    throws SQLException {
+
+    int param = firstParam;
+
+    if (strategy == Strategy.RANGES) {
+      for (long bound : ranges) {
+        stmt.setLong(param++, bound);
+      }
+    } else if (strategy == Strategy.IN_LIST) {
+      for (long time : times) {
+        stmt.setLong(param++, time);
+      }
+    }
+
+    return param;
+  }
+
+  /**
+   * Prepare the database to run queries for the selection. This fills the
+   * temporary table if one is used.
+   *
+   * @param conn
+   *          A database connection
+   * @throws SQLException
+   *           If the temporary table cannot be filled
+   */
+  public void prepare(Connection conn) throws SQLException {
+    if (strategy == Strategy.TEMP_TABLE) {
+      // The table must exist before statements that use it can be prepared
+      try (PreparedStatement createStmt = conn
+        .prepareStatement(CREATE_TEMP_TABLE_STATEMENT)) {
+        createStmt.execute();
+      }
+
+      try (
+        PreparedStatement clearStmt = conn
+          .prepareStatement(CLEAR_TEMP_TABLE_STATEMENT);
+        PreparedStatement storeStmt = conn
+          .prepareStatement(STORE_TEMP_TIME_STATEMENT)) {
+
+        clearStmt.execute();
+
+        for (int i = 0; i < times.length; i++) {
+          storeStmt.setLong(1, times[i]);
+          storeStmt.addBatch();
+
+          if ((i + 1) % TEMP_TABLE_BATCH_SIZE == 0) {
+            storeStmt.executeBatch();
+          }
+        }
+
+        storeStmt.executeBatch();
+      }
+    }
+  }
+
+  /**
+   * Clean up after the queries for the selection have been run. This empties
+   * the temporary table if one is used; the table itself is left for the
+   * rest of the session.
+   *
+   * @param conn
+   *          A database connection
+   * @throws SQLException
+   *           If the temporary table cannot be cleared
+   */
+  public void finish(Connection conn) throws SQLException {
+    if (strategy == Strategy.TEMP_TABLE) {
+      try (PreparedStatement stmt = conn
+        .prepareStatement(CLEAR_TEMP_TABLE_STATEMENT)) {
+        stmt.execute();
+      }
+    }
+  }
+
+  /**
+   * Determine whether or not a time returned by a query was requested. Range
+   * scans can return times that were not requested; the other strategies
+   * only return requested times.
+   *
+   * @param time
+   *          The time in milliseconds
+   * @return {@code true} if the time was requested; {@code false} if it was
+   *         not
+   */
+  public boolean contains(long time) {
+    return null == timeSet || timeSet.contains(time);
+  }
+}
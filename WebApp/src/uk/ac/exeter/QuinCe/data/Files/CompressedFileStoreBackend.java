@@ -0,0 +1,378 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * File store backend that stores files gzip compressed and addressed by the
+ * SHA-256 hash of their contents, so identical files are only stored once.
+ *
+ * <p>
+ * The compressed contents are stored in {@code objects/ab/cd/<hash>.gz} under
+ * the root of the file store, where {@code ab} and {@code cd} are the first
+ * four characters of the hash. Each data file has a reference file
+ * {@code <fileId>.ref} in its file definition's directory containing the hash
+ * of its contents. The references to each stored object are recorded as empty
+ * marker files in {@code objects/ab/cd/<hash>.refs}; the object is deleted
+ * when its last reference is removed.
+ * </p>
+ *
+ * <p>
+ * All files are written to a temporary file and renamed into place, so a
+ * partially written file is never visible.
+ * </p>
+ *
+ * <p>
+ * Objects are never decompressed onto the heap as a whole. Reads stream the
+ * object through a {@link GZIPInputStream} into a temporary file next to it,
+ * which is memory mapped and then deleted (see {@link #decompress(File)}).
+ * </p>
+ *
+ * @author Steve Jones
+ */
+class CompressedFileStoreBackend extends FileStoreBackend {
+
+  /**
+   * The directory under the file store root that holds the compressed objects
+   */
+  private static final String OBJECTS_DIRECTORY = "objects";
+
+  /**
+   * The extension for reference files
+   */
+  private static final String REFERENCE_EXTENSION = ".ref";
+
+  /**
+   * The buffer size for compression streams
+   */
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * Lock used when adding and removing references, so that an object is not
+   * deleted while it is being referenced by a new file.
+   */
+  private static final Object REFERENCE_LOCK = new Object();
+
+  @Override
+  protected void store(String fileStore, long fileDefinitionId, long fileId,
+    byte[] contents) throws IOException {
+
+    storeObject(fileStore, fileDefinitionId, fileId, getHash(contents),
+      gzip -> gzip.write(contents));
+  }
+
+  /**
+   * The source file is compressed as it is streamed into the object. Its
+   * hash is taken from {@code contentHash}, so it is only read once.
+   */
+  @Override
+  protected void store(String fileStore, long fileDefinitionId, long fileId,
+    File source, ContentHash contentHash) throws IOException {
+
+    storeObject(fileStore, fileDefinitionId, fileId, contentHash.getHash(),
+      gzip -> Files.copy(source.toPath(), gzip));
+  }
+
+  /**
+   * Store a file's contents as the object for its hash, if that object does
+   * not already exist, and point the file's reference at it
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @param hash
+   *          The hash of the file's contents
+   * @param writer
+   *          Writes the uncompressed contents to the compression stream
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  private void storeObject(String fileStore, long fileDefinitionId,
+    long fileId, String hash, FileDataWriter writer) throws IOException {
+
+    File object = getObjectFile(fileStore, hash);
+
+    synchronized (REFERENCE_LOCK) {
+      String oldHash = readReference(fileStore, fileDefinitionId, fileId);
+
+      if (!object.exists()) {
+        writeAtomic(object, out -> {
+          GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+          writer.write(gzip);
+          gzip.finish();
+        });
+      }
+
+      File marker = getReferenceMarker(fileStore, hash, fileDefinitionId,
+        fileId);
+      checkDirectory(marker.getParentFile());
+      marker.createNewFile();
+
+      writeAtomic(getReferenceFile(fileStore, fileDefinitionId, fileId),
+        out -> out.write(hash.getBytes(StandardCharsets.US_ASCII)));
+
+      if (null != oldHash && !oldHash.equals(hash)) {
+        removeReference(fileStore, oldHash, fileDefinitionId, fileId);
+      }
+    }
+  }
+
+  @Override
+  protected boolean contains(String fileStore, long fileDefinitionId,
+    long fileId) {
+    return getReferenceFile(fileStore, fileDefinitionId, fileId).exists();
+  }
+
+  @Override
+  protected void delete(String fileStore, long fileDefinitionId, long fileId)
+    throws IOException {
+
+    synchronized (REFERENCE_LOCK) {
+      String hash = readReference(fileStore, fileDefinitionId, fileId);
+      if (null != hash) {
+        getReferenceFile(fileStore, fileDefinitionId, fileId).delete();
+        removeReference(fileStore, hash, fileDefinitionId, fileId);
+      }
+    }
+  }
+
+  @Override
+  protected byte[] getBytes(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+
+    File decompressed = decompress(getStoredObject(fileStore, fileDefinitionId,
+      fileId));
+
+    try {
+      return Files.readAllBytes(decompressed.toPath());
+    } finally {
+      decompressed.delete();
+    }
+  }
+
+  @Override
+  protected List<String> getContents(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+
+    File decompressed = decompress(getStoredObject(fileStore, fileDefinitionId,
+      fileId));
+
+    try {
+      // The mapping remains valid after the file is deleted
+      return new MappedFileContents(decompressed);
+    } finally {
+      if (!decompressed.delete()) {
+        decompressed.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Get the compressed object holding a file's contents
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The object file
+   * @throws IOException
+   *           If the file is not in the file store
+   */
+  private File getStoredObject(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+
+    String hash = readReference(fileStore, fileDefinitionId, fileId);
+    if (null == hash) {
+      throw new IOException("File " + fileId + " is not in the file store");
+    }
+
+    return getObjectFile(fileStore, hash);
+  }
+
+  /**
+   * Decompress an object into a temporary file in the same directory. The
+   * data is streamed, so no more than one buffer is held in memory. The
+   * caller must delete the file when it is no longer needed.
+   *
+   * @param object
+   *          The compressed object
+   * @return The decompressed file
+   * @throws IOException
+   *           If the object cannot be decompressed
+   */
+  private File decompress(File object) throws IOException {
+    File tempFile = File.createTempFile("." + object.getName() + "-", ".tmp",
+      object.getParentFile());
+
+    boolean complete = false;
+
+    try (InputStream in = new GZIPInputStream(new FileInputStream(object),
+      BUFFER_SIZE)) {
+      Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      complete = true;
+    } finally {
+      if (!complete) {
+        tempFile.delete();
+      }
+    }
+
+    return tempFile;
+  }
+
+  /**
+   * Remove a reference to a stored object. If it was the last reference, the
+   * object is deleted. Must be called while holding {@link #REFERENCE_LOCK}.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param hash
+   *          The object hash
+   * @param fileDefinitionId
+   *          The file definition ID of the referencing file
+   * @param fileId
+   *          The ID of the referencing file
+   */
+  private void removeReference(String fileStore, String hash,
+    long fileDefinitionId, long fileId) {
+
+    File marker = getReferenceMarker(fileStore, hash, fileDefinitionId,
+      fileId);
+    marker.delete();
+
+    File referencesDir = marker.getParentFile();
+    String[] remaining = referencesDir.list();
+    if (null == remaining || remaining.length == 0) {
+      getObjectFile(fileStore, hash).delete();
+      referencesDir.delete();
+    }
+  }
+
+  /**
+   * Read the hash of a file's contents from its reference file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The hash, or {@code null} if the file is not stored
+   * @throws IOException
+   *           If the reference file cannot be read
+   */
+  private String readReference(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+
+    String result = null;
+
+    File referenceFile = getReferenceFile(fileStore, fileDefinitionId, fileId);
+    if (referenceFile.exists()) {
+      result = new String(Files.readAllBytes(referenceFile.toPath()),
+        StandardCharsets.US_ASCII).trim();
+    }
+
+    return result;
+  }
+
+  /**
+   * Calculate the SHA-256 hash of a file's contents
+   *
+   * @param contents
+   *          The contents
+   * @return The hash as a hex string
+   * @throws IOException
+   *           If the hash algorithm is not available
+   */
+  private static String getHash(byte[] contents) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return new String(Hex.encodeHex(digest.digest(contents)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("Unable to calculate file hash", e);
+    }
+  }
+
+  /**
+   * Get the compressed object file for a hash
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param hash
+   *          The hash
+   * @return The object file
+   */
+  private static File getObjectFile(String fileStore, String hash) {
+    return new File(getShardDirectory(fileStore, hash), hash + ".gz");
+  }
+
+  /**
+   * Get the marker file recording a file's reference to an object
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param hash
+   *          The object hash
+   * @param fileDefinitionId
+   *          The file definition ID of the referencing file
+   * @param fileId
+   *          The ID of the referencing file
+   * @return The marker file
+   */
+  private static File getReferenceMarker(String fileStore, String hash,
+    long fileDefinitionId, long fileId) {
+    return new File(
+      new File(getShardDirectory(fileStore, hash), hash + ".refs"),
+      fileDefinitionId + "-" + fileId);
+  }
+
+  /**
+   * Get the directory holding an object. Objects are split into two levels of
+   * subdirectories using the start of the hash so no single directory becomes
+   * too large.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param hash
+   *          The object hash
+   * @return The directory
+   */
+  private static File getShardDirectory(String fileStore, String hash) {
+    return new File(fileStore + File.separator + OBJECTS_DIRECTORY
+      + File.separator + hash.substring(0, 2) + File.separator
+      + hash.substring(2, 4));
+  }
+
+  /**
+   * Get the reference file for a data file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The reference file
+   */
+  private static File getReferenceFile(String fileStore, long fileDefinitionId,
+    long fileId) {
+    return new File(getDirectory(fileStore, fileDefinitionId),
+      fileId + REFERENCE_EXTENSION);
+  }
+}
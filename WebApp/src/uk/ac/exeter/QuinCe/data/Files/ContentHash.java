@@ -0,0 +1,291 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The SHA-256 hash, length and line count of a data file's stored contents.
+ *
+ * <p>
+ * The hash is calculated over the bytes that are written to the file store,
+ * i.e. the file's lines joined with {@code \n} (see
+ * {@link DataFile#getContents()}). While the hash is being calculated, the hash
+ * of a prefix of the contents can be captured in the same pass. Comparing the
+ * prefix hash with the hash of an existing file shows whether or not the new
+ * file is the existing file with extra data appended, without reading the
+ * existing file.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public class ContentHash {
+
+  /**
+   * The hash algorithm
+   */
+  private static final String ALGORITHM = "SHA-256";
+
+  /**
+   * The line separator used in stored files
+   */
+  private static final byte[] LINE_SEPARATOR = { '\n' };
+
+  /**
+   * The hash of the contents, as a hex string
+   */
+  private final String hash;
+
+  /**
+   * The length of the contents in bytes
+   */
+  private final long length;
+
+  /**
+   * The number of lines in the contents
+   */
+  private final int lineCount;
+
+  /**
+   * The length of the prefix whose hash was calculated. Negative if no prefix
+   * was requested.
+   */
+  private final long prefixLength;
+
+  /**
+   * The hash of the requested prefix of the contents. {@code null} if no
+   * prefix was requested, or the contents are shorter than the prefix.
+   */
+  private final String prefixHash;
+
+  /**
+   * Create a hash object with known values
+   *
+   * @param hash
+   *          The hash
+   * @param length
+   *          The content length in bytes
+   * @param lineCount
+   *          The number of lines
+   */
+  public ContentHash(String hash, long length, int lineCount) {
+    this(hash, length, lineCount, -1, null);
+  }
+
+  /**
+   * Create a hash object with a prefix hash
+   *
+   * @param hash
+   *          The hash
+   * @param length
+   *          The content length in bytes
+   * @param lineCount
+   *          The number of lines
+   * @param prefixLength
+   *          The prefix length
+   * @param prefixHash
+   *          The prefix hash
+   */
+  private ContentHash(String hash, long length, int lineCount,
+    long prefixLength, String prefixHash) {
+    this.hash = hash;
+    this.length = length;
+    this.lineCount = lineCount;
+    this.prefixLength = prefixLength;
+    this.prefixHash = prefixHash;
+  }
+
+  /**
+   * Calculate the hash of a file's contents
+   *
+   * @param lines
+   *          The file's lines
+   * @return The hash
+   */
+  public static ContentHash calculate(List<String> lines) {
+    return calculate(lines, -1);
+  }
+
+  /**
+   * Calculate the hash of a file's contents, also recording the hash of the
+   * first {@code prefixLength} bytes
+   *
+   * @param lines
+   *          The file's lines
+   * @param prefixLength
+   *          The length of the prefix to be hashed. Negative values mean no
+   *          prefix hash is calculated.
+   * @return The hash
+   * @see #getPrefixHash()
+   */
+  public static ContentHash calculate(List<String> lines, long prefixLength) {
+
+    // Files are written using the platform default character set
+    Charset charset = Charset.defaultCharset();
+    MessageDigest digest = getDigest();
+
+    String prefixHash = null;
+    long position = 0;
+
+    for (int i = 0; i < lines.size(); i++) {
+      byte[] line = lines.get(i).getBytes(charset);
+
+      if (i > 0) {
+        prefixHash = update(digest, LINE_SEPARATOR, position, prefixLength,
+          prefixHash);
+        position += LINE_SEPARATOR.length;
+      }
+
+      prefixHash = update(digest, line, position, prefixLength, prefixHash);
+      position += line.length;
+    }
+
+    String hash = toHex(digest.digest());
+
+    if (prefixLength == position) {
+      prefixHash = hash;
+    }
+
+    return new ContentHash(hash, position, lines.size(), prefixLength,
+      prefixHash);
+  }
+
+  /**
+   * Add bytes to the digest. If the prefix ends within the bytes, the prefix
+   * hash is calculated from a copy of the digest.
+   *
+   * @param digest
+   *          The digest
+   * @param bytes
+   *          The bytes
+   * @param position
+   *          The position of the bytes within the contents
+   * @param prefixLength
+   *          The prefix length
+   * @param prefixHash
+   *          The prefix hash calculated so far
+   * @return The prefix hash if it has been calculated, or {@code null}
+   */
+  private static String update(MessageDigest digest, byte[] bytes,
+    long position, long prefixLength, String prefixHash) {
+
+    String result = prefixHash;
+
+    if (prefixLength >= position && prefixLength < position + bytes.length) {
+      int prefixBytes = (int) (prefixLength - position);
+      digest.update(bytes, 0, prefixBytes);
+      result = toHex(copyDigest(digest).digest());
+      digest.update(bytes, prefixBytes, bytes.length - prefixBytes);
+    } else {
+      digest.update(bytes);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a new digest
+   *
+   * @return The digest
+   */
+  private static MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // All Java implementations must support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Copy a digest in its current state
+   *
+   * @param digest
+   *          The digest
+   * @return The copy
+   */
+  private static MessageDigest copyDigest(MessageDigest digest) {
+    try {
+      return (MessageDigest) digest.clone();
+    } catch (CloneNotSupportedException e) {
+      // The standard SHA-256 implementation can be cloned
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Convert a digest to a hex string
+   *
+   * @param digest
+   *          The digest
+   * @return The hex string
+   */
+  private static String toHex(byte[] digest) {
+    return new String(Hex.encodeHex(digest));
+  }
+
+  /**
+   * Get the hash of the contents
+   *
+   * @return The hash
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  /**
+   * Get the length of the contents in bytes
+   *
+   * @return The length
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Get the number of lines in the contents
+   *
+   * @return The line count
+   */
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Get the length of the prefix requested in {@link #calculate(List, long)}
+   *
+   * @return The prefix length, or a negative value if no prefix was requested
+   */
+  public long getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Get the hash of the prefix requested in
+   * {@link #calculate(List, long)}
+   *
+   * @return The prefix hash, or {@code null} if the contents are shorter than
+   *         the prefix
+   */
+  public String getPrefixHash() {
+    return prefixHash;
+  }
+
+  /**
+   * Determine whether or not these contents start with the contents described
+   * by another hash. The prefix hash must have been calculated using the
+   * other hash's length.
+   *
+   * @param existing
+   *          The hash of the existing contents
+   * @return {@code true} if these contents start with the existing contents;
+   *         {@code false} otherwise
+   */
+  public boolean startsWith(ContentHash existing) {
+    return null != prefixHash && length >= existing.length
+      && prefixHash.equals(existing.hash);
+  }
+}
@@ -1,20 +1,27 @@
 package uk.ac.exeter.QuinCe.data.Files;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinitionException;
 import uk.ac.exeter.QuinCe.data.Instrument.MissingRunTypeException;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeColumnAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeParser;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.PositionException;
@@ -65,7 +72,8 @@ public class DataFile {
   private int recordCount = -1;
 
   /**
-   * The file contents
+   * The file contents. For stored files this is a {@link MappedFileContents}
+   * object, so lines are read from disk on demand.
    */
   private List<String> contents;
 
@@ -79,6 +87,11 @@ public class DataFile {
    */
   private static final int MAX_MESSAGE_COUNT = 25;
 
+  /**
+   * The number of lines validated in each parallel chunk
+   */
+  private static final int VALIDATION_CHUNK_SIZE = 20000;
+
   /**
    * Row in the file where the error happened not set
    */
@@ -99,6 +112,19 @@ public class DataFile {
    */
   private Set<RunTypeAssignment> missingRunTypes = new HashSet<RunTypeAssignment>();
 
+  /**
+   * The hash of the file contents
+   */
+  private ContentHash contentHash = null;
+
+  /**
+   * A file holding the contents in the form that they are written to the file
+   * store, if there is one
+   *
+   * @see #getContentFile()
+   */
+  private File contentFile = null;
+
   public List<RunTypeAssignment> getMissingRunTypes() {
     List<RunTypeAssignment> list = new ArrayList<>(missingRunTypes);
     Collections.sort(list);
@@ -288,6 +314,12 @@ public class DataFile {
    * Validate the file contents. Creates a set of {@code DataFileMessage}
    * objects, which can be retrieved using {@code getMessages()}.
    *
+   * <p>
+   * Large files are split into chunks of {@link #VALIDATION_CHUNK_SIZE} lines
+   * which are validated in parallel. The results are merged in line order so
+   * the messages are identical to those from validating the file in one pass.
+   * </p>
+   *
    * @throws DataFileException
    *           If the file contents could not be loaded
    */
@@ -305,48 +337,35 @@ public class DataFile {
 
     if (firstDataLine > -1) {
 
-      // For each line in the file, check that:
-      // (a) The date/time are present and monotonic in the file
-      // (b) Has the correct number of columns (for Run Types that aren't
-      // IGNORED)
-      // (c) The Run Type is recognised
-
-      LocalDateTime lastDateTime = null;
-      for (int lineNumber = firstDataLine; lineNumber < getContentLineCount(); lineNumber++) {
-        String line = contents.get(lineNumber);
+      int lineCount = getContentLineCount();
+      List<ValidationChunk> chunks = new ArrayList<ValidationChunk>();
+      for (int chunkStart = firstDataLine; chunkStart < lineCount; chunkStart += VALIDATION_CHUNK_SIZE) {
+        chunks.add(new ValidationChunk(chunkStart,
+          Math.min(chunkStart + VALIDATION_CHUNK_SIZE, lineCount)));
+      }
 
+      if (chunks.size() == 1) {
+        chunks.get(0).call();
+      } else {
         try {
-          LocalDateTime dateTime = fileDefinition.getDateTimeSpecification()
-            .getDateTime(headerDate, fileDefinition.extractFields(line));
-          if (null != lastDateTime) {
-            if (dateTime.compareTo(lastDateTime) <= 0) {
-              addMessage(lineNumber, "Date/Time is not monotonic");
-            }
+          for (Future<Void> future : ForkJoinPool.commonPool()
+            .invokeAll(chunks)) {
+            future.get();
           }
-        } catch (DateTimeSpecificationException e) {
-          addMessage(lineNumber, e.getMessage());
+        } catch (InterruptedException | ExecutionException e) {
+          throw new DataFileException(databaseId,
+            DataFileException.NO_LINE_NUMBER, "Error while validating file",
+            e);
         }
+      }
 
-        boolean checkColumnCount = true;
-
-        if (fileDefinition.hasRunTypes()) {
-          try {
-            RunTypeCategory runType = fileDefinition.getRunTypeCategory(line);
-            if (runType.equals(RunTypeCategory.IGNORED)) {
-              checkColumnCount = false;
-            }
-          } catch (FileDefinitionException e) {
-            addMessage(lineNumber, e.getMessage());
-            if (e instanceof MissingRunTypeException) {
-              missingRunTypes.add(((MissingRunTypeException) e).getRunType());
-            }
-          }
+      // Merge the chunk results in line order
+      for (ValidationChunk chunk : chunks) {
+        for (DataFileMessage message : chunk.messages) {
+          addMessage(message);
         }
 
-        if (checkColumnCount && fileDefinition.extractFields(line)
-          .size() != fileDefinition.getColumnCount()) {
-          addMessage(lineNumber, "Incorrect number of columns");
-        }
+        missingRunTypes.addAll(chunk.missingRunTypes);
       }
     }
   }
@@ -361,14 +380,25 @@ public class DataFile {
    * @param message The message text
    */
   private void addMessage(int lineNumber, String message) {
+    if (lineNumber < 0) {
+      addMessage(new DataFileMessage(message));
+    } else {
+      addMessage(new DataFileMessage(lineNumber, message));
+    }
+  }
+
+  /**
+   * Add a message to the message list, observing the {@link #MAX_MESSAGE_COUNT}
+   * limit.
+   *
+   * @param message
+   *          The message
+   */
+  private void addMessage(DataFileMessage message) {
     if (messages.size() == MAX_MESSAGE_COUNT - 1) {
       messages.add(new DataFileMessage("Too many messages..."));
     } else if (messages.size() < MAX_MESSAGE_COUNT - 1) {
-      if (lineNumber < 0) {
-        messages.add(new DataFileMessage(message));
-      } else {
-        messages.add(new DataFileMessage(lineNumber, message));
-      }
+      messages.add(message);
     }
   }
 
@@ -510,8 +540,27 @@ public class DataFile {
    */
   public LocalDateTime getDate(int line)
     throws DataFileException, DateTimeSpecificationException {
-    loadContents();
-    return getDate(fileDefinition.extractFields(contents.get(line)));
+    FieldTokenizer tokenizer = getLine(line, fileDefinition.getTokenizer());
+    return getDate(tokenizer,
+      fileDefinition.getDateTimeSpecification().getParser());
+  }
+
+  /**
+   * Get the date of a tokenized line using a parser compiled from the file
+   * definition's date/time specification
+   *
+   * @param line
+   *          The tokenized line
+   * @param parser
+   *          The date/time parser
+   * @return The date
+   * @throws DateTimeSpecificationException
+   *           If the date cannot be extracted
+   * @see DateTimeSpecification#getParser()
+   */
+  public LocalDateTime getDate(FieldTokenizer line, DateTimeParser parser)
+    throws DateTimeSpecificationException {
+    return parser.parse(headerDate, line);
   }
 
   public LocalDateTime getDate(List<String> line)
@@ -690,6 +739,15 @@ public class DataFile {
     this.databaseId = databaseId;
   }
 
+  /**
+   * Get the location of the file store that holds the file
+   *
+   * @return The file store location
+   */
+  protected String getFileStore() {
+    return fileStore;
+  }
+
   /**
    * Get the file definition object
    *
@@ -722,25 +780,42 @@ public class DataFile {
     return result.toString();
   }
 
+  /**
+   * Get the contents of the file as they are written to the file store: the
+   * lines joined with {@code \n}, in the platform default character set.
+   * Contents that are mapped from a file in that form are copied directly
+   * instead of being decoded and encoded again.
+   *
+   * @return The encoded contents
+   * @throws DataFileException
+   *           If the file contents cannot be retrieved
+   * @see MappedFileContents#getJoinedBytes()
+   */
+  protected byte[] getContentBytes() throws DataFileException {
+    loadContents();
+
+    byte[] result = null;
+
+    if (contents instanceof MappedFileContents) {
+      result = ((MappedFileContents) contents).getJoinedBytes();
+    }
+
+    if (null == result) {
+      result = getContents().getBytes(Charset.defaultCharset());
+    }
+
+    return result;
+  }
+
   /**
    * Set the contents of the data file
    *
    * @param contents
    *          The contents
    */
-  protected void setContents(String contents) {
-    this.contents = Arrays.asList(contents.split("\n"));
-    // Remove empty lines at the end of the list
-    ListIterator<String> li = this.contents.listIterator(getContentLineCount());
-    while (li.hasPrevious()) {
-      int index = li.previousIndex();
-      if (li.previous().trim().length() == 0) {
-        this.contents.remove(index);
-      } else {
-        // When we reach a non empty line, we stop the search
-        break;
-      }
-    }
+  protected void setContents(List<String> contents) {
+    this.contents = contents;
+    this.contentFile = null;
   }
 
   /**
@@ -754,6 +829,81 @@ public class DataFile {
     return FileStore.getBytes(fileStore, this);
   }
 
+  /**
+   * Get the hash of the file contents. If the hash is not already known it is
+   * calculated from the contents.
+   *
+   * @return The content hash
+   * @throws DataFileException
+   *           If the file contents cannot be loaded
+   */
+  public ContentHash getContentHash() throws DataFileException {
+    if (null == contentHash) {
+      loadContents();
+      contentHash = ContentHash.calculate(contents);
+    }
+
+    return contentHash;
+  }
+
+  /**
+   * Get the hash of the file contents, including the hash of the first
+   * {@code prefixLength} bytes. This can be used to determine whether this
+   * file is an existing file with extra data appended.
+   *
+   * @param prefixLength
+   *          The length of the prefix to hash
+   * @return The content hash
+   * @throws DataFileException
+   *           If the file contents cannot be loaded
+   * @see ContentHash#startsWith(ContentHash)
+   */
+  public ContentHash getContentHash(long prefixLength)
+    throws DataFileException {
+    if (null == contentHash || contentHash.getPrefixLength() != prefixLength) {
+      loadContents();
+      contentHash = ContentHash.calculate(contents, prefixLength);
+    }
+
+    return contentHash;
+  }
+
+  /**
+   * Set the hash of the file contents, as recorded in the database
+   *
+   * @param contentHash
+   *          The content hash
+   */
+  protected void setContentHash(ContentHash contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  /**
+   * Get the file holding the contents in the form that they are written to
+   * the file store, if there is one. Such files are streamed into the file
+   * store instead of being read into memory.
+   *
+   * @return The content file, or {@code null} if the contents are not held in
+   *         a file in that form
+   * @see FileStore#storeFile(String, DataFile)
+   */
+  protected File getContentFile() {
+    return contentFile;
+  }
+
+  /**
+   * Set the file holding the contents in the form that they are written to
+   * the file store. The file must remain in place until the data file has
+   * been stored.
+   *
+   * @param contentFile
+   *          The content file
+   * @see SpooledUpload
+   */
+  protected void setContentFile(File contentFile) {
+    this.contentFile = contentFile;
+  }
+
   /**
    * Load the contents of the data file from disk, if they are not already
    * loaded
@@ -794,15 +944,19 @@ public class DataFile {
   public Double getDoubleValue(int line, int field, String missingValue)
     throws DataFileException {
     loadContents();
-    String fieldValue = fileDefinition.extractFields(contents.get(line))
-      .get(field);
+    FieldTokenizer tokenizer = fileDefinition.getTokenizer();
+    tokenizer.tokenize(contents.get(line));
 
     Double result = null;
 
-    try {
-      result = extractDoubleFieldValue(fieldValue, missingValue);
-    } catch (ValueNotNumericException e) {
-      throw new DataFileException(databaseId, line, e);
+    if (!tokenizer.isEmpty(field)
+      && (null == missingValue || !tokenizer.fieldEquals(field, missingValue))) {
+      try {
+        result = tokenizer.parseDouble(field);
+      } catch (NumberFormatException e) {
+        throw new DataFileException(databaseId, line,
+          new ValueNotNumericException());
+      }
     }
 
     return result;
@@ -846,6 +1000,40 @@ public class DataFile {
     return result;
   }
 
+  /**
+   * Get a numeric value from a line. The value is only parsed once; as with
+   * {@link #getStringValue(List, int, String)}, any commas are removed and
+   * invalid values are treated as missing. Missing values are flagged as
+   * {@link uk.ac.exeter.QuinCe.data.Dataset.SensorValue#MISSING_QC_COMMENT}
+   * when they are stored, so no separate error is reported.
+   *
+   * @param line
+   *          The line
+   * @param field
+   *          The field index
+   * @param missingValue
+   *          The missing value for the field
+   * @return The value, or {@code NaN} if it is missing or invalid
+   */
+  public double getDoubleValue(List<String> line, int field,
+    String missingValue) {
+    double result = Double.NaN;
+
+    if (field < line.size()) {
+      String value = line.get(field).trim().replace(",", "");
+      if (value.length() > 0 && !value.equals(missingValue)) {
+        try {
+          result = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          // The value is treated as missing
+          result = Double.NaN;
+        }
+      }
+    }
+
+    return result;
+  }
+
   /**
    * Get the list of run type values with the specified value excluded. This
    * list will include all the run types from the stored file definition plus
@@ -878,4 +1066,149 @@ public class DataFile {
     loadContents();
     return fileDefinition.extractFields(contents.get(line));
   }
+
+  /**
+   * Split a line from the file into fields using the supplied tokenizer.
+   * Reusing a tokenizer avoids creating a new list of fields for every line.
+   *
+   * @param line
+   *          The line number
+   * @param tokenizer
+   *          The tokenizer
+   * @return The tokenizer, containing the line's fields
+   * @throws DataFileException
+   *           If the file contents cannot be loaded
+   * @see FileDefinition#getTokenizer()
+   */
+  public FieldTokenizer getLine(int line, FieldTokenizer tokenizer)
+    throws DataFileException {
+    loadContents();
+    tokenizer.tokenize(contents.get(line));
+    return tokenizer;
+  }
+
+  /**
+   * Validates a range of lines from the file. Each chunk has its own tokenizer
+   * and date/time parser so that chunks can be validated in parallel. The
+   * messages are recorded in the order they are generated so they can be added
+   * to the file's message list as if the file had been validated in one pass.
+   *
+   * @author Steve Jones
+   */
+  private class ValidationChunk implements Callable<Void> {
+
+    /**
+     * The maximum number of distinct messages recorded for the chunk. Lines
+     * in different chunks cannot have the same messages, so once the chunk
+     * has this many the file's message list is full and later messages are
+     * discarded.
+     */
+    private static final int CHUNK_MESSAGE_LIMIT = MAX_MESSAGE_COUNT;
+
+    /**
+     * The first line in the chunk
+     */
+    private final int start;
+
+    /**
+     * The line after the last line in the chunk
+     */
+    private final int end;
+
+    /**
+     * The messages for the chunk, in the order they were generated. Repeated
+     * messages are kept, since the file's message list counts them towards
+     * its limit in the same way as when the file is validated in one pass.
+     */
+    private final List<DataFileMessage> messages = new ArrayList<DataFileMessage>();
+
+    /**
+     * The chunk's distinct messages, used to apply the
+     * {@link #CHUNK_MESSAGE_LIMIT}
+     */
+    private final TreeSet<DataFileMessage> messageSet = new TreeSet<DataFileMessage>();
+
+    /**
+     * The run types that were not recognised
+     */
+    private final Set<RunTypeAssignment> missingRunTypes = new HashSet<RunTypeAssignment>();
+
+    /**
+     * Create a chunk for a range of lines
+     *
+     * @param start
+     *          The first line
+     * @param end
+     *          The line after the last line
+     */
+    private ValidationChunk(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+
+      // For each line in the file, check that:
+      // (a) The date/time are present and monotonic in the file
+      // (b) Has the correct number of columns (for Run Types that aren't
+      // IGNORED)
+      // (c) The Run Type is recognised
+
+      // Each line is split once, and the fields shared between the checks
+      FieldTokenizer tokenizer = fileDefinition.getTokenizer();
+      DateTimeParser dateTimeParser = fileDefinition.getDateTimeSpecification()
+        .getParser();
+
+      for (int lineNumber = start; lineNumber < end; lineNumber++) {
+        tokenizer.tokenize(contents.get(lineNumber));
+
+        try {
+          dateTimeParser.parse(headerDate, tokenizer);
+        } catch (DateTimeSpecificationException e) {
+          addMessage(lineNumber, e.getMessage());
+        }
+
+        boolean checkColumnCount = true;
+
+        if (fileDefinition.hasRunTypes()) {
+          try {
+            RunTypeCategory runType = fileDefinition
+              .getRunTypeCategory(tokenizer);
+            if (runType.equals(RunTypeCategory.IGNORED)) {
+              checkColumnCount = false;
+            }
+          } catch (FileDefinitionException e) {
+            addMessage(lineNumber, e.getMessage());
+            if (e instanceof MissingRunTypeException) {
+              missingRunTypes.add(((MissingRunTypeException) e).getRunType());
+            }
+          }
+        }
+
+        if (checkColumnCount && tokenizer.getFieldCount() != fileDefinition
+          .getColumnCount()) {
+          addMessage(lineNumber, "Incorrect number of columns");
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Record a message for the chunk
+     *
+     * @param lineNumber
+     *          The line number
+     * @param message
+     *          The message text
+     */
+    private void addMessage(int lineNumber, String message) {
+      if (messageSet.size() < CHUNK_MESSAGE_LIMIT) {
+        DataFileMessage fileMessage = new DataFileMessage(lineNumber, message);
+        messageSet.add(fileMessage);
+        messages.add(fileMessage);
+      }
+    }
+  }
 }
@@ -5,10 +5,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,8 +55,9 @@ public class DataFileDB {
    * @see #storeNewFile(DataSource, Properties, DataFile)
    */
   private static final String ADD_FILE_STATEMENT = "INSERT INTO data_file "
-    + "(file_definition_id, filename, start_date, end_date, record_count) "
-    + "VALUES (?, ?, ?, ?, ?)";
+    + "(file_definition_id, filename, start_date, end_date, record_count, "
+    + "content_hash, content_length, line_count) "
+    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
   /**
    * Statement to add a data file to the database
@@ -64,15 +65,16 @@ public class DataFileDB {
    * @see #replaceFile(DataSource, Properties, DataFile, long)
    */
   private static final String REPLACE_FILE_STATEMENT = "UPDATE data_file "
-    + "SET filename = ?, start_date = ?, end_date = ?, record_count = ? "
-    + "WHERE id = ?";
+    + "SET filename = ?, start_date = ?, end_date = ?, record_count = ?, "
+    + "content_hash = ?, content_length = ?, line_count = ? WHERE id = ?";
 
   /**
    * Query to get a set of data files by their ID
    */
   private static final String GET_FILENAME_QUERY = "SELECT "
     + "f.id, f.file_definition_id, f.filename, f.start_date, "
-    + "f.end_date, f.record_count, i.id FROM data_file AS f "
+    + "f.end_date, f.record_count, i.id, f.content_hash, f.content_length, "
+    + "f.line_count FROM data_file AS f "
     + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id "
     + "INNER JOIN instrument AS i ON d.instrument_id = i.id " + "WHERE f.id IN "
     + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY f.start_date ASC";
@@ -83,7 +85,8 @@ public class DataFileDB {
    * @see #getUserFiles(DataSource, User)
    */
   private static final String GET_FILES_QUERY = "SELECT "
-    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id "
+    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id, "
+    + "f.content_hash, f.content_length, f.line_count "
     + "FROM data_file AS f "
     + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id "
     + "INNER JOIN instrument AS i ON d.instrument_id = i.id "
@@ -95,7 +98,8 @@ public class DataFileDB {
    * @see #getUserFiles(DataSource, User)
    */
   private static final String GET_FILES_BY_INSTRUMENT_QUERY = "SELECT "
-    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id "
+    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id, "
+    + "f.content_hash, f.content_length, f.line_count "
     + "FROM data_file AS f "
     + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id "
     + "INNER JOIN instrument AS i ON d.instrument_id = i.id "
@@ -107,7 +111,8 @@ public class DataFileDB {
    * @see #getUserFiles(DataSource, User)
    */
   private static final String GET_FILES_AFTER_DATE_QUERY = "SELECT "
-    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id "
+    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id, "
+    + "f.content_hash, f.content_length, f.line_count "
     + "FROM data_file AS f "
     + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id "
     + "INNER JOIN instrument AS i ON d.instrument_id = i.id "
@@ -144,10 +149,12 @@ public class DataFileDB {
    * @see #getFiles(DataSource, FileDefinition, LocalDateTime, LocalDateTime)
    */
   private static final String GET_FILES_BY_TYPE_DATE_QUERY = "SELECT "
-    + "id, file_definition_id, filename, start_date, end_date, record_count "
-    + "FROM data_file WHERE " + "file_definition_id = ? AND "
-    + "(start_date <= ? AND end_date > ? OR "
-    + "start_date < ? AND end_date >= ?) " + "ORDER BY start_date ASC";
+    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, d.instrument_id, "
+    + "f.content_hash, f.content_length, f.line_count "
+    + "FROM data_file AS f "
+    + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id WHERE "
+    + "f.file_definition_id = ? AND " + "(f.start_date <= ? AND f.end_date > ? OR "
+    + "f.start_date < ? AND f.end_date >= ?) " + "ORDER BY f.start_date ASC";
 
   /**
    * Query to find files that fall wholly or partially within a date range for a
@@ -162,7 +169,8 @@ public class DataFileDB {
    * Query to get data files for a file definition that encompass given dates
    */
   private static final String GET_FILEDEF_FILES_WITHIN_DATES_QUERY = "SELECT "
-    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id "
+    + "f.id, f.file_definition_id, f.filename, f.start_date, f.end_date, f.record_count, i.id, "
+    + "f.content_hash, f.content_length, f.line_count "
     + "FROM data_file AS f "
     + "INNER JOIN file_definition AS d ON f.file_definition_id = d.id "
     + "INNER JOIN instrument AS i ON d.instrument_id = i.id "
@@ -194,6 +202,15 @@ public class DataFileDB {
     + "(SELECT id FROM file_definition WHERE instrument_id = ?) "
     + "ORDER BY modified DESC LIMIT 1";
 
+  /**
+   * Query to get the modification dates of a set of files
+   *
+   * @see #getFileModifications(Connection, List)
+   */
+  private static final String GET_FILE_MODIFICATIONS_QUERY = "SELECT "
+    + "id, modified FROM data_file WHERE id IN "
+    + DatabaseUtils.IN_PARAMS_TOKEN;
+
   /**
    * Store a file in the database and in the file store
    *
@@ -244,6 +261,116 @@ public class DataFileDB {
     }
   }
 
+  /**
+   * Store a set of files in the database and in the file store in a single
+   * transaction. Either all the files are stored or none of them are.
+   *
+   * <p>
+   * If the transaction fails, new files that have already been written to the
+   * file store are removed. Files that replace existing files cannot be
+   * restored, but their database records will still refer to the original
+   * files' details.
+   * </p>
+   *
+   * @param dataSource
+   *          A data source
+   * @param appConfig
+   *          The application configuration
+   * @param dataFiles
+   *          The data files
+   * @param replacementIds
+   *          The ID of the file that each data file replaces, or -1 for new
+   *          files
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileExistsException
+   *           If any of the files already exists in the system
+   * @throws DatabaseException
+   *           If an error occurs while storing the files
+   * @throws RecordNotFoundException
+   *           If a file to be replaced does not exist
+   * @see #storeFile(DataSource, Properties, DataFile, long)
+   */
+  public static void storeFiles(DataSource dataSource, Properties appConfig,
+    List<DataFile> dataFiles, List<Long> replacementIds)
+    throws MissingParamException, FileExistsException, DatabaseException,
+    RecordNotFoundException {
+
+    MissingParam.checkMissing(dataSource, "dataSource");
+    MissingParam.checkMissing(appConfig, "appConfig");
+    MissingParam.checkMissing(dataFiles, "dataFiles", true);
+    MissingParam.checkMissing(replacementIds, "replacementIds", true);
+
+    if (dataFiles.size() != replacementIds.size()) {
+      throw new IllegalArgumentException(
+        "Each data file must have a replacement ID");
+    }
+
+    Connection conn = null;
+    List<DataFile> newFiles = new ArrayList<DataFile>();
+
+    try {
+      conn = dataSource.getConnection();
+      conn.setAutoCommit(false);
+
+      for (int i = 0; i < dataFiles.size(); i++) {
+        DataFile dataFile = dataFiles.get(i);
+        long replacementId = replacementIds.get(i);
+
+        if (replacementId > -1) {
+          if (!fileExists(conn, replacementId)) {
+            throw new RecordNotFoundException(
+              "Tried to replace a file that doesn't exist (id "
+                + replacementId + ")");
+          }
+
+          updateFile(conn, appConfig, dataFile, replacementId);
+        } else {
+          newFiles.add(dataFile);
+          insertFile(conn, appConfig, dataFile);
+        }
+      }
+
+      conn.commit();
+    } catch (FileExistsException | RecordNotFoundException e) {
+      DatabaseUtils.rollBack(conn);
+      removeStoredFiles(appConfig, newFiles);
+      throw e;
+    } catch (Exception e) {
+      DatabaseUtils.rollBack(conn);
+      removeStoredFiles(appConfig, newFiles);
+      throw new DatabaseException("An error occurred while storing the files",
+        e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+  }
+
+  /**
+   * Remove files from the file store after the transaction that stored them
+   * has been rolled back
+   *
+   * @param appConfig
+   *          The application configuration
+   * @param dataFiles
+   *          The files
+   */
+  private static void removeStoredFiles(Properties appConfig,
+    List<DataFile> dataFiles) {
+
+    for (DataFile dataFile : dataFiles) {
+      if (dataFile.getDatabaseId() != DatabaseUtils.NO_DATABASE_RECORD) {
+        try {
+          FileStore.deleteFile(appConfig.getProperty("filestore"), dataFile);
+        } catch (MissingParamException e) {
+          // The parameters have already been checked
+        }
+
+        dataFile.setDatabaseId(DatabaseUtils.NO_DATABASE_RECORD);
+      }
+    }
+  }
+
   /**
    * Store a file in the database and in the file store
    *
@@ -263,6 +390,55 @@ public class DataFileDB {
   private static void storeNewFile(Connection conn, Properties appConfig,
     DataFile dataFile) throws DatabaseException, FileExistsException {
 
+    try {
+      conn.setAutoCommit(false);
+      insertFile(conn, appConfig, dataFile);
+      conn.commit();
+    } catch (FileExistsException e) {
+      throw e;
+    } catch (Exception e) {
+      try {
+        DatabaseUtils.rollBack(conn);
+      } catch (Exception e2) {
+        // Do nothing
+      }
+
+      throw new DatabaseException("An error occurred while storing the file",
+        e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+  }
+
+  /**
+   * Add a file's database record and store it in the file store. The
+   * transaction is not committed.
+   *
+   * @param conn
+   *          A database connection
+   * @param appConfig
+   *          The application configuration
+   * @param dataFile
+   *          The data file
+   * @throws FileExistsException
+   *           If a file overlapping the data file already exists
+   * @throws SQLException
+   *           If the database record cannot be created
+   * @throws DatabaseException
+   *           If the existing files cannot be checked
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws DataFileException
+   *           If the file contents cannot be read
+   * @throws FileStoreException
+   *           If the file cannot be written to the file store
+   * @see #ADD_FILE_STATEMENT
+   */
+  private static void insertFile(Connection conn, Properties appConfig,
+    DataFile dataFile) throws FileExistsException, SQLException,
+    DatabaseException, MissingParamException, DataFileException,
+    FileStoreException {
+
     PreparedStatement stmt = null;
     ResultSet generatedKeys = null;
 
@@ -274,7 +450,6 @@ public class DataFileDB {
           dataFile.getStartDate(), dataFile.getEndDate());
       }
 
-      conn.setAutoCommit(false);
       stmt = conn.prepareStatement(ADD_FILE_STATEMENT,
         Statement.RETURN_GENERATED_KEYS);
       stmt.setLong(1, dataFile.getFileDefinition().getDatabaseId());
@@ -283,6 +458,11 @@ public class DataFileDB {
       stmt.setLong(4, DateTimeUtils.dateToLong(dataFile.getEndDate()));
       stmt.setInt(5, dataFile.getRecordCount());
 
+      ContentHash contentHash = dataFile.getContentHash();
+      stmt.setString(6, contentHash.getHash());
+      stmt.setLong(7, contentHash.getLength());
+      stmt.setInt(8, contentHash.getLineCount());
+
       stmt.execute();
 
       generatedKeys = stmt.getGeneratedKeys();
@@ -292,24 +472,10 @@ public class DataFileDB {
 
         // Store the file
         FileStore.storeFile(appConfig.getProperty("filestore"), dataFile);
-
-        conn.commit();
-      }
-    } catch (FileExistsException e) {
-      throw e;
-    } catch (Exception e) {
-      try {
-        DatabaseUtils.rollBack(conn);
-      } catch (Exception e2) {
-        // Do nothing
       }
-
-      throw new DatabaseException("An error occurred while storing the file",
-        e);
     } finally {
       DatabaseUtils.closeResultSets(generatedKeys);
       DatabaseUtils.closeStatements(stmt);
-      DatabaseUtils.closeConnection(conn);
     }
   }
 
@@ -333,10 +499,63 @@ public class DataFileDB {
     DataFile dataFile, long replacementId)
     throws DatabaseException, FileExistsException {
 
+    try {
+      conn.setAutoCommit(false);
+      updateFile(conn, appConfig, dataFile, replacementId);
+      conn.commit();
+    } catch (Exception e) {
+      try {
+        DatabaseUtils.rollBack(conn);
+      } catch (Exception e2) {
+        // Do nothing
+      }
+
+      throw new DatabaseException("An error occurred while storing the file",
+        e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+  }
+
+  /**
+   * Update the database record of an existing file with a new version of the
+   * file, and store the new version in the file store. If the new version is
+   * identical to the existing file, no action is taken. The transaction is
+   * not committed.
+   *
+   * @param conn
+   *          A database connection
+   * @param appConfig
+   *          The application configuration
+   * @param dataFile
+   *          The new version of the file
+   * @param replacementId
+   *          The database ID of the existing file
+   * @throws SQLException
+   *           If the database record cannot be updated
+   * @throws DatabaseException
+   *           If the existing file cannot be retrieved
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws RecordNotFoundException
+   *           If the existing file does not exist
+   * @throws DataFileException
+   *           If the file contents cannot be read
+   * @throws FileStoreException
+   *           If the file cannot be written to the file store
+   * @see #REPLACE_FILE_STATEMENT
+   */
+  private static void updateFile(Connection conn, Properties appConfig,
+    DataFile dataFile, long replacementId)
+    throws SQLException, DatabaseException, MissingParamException,
+    RecordNotFoundException, DataFileException, FileStoreException {
+
     PreparedStatement stmt = null;
 
     try {
       boolean storeFile = true;
+      ContentHash existingHash = null;
+      ContentHash contentHash = dataFile.getContentHash();
 
       if (replacementId > -1) {
         // Get the existing file. If it's identical to the current file,
@@ -345,42 +564,40 @@ public class DataFileDB {
         idList.add(replacementId);
         DataFile fileToReplace = getDataFiles(conn, appConfig, idList).get(0);
 
-        byte[] existingFile = fileToReplace.getBytes();
-        byte[] newFile = dataFile.getContents().getBytes();
-        storeFile = !Arrays.equals(existingFile, newFile);
+        // The existing file is only read if its hash wasn't recorded
+        existingHash = fileToReplace.getContentHash();
+        contentHash = dataFile.getContentHash(existingHash.getLength());
+        storeFile = !contentHash.getHash().equals(existingHash.getHash());
       }
 
       if (storeFile) {
-        conn.setAutoCommit(false);
+        dataFile.setDatabaseId(replacementId);
+
+        // If the new file is the old file with more data on the end, it is
+        // stored as an append. Otherwise the whole file replaces the old one.
+        if (null != existingHash && contentHash.startsWith(existingHash)) {
+          FileStore.appendFile(appConfig.getProperty("filestore"), dataFile,
+            existingHash.getLength());
+        } else {
+          FileStore.storeFile(appConfig.getProperty("filestore"), dataFile);
+        }
+
+        // The record's hash details are only updated once the new contents
+        // are in the file store
         stmt = conn.prepareStatement(REPLACE_FILE_STATEMENT);
         stmt.setString(1, dataFile.getFilename());
         stmt.setLong(2, DateTimeUtils.dateToLong(dataFile.getStartDate()));
         stmt.setLong(3, DateTimeUtils.dateToLong(dataFile.getEndDate()));
         stmt.setInt(4, dataFile.getRecordCount());
-        stmt.setLong(5, replacementId);
+        stmt.setString(5, contentHash.getHash());
+        stmt.setLong(6, contentHash.getLength());
+        stmt.setInt(7, contentHash.getLineCount());
+        stmt.setLong(8, replacementId);
 
         stmt.execute();
-
-        // Set the database ID on the file now the replacement has succeeded
-        dataFile.setDatabaseId(replacementId);
-
-        // Store the file - automatically replaces the old one
-        FileStore.storeFile(appConfig.getProperty("filestore"), dataFile);
-
-        conn.commit();
-      }
-    } catch (Exception e) {
-      try {
-        DatabaseUtils.rollBack(conn);
-      } catch (Exception e2) {
-        // Do nothing
       }
-
-      throw new DatabaseException("An error occurred while storing the file",
-        e);
     } finally {
       DatabaseUtils.closeStatements(stmt);
-      DatabaseUtils.closeConnection(conn);
     }
   }
 
@@ -737,6 +954,13 @@ public class DataFileDB {
 
       result = new DataFile(fileStore, id, fileDefinition, filename, startDate,
         endDate, recordCount);
+
+      // Files stored before content hashes were recorded have no hash
+      String contentHash = record.getString(8);
+      if (null != contentHash) {
+        result.setContentHash(new ContentHash(contentHash, record.getLong(9),
+          record.getInt(10)));
+      }
     } catch (SQLException e) {
       throw e;
     }
@@ -1232,4 +1456,55 @@ public class DataFileDB {
 
     return result;
   }
+
+  /**
+   * Get the last modification date of each of a set of data files.
+   *
+   * <p>
+   * Files that have no modification date are not included in the result.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param ids
+   *          The file IDs
+   * @return The modification dates, keyed by file ID
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static Map<Long, LocalDateTime> getFileModifications(Connection conn,
+    List<Long> ids) throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(ids, "ids", true);
+
+    Map<Long, LocalDateTime> result = new HashMap<Long, LocalDateTime>();
+
+    if (ids.size() > 0) {
+      try (PreparedStatement stmt = conn.prepareStatement(DatabaseUtils
+        .makeInStatementSql(GET_FILE_MODIFICATIONS_QUERY, ids.size()))) {
+
+        for (int i = 0; i < ids.size(); i++) {
+          stmt.setLong(i + 1, ids.get(i));
+        }
+
+        try (ResultSet records = stmt.executeQuery()) {
+          while (records.next()) {
+            Timestamp modified = records.getTimestamp(2);
+            if (null != modified) {
+              result.put(records.getLong(1),
+                DateTimeUtils.longToDate(modified.getTime()));
+            }
+          }
+        }
+      } catch (SQLException e) {
+        throw new DatabaseException(
+          "Error while getting file modification dates", e);
+      }
+    }
+
+    return result;
+  }
 }
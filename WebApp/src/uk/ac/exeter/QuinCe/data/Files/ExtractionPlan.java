@@ -0,0 +1,368 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.Calibration;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.CalibrationSet;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignments;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * The columns to be extracted from the files of a {@link FileDefinition}.
+ *
+ * <p>
+ * Deciding which of an instrument's sensor assignments belong to a file
+ * definition, and which calibration applies to each one, gives the same
+ * answer for every line of every file. The plan makes those decisions once and
+ * holds the result as a flat array of {@link Entry} objects, so extracting a
+ * line only needs to iterate over the array.
+ * </p>
+ *
+ * <p>
+ * The plan also defines the columns of a {@link ParsedDataFile}: each entry
+ * that is not a run type has a value index, which is the index of its column
+ * in the parsed file.
+ * </p>
+ *
+ * <p>
+ * Plans are immutable, and can be shared between threads.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public class ExtractionPlan {
+
+  /**
+   * Value index for entries that are not stored in the parsed file's values
+   */
+  public static final int NO_VALUE_INDEX = -1;
+
+  /**
+   * The file definition
+   */
+  private final FileDefinition fileDefinition;
+
+  /**
+   * The columns to be extracted, in extraction order
+   */
+  private final Entry[] entries;
+
+  /**
+   * The column IDs of the entries that have value indexes, in value index
+   * order
+   */
+  private final long[] valueColumnIds;
+
+  /**
+   * The sensor assignments for the file definition, excluding run types, in
+   * value index order
+   */
+  private final List<SensorAssignment> valueAssignments;
+
+  /**
+   * Indicates whether the file definition has an assigned run type column
+   */
+  private final boolean hasRunTypes;
+
+  /**
+   * Create a plan
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param entries
+   *          The columns to be extracted
+   * @param valueAssignments
+   *          The sensor assignments, excluding run types
+   * @param hasRunTypes
+   *          Indicates whether there is an assigned run type column
+   */
+  private ExtractionPlan(FileDefinition fileDefinition, List<Entry> entries,
+    List<SensorAssignment> valueAssignments, boolean hasRunTypes) {
+
+    this.fileDefinition = fileDefinition;
+    this.entries = entries.toArray(new Entry[entries.size()]);
+    this.valueAssignments = Collections.unmodifiableList(valueAssignments);
+    this.hasRunTypes = hasRunTypes;
+
+    List<Long> ids = new ArrayList<Long>();
+    for (Entry entry : entries) {
+      if (entry.valueIndex != NO_VALUE_INDEX) {
+        ids.add(entry.columnId);
+      }
+    }
+
+    valueColumnIds = new long[ids.size()];
+    for (int i = 0; i < valueColumnIds.length; i++) {
+      valueColumnIds[i] = ids.get(i);
+    }
+  }
+
+  /**
+   * Build the extraction plan for a file definition.
+   *
+   * <p>
+   * The longitude and latitude are extracted first (if the file definition
+   * has them), followed by the file definition's sensor assignments in the
+   * order they appear in {@code sensorAssignments}.
+   * </p>
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param sensorAssignments
+   *          The instrument's sensor assignments
+   * @param calibrations
+   *          The sensor calibrations to be applied to the extracted values.
+   *          Can be {@code null} if the values are not to be calibrated.
+   * @return The plan
+   */
+  public static ExtractionPlan compile(FileDefinition fileDefinition,
+    SensorAssignments sensorAssignments, CalibrationSet calibrations) {
+
+    List<Entry> entries = new ArrayList<Entry>();
+    List<SensorAssignment> valueAssignments = new ArrayList<SensorAssignment>();
+    boolean hasRunTypes = false;
+    int valueIndex = 0;
+
+    if (null != fileDefinition.getLongitudeSpecification()) {
+      entries.add(new Entry(FileDefinition.LONGITUDE_COLUMN_ID, -1, null,
+        null, false, valueIndex++));
+    }
+
+    if (null != fileDefinition.getLatitudeSpecification()) {
+      entries.add(new Entry(FileDefinition.LATITUDE_COLUMN_ID, -1, null, null,
+        false, valueIndex++));
+    }
+
+    for (Map.Entry<SensorType, List<SensorAssignment>> sensorEntry : sensorAssignments
+      .entrySet()) {
+
+      boolean runType = sensorEntry.getKey()
+        .equals(SensorType.RUN_TYPE_SENSOR_TYPE);
+
+      for (SensorAssignment assignment : sensorEntry.getValue()) {
+        if (assignment.getDataFile()
+          .equals(fileDefinition.getFileDescription())) {
+
+          if (runType) {
+            hasRunTypes = true;
+            entries.add(new Entry(assignment.getDatabaseId(),
+              assignment.getColumn(), assignment.getMissingValue(), null, true,
+              NO_VALUE_INDEX));
+          } else {
+            Calibration calibration = null;
+            if (null != calibrations) {
+              calibration = calibrations.getTargetCalibration(
+                String.valueOf(assignment.getDatabaseId()));
+            }
+
+            valueAssignments.add(assignment);
+            entries.add(new Entry(assignment.getDatabaseId(),
+              assignment.getColumn(), assignment.getMissingValue(),
+              calibration, false, valueIndex++));
+          }
+        }
+      }
+    }
+
+    return new ExtractionPlan(fileDefinition, entries, valueAssignments,
+      hasRunTypes);
+  }
+
+  /**
+   * Get the file definition
+   *
+   * @return The file definition
+   */
+  public FileDefinition getFileDefinition() {
+    return fileDefinition;
+  }
+
+  /**
+   * Get the number of columns to be extracted
+   *
+   * @return The number of columns
+   */
+  public int getEntryCount() {
+    return entries.length;
+  }
+
+  /**
+   * Get a column to be extracted
+   *
+   * @param index
+   *          The index of the column
+   * @return The column
+   */
+  public Entry getEntry(int index) {
+    return entries[index];
+  }
+
+  /**
+   * Get the number of columns stored in a parsed file's values
+   *
+   * @return The number of value columns
+   */
+  protected int getValueColumnCount() {
+    return valueColumnIds.length;
+  }
+
+  /**
+   * Get the column ID of a value column
+   *
+   * @param valueIndex
+   *          The value index
+   * @return The column ID
+   */
+  protected long getValueColumnId(int valueIndex) {
+    return valueColumnIds[valueIndex];
+  }
+
+  /**
+   * Get the sensor assignments for the file definition, excluding run types,
+   * in value index order. Position columns are not included.
+   *
+   * @return The sensor assignments
+   */
+  protected List<SensorAssignment> getValueAssignments() {
+    return valueAssignments;
+  }
+
+  /**
+   * Determine whether or not the file definition has an assigned run type
+   * column
+   *
+   * @return {@code true} if there is a run type column; {@code false} if
+   *         there is not
+   */
+  protected boolean hasRunTypes() {
+    return hasRunTypes;
+  }
+
+  /**
+   * A single column to be extracted
+   *
+   * @author Steve Jones
+   */
+  public static class Entry {
+
+    /**
+     * The column ID (a sensor assignment ID, or one of the position column
+     * IDs)
+     */
+    private final long columnId;
+
+    /**
+     * The column index in the file, or -1 for position columns
+     */
+    private final int fileColumn;
+
+    /**
+     * The missing value for the column
+     */
+    private final String missingValue;
+
+    /**
+     * The calibration to apply to the column's values
+     */
+    private final Calibration calibration;
+
+    /**
+     * Indicates whether the column is the run type
+     */
+    private final boolean runType;
+
+    /**
+     * The index of the column in a parsed file's values
+     */
+    private final int valueIndex;
+
+    /**
+     * Create an entry
+     *
+     * @param columnId
+     *          The column ID
+     * @param fileColumn
+     *          The column index in the file
+     * @param missingValue
+     *          The missing value
+     * @param calibration
+     *          The calibration
+     * @param runType
+     *          Indicates whether the column is the run type
+     * @param valueIndex
+     *          The index of the column in a parsed file's values
+     */
+    private Entry(long columnId, int fileColumn, String missingValue,
+      Calibration calibration, boolean runType, int valueIndex) {
+      this.columnId = columnId;
+      this.fileColumn = fileColumn;
+      this.missingValue = missingValue;
+      this.calibration = calibration;
+      this.runType = runType;
+      this.valueIndex = valueIndex;
+    }
+
+    /**
+     * Get the column ID
+     *
+     * @return The column ID
+     */
+    public long getColumnId() {
+      return columnId;
+    }
+
+    /**
+     * Get the column index in the file
+     *
+     * @return The column index, or -1 for position columns
+     */
+    public int getFileColumn() {
+      return fileColumn;
+    }
+
+    /**
+     * Get the missing value for the column
+     *
+     * @return The missing value
+     */
+    public String getMissingValue() {
+      return missingValue;
+    }
+
+    /**
+     * Get the calibration to apply to the column's values
+     *
+     * @return The calibration, or {@code null} if the values are not
+     *         calibrated
+     */
+    public Calibration getCalibration() {
+      return calibration;
+    }
+
+    /**
+     * Determine whether or not the column is the run type
+     *
+     * @return {@code true} if the column is the run type; {@code false}
+     *         otherwise
+     */
+    public boolean isRunType() {
+      return runType;
+    }
+
+    /**
+     * Get the index of the column in a parsed file's values
+     *
+     * @return The value index, or {@link ExtractionPlan#NO_VALUE_INDEX} for
+     *         run types
+     * @see ParsedDataFile#getValueAt(int, int)
+     */
+    public int getValueIndex() {
+      return valueIndex;
+    }
+  }
+}
@@ -1,16 +1,14 @@
 package uk.ac.exeter.QuinCe.data.Files;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import uk.ac.exeter.QuinCe.utils.MissingParam;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
  * Class to handle storage, retrieval and management of data file on disk.
@@ -25,9 +23,47 @@ import uk.ac.exeter.QuinCe.utils.MissingParamException;
  */
 public class FileStore {
 
+  /**
+   * Configuration property that enables the compressed file store backend
+   */
+  public static final String COMPRESS_PROPERTY = "filestore.compress";
+
+  /**
+   * The extension for parsed data sidecar files
+   */
+  private static final String PARSED_FILE_EXTENSION = ".cols";
+
+  /**
+   * Backend for uncompressed files
+   */
+  private static final FileStoreBackend PLAIN_BACKEND = new PlainFileStoreBackend();
+
+  /**
+   * Backend for compressed, content-addressed files
+   */
+  private static final FileStoreBackend COMPRESSED_BACKEND = new CompressedFileStoreBackend();
+
+  /**
+   * All backends, in the order they are searched when reading files
+   */
+  private static final FileStoreBackend[] BACKENDS = { COMPRESSED_BACKEND,
+    PLAIN_BACKEND };
+
   /**
    * Store a file in the file store. This will overwrite any existing file.
    *
+   * <p>
+   * New files are stored with the compressed backend if the
+   * {@link #COMPRESS_PROPERTY} is set in the application configuration.
+   * Copies of the file held by other backends are removed.
+   * </p>
+   *
+   * <p>
+   * If the file's contents are held in a file on disk (see
+   * {@link DataFile#getContentFile()}), that file is streamed into the file
+   * store. Otherwise the contents are encoded in memory.
+   * </p>
+   *
    * @param fileStore
    *          The location of the file store
    * @param dataFile
@@ -44,27 +80,81 @@ public class FileStore {
     MissingParam.checkMissing(fileStore, "fileStore");
     MissingParam.checkMissing(dataFile, "dataFile");
 
-    FileWriter fileWriter = null;
-    File file = null;
+    long fileDefinitionId = dataFile.getFileDefinition().getDatabaseId();
+    long fileId = dataFile.getDatabaseId();
 
     try {
-      checkInstrumentDirectory(fileStore,
-        dataFile.getFileDefinition().getDatabaseId());
+      FileStoreBackend storageBackend = getStorageBackend();
 
-      file = getFileObject(fileStore, dataFile);
-      if (file.exists()) {
-        file.delete();
+      File contentFile = dataFile.getContentFile();
+      if (null != contentFile) {
+        storageBackend.store(fileStore, fileDefinitionId, fileId, contentFile,
+          dataFile.getContentHash());
+      } else {
+        byte[] contents = dataFile.getContentBytes();
+        storageBackend.store(fileStore, fileDefinitionId, fileId, contents);
       }
 
-      fileWriter = new FileWriter(file);
-      fileWriter.write(dataFile.getContents());
-      fileWriter.close();
+      for (FileStoreBackend backend : BACKENDS) {
+        if (backend != storageBackend) {
+          backend.delete(fileStore, fileDefinitionId, fileId);
+        }
+      }
 
+      deleteParsedFiles(fileStore, dataFile);
     } catch (Exception e) {
+      throw new FileStoreException("An error occurred while storing the file",
+        e);
+    }
+  }
+
+  /**
+   * Store a file that replaces an existing stored file with extra data
+   * appended. If the existing file is held by the backend used for new files,
+   * the backend builds the new file from the stored one (if it supports it).
+   * Otherwise the complete file is stored as in
+   * {@link #storeFile(String, DataFile)}.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @param existingLength
+   *          The length of the existing stored file
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileStoreException
+   *           If an error occurs while storing the file
+   * @see ContentHash#startsWith(ContentHash)
+   */
+  protected static void appendFile(String fileStore, DataFile dataFile,
+    long existingLength) throws MissingParamException, FileStoreException {
 
-      closeWriter(fileWriter);
-      deleteFile(file);
+    MissingParam.checkMissing(fileStore, "fileStore");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    long fileDefinitionId = dataFile.getFileDefinition().getDatabaseId();
+    long fileId = dataFile.getDatabaseId();
+
+    FileStoreBackend storageBackend = getStorageBackend();
 
+    try {
+      if (!storageBackend.contains(fileStore, fileDefinitionId, fileId)) {
+        storeFile(fileStore, dataFile);
+      } else {
+        File contentFile = dataFile.getContentFile();
+        if (null != contentFile) {
+          storageBackend.append(fileStore, fileDefinitionId, fileId,
+            contentFile, dataFile.getContentHash(), existingLength);
+        } else {
+          byte[] contents = dataFile.getContentBytes();
+          storageBackend.append(fileStore, fileDefinitionId, fileId, contents,
+            existingLength);
+        }
+
+        deleteParsedFiles(fileStore, dataFile);
+      }
+    } catch (IOException | DataFileException e) {
       throw new FileStoreException("An error occurred while storing the file",
         e);
     }
@@ -87,12 +177,22 @@ public class FileStore {
     MissingParam.checkMissing(fileStore, "fileStore");
     MissingParam.checkMissing(dataFile, "dataFile");
 
-    File fileToDelete = getFileObject(fileStore, dataFile);
-    deleteFile(fileToDelete);
+    deleteParsedFiles(fileStore, dataFile);
+
+    try {
+      for (FileStoreBackend backend : BACKENDS) {
+        backend.delete(fileStore, dataFile.getFileDefinition().getDatabaseId(),
+          dataFile.getDatabaseId());
+      }
+    } catch (IOException e) {
+      // Files that can't be deleted are left in place, as they
+      // always have been
+    }
   }
 
   /**
-   * Retrieve a file from the file store
+   * Retrieve a file from the file store. Uncompressed files are memory mapped,
+   * and their lines are only decoded when they are accessed.
    * 
    * @param fileStore
    *          The location of the file store
@@ -105,7 +205,9 @@ public class FileStore {
    */
   protected static void loadFileContents(String fileStore, DataFile dataFile)
     throws IOException, MissingParamException {
-    dataFile.setContents(new String(getBytes(fileStore, dataFile)));
+    dataFile.setContents(getReadBackend(fileStore, dataFile).getContents(
+      fileStore, dataFile.getFileDefinition().getDatabaseId(),
+      dataFile.getDatabaseId()));
   }
 
   /**
@@ -121,118 +223,103 @@ public class FileStore {
    */
   protected static byte[] getBytes(String fileStore, DataFile dataFile)
     throws IOException {
-
-    byte[] fileData;
-    File readFile = getFileObject(fileStore, dataFile);
-
-    FileInputStream inputStream = null;
-    try {
-      inputStream = new FileInputStream(readFile);
-      int fileLength = (int) readFile.length();
-      fileData = new byte[fileLength];
-      int bytesRead = inputStream.read(fileData);
-      if (bytesRead < fileLength) {
-        throw new IOException(
-          "Too few bytes read from file " + readFile.getAbsolutePath()
-            + ": got " + bytesRead + ", expected " + fileLength);
-      }
-    } catch (IOException e) {
-      throw e;
-    } finally {
-      if (null != inputStream) {
-        inputStream.close();
-      }
-    }
-
-    return fileData;
+    return getReadBackend(fileStore, dataFile).getBytes(fileStore,
+      dataFile.getFileDefinition().getDatabaseId(), dataFile.getDatabaseId());
   }
 
   /**
-   * Ensure that the directory for a given instrument's files exists
-   * 
-   * @param fileStorePath
-   *          The root path of the file store
-   * @param fileDefinitionId
-   *          The instrument ID
-   * @throws FileStoreException
-   *           If the directory doesn't exist and can't be created
-   */
-  private static void checkInstrumentDirectory(String fileStorePath,
-    long fileDefinitionId) throws FileStoreException {
-
-    File file = new File(getStorageDirectory(fileStorePath, fileDefinitionId));
-    if (!file.exists()) {
-      boolean dirMade = file.mkdirs();
-      if (!dirMade) {
-        throw new FileStoreException(
-          "Unable to create directory for file definition ID "
-            + fileDefinitionId);
-      }
-    } else if (!file.isDirectory()) {
-      throw new FileStoreException(
-        "The path to the instrument directory is not a directory!");
-    }
-  }
-
-  /**
-   * Returns the path to the directory where a given instrument's files are
-   * stored
-   * 
-   * @param fileStorePath
-   *          The root of the file store
-   * @param fileDefinitionId
-   *          The file definition database ID
-   * @return The directory path
+   * Get the location of the parsed data sidecar for a file. The sidecar is
+   * stored in the file definition's directory, named by the file ID and the
+   * version of the parsed data.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @param version
+   *          The parsed data version
+   * @return The sidecar file
+   * @see ParsedDataFile
    */
-  private static String getStorageDirectory(String fileStorePath,
-    long fileDefinitionId) {
-    return fileStorePath + File.separator + fileDefinitionId;
+  protected static File getParsedFile(String fileStore, DataFile dataFile,
+    String version) {
+    return new File(
+      FileStoreBackend.getDirectory(fileStore,
+        dataFile.getFileDefinition().getDatabaseId()),
+      dataFile.getDatabaseId() + "-" + version + PARSED_FILE_EXTENSION);
   }
 
   /**
-   * Get the Java File object for a data file
-   * 
-   * @param fileStorePath
-   *          The path to the data file within the file store
+   * Delete all parsed data sidecars for a file
+   *
+   * @param fileStore
+   *          The location of the file store
    * @param dataFile
    *          The data file
-   * @return The Java File object
+   * @see ParsedDataFile
    */
-  private static File getFileObject(String fileStorePath, DataFile dataFile) {
-    return new File(getStorageDirectory(fileStorePath,
-      dataFile.getFileDefinition().getDatabaseId()) + File.separator
-      + dataFile.getDatabaseId());
+  protected static void deleteParsedFiles(String fileStore,
+    DataFile dataFile) {
+
+    File directory = FileStoreBackend.getDirectory(fileStore,
+      dataFile.getFileDefinition().getDatabaseId());
+
+    String prefix = dataFile.getDatabaseId() + "-";
+    File[] parsedFiles = directory.listFiles((dir, name) -> name
+      .startsWith(prefix) && name.endsWith(PARSED_FILE_EXTENSION));
+
+    if (null != parsedFiles) {
+      for (File parsedFile : parsedFiles) {
+        parsedFile.delete();
+      }
+    }
   }
 
   /**
-   * Close a writer. Not strictly a database thing, but it's in the same spirit
-   * and used in the same places.
-   * 
-   * @param writer
-   *          The writer
+   * Get the backend to be used for storing new files
+   *
+   * @return The backend
    */
-  private static void closeWriter(Writer writer) {
-    if (null != writer) {
-      try {
-        writer.close();
-      } catch (IOException e) {
-        // Do nothing
+  private static FileStoreBackend getStorageBackend() {
+    FileStoreBackend result = PLAIN_BACKEND;
+
+    ResourceManager resourceManager = ResourceManager.getInstance();
+    if (null != resourceManager && null != resourceManager.getConfig()) {
+      if (Boolean.parseBoolean(
+        resourceManager.getConfig().getProperty(COMPRESS_PROPERTY))) {
+        result = COMPRESSED_BACKEND;
       }
     }
+
+    return result;
   }
 
   /**
-   * Delete a file from the file system. If the file does not exist, no action
-   * is taken.
-   * 
-   * @param file
-   *          The file to be deleted
+   * Get the backend that holds a stored file. Files stored before the
+   * compressed backend was enabled are still read from the plain backend.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @return The backend
+   * @throws IOException
+   *           If the file store cannot be read
    */
-  private static void deleteFile(File file) {
-    if (null != file) {
-      if (file.exists()) {
-        file.delete();
+  private static FileStoreBackend getReadBackend(String fileStore,
+    DataFile dataFile) throws IOException {
+
+    FileStoreBackend result = PLAIN_BACKEND;
+
+    for (FileStoreBackend backend : BACKENDS) {
+      if (backend.contains(fileStore,
+        dataFile.getFileDefinition().getDatabaseId(),
+        dataFile.getDatabaseId())) {
+        result = backend;
+        break;
       }
     }
+
+    return result;
   }
 }
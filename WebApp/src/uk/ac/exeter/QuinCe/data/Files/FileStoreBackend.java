@@ -0,0 +1,270 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Defines how data files are physically stored in the file store.
+ *
+ * <p>
+ * Files are identified by the root of the file store, the database ID of their
+ * file definition, and their own database ID. The {@link FileStore} selects a
+ * backend for each operation; these methods are not called directly by any
+ * other class.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see FileStore
+ */
+abstract class FileStoreBackend {
+
+  /**
+   * Store a file, replacing any existing copy held by this backend
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @param contents
+   *          The file contents
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  protected abstract void store(String fileStore, long fileDefinitionId,
+    long fileId, byte[] contents) throws IOException;
+
+  /**
+   * Store a file whose contents are held in another file, replacing any
+   * existing copy held by this backend. The source file is streamed into the
+   * file store, so its contents are never held in memory. It is left in
+   * place.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @param source
+   *          The file holding the contents, in the form they are stored
+   * @param contentHash
+   *          The hash of the source file's contents
+   * @throws IOException
+   *           If the file cannot be written
+   * @see DataFile#getContentFile()
+   */
+  protected abstract void store(String fileStore, long fileDefinitionId,
+    long fileId, File source, ContentHash contentHash) throws IOException;
+
+  /**
+   * Store a file that consists of an existing stored file with extra data
+   * appended. Backends that can reuse the stored file build the new file from
+   * it and the new data; by default the complete file is stored. The stored
+   * file must be replaced atomically, as in {@link #writeAtomic}.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @param contents
+   *          The complete file contents
+   * @param existingLength
+   *          The length of the stored file, which must match the start of
+   *          {@code contents}
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  protected void append(String fileStore, long fileDefinitionId, long fileId,
+    byte[] contents, long existingLength) throws IOException {
+    store(fileStore, fileDefinitionId, fileId, contents);
+  }
+
+  /**
+   * Store a file that consists of an existing stored file with extra data
+   * appended, where the complete contents are held in another file. This
+   * works in the same way as
+   * {@link #append(String, long, long, byte[], long)}, but the source file
+   * is streamed instead of being held in memory.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @param source
+   *          The file holding the complete contents
+   * @param contentHash
+   *          The hash of the source file's contents
+   * @param existingLength
+   *          The length of the stored file, which must match the start of
+   *          the source file
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  protected void append(String fileStore, long fileDefinitionId, long fileId,
+    File source, ContentHash contentHash, long existingLength)
+    throws IOException {
+    store(fileStore, fileDefinitionId, fileId, source, contentHash);
+  }
+
+  /**
+   * Determine whether or not this backend holds a copy of a file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return {@code true} if the file is stored by this backend; {@code false}
+   *         otherwise
+   * @throws IOException
+   *           If the file store cannot be read
+   */
+  protected abstract boolean contains(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException;
+
+  /**
+   * Delete a file. If the file is not stored by this backend, no action is
+   * taken.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @throws IOException
+   *           If the file cannot be deleted
+   */
+  protected abstract void delete(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException;
+
+  /**
+   * Get the raw bytes of a file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The file bytes
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  protected abstract byte[] getBytes(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException;
+
+  /**
+   * Get the lines of a file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The file's lines
+   * @throws IOException
+   *           If the file cannot be read
+   * @see MappedFileContents
+   */
+  protected abstract List<String> getContents(String fileStore,
+    long fileDefinitionId, long fileId) throws IOException;
+
+  /**
+   * Get the directory in which a file definition's files are stored
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @return The directory
+   */
+  protected static File getDirectory(String fileStore, long fileDefinitionId) {
+    return new File(fileStore + File.separator + fileDefinitionId);
+  }
+
+  /**
+   * Ensure that a directory exists
+   *
+   * @param directory
+   *          The directory
+   * @throws IOException
+   *           If the directory doesn't exist and can't be created
+   */
+  protected static void checkDirectory(File directory) throws IOException {
+    if (!directory.exists()) {
+      if (!directory.mkdirs() && !directory.isDirectory()) {
+        throw new IOException(
+          "Unable to create directory " + directory.getAbsolutePath());
+      }
+    } else if (!directory.isDirectory()) {
+      throw new IOException(
+        "The path " + directory.getAbsolutePath() + " is not a directory!");
+    }
+  }
+
+  /**
+   * Write a file atomically. The data is written to a temporary file in the
+   * same directory, which is then renamed to the target file. Readers will
+   * either see the complete old file or the complete new file.
+   *
+   * @param target
+   *          The file to be written
+   * @param writer
+   *          Writes the data to the temporary file's stream
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  protected static void writeAtomic(File target, FileDataWriter writer)
+    throws IOException {
+
+    checkDirectory(target.getParentFile());
+    File tempFile = File.createTempFile("." + target.getName() + "-", ".tmp",
+      target.getParentFile());
+
+    try {
+      try (OutputStream out = new FileOutputStream(tempFile)) {
+        writer.write(out);
+      }
+
+      Files.move(tempFile.toPath(), target.toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      if (tempFile.exists()) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Writes data to a stream for {@link FileStoreBackend#writeAtomic}
+   *
+   * @author Steve Jones
+   */
+  @FunctionalInterface
+  protected interface FileDataWriter {
+
+    /**
+     * Write the data
+     *
+     * @param out
+     *          The output stream
+     * @throws IOException
+     *           If the data cannot be written
+     */
+    void write(OutputStream out) throws IOException;
+  }
+}
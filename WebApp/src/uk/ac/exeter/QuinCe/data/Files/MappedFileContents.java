@@ -0,0 +1,234 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a stored data file as a list of lines.
+ *
+ * <p>
+ * The file is memory mapped, and the start and end offsets of each line are
+ * indexed once when the object is created. Lines are only decoded into
+ * {@link String}s when they are requested through {@link #get(int)}, so the
+ * complete file is never held on the heap.
+ * </p>
+ *
+ * <p>
+ * Files that cannot be mapped (e.g. compressed files) can be read into memory
+ * and indexed in the same way.
+ * </p>
+ *
+ * <p>
+ * Line terminators ({@code \n} or {@code \r\n}) are not included in the
+ * returned lines. Empty lines at the end of the file are ignored.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see FileStore#loadFileContents(String, DataFile)
+ */
+public class MappedFileContents extends AbstractList<String> {
+
+  /**
+   * The initial size of the line index arrays
+   */
+  private static final int INITIAL_INDEX_SIZE = 1024;
+
+  /**
+   * The file contents
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The character set used to decode lines
+   */
+  private final Charset charset;
+
+  /**
+   * The byte offset of the start of each line
+   */
+  private int[] lineStarts;
+
+  /**
+   * The byte offset of the end of each line (exclusive), excluding line
+   * terminators
+   */
+  private int[] lineEnds;
+
+  /**
+   * The number of lines in the file
+   */
+  private int lineCount = 0;
+
+  /**
+   * Indicates whether the lines are separated by single {@code \n}
+   * characters, so the bytes between the start of the first line and the end
+   * of the last line are the lines joined with {@code \n}
+   *
+   * @see #getJoinedBytes()
+   */
+  private boolean joined = true;
+
+  /**
+   * Map the specified file and build its line index
+   *
+   * @param file
+   *          The file
+   * @throws IOException
+   *           If the file cannot be mapped
+   */
+  protected MappedFileContents(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+      StandardOpenOption.READ)) {
+
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(
+          "File " + file.getAbsolutePath() + " is too large to be mapped");
+      }
+
+      buffer = channel.map(MapMode.READ_ONLY, 0, size);
+    }
+
+    // Files are written using the platform default character set
+    charset = Charset.defaultCharset();
+    buildIndex();
+  }
+
+  /**
+   * Build the line index for file contents that have already been read into
+   * memory
+   *
+   * @param contents
+   *          The file contents
+   */
+  protected MappedFileContents(byte[] contents) {
+    buffer = ByteBuffer.wrap(contents);
+    charset = Charset.defaultCharset();
+    buildIndex();
+  }
+
+  /**
+   * Scan the file contents and record the positions of each line
+   */
+  private void buildIndex() {
+    lineStarts = new int[INITIAL_INDEX_SIZE];
+    lineEnds = new int[INITIAL_INDEX_SIZE];
+
+    int limit = buffer.limit();
+    int lineStart = 0;
+
+    for (int i = 0; i < limit; i++) {
+      if (buffer.get(i) == '\n') {
+        addLine(lineStart, i);
+        lineStart = i + 1;
+      }
+    }
+
+    if (lineStart < limit) {
+      addLine(lineStart, limit);
+    }
+
+    // Remove empty lines at the end of the file
+    while (lineCount > 0 && isBlank(lineCount - 1)) {
+      lineCount--;
+    }
+  }
+
+  /**
+   * Add a line to the index. A trailing carriage return is removed.
+   *
+   * @param start
+   *          The offset of the first byte of the line
+   * @param end
+   *          The offset of the line terminator
+   */
+  private void addLine(int start, int end) {
+    if (lineCount == lineStarts.length) {
+      lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+      lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+    }
+
+    int lineEnd = end;
+    if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') {
+      lineEnd--;
+      joined = false;
+    }
+
+    lineStarts[lineCount] = start;
+    lineEnds[lineCount] = lineEnd;
+    lineCount++;
+  }
+
+  /**
+   * Determine whether or not a line contains only whitespace
+   *
+   * @param line
+   *          The line number
+   * @return {@code true} if the line is blank; {@code false} otherwise
+   */
+  private boolean isBlank(int line) {
+    boolean blank = true;
+
+    for (int i = lineStarts[line]; i < lineEnds[line]; i++) {
+      if ((buffer.get(i) & 0xFF) > ' ') {
+        blank = false;
+        break;
+      }
+    }
+
+    return blank;
+  }
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= lineCount) {
+      throw new IndexOutOfBoundsException(
+        "Line " + index + " is outside the file (" + lineCount + " lines)");
+    }
+
+    byte[] bytes = new byte[lineEnds[index] - lineStarts[index]];
+
+    // Use a duplicate so concurrent readers don't share a position
+    ByteBuffer view = buffer.duplicate();
+    view.position(lineStarts[index]);
+    view.get(bytes);
+
+    return new String(bytes, charset);
+  }
+
+  /**
+   * Get the bytes of the lines joined with {@code \n}, in the form that they
+   * are written to the file store. If the contents are already in that form
+   * they are copied directly; otherwise {@code null} is returned.
+   *
+   * @return The joined bytes, or {@code null} if the contents contain other
+   *         line terminators
+   * @see DataFile#getContents()
+   */
+  protected byte[] getJoinedBytes() {
+    byte[] result = null;
+
+    if (joined) {
+      int end = lineCount == 0 ? 0 : lineEnds[lineCount - 1];
+      result = new byte[end];
+
+      ByteBuffer view = buffer.duplicate();
+      view.position(0);
+      view.get(result);
+    }
+
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return lineCount;
+  }
+}
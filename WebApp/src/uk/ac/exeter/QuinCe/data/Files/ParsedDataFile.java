@@ -0,0 +1,770 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.input.CountingInputStream;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinitionException;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeParser;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.PositionException;
+import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * The parsed contents of a data file, held in columns.
+ *
+ * <p>
+ * The object contains the timestamp of every data line in the file, the
+ * position values, a {@code double} value for each assigned sensor column, and
+ * the run type of each line (stored as an index into a list of run type
+ * names). It contains the same values that would be extracted from the text
+ * of the file.
+ * </p>
+ *
+ * <p>
+ * The first time a file is parsed, the parsed data is written to a binary
+ * sidecar file next to the file in the {@link FileStore}. The sidecar is keyed
+ * by the file ID and a version calculated from the file definition and sensor
+ * assignments, and records the hash of the file contents. Later extractions
+ * read the sidecar instead of parsing the text, as long as none of these have
+ * changed. Files containing values that cannot be stored in the sidecar (e.g.
+ * invalid position values or unrecognised run types) are always parsed from
+ * the text.
+ * </p>
+ *
+ * <p>
+ * Sidecar files are memory mapped when they are read, so the parsed data of
+ * files loaded from sidecars is not held on the heap.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public class ParsedDataFile {
+
+  /**
+   * Identifies sidecar files ("QCPF")
+   */
+  private static final int MAGIC = 0x51435046;
+
+  /**
+   * The sidecar file format version
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Run type index for lines without a run type
+   */
+  private static final int NO_RUN_TYPE = -1;
+
+  /**
+   * The number of data lines
+   */
+  private final int rowCount;
+
+  /**
+   * The timestamp of each line, in milliseconds since the epoch
+   */
+  private final LongBuffer times;
+
+  /**
+   * The column IDs of the value columns. These are sensor assignment IDs, or
+   * {@link FileDefinition#LONGITUDE_COLUMN_ID} and
+   * {@link FileDefinition#LATITUDE_COLUMN_ID}.
+   */
+  private final long[] columnIds;
+
+  /**
+   * The values for each column. Missing values are {@link Double#NaN}.
+   */
+  private final DoubleBuffer[] values;
+
+  /**
+   * The run type names
+   */
+  private final List<String> runTypeNames;
+
+  /**
+   * The index of each line's run type in {@link #runTypeNames}. {@code null}
+   * if the file has no assigned run type column.
+   */
+  private final IntBuffer runTypes;
+
+  /**
+   * Values that are not numeric, which are used in place of the value in
+   * {@link #values}. Only position values can be non-numeric. Keyed by column
+   * index, then line index.
+   */
+  private final Map<Integer, Map<Integer, String>> rawValues = new HashMap<Integer, Map<Integer, String>>();
+
+  /**
+   * Errors encountered while reading values from a line, keyed by line index.
+   * The error is reported if the line's values are used.
+   */
+  private final Map<Integer, Exception> rowErrors = new HashMap<Integer, Exception>();
+
+  /**
+   * Create an empty parsed file
+   *
+   * @param rowCount
+   *          The number of data lines
+   * @param columnIds
+   *          The column IDs
+   * @param hasRunTypes
+   *          Indicates whether the file has an assigned run type column
+   */
+  private ParsedDataFile(int rowCount, long[] columnIds, boolean hasRunTypes) {
+    this.rowCount = rowCount;
+    this.times = LongBuffer.allocate(rowCount);
+    this.columnIds = columnIds;
+    this.values = new DoubleBuffer[columnIds.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = DoubleBuffer.allocate(rowCount);
+    }
+    this.runTypeNames = new ArrayList<String>();
+    this.runTypes = hasRunTypes ? IntBuffer.allocate(rowCount) : null;
+  }
+
+  /**
+   * Create a parsed file from data that has already been read
+   *
+   * @param rowCount
+   *          The number of data lines
+   * @param columnIds
+   *          The column IDs
+   * @param runTypeNames
+   *          The run type names
+   * @param times
+   *          The line timestamps
+   * @param values
+   *          The column values
+   * @param runTypes
+   *          The line run types, or {@code null} if the file has no assigned
+   *          run type column
+   */
+  private ParsedDataFile(int rowCount, long[] columnIds,
+    List<String> runTypeNames, LongBuffer times, DoubleBuffer[] values,
+    IntBuffer runTypes) {
+    this.rowCount = rowCount;
+    this.times = times;
+    this.columnIds = columnIds;
+    this.values = values;
+    this.runTypeNames = runTypeNames;
+    this.runTypes = runTypes;
+  }
+
+  /**
+   * Get the parsed contents of a data file. If a valid sidecar file exists it
+   * is read; otherwise the file is parsed and the sidecar is written.
+   *
+   * <p>
+   * The columns of the parsed file are defined by the extraction plan for the
+   * file's definition.
+   * </p>
+   *
+   * @param dataFile
+   *          The data file
+   * @param plan
+   *          The extraction plan for the file's definition
+   * @return The parsed file
+   * @throws DataFileException
+   *           If the file cannot be read
+   * @throws DateTimeSpecificationException
+   *           If any line's date/time cannot be parsed
+   */
+  public static ParsedDataFile getParsedFile(DataFile dataFile,
+    ExtractionPlan plan)
+    throws DataFileException, DateTimeSpecificationException {
+
+    FileDefinition fileDefinition = dataFile.getFileDefinition();
+
+    String version = getVersion(fileDefinition, plan.getValueAssignments(),
+      plan.hasRunTypes());
+    String contentHash = dataFile.getContentHash().getHash();
+    File sidecar = FileStore.getParsedFile(dataFile.getFileStore(), dataFile,
+      version);
+
+    ParsedDataFile result = null;
+
+    if (sidecar.exists()) {
+      try {
+        result = read(sidecar, contentHash);
+        if (null != result && !result.hasColumns(plan)) {
+          result = null;
+        }
+      } catch (IOException e) {
+        // The sidecar is invalid; the file will be parsed instead
+        result = null;
+      }
+    }
+
+    if (null == result) {
+      result = parse(dataFile, plan);
+
+      if (result.rawValues.isEmpty() && result.rowErrors.isEmpty()) {
+        try {
+          FileStore.deleteParsedFiles(dataFile.getFileStore(), dataFile);
+          result.write(sidecar, contentHash);
+        } catch (IOException e) {
+          // The sidecar is only a cache, so failing to write it
+          // doesn't stop the extraction
+          sidecar.delete();
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether this parsed file's columns match those defined by an
+   * extraction plan
+   *
+   * @param plan
+   *          The plan
+   * @return {@code true} if the columns match; {@code false} if they do not
+   */
+  private boolean hasColumns(ExtractionPlan plan) {
+    boolean result = columnIds.length == plan.getValueColumnCount()
+      && (null != runTypes) == plan.hasRunTypes();
+
+    for (int i = 0; result && i < columnIds.length; i++) {
+      result = columnIds[i] == plan.getValueColumnId(i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse the text of a data file
+   *
+   * @param dataFile
+   *          The data file
+   * @param plan
+   *          The extraction plan for the file's definition
+   * @return The parsed file
+   * @throws DataFileException
+   *           If the file cannot be read
+   * @throws DateTimeSpecificationException
+   *           If any line's date/time cannot be parsed
+   */
+  private static ParsedDataFile parse(DataFile dataFile, ExtractionPlan plan)
+    throws DataFileException, DateTimeSpecificationException {
+
+    FileDefinition fileDefinition = dataFile.getFileDefinition();
+    boolean hasRunTypes = plan.hasRunTypes();
+
+    long[] columnIds = new long[plan.getValueColumnCount()];
+    for (int i = 0; i < columnIds.length; i++) {
+      columnIds[i] = plan.getValueColumnId(i);
+    }
+
+    int firstDataLine = dataFile.getFirstDataLine();
+    int rowCount = Math.max(0, dataFile.getContentLineCount() - firstDataLine);
+
+    ParsedDataFile result = new ParsedDataFile(rowCount, columnIds,
+      hasRunTypes);
+    Map<String, Integer> runTypeIndexes = new HashMap<String, Integer>();
+
+    FieldTokenizer tokenizer = fileDefinition.getTokenizer();
+    DateTimeParser dateTimeParser = fileDefinition.getDateTimeSpecification()
+      .getParser();
+
+    for (int row = 0; row < rowCount; row++) {
+      dataFile.getLine(firstDataLine + row, tokenizer);
+      result.times.put(row,
+        DateTimeUtils.dateToLong(dataFile.getDate(tokenizer, dateTimeParser)));
+
+      List<String> line = tokenizer.getFields();
+
+      try {
+        for (int i = 0; i < plan.getEntryCount(); i++) {
+          ExtractionPlan.Entry entry = plan.getEntry(i);
+          int column = entry.getValueIndex();
+
+          if (column != ExtractionPlan.NO_VALUE_INDEX) {
+            if (entry.getColumnId() == FileDefinition.LONGITUDE_COLUMN_ID) {
+              result.setValue(column, row, dataFile.getLongitude(line));
+            } else if (entry
+              .getColumnId() == FileDefinition.LATITUDE_COLUMN_ID) {
+              result.setValue(column, row, dataFile.getLatitude(line));
+            } else {
+              result.values[column].put(row, dataFile.getDoubleValue(line,
+                entry.getFileColumn(), entry.getMissingValue()));
+            }
+          }
+        }
+
+        if (hasRunTypes) {
+          RunTypeAssignment runType = fileDefinition.getRunType(line, true);
+          String runName = runType.getRunName();
+
+          Integer index = runTypeIndexes.get(runName);
+          if (null == index) {
+            index = result.runTypeNames.size();
+            result.runTypeNames.add(runName);
+            runTypeIndexes.put(runName, index);
+          }
+
+          result.runTypes.put(row, index);
+        }
+      } catch (Exception e) {
+        result.rowErrors.put(row, e);
+        if (hasRunTypes) {
+          result.runTypes.put(row, NO_RUN_TYPE);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Store a value extracted from the text of the file
+   *
+   * @param column
+   *          The column index
+   * @param row
+   *          The line index
+   * @param value
+   *          The value
+   */
+  private void setValue(int column, int row, String value) {
+    if (null == value) {
+      values[column].put(row, Double.NaN);
+    } else {
+      try {
+        values[column].put(row, Double.parseDouble(value));
+      } catch (NumberFormatException e) {
+        values[column].put(row, Double.NaN);
+        Map<Integer, String> columnRawValues = rawValues.get(column);
+        if (null == columnRawValues) {
+          columnRawValues = new HashMap<Integer, String>();
+          rawValues.put(column, columnRawValues);
+        }
+        columnRawValues.put(row, value);
+      }
+    }
+  }
+
+  /**
+   * Get the number of data lines in the file
+   *
+   * @return The number of lines
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Determine whether or not the parsed data is memory mapped from a sidecar
+   * file. Parsed data that is not mapped is held on the heap.
+   *
+   * @return {@code true} if the data is mapped; {@code false} if it is not
+   */
+  public boolean isMapped() {
+    return times.isDirect();
+  }
+
+  /**
+   * Get the timestamp of a line in milliseconds since the epoch
+   *
+   * @param row
+   *          The line index, counting from the first data line
+   * @return The timestamp
+   */
+  public long getTimeMillis(int row) {
+    return times.get(row);
+  }
+
+  /**
+   * Get the timestamp of a line
+   *
+   * @param row
+   *          The line index, counting from the first data line
+   * @return The timestamp
+   */
+  public LocalDateTime getTime(int row) {
+    return DateTimeUtils.longToDate(times.get(row));
+  }
+
+  /**
+   * Report any error encountered while reading the values from a line. This
+   * must be called before the line's values are used.
+   *
+   * @param row
+   *          The line index
+   * @throws PositionException
+   *           If a position value could not be read
+   * @throws FileDefinitionException
+   *           If the run type could not be read
+   */
+  public void checkRow(int row)
+    throws PositionException, FileDefinitionException {
+
+    Exception error = rowErrors.get(row);
+    if (null != error) {
+      if (error instanceof PositionException) {
+        throw (PositionException) error;
+      } else if (error instanceof FileDefinitionException) {
+        throw (FileDefinitionException) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else {
+        throw new IllegalStateException(error);
+      }
+    }
+  }
+
+  /**
+   * Get a value from a line
+   *
+   * @param columnId
+   *          The column ID (a sensor assignment ID, or one of the position
+   *          column IDs)
+   * @param row
+   *          The line index
+   * @return The value, or {@code null} if it is missing
+   * @throws IllegalArgumentException
+   *           If the column is not in the file
+   */
+  public String getValue(long columnId, int row) {
+
+    int column = -1;
+    for (int i = 0; i < columnIds.length; i++) {
+      if (columnIds[i] == columnId) {
+        column = i;
+        break;
+      }
+    }
+
+    if (column == -1) {
+      throw new IllegalArgumentException(
+        "Column " + columnId + " is not in the parsed file");
+    }
+
+    return getValueAt(column, row);
+  }
+
+  /**
+   * Get a value from a line using the column's index in the parsed file
+   *
+   * @param column
+   *          The column index, as given by
+   *          {@link ExtractionPlan.Entry#getValueIndex()}
+   * @param row
+   *          The line index
+   * @return The value, or {@code null} if it is missing
+   */
+  public String getValueAt(int column, int row) {
+    String result = null;
+
+    Map<Integer, String> columnRawValues = rawValues.isEmpty() ? null
+      : rawValues.get(column);
+    if (null != columnRawValues && columnRawValues.containsKey(row)) {
+      result = columnRawValues.get(row);
+    } else {
+      double value = values[column].get(row);
+      if (!Double.isNaN(value)) {
+        result = String.valueOf(value);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a numeric value from a line using the column's index in the parsed
+   * file
+   *
+   * @param column
+   *          The column index, as given by
+   *          {@link ExtractionPlan.Entry#getValueIndex()}
+   * @param row
+   *          The line index
+   * @return The value, or {@code NaN} if it is missing or is not a number
+   * @see #getValueAt(int, int)
+   */
+  public double getDoubleAt(int column, int row) {
+    return values[column].get(row);
+  }
+
+  /**
+   * Get the run type of a line, following any aliases
+   *
+   * @param row
+   *          The line index
+   * @return The run type
+   */
+  public String getRunType(int row) {
+    String result = null;
+
+    if (null != runTypes && runTypes.get(row) != NO_RUN_TYPE) {
+      result = runTypeNames.get(runTypes.get(row));
+    }
+
+    return result;
+  }
+
+  /**
+   * Write the parsed file to a sidecar file
+   *
+   * @param sidecar
+   *          The sidecar file
+   * @param contentHash
+   *          The hash of the data file's contents
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  private void write(File sidecar, String contentHash) throws IOException {
+    FileStoreBackend.writeAtomic(sidecar, stream -> {
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(stream, 65536));
+
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(contentHash);
+      out.writeInt(rowCount);
+
+      out.writeInt(columnIds.length);
+      for (long columnId : columnIds) {
+        out.writeLong(columnId);
+      }
+
+      out.writeBoolean(null != runTypes);
+      if (null != runTypes) {
+        out.writeInt(runTypeNames.size());
+        for (String runTypeName : runTypeNames) {
+          out.writeUTF(runTypeName);
+        }
+      }
+
+      for (int row = 0; row < rowCount; row++) {
+        out.writeLong(times.get(row));
+      }
+
+      for (DoubleBuffer column : values) {
+        for (int row = 0; row < rowCount; row++) {
+          out.writeDouble(column.get(row));
+        }
+      }
+
+      if (null != runTypes) {
+        for (int row = 0; row < rowCount; row++) {
+          out.writeInt(runTypes.get(row));
+        }
+      }
+
+      out.flush();
+    });
+  }
+
+  /**
+   * Read a parsed file from a sidecar file. The header is read from the file,
+   * and the data blocks are memory mapped.
+   *
+   * @param sidecar
+   *          The sidecar file
+   * @param contentHash
+   *          The hash of the data file's current contents
+   * @return The parsed file, or {@code null} if the sidecar was created from
+   *         different contents
+   * @throws IOException
+   *           If the file cannot be read or is invalid
+   */
+  private static ParsedDataFile read(File sidecar, String contentHash)
+    throws IOException {
+
+    ParsedDataFile result = null;
+
+    try (FileInputStream fileIn = new FileInputStream(sidecar)) {
+
+      // Count the header bytes so we know where the data blocks start
+      CountingInputStream counter = new CountingInputStream(
+        new BufferedInputStream(fileIn, 8192));
+      DataInputStream in = new DataInputStream(counter);
+
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Invalid sidecar file " + sidecar.getName());
+      }
+
+      if (in.readUTF().equals(contentHash)) {
+        int rowCount = in.readInt();
+
+        long[] columnIds = new long[in.readInt()];
+        for (int i = 0; i < columnIds.length; i++) {
+          columnIds[i] = in.readLong();
+        }
+
+        boolean hasRunTypes = in.readBoolean();
+        List<String> runTypeNames = new ArrayList<String>();
+
+        if (hasRunTypes) {
+          int runTypeCount = in.readInt();
+          for (int i = 0; i < runTypeCount; i++) {
+            runTypeNames.add(in.readUTF());
+          }
+        }
+
+        long dataStart = counter.getByteCount();
+        long blockSize = rowCount * 8L;
+        long dataLength = blockSize * (1 + columnIds.length)
+          + (hasRunTypes ? rowCount * 4L : 0L);
+
+        FileChannel channel = fileIn.getChannel();
+        if (channel.size() != dataStart + dataLength) {
+          throw new IOException(
+            "Sidecar file " + sidecar.getName() + " is the wrong size");
+        }
+
+        LongBuffer times = map(channel, dataStart, blockSize).asLongBuffer();
+
+        DoubleBuffer[] values = new DoubleBuffer[columnIds.length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = map(channel, dataStart + blockSize * (i + 1), blockSize)
+            .asDoubleBuffer();
+        }
+
+        IntBuffer runTypes = null;
+        if (hasRunTypes) {
+          runTypes = map(channel,
+            dataStart + blockSize * (1 + columnIds.length), rowCount * 4L)
+              .asIntBuffer();
+        }
+
+        result = new ParsedDataFile(rowCount, columnIds, runTypeNames, times,
+          values, runTypes);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Memory map a block of a sidecar file. The mapping remains valid after the
+   * channel is closed.
+   *
+   * @param channel
+   *          The file channel
+   * @param position
+   *          The start of the block
+   * @param length
+   *          The length of the block
+   * @return The mapped block
+   * @throws IOException
+   *           If the block cannot be mapped
+   */
+  private static ByteBuffer map(FileChannel channel, long position,
+    long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Sidecar file is too large");
+    }
+
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+  }
+
+  /**
+   * Calculate the version of the parsed data for a file definition. The
+   * version changes if any part of the file definition or the sensor
+   * assignments that affect the parsed values is changed.
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param valueAssignments
+   *          The sensor assignments for the file, excluding run types
+   * @param hasRunTypes
+   *          Indicates whether the file has an assigned run type column
+   * @return The version
+   * @throws DataFileException
+   *           If the version cannot be calculated
+   */
+  private static String getVersion(FileDefinition fileDefinition,
+    List<SensorAssignment> valueAssignments, boolean hasRunTypes)
+    throws DataFileException {
+
+    StringBuilder definition = new StringBuilder();
+
+    try {
+      definition.append(fileDefinition.getSeparator());
+      definition.append('|');
+      definition.append(fileDefinition.getHeaderType());
+      definition.append('|');
+      definition.append(fileDefinition.getHeaderLines());
+      definition.append('|');
+      definition.append(fileDefinition.getHeaderEndString());
+      definition.append('|');
+      definition.append(fileDefinition.getColumnHeaderRows());
+      definition.append('|');
+      definition.append(fileDefinition.getColumnCount());
+      definition.append('|');
+      definition
+        .append(fileDefinition.getDateTimeSpecification().getJsonString());
+      definition.append('|');
+      if (null != fileDefinition.getLongitudeSpecification()) {
+        definition
+          .append(fileDefinition.getLongitudeSpecification().getJsonString());
+      }
+      definition.append('|');
+      if (null != fileDefinition.getLatitudeSpecification()) {
+        definition
+          .append(fileDefinition.getLatitudeSpecification().getJsonString());
+      }
+      definition.append('|');
+
+      for (SensorAssignment assignment : valueAssignments) {
+        definition.append(assignment.getDatabaseId());
+        definition.append(':');
+        definition.append(assignment.getColumn());
+        definition.append(':');
+        definition.append(assignment.getMissingValue());
+        definition.append(';');
+      }
+      definition.append('|');
+
+      if (hasRunTypes && null != fileDefinition.getRunTypes()) {
+        definition.append(fileDefinition.getRunTypeColumn());
+        definition.append(':');
+        for (RunTypeAssignment runType : fileDefinition.getRunTypes()
+          .values()) {
+          definition.append(runType.toString());
+          definition.append(';');
+        }
+      }
+
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest
+        .digest(definition.toString().getBytes(StandardCharsets.UTF_8));
+
+      // The first 16 bytes are plenty to distinguish versions
+      return new String(Hex.encodeHex(Arrays.copyOf(hash, 16)));
+    } catch (DateTimeSpecificationException | NoSuchAlgorithmException e) {
+      throw new DataFileException(DataFileException.NO_FILE_ID,
+        DataFileException.NO_LINE_NUMBER,
+        "Unable to calculate file definition version", e);
+    }
+  }
+}
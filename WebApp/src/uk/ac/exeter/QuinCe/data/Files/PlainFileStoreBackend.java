@@ -0,0 +1,125 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * File store backend that stores each file uncompressed in its file
+ * definition's directory, named by its database ID. This is the original file
+ * store layout.
+ *
+ * @author Steve Jones
+ */
+class PlainFileStoreBackend extends FileStoreBackend {
+
+  @Override
+  protected void store(String fileStore, long fileDefinitionId, long fileId,
+    byte[] contents) throws IOException {
+    writeAtomic(getFile(fileStore, fileDefinitionId, fileId),
+      out -> out.write(contents));
+  }
+
+  @Override
+  protected void store(String fileStore, long fileDefinitionId, long fileId,
+    File source, ContentHash contentHash) throws IOException {
+    writeAtomic(getFile(fileStore, fileDefinitionId, fileId),
+      out -> Files.copy(source.toPath(), out));
+  }
+
+  /**
+   * Writes a copy of the stored file with the new data appended, and renames
+   * it into place. The stored file is never modified in place, so a failed
+   * append leaves it intact. If the stored file is not the expected length
+   * the complete file is written instead.
+   */
+  @Override
+  protected void append(String fileStore, long fileDefinitionId, long fileId,
+    byte[] contents, long existingLength) throws IOException {
+
+    File file = getFile(fileStore, fileDefinitionId, fileId);
+
+    if (file.length() != existingLength || existingLength > contents.length) {
+      store(fileStore, fileDefinitionId, fileId, contents);
+    } else {
+      writeAtomic(file, out -> {
+        Files.copy(file.toPath(), out);
+        out.write(contents, (int) existingLength,
+          contents.length - (int) existingLength);
+      });
+    }
+  }
+
+  /**
+   * Works in the same way as
+   * {@link #append(String, long, long, byte[], long)}, copying the new data
+   * from the end of the source file.
+   */
+  @Override
+  protected void append(String fileStore, long fileDefinitionId, long fileId,
+    File source, ContentHash contentHash, long existingLength)
+    throws IOException {
+
+    File file = getFile(fileStore, fileDefinitionId, fileId);
+
+    if (file.length() != existingLength || existingLength > source.length()) {
+      store(fileStore, fileDefinitionId, fileId, source, contentHash);
+    } else {
+      writeAtomic(file, out -> {
+        Files.copy(file.toPath(), out);
+        try (InputStream in = new FileInputStream(source)) {
+          IOUtils.copyLarge(in, out, existingLength,
+            source.length() - existingLength);
+        }
+      });
+    }
+  }
+
+  @Override
+  protected boolean contains(String fileStore, long fileDefinitionId,
+    long fileId) {
+    return getFile(fileStore, fileDefinitionId, fileId).exists();
+  }
+
+  @Override
+  protected void delete(String fileStore, long fileDefinitionId, long fileId) {
+    File file = getFile(fileStore, fileDefinitionId, fileId);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  @Override
+  protected byte[] getBytes(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+    return Files
+      .readAllBytes(getFile(fileStore, fileDefinitionId, fileId).toPath());
+  }
+
+  @Override
+  protected List<String> getContents(String fileStore, long fileDefinitionId,
+    long fileId) throws IOException {
+    return new MappedFileContents(getFile(fileStore, fileDefinitionId, fileId));
+  }
+
+  /**
+   * Get the Java File object for a data file
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinitionId
+   *          The file definition ID
+   * @param fileId
+   *          The file ID
+   * @return The Java File object
+   */
+  private File getFile(String fileStore, long fileDefinitionId, long fileId) {
+    return new File(getDirectory(fileStore, fileDefinitionId),
+      String.valueOf(fileId));
+  }
+}
@@ -0,0 +1,355 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * An uploaded file that has been streamed to a temporary file in the file
+ * store instead of being held in memory.
+ *
+ * <p>
+ * The upload is read from its stream in UTF-8 and written in the form used by
+ * the {@link FileStore}: the lines joined with {@code \n} in the platform
+ * default character set. Lines are split in the same way as for other uploads
+ * (runs of line terminators are treated as a single line break), and blank
+ * lines at the end of the file are removed. The {@link ContentHash} of the
+ * file is calculated as it is written, and the upload is abandoned as soon as
+ * it exceeds the permitted size.
+ * </p>
+ *
+ * <p>
+ * The temporary file is memory mapped when its lines are requested, and is
+ * streamed into the file store when the upload is stored, so the file
+ * contents are never held on the heap. The file must be removed with
+ * {@link #delete()} once the upload has been processed.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public class SpooledUpload {
+
+  /**
+   * The directory within the file store where uploads are spooled
+   */
+  private static final String UPLOAD_DIRECTORY = "uploads";
+
+  /**
+   * The temporary file
+   */
+  private final File file;
+
+  /**
+   * The hash of the file contents
+   */
+  private final ContentHash contentHash;
+
+  /**
+   * Indicates whether or not the file contains anything other than whitespace
+   */
+  private final boolean hasContent;
+
+  /**
+   * The lines of the file. Mapped on demand.
+   */
+  private List<String> lines = null;
+
+  /**
+   * Create the object for a spooled file
+   *
+   * @param file
+   *          The temporary file
+   * @param contentHash
+   *          The hash of the file contents
+   * @param hasContent
+   *          Indicates whether the file contains anything other than
+   *          whitespace
+   */
+  private SpooledUpload(File file, ContentHash contentHash,
+    boolean hasContent) {
+    this.file = file;
+    this.contentHash = contentHash;
+    this.hasContent = hasContent;
+  }
+
+  /**
+   * Stream an upload to a temporary file in the file store. The stream is not
+   * closed.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param in
+   *          The upload stream
+   * @param maxSize
+   *          The maximum number of bytes to be read from the stream
+   * @return The spooled upload
+   * @throws UploadTooLargeException
+   *           If the upload is larger than {@code maxSize}
+   * @throws IOException
+   *           If the upload cannot be read or written
+   */
+  public static SpooledUpload spool(String fileStore, InputStream in,
+    long maxSize) throws IOException {
+
+    File directory = new File(fileStore, UPLOAD_DIRECTORY);
+    FileStoreBackend.checkDirectory(directory);
+    File file = File.createTempFile("upload-", ".tmp", directory);
+
+    SpooledUpload result = null;
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new LimitedInputStream(in, maxSize), StandardCharsets.UTF_8));
+
+      int lineCount = 0;
+      boolean hasContent = false;
+
+      // Blank lines are only written once a non-blank line follows them
+      List<String> pendingBlankLines = new ArrayList<String>();
+
+      // Files are written using the platform default character set
+      Charset charset = Charset.defaultCharset();
+
+      try (DigestOutputStream digestOut = new DigestOutputStream(
+        new FileOutputStream(file), digest);
+        Writer writer = new BufferedWriter(
+          new OutputStreamWriter(digestOut, charset), 65536)) {
+
+        String line;
+        while (null != (line = reader.readLine())) {
+
+          // Empty lines come from consecutive line terminators. They are
+          // ignored, except at the very start of the file.
+          if (line.length() == 0
+            && (lineCount > 0 || !pendingBlankLines.isEmpty())) {
+            continue;
+          }
+
+          if (line.trim().length() == 0) {
+            pendingBlankLines.add(line);
+          } else {
+            hasContent = true;
+
+            for (String blankLine : pendingBlankLines) {
+              writeLine(writer, blankLine, lineCount);
+              lineCount++;
+            }
+            pendingBlankLines.clear();
+
+            writeLine(writer, line, lineCount);
+            lineCount++;
+          }
+        }
+      }
+
+      String hash = new String(Hex.encodeHex(digest.digest()));
+      ContentHash contentHash = new ContentHash(hash, file.length(),
+        lineCount);
+
+      result = new SpooledUpload(file, contentHash, hasContent);
+    } catch (NoSuchAlgorithmException e) {
+      // All Java implementations must support SHA-256
+      throw new IllegalStateException(e);
+    } finally {
+      if (null == result) {
+        file.delete();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Write a line to the spooled file, preceded by a line separator if it is
+   * not the first line
+   *
+   * @param writer
+   *          The file writer
+   * @param line
+   *          The line
+   * @param lineNumber
+   *          The line number
+   * @throws IOException
+   *           If the line cannot be written
+   */
+  private static void writeLine(Writer writer, String line, int lineNumber)
+    throws IOException {
+
+    if (lineNumber > 0) {
+      writer.write('\n');
+    }
+
+    writer.write(line);
+  }
+
+  /**
+   * Determine whether or not the upload contains anything other than
+   * whitespace
+   *
+   * @return {@code true} if the upload has content; {@code false} if it is
+   *         empty
+   */
+  public boolean hasContent() {
+    return hasContent;
+  }
+
+  /**
+   * Get the lines of the upload
+   *
+   * @return The lines
+   * @throws IOException
+   *           If the spooled file cannot be mapped
+   */
+  public List<String> getLines() throws IOException {
+    if (null == lines) {
+      lines = new MappedFileContents(file);
+    }
+
+    return lines;
+  }
+
+  /**
+   * Get the hash of the upload's contents
+   *
+   * @return The content hash
+   */
+  public ContentHash getContentHash() {
+    return contentHash;
+  }
+
+  /**
+   * Create a {@link DataFile} from the upload. The content hash calculated
+   * while the upload was spooled is used by the data file, and the spooled
+   * file is streamed into the file store when the data file is stored. The
+   * upload must not be deleted until then.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinition
+   *          The file definition
+   * @param filename
+   *          The file name
+   * @return The data file
+   * @throws IOException
+   *           If the spooled file cannot be mapped
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   */
+  public DataFile makeDataFile(String fileStore, FileDefinition fileDefinition,
+    String filename) throws IOException, MissingParamException {
+
+    DataFile dataFile = new DataFile(fileStore, fileDefinition, filename,
+      getLines());
+    dataFile.setContentHash(contentHash);
+    dataFile.setContentFile(file);
+    return dataFile;
+  }
+
+  /**
+   * Delete the spooled file
+   */
+  public void delete() {
+    lines = null;
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Input stream that fails once more than a set number of bytes has been
+   * read
+   *
+   * @author Steve Jones
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+
+    /**
+     * The maximum number of bytes that can be read
+     */
+    private final long maxSize;
+
+    /**
+     * The number of bytes read so far
+     */
+    private long count = 0;
+
+    /**
+     * Wrap a stream with the specified size limit
+     *
+     * @param in
+     *          The stream
+     * @param maxSize
+     *          The maximum number of bytes that can be read
+     */
+    private LimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result != -1) {
+        addCount(1);
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if (result > 0) {
+        addCount(result);
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long result = super.skip(n);
+      addCount(result);
+      return result;
+    }
+
+    @Override
+    public void close() {
+      // The underlying stream is owned by the caller
+    }
+
+    /**
+     * Add to the number of bytes read
+     *
+     * @param bytes
+     *          The number of bytes
+     * @throws UploadTooLargeException
+     *           If the limit has been exceeded
+     */
+    private void addCount(long bytes) throws UploadTooLargeException {
+      count += bytes;
+      if (count > maxSize) {
+        throw new UploadTooLargeException(maxSize);
+      }
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when an uploaded file is larger than the permitted maximum
+ * size. It is an {@link IOException} so that it can be thrown while the upload
+ * is being read from its stream.
+ *
+ * @author Steve Jones
+ * @see SpooledUpload
+ */
+public class UploadTooLargeException extends IOException {
+
+  /**
+   * The serial version UID
+   */
+  private static final long serialVersionUID = 4418936218270185593L;
+
+  /**
+   * Constructs a new exception for the specified size limit
+   *
+   * @param maxSize
+   *          The maximum file size, in bytes
+   */
+  public UploadTooLargeException(long maxSize) {
+    super("The file is larger than the maximum size of " + maxSize
+      + " bytes");
+  }
+}
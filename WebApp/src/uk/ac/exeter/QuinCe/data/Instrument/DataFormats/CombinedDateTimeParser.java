@@ -0,0 +1,78 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Parser for files with the date and time in a single column
+ *
+ * <p>
+ * Fixed-width numeric formats (e.g. {@code yyyy-MM-dd HH:mm:ss}) are read
+ * directly from the line. Other formats, and values that can't be read
+ * directly, are parsed with a {@link DateTimeFormatter} that is created once
+ * for the parser.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see DateTimeSpecification#DATE_TIME
+ */
+class CombinedDateTimeParser extends DateTimeParser {
+
+  /**
+   * The date/time column
+   */
+  private final int column;
+
+  /**
+   * The formatter for the column
+   */
+  private final DateTimeFormatter formatter;
+
+  /**
+   * The compiled fixed-width format. {@code null} if the format can only be
+   * parsed by the {@link #formatter}.
+   */
+  private final FixedWidthDateTimeFormat fixedWidthFormat;
+
+  /**
+   * Create the parser
+   *
+   * @param assignment
+   *          The date/time column assignment
+   */
+  protected CombinedDateTimeParser(DateTimeColumnAssignment assignment) {
+    this.column = assignment.getColumn();
+    this.formatter = assignment.getFormatter();
+    this.fixedWidthFormat = FixedWidthDateTimeFormat
+      .compile(assignment.getDateFormatString(), true, true);
+  }
+
+  @Override
+  public long parseMillis(LocalDateTime headerDate, FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    long result;
+
+    if (null != fixedWidthFormat && fixedWidthFormat.parse(line, column)) {
+      result = toMillis(
+        getEpochDay(fixedWidthFormat.getYear(), fixedWidthFormat.getMonth(),
+          fixedWidthFormat.getDay()),
+        fixedWidthFormat.getSecondOfDay());
+    } else {
+      String fieldValue = line.getField(column);
+      try {
+        result = DateTimeUtils
+          .dateToLong(LocalDateTime.parse(fieldValue, formatter));
+      } catch (DateTimeParseException e) {
+        throw new DateTimeSpecificationException(
+          "Invalid date/time value '" + fieldValue + "'");
+      }
+    }
+
+    return result;
+  }
+}
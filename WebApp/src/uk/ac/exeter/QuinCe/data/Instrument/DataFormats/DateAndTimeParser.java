@@ -0,0 +1,403 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+
+/**
+ * Parser for files where the date and time are specified separately.
+ *
+ * <p>
+ * The date can be a single date column, a year and Julian day, or separate
+ * year, month and day columns. The time can be a single time column or
+ * separate hour, minute and second columns.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+class DateAndTimeParser extends DateTimeParser {
+
+  /**
+   * Date from a single column
+   *
+   * @see DateTimeSpecification#DATE
+   */
+  private static final int DATE_COLUMN = 0;
+
+  /**
+   * Date from year and Julian day columns
+   *
+   * @see DateTimeSpecification#JDAY
+   */
+  private static final int YEAR_JDAY_COLUMNS = 1;
+
+  /**
+   * Date from year, month and day columns
+   */
+  private static final int YMD_COLUMNS = 2;
+
+  /**
+   * The way in which the date is stored
+   */
+  private final int dateMode;
+
+  /**
+   * The date columns. The number of entries depends on the {@link #dateMode}.
+   */
+  private final int[] dateColumns;
+
+  /**
+   * The formatter for a single date column
+   */
+  private final DateTimeFormatter dateFormatter;
+
+  /**
+   * The compiled format for a single date column
+   */
+  private final FixedWidthDateTimeFormat dateFormat;
+
+  /**
+   * The time columns. Either a single time column or hour, minute and second
+   * columns.
+   */
+  private final int[] timeColumns;
+
+  /**
+   * The formatter for a single time column
+   */
+  private final DateTimeFormatter timeFormatter;
+
+  /**
+   * The compiled format for a single time column
+   */
+  private final FixedWidthDateTimeFormat timeFormat;
+
+  /**
+   * Create the parser from a specification
+   *
+   * @param spec
+   *          The date/time specification
+   */
+  protected DateAndTimeParser(DateTimeSpecification spec) {
+
+    if (spec.isAssigned(DateTimeSpecification.DATE)) {
+      DateTimeColumnAssignment assignment = spec
+        .getAssignment(DateTimeSpecification.DATE);
+      dateMode = DATE_COLUMN;
+      dateColumns = new int[] { assignment.getColumn() };
+      dateFormatter = assignment.getFormatter();
+      dateFormat = FixedWidthDateTimeFormat
+        .compile(assignment.getDateFormatString(), true, false);
+    } else if (spec.isAssigned(DateTimeSpecification.JDAY)) {
+      dateMode = YEAR_JDAY_COLUMNS;
+      dateColumns = new int[] { getColumn(spec, DateTimeSpecification.YEAR),
+        getColumn(spec, DateTimeSpecification.JDAY) };
+      dateFormatter = null;
+      dateFormat = null;
+    } else {
+      dateMode = YMD_COLUMNS;
+      dateColumns = new int[] { getColumn(spec, DateTimeSpecification.YEAR),
+        getColumn(spec, DateTimeSpecification.MONTH),
+        getColumn(spec, DateTimeSpecification.DAY) };
+      dateFormatter = null;
+      dateFormat = null;
+    }
+
+    if (spec.isAssigned(DateTimeSpecification.TIME)) {
+      DateTimeColumnAssignment assignment = spec
+        .getAssignment(DateTimeSpecification.TIME);
+      timeColumns = new int[] { assignment.getColumn() };
+      timeFormatter = assignment.getFormatter();
+      timeFormat = FixedWidthDateTimeFormat
+        .compile(assignment.getDateFormatString(), false, true);
+    } else {
+      timeColumns = new int[] { getColumn(spec, DateTimeSpecification.HOUR),
+        getColumn(spec, DateTimeSpecification.MINUTE),
+        getColumn(spec, DateTimeSpecification.SECOND) };
+      timeFormatter = null;
+      timeFormat = null;
+    }
+  }
+
+  /**
+   * Get the column for an assignment
+   *
+   * @param spec
+   *          The specification
+   * @param assignment
+   *          The assignment index
+   * @return The column
+   */
+  private static int getColumn(DateTimeSpecification spec, int assignment) {
+    return spec.getAssignment(assignment).getColumn();
+  }
+
+  @Override
+  public long parseMillis(LocalDateTime headerDate, FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    long epochDay;
+
+    switch (dateMode) {
+    case DATE_COLUMN: {
+      epochDay = getColumnDate(line);
+      break;
+    }
+    case YEAR_JDAY_COLUMNS: {
+      epochDay = getYearJDay(line);
+      break;
+    }
+    default: {
+      epochDay = getYMDDate(line);
+    }
+    }
+
+    int secondOfDay;
+    if (timeColumns.length == 1) {
+      secondOfDay = getColumnTime(line);
+    } else {
+      secondOfDay = getHMSTime(line);
+    }
+
+    return toMillis(epochDay, secondOfDay);
+  }
+
+  /**
+   * Get the epoch day from a single date column
+   *
+   * @param line
+   *          The line
+   * @return The epoch day
+   * @throws DateTimeSpecificationException
+   *           If the date is invalid
+   */
+  private long getColumnDate(FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    long result;
+    int column = dateColumns[0];
+
+    if (null != dateFormat && dateFormat.parse(line, column)) {
+      result = getEpochDay(dateFormat.getYear(), dateFormat.getMonth(),
+        dateFormat.getDay());
+    } else {
+      String fieldValue = line.getField(column);
+      try {
+        result = LocalDate.parse(fieldValue, dateFormatter).toEpochDay();
+      } catch (DateTimeParseException e) {
+        throw new DateTimeSpecificationException(
+          "Invalid date value '" + fieldValue + "': " + e.getMessage());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the epoch day from year and Julian day columns
+   *
+   * @param line
+   *          The line
+   * @return The epoch day
+   * @throws DateTimeSpecificationException
+   *           If the date is invalid
+   */
+  private long getYearJDay(FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    boolean yearEmpty = line.isEmpty(dateColumns[0]);
+    boolean jdayEmpty = line.isEmpty(dateColumns[1]);
+
+    int year = 0;
+    int jday = 0;
+
+    try {
+      if (!yearEmpty) {
+        year = line.parseInt(dateColumns[0]);
+      }
+      if (!jdayEmpty) {
+        jday = line.parseInt(dateColumns[1]);
+      }
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException(
+        "One or more date values is not numeric");
+    }
+
+    if (yearEmpty) {
+      throw new DateTimeSpecificationException("Year column is empty");
+    }
+
+    if (jdayEmpty) {
+      throw new DateTimeSpecificationException("Julian day column is empty");
+    }
+
+    long result;
+    try {
+      result = LocalDate.ofYearDay(year, jday).toEpochDay();
+    } catch (DateTimeException e) {
+      throw new DateTimeSpecificationException(
+        "Invalid date/time: " + e.getMessage());
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the epoch day from year, month and day columns
+   *
+   * @param line
+   *          The line
+   * @return The epoch day
+   * @throws DateTimeSpecificationException
+   *           If the date is invalid
+   */
+  private long getYMDDate(FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    boolean yearEmpty = line.isEmpty(dateColumns[0]);
+    boolean monthEmpty = line.isEmpty(dateColumns[1]);
+    boolean dayEmpty = line.isEmpty(dateColumns[2]);
+
+    int year = 0;
+    int month = 0;
+    int day = 0;
+
+    try {
+      if (!yearEmpty) {
+        year = line.parseInt(dateColumns[0]);
+      }
+      if (!monthEmpty) {
+        month = line.parseInt(dateColumns[1]);
+      }
+      if (!dayEmpty) {
+        day = line.parseInt(dateColumns[2]);
+      }
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException(
+        "One or more date values is not numeric");
+    }
+
+    if (yearEmpty) {
+      throw new DateTimeSpecificationException("Year column is empty");
+    } else if (year < 100) {
+      // Two digit years are in the 2000s.
+      // See DateTimeSpecification.getYMDDate
+      year += 2000;
+    }
+
+    if (monthEmpty) {
+      throw new DateTimeSpecificationException("Month column is empty");
+    }
+
+    if (dayEmpty) {
+      throw new DateTimeSpecificationException("Day column is empty");
+    }
+
+    long result;
+    try {
+      result = getEpochDay(year, month, day);
+    } catch (DateTimeException e) {
+      throw new DateTimeSpecificationException(
+        "Invalid date value: " + e.getMessage());
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the second of the day from a single time column
+   *
+   * @param line
+   *          The line
+   * @return The second of the day
+   * @throws DateTimeSpecificationException
+   *           If the time is invalid
+   */
+  private int getColumnTime(FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    int result;
+    int column = timeColumns[0];
+
+    if (null != timeFormat && timeFormat.parse(line, column)) {
+      result = timeFormat.getSecondOfDay();
+    } else {
+      String fieldValue = line.getField(column);
+      try {
+        result = LocalTime.parse(fieldValue, timeFormatter).toSecondOfDay();
+      } catch (DateTimeParseException e) {
+        throw new DateTimeSpecificationException(
+          "Invalid time value '" + fieldValue + "'");
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the second of the day from hour, minute and second columns
+   *
+   * @param line
+   *          The line
+   * @return The second of the day
+   * @throws DateTimeSpecificationException
+   *           If the time is invalid
+   */
+  private int getHMSTime(FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    boolean hourEmpty = line.isEmpty(timeColumns[0]);
+    boolean minuteEmpty = line.isEmpty(timeColumns[1]);
+    boolean secondEmpty = line.isEmpty(timeColumns[2]);
+
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+
+    try {
+      if (!hourEmpty) {
+        hour = line.parseInt(timeColumns[0]);
+      }
+      if (!minuteEmpty) {
+        minute = line.parseInt(timeColumns[1]);
+      }
+      if (!secondEmpty) {
+        second = line.parseInt(timeColumns[2]);
+      }
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException(
+        "One or more time values are not numeric");
+    }
+
+    if (hourEmpty) {
+      throw new DateTimeSpecificationException("Hour column is empty");
+    }
+
+    if (minuteEmpty) {
+      throw new DateTimeSpecificationException("Minute column is empty");
+    }
+
+    if (secondEmpty) {
+      throw new DateTimeSpecificationException("Second column is empty");
+    }
+
+    int result = getSecondOfDay(hour, minute, second);
+
+    if (result == -1) {
+      // Use LocalTime to generate the error message
+      try {
+        result = LocalTime.of(hour, minute, second).toSecondOfDay();
+      } catch (DateTimeException e) {
+        throw new DateTimeSpecificationException(
+          "Invalid time value: " + e.getMessage());
+      }
+    }
+
+    return result;
+  }
+}
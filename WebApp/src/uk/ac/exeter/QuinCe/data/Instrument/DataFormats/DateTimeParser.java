@@ -0,0 +1,153 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * A date/time parser compiled from a {@link DateTimeSpecification}.
+ *
+ * <p>
+ * {@link DateTimeSpecification#getDateTime(LocalDateTime, java.util.List)}
+ * decides how to read the date and time for every line it is given, and builds
+ * a new {@link java.time.format.DateTimeFormatter} each time it needs one.
+ * Parsers make those decisions once, when they are created by
+ * {@link DateTimeSpecification#getParser()}, and read values directly from a
+ * {@link FieldTokenizer} into milliseconds since the epoch.
+ * </p>
+ *
+ * <p>
+ * Parsers produce exactly the same results and error messages as
+ * {@link DateTimeSpecification#getDateTime(LocalDateTime, java.util.List)}.
+ * </p>
+ *
+ * <p>
+ * Parsers cache the date of the previous line, so instances must not be shared
+ * between threads.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+public abstract class DateTimeParser {
+
+  /**
+   * The number of seconds in a day
+   */
+  protected static final int SECONDS_PER_DAY = 86400;
+
+  /**
+   * The year of the most recently calculated date
+   */
+  private int cachedYear = Integer.MIN_VALUE;
+
+  /**
+   * The month of the most recently calculated date
+   */
+  private int cachedMonth = Integer.MIN_VALUE;
+
+  /**
+   * The day of the most recently calculated date
+   */
+  private int cachedDay = Integer.MIN_VALUE;
+
+  /**
+   * The epoch day of the most recently calculated date
+   */
+  private long cachedEpochDay = 0;
+
+  /**
+   * Get the date/time of a line as milliseconds since the epoch (UTC)
+   *
+   * @param headerDate
+   *          The date from the file header
+   * @param line
+   *          The tokenized line
+   * @return The date/time
+   * @throws DateTimeSpecificationException
+   *           If the date/time in the line is missing or invalid
+   */
+  public abstract long parseMillis(LocalDateTime headerDate,
+    FieldTokenizer line) throws DateTimeSpecificationException;
+
+  /**
+   * Get the date/time of a line
+   *
+   * @param headerDate
+   *          The date from the file header
+   * @param line
+   *          The tokenized line
+   * @return The date/time
+   * @throws DateTimeSpecificationException
+   *           If the date/time in the line is missing or invalid
+   */
+  public LocalDateTime parse(LocalDateTime headerDate, FieldTokenizer line)
+    throws DateTimeSpecificationException {
+    return DateTimeUtils.longToDate(parseMillis(headerDate, line));
+  }
+
+  /**
+   * Get the epoch day for a given date. Consecutive lines in a file are usually
+   * on the same day, so the last calculated date is cached.
+   *
+   * @param year
+   *          The year
+   * @param month
+   *          The month
+   * @param day
+   *          The day of the month
+   * @return The epoch day
+   * @throws DateTimeException
+   *           If the date is invalid
+   */
+  protected long getEpochDay(int year, int month, int day)
+    throws DateTimeException {
+
+    if (day != cachedDay || month != cachedMonth || year != cachedYear) {
+      cachedEpochDay = LocalDate.of(year, month, day).toEpochDay();
+      cachedYear = year;
+      cachedMonth = month;
+      cachedDay = day;
+    }
+
+    return cachedEpochDay;
+  }
+
+  /**
+   * Convert an epoch day and time of day to milliseconds since the epoch
+   *
+   * @param epochDay
+   *          The epoch day
+   * @param secondOfDay
+   *          The second of the day
+   * @return The milliseconds value
+   */
+  protected static long toMillis(long epochDay, long secondOfDay) {
+    return epochDay * DateTimeUtils.MILLIS_PER_DAY + secondOfDay * 1000L;
+  }
+
+  /**
+   * Get the second of the day for a time, or -1 if the time values are out of
+   * range
+   *
+   * @param hour
+   *          The hour
+   * @param minute
+   *          The minute
+   * @param second
+   *          The second
+   * @return The second of the day
+   */
+  protected static int getSecondOfDay(int hour, int minute, int second) {
+    int result = -1;
+
+    if (hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0
+      && second <= 59) {
+      result = hour * 3600 + minute * 60 + second;
+    }
+
+    return result;
+  }
+}
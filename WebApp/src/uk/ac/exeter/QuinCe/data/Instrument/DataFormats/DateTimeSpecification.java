@@ -806,6 +806,36 @@ public class DateTimeSpecification {
     return result;
   }
 
+  /**
+   * Compile this specification into a {@link DateTimeParser}. Code that
+   * processes many lines should use a parser instead of
+   * {@link #getDateTime(LocalDateTime, List)}, since all decisions about how
+   * the date and time are stored are made once when the parser is created.
+   *
+   * <p>
+   * Each call returns a new parser. Parsers are not thread safe.
+   * </p>
+   *
+   * @return The parser
+   */
+  public DateTimeParser getParser() {
+    DateTimeParser result;
+
+    if (isAssigned(HOURS_FROM_START)) {
+      result = new HoursFromStartParser(
+        getAssignment(HOURS_FROM_START).getColumn());
+    } else if (isAssigned(DATE_TIME)) {
+      result = new CombinedDateTimeParser(getAssignment(DATE_TIME));
+    } else if (isAssigned(JDAY_TIME)) {
+      result = new JulianDayTimeParser(getAssignment(YEAR).getColumn(),
+        getAssignment(JDAY_TIME).getColumn());
+    } else {
+      result = new DateAndTimeParser(this);
+    }
+
+    return result;
+  }
+
   /**
    * Get the date of a line using the Hours From Start Date specification
    * 
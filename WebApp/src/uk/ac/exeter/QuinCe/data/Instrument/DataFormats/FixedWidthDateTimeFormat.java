@@ -0,0 +1,396 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.YearMonth;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+
+/**
+ * A compiled date/time format made up of fixed-width numeric fields and
+ * literal characters, such as {@code yyyy-MM-dd HH:mm:ss} or
+ * {@code dd/MM/yy}.
+ *
+ * <p>
+ * Values that match the format exactly and whose fields are within their
+ * normal ranges can be read directly from the characters of a line. Anything
+ * else is rejected by {@link #parse(FieldTokenizer, int)}, and the caller must
+ * fall back to a {@link java.time.format.DateTimeFormatter} so that error
+ * messages and lenient resolution behave as they always have.
+ * </p>
+ *
+ * @author Steve Jones
+ */
+class FixedWidthDateTimeFormat {
+
+  /**
+   * Element type for a literal character
+   */
+  private static final int LITERAL = 0;
+
+  /**
+   * Element type for a four digit year
+   */
+  private static final int YEAR = 1;
+
+  /**
+   * Element type for a two digit year
+   */
+  private static final int SHORT_YEAR = 2;
+
+  /**
+   * Element type for month
+   */
+  private static final int MONTH = 3;
+
+  /**
+   * Element type for day of month
+   */
+  private static final int DAY = 4;
+
+  /**
+   * Element type for hour of day
+   */
+  private static final int HOUR = 5;
+
+  /**
+   * Element type for minute
+   */
+  private static final int MINUTE = 6;
+
+  /**
+   * Element type for second
+   */
+  private static final int SECOND = 7;
+
+  /**
+   * Base year for two digit years, matching
+   * {@link java.time.format.DateTimeFormatter}
+   */
+  private static final int SHORT_YEAR_BASE = 2000;
+
+  /**
+   * The type of each character in the format
+   */
+  private final int[] types;
+
+  /**
+   * The literal characters in the format
+   */
+  private final char[] literals;
+
+  /**
+   * Indicates whether the year has two digits
+   */
+  private final boolean shortYear;
+
+  /**
+   * Indicates whether the format contains a date
+   */
+  private final boolean hasDate;
+
+  /**
+   * Indicates whether the format contains a time
+   */
+  private final boolean hasTime;
+
+  /**
+   * The parsed year
+   */
+  private int year;
+
+  /**
+   * The parsed month
+   */
+  private int month;
+
+  /**
+   * The parsed day
+   */
+  private int day;
+
+  /**
+   * The parsed hour
+   */
+  private int hour;
+
+  /**
+   * The parsed minute
+   */
+  private int minute;
+
+  /**
+   * The parsed second
+   */
+  private int second;
+
+  /**
+   * Private constructor - use {@link #compile(String, boolean, boolean)}
+   *
+   * @param types
+   *          The character types
+   * @param literals
+   *          The literal characters
+   * @param shortYear
+   *          Whether the year has two digits
+   * @param hasDate
+   *          Whether the format contains a date
+   * @param hasTime
+   *          Whether the format contains a time
+   */
+  private FixedWidthDateTimeFormat(int[] types, char[] literals,
+    boolean shortYear, boolean hasDate, boolean hasTime) {
+    this.types = types;
+    this.literals = literals;
+    this.shortYear = shortYear;
+    this.hasDate = hasDate;
+    this.hasTime = hasTime;
+  }
+
+  /**
+   * Compile a date/time format pattern. Returns {@code null} if the pattern
+   * contains anything other than fixed-width numeric fields and literals, or if
+   * it does not contain exactly the required date and time fields.
+   *
+   * @param pattern
+   *          The pattern
+   * @param date
+   *          Whether the pattern must contain a complete date
+   * @param time
+   *          Whether the pattern must contain a complete time
+   * @return The compiled format, or {@code null}
+   */
+  protected static FixedWidthDateTimeFormat compile(String pattern,
+    boolean date, boolean time) {
+
+    FixedWidthDateTimeFormat result = null;
+
+    if (null != pattern && pattern.length() > 0) {
+      int[] types = new int[pattern.length()];
+      char[] literals = new char[pattern.length()];
+      boolean[] seen = new boolean[SECOND + 1];
+      boolean valid = true;
+
+      int pos = 0;
+      while (valid && pos < pattern.length()) {
+        char c = pattern.charAt(pos);
+
+        if (Character.isLetter(c)) {
+          int end = pos;
+          while (end < pattern.length() && pattern.charAt(end) == c) {
+            end++;
+          }
+
+          int type = getFieldType(c, end - pos);
+          if (type == LITERAL || seen[type]) {
+            valid = false;
+          } else {
+            seen[type] = true;
+            for (int i = pos; i < end; i++) {
+              types[i] = type;
+            }
+          }
+
+          pos = end;
+        } else if (c == '\'' || c == '[' || c == ']' || c == '{' || c == '}'
+          || c == '#') {
+          valid = false;
+        } else {
+          types[pos] = LITERAL;
+          literals[pos] = c;
+          pos++;
+        }
+      }
+
+      if (valid) {
+        boolean anyDate = seen[YEAR] || seen[SHORT_YEAR] || seen[MONTH]
+          || seen[DAY];
+        boolean fullDate = (seen[YEAR] != seen[SHORT_YEAR]) && seen[MONTH]
+          && seen[DAY];
+        boolean anyTime = seen[HOUR] || seen[MINUTE] || seen[SECOND];
+        boolean fullTime = seen[HOUR] && seen[MINUTE] && seen[SECOND];
+
+        if (date == fullDate && date == anyDate && time == fullTime
+          && time == anyTime) {
+          result = new FixedWidthDateTimeFormat(types, literals,
+            seen[SHORT_YEAR], date, time);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the element type for a run of pattern letters
+   *
+   * @param letter
+   *          The pattern letter
+   * @param count
+   *          The number of consecutive letters
+   * @return The element type, or {@link #LITERAL} if the letters are not
+   *         supported
+   */
+  private static int getFieldType(char letter, int count) {
+    int result = LITERAL;
+
+    switch (letter) {
+    case 'y': {
+      if (count == 4) {
+        result = YEAR;
+      } else if (count == 2) {
+        result = SHORT_YEAR;
+      }
+      break;
+    }
+    case 'M': {
+      result = count == 2 ? MONTH : LITERAL;
+      break;
+    }
+    case 'd': {
+      result = count == 2 ? DAY : LITERAL;
+      break;
+    }
+    case 'H': {
+      result = count == 2 ? HOUR : LITERAL;
+      break;
+    }
+    case 'm': {
+      result = count == 2 ? MINUTE : LITERAL;
+      break;
+    }
+    case 's': {
+      result = count == 2 ? SECOND : LITERAL;
+      break;
+    }
+    default: {
+      result = LITERAL;
+    }
+    }
+
+    return result;
+  }
+
+  /**
+   * Attempt to parse a field. Returns {@code true} if the field matches the
+   * format and all values are within their normal ranges, in which case the
+   * parsed values can be retrieved from this object.
+   *
+   * @param line
+   *          The tokenized line
+   * @param field
+   *          The field index
+   * @return {@code true} if the value was parsed; {@code false} if it must be
+   *         parsed by a {@link java.time.format.DateTimeFormatter}
+   */
+  protected boolean parse(FieldTokenizer line, int field) {
+
+    boolean parsed = line.getFieldLength(field) == types.length;
+
+    if (parsed) {
+      CharSequence chars = line.getLine();
+      int offset = line.getFieldStart(field);
+
+      year = 0;
+      month = 0;
+      day = 0;
+      hour = 0;
+      minute = 0;
+      second = 0;
+
+      for (int i = 0; parsed && i < types.length; i++) {
+        char c = chars.charAt(offset + i);
+
+        if (types[i] == LITERAL) {
+          parsed = c == literals[i];
+        } else if (c < '0' || c > '9') {
+          parsed = false;
+        } else {
+          int digit = c - '0';
+          switch (types[i]) {
+          case YEAR:
+          case SHORT_YEAR: {
+            year = year * 10 + digit;
+            break;
+          }
+          case MONTH: {
+            month = month * 10 + digit;
+            break;
+          }
+          case DAY: {
+            day = day * 10 + digit;
+            break;
+          }
+          case HOUR: {
+            hour = hour * 10 + digit;
+            break;
+          }
+          case MINUTE: {
+            minute = minute * 10 + digit;
+            break;
+          }
+          case SECOND: {
+            second = second * 10 + digit;
+            break;
+          }
+          }
+        }
+      }
+
+      if (parsed && hasDate) {
+        if (shortYear) {
+          year += SHORT_YEAR_BASE;
+        }
+
+        // Values outside these ranges are resolved (or rejected) by the
+        // formatter
+        parsed = year > 0 && month >= 1 && month <= 12 && day >= 1
+          && day <= 28;
+
+        if (!parsed && year > 0 && month >= 1 && month <= 12 && day > 28) {
+          parsed = day <= YearMonth.of(year, month).lengthOfMonth();
+        }
+      }
+
+      if (parsed && hasTime) {
+        parsed = DateTimeParser.getSecondOfDay(hour, minute, second) > -1;
+      }
+    }
+
+    return parsed;
+  }
+
+  /**
+   * Get the parsed year
+   *
+   * @return The year
+   */
+  protected int getYear() {
+    return year;
+  }
+
+  /**
+   * Get the parsed month
+   *
+   * @return The month
+   */
+  protected int getMonth() {
+    return month;
+  }
+
+  /**
+   * Get the parsed day of the month
+   *
+   * @return The day
+   */
+  protected int getDay() {
+    return day;
+  }
+
+  /**
+   * Get the parsed time as the second of the day
+   *
+   * @return The second of the day
+   */
+  protected int getSecondOfDay() {
+    return DateTimeParser.getSecondOfDay(hour, minute, second);
+  }
+}
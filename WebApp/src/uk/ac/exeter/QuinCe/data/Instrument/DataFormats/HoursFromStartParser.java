@@ -0,0 +1,94 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Parser for files whose lines contain a number of hours since a date given in
+ * the file header
+ *
+ * @author Steve Jones
+ * @see DateTimeSpecification#HOURS_FROM_START
+ */
+class HoursFromStartParser extends DateTimeParser {
+
+  /**
+   * Offsets larger than this (about 3000 years) are applied using
+   * {@link LocalDateTime#plusSeconds(long)} so that out-of-range values are
+   * reported in the same way as before
+   */
+  private static final long MAX_FAST_SECONDS = 100000000000L;
+
+  /**
+   * The hours column
+   */
+  private final int hoursColumn;
+
+  /**
+   * The header date used in the previous call
+   */
+  private LocalDateTime lastHeaderDate = null;
+
+  /**
+   * The header date in milliseconds
+   */
+  private long headerMillis = 0;
+
+  /**
+   * Create the parser
+   *
+   * @param hoursColumn
+   *          The hours column
+   */
+  protected HoursFromStartParser(int hoursColumn) {
+    this.hoursColumn = hoursColumn;
+  }
+
+  @Override
+  public long parseMillis(LocalDateTime headerDate, FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    if (null == headerDate) {
+      throw new DateTimeSpecificationException("File header date is null");
+    }
+
+    if (line.isEmpty(hoursColumn)) {
+      throw new DateTimeSpecificationException("Hours column is empty");
+    }
+
+    double hours;
+    try {
+      hours = line.parseDouble(hoursColumn);
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException("Hours column is not numeric");
+    }
+
+    long wholeHours = (long) hours;
+    double hourFraction = hours - wholeHours;
+    int secondsFraction = (int) (hourFraction * 3600);
+    long lineSeconds = (wholeHours * 3600) + secondsFraction;
+
+    long result;
+
+    if (Math.abs(lineSeconds) > MAX_FAST_SECONDS) {
+      try {
+        result = DateTimeUtils.dateToLong(headerDate.plusSeconds(lineSeconds));
+      } catch (DateTimeException e) {
+        throw new DateTimeSpecificationException(
+          "Invalid hours value: " + e.getMessage());
+      }
+    } else {
+      if (headerDate != lastHeaderDate) {
+        headerMillis = DateTimeUtils.dateToLong(headerDate);
+        lastHeaderDate = headerDate;
+      }
+
+      result = headerMillis + lineSeconds * 1000L;
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Parser for files with a year column and a Julian day column containing the
+ * time as a fraction of the day
+ *
+ * @author Steve Jones
+ * @see DateTimeSpecification#JDAY_TIME
+ */
+class JulianDayTimeParser extends DateTimeParser {
+
+  /**
+   * Day offsets larger than this (about 10,000 years) are applied using
+   * {@link LocalDateTime} so that out-of-range values are reported in the same
+   * way as before
+   */
+  private static final int MAX_FAST_DAYS = 3660000;
+
+  /**
+   * The year column
+   */
+  private final int yearColumn;
+
+  /**
+   * The Julian day/time column
+   */
+  private final int jdayTimeColumn;
+
+  /**
+   * Create the parser
+   *
+   * @param yearColumn
+   *          The year column
+   * @param jdayTimeColumn
+   *          The Julian day/time column
+   */
+  protected JulianDayTimeParser(int yearColumn, int jdayTimeColumn) {
+    this.yearColumn = yearColumn;
+    this.jdayTimeColumn = jdayTimeColumn;
+  }
+
+  @Override
+  public long parseMillis(LocalDateTime headerDate, FieldTokenizer line)
+    throws DateTimeSpecificationException {
+
+    if (line.isEmpty(yearColumn)) {
+      throw new DateTimeSpecificationException("Year column is empty");
+    }
+
+    int year;
+    try {
+      year = line.parseInt(yearColumn);
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException("Year column is not numeric");
+    }
+
+    if (line.isEmpty(jdayTimeColumn)) {
+      throw new DateTimeSpecificationException(
+        "Julian date/time column is empty");
+    }
+
+    double jdayTime;
+    try {
+      jdayTime = line.parseDouble(jdayTimeColumn);
+    } catch (NumberFormatException e) {
+      throw new DateTimeSpecificationException(
+        "Julian date/time value is not numeric");
+    }
+
+    // The time is calculated in exactly the same way as
+    // DateTimeSpecification.getYearJDayTime
+    int days = (int) jdayTime - 1;
+    double secondsFraction = jdayTime - days;
+    int seconds = (int) (secondsFraction * SECONDS_PER_DAY);
+
+    long result;
+
+    try {
+      if (Math.abs(days) > MAX_FAST_DAYS) {
+        LocalDateTime dateTime = LocalDateTime.of(year, 1, 1, 0, 0);
+        dateTime = dateTime.plusDays(days);
+        dateTime = dateTime.plusSeconds(seconds);
+        result = DateTimeUtils.dateToLong(dateTime);
+      } else {
+        result = toMillis(getEpochDay(year, 1, 1) + days, seconds);
+      }
+    } catch (DateTimeException e) {
+      throw new DateTimeSpecificationException(
+        "Invalid date/time value: " + e.getMessage());
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,477 @@
+package uk.ac.exeter.QuinCe.data.Instrument;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits lines from a data file into fields without using regular expressions
+ * or creating intermediate {@link String}s.
+ *
+ * <p>
+ * The tokenizer records the start and end offsets of each field in reusable
+ * {@code int} arrays. Callers can then inspect fields, compare them, or parse
+ * numbers directly from the offsets. {@link String} objects are only created
+ * when they are explicitly requested.
+ * </p>
+ *
+ * <p>
+ * The fields produced are identical to those of the original
+ * {@code String.split}-based extraction: fields are trimmed, a leading
+ * backslash is removed, and for space-separated files runs of spaces are
+ * treated as a single separator.
+ * </p>
+ *
+ * <p>
+ * A tokenizer holds the state of the last line it processed, so instances must
+ * not be shared between threads. Use {@link FileDefinition#getTokenizer()} to
+ * obtain a new instance.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see FileDefinition#extractFields(String)
+ */
+public class FieldTokenizer {
+
+  /**
+   * The initial size of the offset arrays
+   */
+  private static final int INITIAL_FIELD_COUNT = 64;
+
+  /**
+   * The largest number of significant digits that can be converted to a
+   * {@code double} exactly by {@link #parseDouble(int)}
+   */
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  /**
+   * Exact powers of ten used when parsing numbers
+   */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+    1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+    1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * The field separator
+   */
+  private final char separator;
+
+  /**
+   * Indicates whether runs of separators count as a single separator
+   */
+  private final boolean collapseSeparators;
+
+  /**
+   * The line that was most recently tokenized
+   */
+  private CharSequence line = null;
+
+  /**
+   * The start offset of each field
+   */
+  private int[] starts = new int[INITIAL_FIELD_COUNT];
+
+  /**
+   * The end offset (exclusive) of each field
+   */
+  private int[] ends = new int[INITIAL_FIELD_COUNT];
+
+  /**
+   * The number of fields in the current line
+   */
+  private int fieldCount = 0;
+
+  /**
+   * Create a tokenizer for the specified separator
+   *
+   * @param separator
+   *          The separator
+   * @throws IllegalArgumentException
+   *           If the separator is not a single character
+   */
+  public FieldTokenizer(String separator) {
+    if (null == separator || separator.length() != 1) {
+      throw new IllegalArgumentException(
+        "Separator must be a single character");
+    }
+
+    this.separator = separator.charAt(0);
+    this.collapseSeparators = this.separator == ' ';
+  }
+
+  /**
+   * Split a line into fields. Any previously tokenized line is discarded.
+   *
+   * @param line
+   *          The line
+   * @return The number of fields in the line
+   */
+  public int tokenize(CharSequence line) {
+    this.line = line;
+    fieldCount = 0;
+
+    int lineStart = 0;
+    int lineEnd = line.length();
+
+    if (collapseSeparators) {
+      lineStart = skipWhitespace(lineStart, lineEnd);
+      lineEnd = trimEnd(lineStart, lineEnd);
+    }
+
+    // String.split is called with a limit of the line length, so the last
+    // field takes the remainder of the line once that limit is reached
+    int limit = line.length() == 0 ? Integer.MAX_VALUE : line.length();
+
+    int fieldStart = lineStart;
+    int pos = lineStart;
+    while (pos < lineEnd && fieldCount < limit - 1) {
+      if (line.charAt(pos) == separator) {
+        addField(fieldStart, pos);
+        pos++;
+
+        if (collapseSeparators) {
+          while (pos < lineEnd && line.charAt(pos) == separator) {
+            pos++;
+          }
+        }
+
+        fieldStart = pos;
+      } else {
+        pos++;
+      }
+    }
+
+    addField(fieldStart, lineEnd);
+    return fieldCount;
+  }
+
+  /**
+   * Record a field, trimming whitespace and removing any leading backslash
+   *
+   * @param start
+   *          The start of the field
+   * @param end
+   *          The end of the field (exclusive)
+   */
+  private void addField(int start, int end) {
+    if (fieldCount == starts.length) {
+      starts = Arrays.copyOf(starts, fieldCount * 2);
+      ends = Arrays.copyOf(ends, fieldCount * 2);
+    }
+
+    int trimmedStart = skipWhitespace(start, end);
+    int trimmedEnd = trimEnd(trimmedStart, end);
+
+    if (trimmedStart < trimmedEnd && line.charAt(trimmedStart) == '\\') {
+      trimmedStart++;
+    }
+
+    starts[fieldCount] = trimmedStart;
+    ends[fieldCount] = trimmedEnd;
+    fieldCount++;
+  }
+
+  /**
+   * Find the first non-whitespace character in a region of the line, using the
+   * same definition of whitespace as {@link String#trim()}
+   *
+   * @param start
+   *          The start of the region
+   * @param end
+   *          The end of the region
+   * @return The position of the first non-whitespace character
+   */
+  private int skipWhitespace(int start, int end) {
+    int pos = start;
+    while (pos < end && line.charAt(pos) <= ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Find the end of a region of the line with trailing whitespace removed
+   *
+   * @param start
+   *          The start of the region
+   * @param end
+   *          The end of the region
+   * @return The end of the trimmed region
+   */
+  private int trimEnd(int start, int end) {
+    int pos = end;
+    while (pos > start && line.charAt(pos - 1) <= ' ') {
+      pos--;
+    }
+    return pos;
+  }
+
+  /**
+   * Get the line that was most recently tokenized
+   *
+   * @return The line
+   */
+  public CharSequence getLine() {
+    return line;
+  }
+
+  /**
+   * Get the number of fields in the current line
+   *
+   * @return The field count
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Get the start offset of a field within the line
+   *
+   * @param field
+   *          The field index
+   * @return The start offset
+   */
+  public int getFieldStart(int field) {
+    checkField(field);
+    return starts[field];
+  }
+
+  /**
+   * Get the end offset (exclusive) of a field within the line
+   *
+   * @param field
+   *          The field index
+   * @return The end offset
+   */
+  public int getFieldEnd(int field) {
+    checkField(field);
+    return ends[field];
+  }
+
+  /**
+   * Get the length of a field
+   *
+   * @param field
+   *          The field index
+   * @return The field length
+   */
+  public int getFieldLength(int field) {
+    checkField(field);
+    return ends[field] - starts[field];
+  }
+
+  /**
+   * Determine whether or not a field is empty
+   *
+   * @param field
+   *          The field index
+   * @return {@code true} if the field is empty; {@code false} otherwise
+   */
+  public boolean isEmpty(int field) {
+    return getFieldLength(field) == 0;
+  }
+
+  /**
+   * Get a read-only view of a field. The view is only valid until the next
+   * call to {@link #tokenize(CharSequence)}.
+   *
+   * @param field
+   *          The field index
+   * @return The field
+   */
+  public CharSequence getFieldSequence(int field) {
+    checkField(field);
+    return CharBuffer.wrap(line, starts[field], ends[field]);
+  }
+
+  /**
+   * Get a field as a {@link String}
+   *
+   * @param field
+   *          The field index
+   * @return The field
+   */
+  public String getField(int field) {
+    checkField(field);
+    return line.subSequence(starts[field], ends[field]).toString();
+  }
+
+  /**
+   * Get all the fields in the current line as a list of {@link String}s
+   *
+   * @return The fields
+   */
+  public List<String> getFields() {
+    List<String> fields = new ArrayList<String>(fieldCount);
+    for (int i = 0; i < fieldCount; i++) {
+      fields.add(line.subSequence(starts[i], ends[i]).toString());
+    }
+    return fields;
+  }
+
+  /**
+   * Determine whether or not a field is equal to the specified string
+   *
+   * @param field
+   *          The field index
+   * @param value
+   *          The string to compare
+   * @return {@code true} if the field matches the string; {@code false}
+   *         otherwise
+   */
+  public boolean fieldEquals(int field, String value) {
+    checkField(field);
+
+    boolean equal = false;
+
+    if (null != value && value.length() == ends[field] - starts[field]) {
+      equal = true;
+      int offset = starts[field];
+      for (int i = 0; i < value.length(); i++) {
+        if (line.charAt(offset + i) != value.charAt(i)) {
+          equal = false;
+          break;
+        }
+      }
+    }
+
+    return equal;
+  }
+
+  /**
+   * Parse a field as a {@code double}. Commas are treated as thousands
+   * separators and ignored.
+   *
+   * <p>
+   * Plain decimal values with up to 15 significant digits are converted
+   * directly from the line. Anything else (exponents, very long values,
+   * {@code NaN} etc.) is passed to {@link Double#parseDouble(String)}.
+   * </p>
+   *
+   * @param field
+   *          The field index
+   * @return The parsed value
+   * @throws NumberFormatException
+   *           If the field is not a valid number
+   */
+  public double parseDouble(int field) {
+    checkField(field);
+
+    int pos = starts[field];
+    int end = ends[field];
+
+    boolean negative = false;
+    if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+      negative = line.charAt(pos) == '-';
+      pos++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    boolean fastPath = pos < end;
+
+    while (fastPath && pos < end) {
+      char c = line.charAt(pos);
+      if (c >= '0' && c <= '9') {
+        seenDigit = true;
+        if (mantissa > 0 || c != '0') {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (seenPoint) {
+          fractionDigits++;
+        }
+      } else if (c == '.' && !seenPoint) {
+        seenPoint = true;
+      } else if (c != ',') {
+        fastPath = false;
+      }
+
+      if (digits > MAX_EXACT_DIGITS
+        || fractionDigits >= POWERS_OF_TEN.length) {
+        fastPath = false;
+      }
+
+      pos++;
+    }
+
+    double result;
+
+    if (fastPath && seenDigit) {
+      // Both values are exact, so the division is correctly rounded
+      result = mantissa / POWERS_OF_TEN[fractionDigits];
+      if (negative) {
+        result = -result;
+      }
+    } else {
+      result = Double.parseDouble(getField(field).replace(",", ""));
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse a field as an {@code int}.
+   *
+   * @param field
+   *          The field index
+   * @return The parsed value
+   * @throws NumberFormatException
+   *           If the field is not a valid integer
+   */
+  public int parseInt(int field) {
+    checkField(field);
+
+    int pos = starts[field];
+    int end = ends[field];
+
+    boolean negative = false;
+    if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+      negative = line.charAt(pos) == '-';
+      pos++;
+    }
+
+    // Nine digits can never overflow an int
+    boolean fastPath = pos < end && end - pos <= 9;
+    int result = 0;
+
+    while (fastPath && pos < end) {
+      char c = line.charAt(pos);
+      if (c >= '0' && c <= '9') {
+        result = result * 10 + (c - '0');
+      } else {
+        fastPath = false;
+      }
+      pos++;
+    }
+
+    if (fastPath) {
+      if (negative) {
+        result = -result;
+      }
+    } else {
+      result = Integer.parseInt(getField(field));
+    }
+
+    return result;
+  }
+
+  /**
+   * Make sure that a field index is valid for the current line
+   *
+   * @param field
+   *          The field index
+   * @throws IndexOutOfBoundsException
+   *           If the field does not exist
+   */
+  private void checkField(int field) {
+    if (field < 0 || field >= fieldCount) {
+      throw new IndexOutOfBoundsException("Field " + field
+        + " does not exist (line has " + fieldCount + " fields)");
+    }
+  }
+}
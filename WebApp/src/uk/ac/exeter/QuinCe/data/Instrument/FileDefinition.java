@@ -14,7 +14,6 @@ import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeAssignments;
 import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
 import uk.ac.exeter.QuinCe.utils.HighlightedString;
 import uk.ac.exeter.QuinCe.utils.HighlightedStringException;
-import uk.ac.exeter.QuinCe.utils.StringUtils;
 
 /**
  * Holds a description of a sample data file uploaded during the creation of a
@@ -309,6 +308,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setHeaderLines(int headerLines) {
     this.headerLines = headerLines;
     dateTimeSpecification.setFileHasHeader(headerLines > 0);
+    layoutChanged();
   }
 
   /**
@@ -329,6 +329,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setHeaderEndString(String headerEndString) {
     this.headerEndString = headerEndString;
+    layoutChanged();
   }
 
   /**
@@ -348,6 +349,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setColumnHeaderRows(int columnHeaderRows) {
     this.columnHeaderRows = columnHeaderRows;
+    layoutChanged();
   }
 
   /**
@@ -394,6 +396,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidSeparatorException(separator);
     }
     this.separator = separator;
+    layoutChanged();
   }
 
   /**
@@ -410,6 +413,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidSeparatorException(separatorName);
     } else {
       this.separator = SEPARATOR_LOOKUP.get(separatorName);
+      layoutChanged();
     }
   }
 
@@ -458,6 +462,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidHeaderTypeException();
     }
     this.headerType = headerType;
+    layoutChanged();
   }
 
   /**
@@ -469,6 +474,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setLineCountHeaderType(int headerLines) {
     this.headerType = HEADER_TYPE_LINE_COUNT;
     this.headerLines = headerLines;
+    layoutChanged();
   }
 
   /**
@@ -480,6 +486,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setStringHeaderType(String headerString) {
     this.headerType = HEADER_TYPE_STRING;
     this.headerEndString = headerString;
+    layoutChanged();
   }
 
   /**
@@ -490,6 +497,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setColumnCount(int columnCount) {
     this.columnCount = columnCount;
+    layoutChanged();
   }
 
   /**
@@ -509,14 +517,19 @@ public class FileDefinition implements Comparable<FileDefinition> {
    * @return The column values
    */
   public List<String> extractFields(String dataLine) {
-    List<String> values = new ArrayList<String>();
-
-    if (separator.equals(" ")) {
-      dataLine = dataLine.trim().replaceAll("  *", " ");
-    }
+    FieldTokenizer tokenizer = getTokenizer();
+    tokenizer.tokenize(dataLine);
+    return tokenizer.getFields();
+  }
 
-    values = Arrays.asList(dataLine.split(separator, dataLine.length()));
-    return StringUtils.trimList(values);
+  /**
+   * Get a new {@link FieldTokenizer} for lines in files of this type. Callers
+   * processing many lines should create one tokenizer and reuse it.
+   *
+   * @return The tokenizer
+   */
+  public FieldTokenizer getTokenizer() {
+    return new FieldTokenizer(separator);
   }
 
   /**
@@ -757,6 +770,56 @@ public class FileDefinition implements Comparable<FileDefinition> {
     return matches;
   }
 
+  /**
+   * Get the key that identifies this file definition's layout. Two definitions
+   * have the same key if {@link #matchesLayout(FileDefinition)} would report
+   * that they match.
+   *
+   * @return The layout key
+   * @see InstrumentFileSet#getMatchingFileDefinition(FileDefinition)
+   */
+  protected List<Object> getLayoutKey() {
+    return getLayoutKey(headerType);
+  }
+
+  /**
+   * Get the key for this file definition's layout as it would be compared by
+   * a definition with the specified header type. Only the header property
+   * used by that header type is included in the key.
+   *
+   * @param headerType
+   *          The header type
+   * @return The layout key
+   * @see #matchesLayout(FileDefinition)
+   */
+  protected List<Object> getLayoutKey(int headerType) {
+    Object headerValue = null;
+
+    switch (headerType) {
+    case HEADER_TYPE_LINE_COUNT: {
+      headerValue = headerLines;
+      break;
+    }
+    case HEADER_TYPE_STRING: {
+      headerValue = headerEndString;
+      break;
+    }
+    }
+
+    return Arrays.asList(headerType, headerValue, columnHeaderRows, separator,
+      columnCount);
+  }
+
+  /**
+   * Notify the parent file set that the layout of this definition has
+   * changed, so it can no longer be found using the set's layout index
+   */
+  private void layoutChanged() {
+    if (null != fileSet) {
+      fileSet.layoutChanged(this);
+    }
+  }
+
   /**
    * Get the header line from a file that contains the given prefix and suffix.
    * A line will match if it contains the prefix, followed by a number of
@@ -917,6 +980,33 @@ public class FileDefinition implements Comparable<FileDefinition> {
     return result;
   }
 
+  /**
+   * Get the run type from a tokenized data line
+   *
+   * @param line
+   *          The tokenized line
+   * @param followAlias
+   *          Indicates whether or not aliases should be followed
+   * @return The run type
+   * @throws FileDefinitionException
+   *           If this file does not contain run types, the run type is not
+   *           present, or the run type is not recognised
+   */
+  public RunTypeAssignment getRunType(FieldTokenizer line, boolean followAlias)
+    throws FileDefinitionException {
+    RunTypeAssignment result = null;
+
+    if (!hasRunTypes()) {
+      throw new FileDefinitionException("File does not contain run types");
+    } else if (runTypes.getColumn() >= line.getFieldCount()) {
+      throw new FileDefinitionException("Run type column is missing");
+    } else if (!line.isEmpty(runTypes.getColumn())) {
+      result = runTypes.get(line.getField(runTypes.getColumn()), followAlias);
+    }
+
+    return result;
+  }
+
   /**
    * Get the Run Type Category of the Run Type on the given line
    *
@@ -930,4 +1020,18 @@ public class FileDefinition implements Comparable<FileDefinition> {
     throws FileDefinitionException {
     return getRunType(line, true).getCategory();
   }
+
+  /**
+   * Get the Run Type Category of the Run Type on the given tokenized line
+   *
+   * @param line
+   *          The tokenized line
+   * @return The Run Type Category
+   * @throws FileDefinitionException
+   *           If the Run Type is not recognised
+   */
+  public RunTypeCategory getRunTypeCategory(FieldTokenizer line)
+    throws FileDefinitionException {
+    return getRunType(line, true).getCategory();
+  }
 }
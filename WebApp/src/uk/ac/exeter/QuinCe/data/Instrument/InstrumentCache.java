@@ -0,0 +1,196 @@
+package uk.ac.exeter.QuinCe.data.Instrument;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide cache of {@link Instrument}s loaded from the database.
+ *
+ * <p>
+ * Each instrument is stored with the {@code version} of its database record.
+ * {@link InstrumentDB} increments the version whenever it changes an
+ * instrument's details, so an entry is only used while its version matches
+ * the database. This also works when several application instances share the
+ * database. When the cache is full, the least recently used instrument is
+ * removed.
+ * </p>
+ *
+ * <p>
+ * The same {@link Instrument} object is returned to every caller, so it must
+ * not be modified.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see InstrumentDB#getInstrument(java.sql.Connection, long,
+ *      uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorsConfiguration,
+ *      uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategoryConfiguration)
+ */
+public class InstrumentCache {
+
+  /**
+   * The maximum number of instruments held in the cache
+   */
+  protected static final int MAX_SIZE = 50;
+
+  /**
+   * The cache instance
+   */
+  private static final InstrumentCache INSTANCE = new InstrumentCache(
+    MAX_SIZE);
+
+  /**
+   * The cached instruments, keyed by database ID, in access order
+   */
+  private final LinkedHashMap<Long, CacheEntry> entries;
+
+  /**
+   * The number of requests that were answered from the cache
+   */
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * The number of requests that had to be loaded from the database
+   */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Create a cache with a size limit
+   *
+   * @param maxSize
+   *          The maximum number of instruments
+   */
+  private InstrumentCache(int maxSize) {
+    entries = new LinkedHashMap<Long, CacheEntry>(maxSize * 2, 0.75f, true) {
+
+      private static final long serialVersionUID = 2617370523165624089L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the cache instance
+   *
+   * @return The cache
+   */
+  public static InstrumentCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get an instrument from the cache. The request is counted as a hit or a
+   * miss.
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param version
+   *          The current version of the instrument's database record
+   * @return The instrument, or {@code null} if it is not cached or the cached
+   *         copy is out of date
+   */
+  protected synchronized Instrument get(long instrumentId, int version) {
+    Instrument result = null;
+
+    CacheEntry entry = entries.get(instrumentId);
+    if (null != entry && entry.version == version) {
+      result = entry.instrument;
+    }
+
+    if (null == result) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+
+    return result;
+  }
+
+  /**
+   * Add an instrument to the cache, replacing any older copy
+   *
+   * @param version
+   *          The version of the instrument's database record that it was
+   *          loaded from
+   * @param instrument
+   *          The instrument
+   */
+  protected synchronized void put(int version, Instrument instrument) {
+    CacheEntry existing = entries.get(instrument.getDatabaseId());
+
+    // Another thread may have cached a newer version while this one was loaded
+    if (null == existing || existing.version <= version) {
+      entries.put(instrument.getDatabaseId(),
+        new CacheEntry(version, instrument));
+    }
+  }
+
+  /**
+   * Remove all instruments from the cache. The hit and miss counts are not
+   * reset.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Get the number of instruments in the cache
+   *
+   * @return The number of instruments
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the number of requests that were answered from the cache
+   *
+   * @return The hit count
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of requests that had to be loaded from the database
+   *
+   * @return The miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * A cached instrument and the version it was loaded from
+   *
+   * @author Steve Jones
+   */
+  private static class CacheEntry {
+
+    /**
+     * The version of the instrument's database record
+     */
+    private final int version;
+
+    /**
+     * The instrument
+     */
+    private final Instrument instrument;
+
+    /**
+     * Create a cache entry
+     *
+     * @param version
+     *          The record version
+     * @param instrument
+     *          The instrument
+     */
+    private CacheEntry(int version, Instrument instrument) {
+      this.version = version;
+      this.instrument = instrument;
+    }
+  }
+}
@@ -151,6 +151,24 @@ public class InstrumentDB {
     + "platform_code, nrt " // 7
     + "FROM instrument WHERE id = ?";
 
+  /**
+   * Query to get the version of an instrument's record
+   *
+   * @see InstrumentCache
+   */
+  private static final String GET_INSTRUMENT_VERSION_QUERY = "SELECT "
+    + "version FROM instrument WHERE id = ?";
+
+  /**
+   * Statement to increment the version of the instrument that a file
+   * definition belongs to, so cached copies of the instrument are reloaded
+   *
+   * @see InstrumentCache
+   */
+  private static final String INCREMENT_FILE_INSTRUMENT_VERSION_STATEMENT = "UPDATE "
+    + "instrument SET version = version + 1 WHERE id = "
+    + "(SELECT instrument_id FROM file_definition WHERE id = ?)";
+
   /**
    * Query to get the variables measured by an instrument
    */
@@ -859,7 +877,15 @@ public class InstrumentDB {
   }
 
   /**
-   * Returns a complete instrument object for the specified instrument ID
+   * Returns a complete instrument object for the specified instrument ID.
+   *
+   * <p>
+   * Instruments are held in the {@link InstrumentCache}, and are only loaded
+   * in full if the instrument's record has changed since it was cached. The
+   * returned object may be shared with other callers, so it must not be
+   * modified. The configurations are the same for the whole application, so
+   * they are not part of the cache key.
+   * </p>
    *
    * @param conn
    *          A database connection
@@ -888,6 +914,63 @@ public class InstrumentDB {
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkPositive(instrumentId, "instrumentId");
 
+    int version;
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_INSTRUMENT_VERSION_QUERY)) {
+      stmt.setLong(1, instrumentId);
+
+      try (ResultSet record = stmt.executeQuery()) {
+        if (!record.next()) {
+          throw new RecordNotFoundException("Instrument record not found",
+            "instrument", instrumentId);
+        }
+
+        version = record.getInt(1);
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error retrieving instrument", e);
+    }
+
+    InstrumentCache cache = InstrumentCache.getInstance();
+    Instrument instrument = cache.get(instrumentId, version);
+
+    if (null == instrument) {
+      instrument = loadInstrument(conn, instrumentId, sensorConfiguration,
+        runTypeConfiguration);
+      cache.put(version, instrument);
+    }
+
+    return instrument;
+  }
+
+  /**
+   * Load a complete instrument object from the database
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument ID
+   * @param sensorConfiguration
+   *          The sensors configuration
+   * @param runTypeConfiguration
+   *          The run type category configuration
+   * @return The complete Instrument object
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If an error occurs while retrieving the instrument details
+   * @throws RecordNotFoundException
+   *           If the specified instrument cannot be found
+   * @throws InstrumentException
+   *           If any instrument values are invalid
+   */
+  private static Instrument loadInstrument(Connection conn, long instrumentId,
+    SensorsConfiguration sensorConfiguration,
+    RunTypeCategoryConfiguration runTypeConfiguration)
+    throws MissingParamException, DatabaseException, RecordNotFoundException,
+    InstrumentException {
+
     Instrument instrument = null;
 
     List<PreparedStatement> stmts = new ArrayList<PreparedStatement>();
@@ -1543,7 +1626,8 @@ public class InstrumentDB {
   }
 
   /**
-   * Store a set of run type assignments for a file
+   * Store a set of run type assignments for a file. The version of the
+   * file's instrument is incremented so that cached copies are reloaded.
    *
    * @param dataSource
    *          A data source
@@ -1576,6 +1660,12 @@ public class InstrumentDB {
         stmts.add(storeFileRunType(conn, fileId, assignment));
       }
 
+      PreparedStatement versionStmt = conn
+        .prepareStatement(INCREMENT_FILE_INSTRUMENT_VERSION_STATEMENT);
+      stmts.add(versionStmt);
+      versionStmt.setLong(1, fileId);
+      versionStmt.execute();
+
       conn.commit();
     } catch (SQLException e) {
       DatabaseUtils.rollBack(conn);
@@ -1,10 +1,22 @@
 package uk.ac.exeter.QuinCe.data.Instrument;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Methods to handle and process a set of file definitions for an instrument
+ *
+ * <p>
+ * The set keeps an index of its file definitions by layout, so that the
+ * definition matching an uploaded file can be found without comparing the
+ * file against every definition. The index is built when it is first needed,
+ * and discarded whenever the set or the layout of one of its definitions is
+ * changed.
+ * </p>
  * 
  * @author Steve Jones
  *
@@ -16,6 +28,20 @@ public class InstrumentFileSet extends ArrayList<FileDefinition> {
    */
   private static final long serialVersionUID = -998081927701592751L;
 
+  /**
+   * The file definitions, keyed by their layout
+   *
+   * @see FileDefinition#getLayoutKey()
+   */
+  private transient Map<List<Object>, List<FileDefinition>> layoutIndex = null;
+
+  /**
+   * The position of each indexed file definition in the set. Definitions are
+   * compared by identity, so a definition that is not in the set but has the
+   * same description as one that is will not be mistaken for it.
+   */
+  private transient IdentityHashMap<FileDefinition, Integer> indexedPositions = null;
+
   /**
    * Simple constructor to create an empty set
    */
@@ -36,9 +62,43 @@ public class InstrumentFileSet extends ArrayList<FileDefinition> {
       result = true;
     }
 
+    clearLayoutIndex();
+    return result;
+  }
+
+  @Override
+  public void add(int index, FileDefinition file) {
+    super.add(index, file);
+    clearLayoutIndex();
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends FileDefinition> files) {
+    boolean result = super.addAll(files);
+    clearLayoutIndex();
     return result;
   }
 
+  @Override
+  public FileDefinition set(int index, FileDefinition file) {
+    FileDefinition result = super.set(index, file);
+    clearLayoutIndex();
+    return result;
+  }
+
+  @Override
+  public FileDefinition remove(int index) {
+    FileDefinition result = super.remove(index);
+    clearLayoutIndex();
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    clearLayoutIndex();
+  }
+
   /**
    * Determine whether or not the file set contains a file definition with the
    * specified description
@@ -123,28 +183,104 @@ public class InstrumentFileSet extends ArrayList<FileDefinition> {
       remove(fileToRemove);
     }
 
+    clearLayoutIndex();
     return removed;
   }
 
   /**
    * Find file definitions that match the layout of the supplied file
-   * definition.
+   * definition. The first matching definition in the set is returned.
+   *
+   * <p>
+   * The supplied definition's layout key is calculated for each header type
+   * and looked up in the layout index, so the time taken does not depend on
+   * the number of definitions in the set.
+   * </p>
    *
    * @param fileToMatch
    *          The file definition to be matched
    * @return The matching file definitions
+   * @see FileDefinition#matchesLayout(FileDefinition)
    */
-  public List<FileDefinition> getMatchingFileDefinition(
+  public synchronized List<FileDefinition> getMatchingFileDefinition(
     FileDefinition fileToMatch) {
     List<FileDefinition> result = new ArrayList<FileDefinition>();
 
-    for (FileDefinition file : this) {
-      if (file.matchesLayout(fileToMatch)) {
-        result.add(file);
-        break;
+    buildLayoutIndex();
+
+    FileDefinition firstMatch = null;
+    int firstMatchPosition = Integer.MAX_VALUE;
+
+    int[] headerTypes = { FileDefinition.HEADER_TYPE_LINE_COUNT,
+      FileDefinition.HEADER_TYPE_STRING };
+
+    for (int headerType : headerTypes) {
+      List<FileDefinition> candidates = layoutIndex
+        .get(fileToMatch.getLayoutKey(headerType));
+
+      if (null != candidates) {
+        // The candidates are in set order, so the first is the earliest
+        FileDefinition candidate = candidates.get(0);
+        int position = indexedPositions.get(candidate);
+        if (position < firstMatchPosition) {
+          firstMatch = candidate;
+          firstMatchPosition = position;
+        }
       }
     }
 
+    if (null != firstMatch) {
+      result.add(firstMatch);
+    }
+
     return result;
   }
+
+  /**
+   * Notification from a file definition that its layout has changed. If the
+   * definition is in the layout index, the index is discarded.
+   *
+   * @param file
+   *          The file definition
+   */
+  protected synchronized void layoutChanged(FileDefinition file) {
+    if (null != indexedPositions && indexedPositions.containsKey(file)) {
+      clearLayoutIndex();
+    }
+  }
+
+  /**
+   * Build the layout index if it does not exist
+   */
+  private void buildLayoutIndex() {
+    if (null == layoutIndex) {
+      Map<List<Object>, List<FileDefinition>> index = new HashMap<List<Object>, List<FileDefinition>>();
+      IdentityHashMap<FileDefinition, Integer> positions = new IdentityHashMap<FileDefinition, Integer>();
+
+      for (int i = 0; i < size(); i++) {
+        FileDefinition file = get(i);
+        List<Object> key = file.getLayoutKey();
+
+        List<FileDefinition> files = index.get(key);
+        if (null == files) {
+          files = new ArrayList<FileDefinition>(1);
+          index.put(key, files);
+        }
+
+        files.add(file);
+        positions.put(file, i);
+      }
+
+      indexedPositions = positions;
+      layoutIndex = index;
+    }
+  }
+
+  /**
+   * Discard the layout index. It will be rebuilt when it is next needed.
+   */
+  private synchronized void clearLayoutIndex() {
+    layoutIndex = null;
+    indexedPositions = null;
+  }
 }
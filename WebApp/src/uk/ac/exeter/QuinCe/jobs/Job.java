@@ -2,6 +2,7 @@ package uk.ac.exeter.QuinCe.jobs;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.Properties;
 
@@ -9,6 +10,7 @@ import javax.sql.DataSource;
 
 import uk.ac.exeter.QuinCe.utils.DatabaseException;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.utils.MissingParam;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
@@ -292,6 +294,26 @@ public abstract class Job {
     }
   }
 
+  /**
+   * Get a job parameter that holds a time, stored as milliseconds since the
+   * epoch.
+   *
+   * @param key
+   *          The parameter name
+   * @return The time, or {@code null} if the parameter is not set
+   * @see DateTimeUtils#dateToLong(LocalDateTime)
+   */
+  protected LocalDateTime getTimeParameter(String key) {
+    LocalDateTime result = null;
+
+    String value = parameters.get(key);
+    if (null != value) {
+      result = DateTimeUtils.longToDate(Long.parseLong(value));
+    }
+
+    return result;
+  }
+
   /**
    * Get the job's ID
    * 
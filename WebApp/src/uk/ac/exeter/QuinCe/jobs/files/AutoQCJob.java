@@ -1,6 +1,7 @@
 package uk.ac.exeter.QuinCe.jobs.files;
 
 import java.sql.Connection;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,6 +16,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetStatistics;
 import uk.ac.exeter.QuinCe.data.Dataset.SearchableSensorValuesList;
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
@@ -69,6 +71,23 @@ import uk.ac.exeter.QuinCe.web.system.ResourceManager;
  * checked.
  * </p>
  *
+ * <p>
+ * If the {@link #START_PARAM} and {@link #END_PARAM} parameters are set, only
+ * the part of the data set between those times has been extracted again. The
+ * QC routines are still run on all the values so they see the data around the
+ * re-extracted span, but only the values, measurements and data reduction
+ * within the span are replaced. Otherwise the measurements are rebuilt in a new
+ * generation, and the existing ones are kept until the rebuild is complete.
+ * </p>
+ *
+ * <p>
+ * If the {@link #SENSOR_VALUES_GENERATION_PARAM} is set, the sensor values in
+ * that generation are checked instead of the data set's current ones. This is
+ * a new generation created by the {@link ExtractDataSetJob}, which becomes
+ * current when the {@link DataReductionJob} completes. If this job fails, the
+ * new generation is queued for purging.
+ * </p>
+ *
  * @author Steve Jones
  * @see Flag
  * @see Message
@@ -80,6 +99,21 @@ public class AutoQCJob extends Job {
    */
   public static final String ID_PARAM = "id";
 
+  /**
+   * The parameter name for the start of the span to be processed
+   */
+  public static final String START_PARAM = "start";
+
+  /**
+   * The parameter name for the end of the span to be processed
+   */
+  public static final String END_PARAM = "end";
+
+  /**
+   * The parameter name for a new generation of sensor values to be checked
+   */
+  public static final String SENSOR_VALUES_GENERATION_PARAM = "sensorValuesGeneration";
+
   /**
    * Name of the job, used for reporting
    */
@@ -136,13 +170,20 @@ public class AutoQCJob extends Job {
   @Override
   protected void execute(JobThread thread) throws JobFailedException {
 
-    // After automatic QC, all measurements must be recalculated.
-    // Therefore before we start, destroy any existing measurements
-    // in the data set
+    // After automatic QC, all measurements must be recalculated. If only a
+    // span is being processed, the measurements in the span are removed
+    // before we start. Otherwise they are rebuilt in a new generation.
     clearMeasurements();
 
     Connection conn = null;
 
+    // The new sensor values generation being checked, if there is one
+    Integer newSensorValuesGeneration = null;
+    if (null != parameters.get(SENSOR_VALUES_GENERATION_PARAM)) {
+      newSensorValuesGeneration = Integer
+        .parseInt(parameters.get(SENSOR_VALUES_GENERATION_PARAM));
+    }
+
     try {
       conn = dataSource.getConnection();
       conn.setAutoCommit(false);
@@ -151,6 +192,10 @@ public class AutoQCJob extends Job {
       dataSet = DataSetDB.getDataSet(conn,
         Long.parseLong(parameters.get(ID_PARAM)));
 
+      // Results stored as JSON are converted to the binary form, so that
+      // values which are not rewritten below are converted too
+      DataSetDataDB.convertLegacyAutoQC(conn, dataSet.getId());
+
       instrument = InstrumentDB.getInstrument(conn, dataSet.getInstrumentId(),
         ResourceManager.getInstance().getSensorsConfiguration(),
         ResourceManager.getInstance().getRunTypeCategoryConfiguration());
@@ -163,8 +208,12 @@ public class AutoQCJob extends Job {
         .getQCRoutinesConfiguration();
 
       // Get the sensor values grouped by data file column
+      int sensorValuesGeneration = null == newSensorValuesGeneration
+        ? dataSet.getSensorValuesGeneration()
+        : newSensorValuesGeneration;
+
       Map<Long, SearchableSensorValuesList> sensorValues = DataSetDataDB
-        .getSensorValuesByColumn(conn, dataSet.getId());
+        .getSensorValuesByColumn(conn, dataSet.getId(), sensorValuesGeneration);
 
       // First run the position QC. This will potentially set QC flags on all
       // sensor values, and those values will then be skipped by the 'normal'
@@ -251,11 +300,42 @@ public class AutoQCJob extends Job {
         }
       }
 
+      // Summarise the QCed values. All the values are held here, so the
+      // statistics cover the whole data set even if only a span is stored.
+      // Statistics for a new generation are held until the data set switches
+      // to it.
+      DataSetStatistics statistics = DataSetStatistics
+        .calculate(sensorValues.values());
+      dataSet.setStatistics(statistics);
+
+      if (null == newSensorValuesGeneration) {
+        DataSetDB.storeStatistics(conn, dataSet.getId(), statistics);
+      } else {
+        DataSetDB.storePendingStatistics(conn, dataSet.getId(),
+          newSensorValuesGeneration, statistics);
+      }
+
       // Send all sensor values to be stored. The storeSensorValues method only
-      // writes those values whose 'dirty' flag is set.
+      // writes those values whose 'dirty' flag is set. If only a span of the
+      // data set is being processed, values outside it are left alone.
+      LocalDateTime start = getTimeParameter(START_PARAM);
+      LocalDateTime end = getTimeParameter(END_PARAM);
+
       List<SensorValue> allValues = new ArrayList<SensorValue>();
-      sensorValues.values().forEach(allValues::addAll);
-      DataSetDataDB.storeSensorValues(conn, allValues);
+      for (SearchableSensorValuesList columnValues : sensorValues.values()) {
+        if (null == start) {
+          allValues.addAll(columnValues);
+        } else {
+          for (SensorValue value : columnValues) {
+            if (!value.getTime().isBefore(start)
+              && !value.getTime().isAfter(end)) {
+              allValues.add(value);
+            }
+          }
+        }
+      }
+
+      DataSetDataDB.storeSensorValues(conn, allValues, sensorValuesGeneration);
 
       // Trigger the Build Measurements job
       dataSet.setStatus(DataSet.STATUS_DATA_REDUCTION);
@@ -263,6 +343,20 @@ public class AutoQCJob extends Job {
       Map<String, String> jobParams = new HashMap<String, String>();
       jobParams.put(LocateMeasurementsJob.ID_PARAM,
         String.valueOf(Long.parseLong(parameters.get(ID_PARAM))));
+      if (null != start) {
+        jobParams.put(LocateMeasurementsJob.START_PARAM,
+          parameters.get(START_PARAM));
+        jobParams.put(LocateMeasurementsJob.END_PARAM,
+          parameters.get(END_PARAM));
+      } else {
+        jobParams.put(LocateMeasurementsJob.GENERATION_PARAM,
+          String.valueOf(DataSetDataDB.getNewGeneration(conn, dataSet.getId(),
+            DataSetDataDB.PURGE_MEASUREMENTS)));
+      }
+      if (null != newSensorValuesGeneration) {
+        jobParams.put(LocateMeasurementsJob.SENSOR_VALUES_GENERATION_PARAM,
+          parameters.get(SENSOR_VALUES_GENERATION_PARAM));
+      }
       JobManager.addJob(dataSource, JobManager.getJobOwner(dataSource, id),
         LocateMeasurementsJob.class.getCanonicalName(), jobParams);
 
@@ -281,6 +375,13 @@ public class AutoQCJob extends Job {
         message.append(e.getMessage());
         dataSet.addMessage(message.toString(), ExceptionUtils.getStackTrace(e));
         DataSetDB.updateDataSet(conn, dataSet);
+
+        // The new sensor values will not be used
+        if (null != newSensorValuesGeneration) {
+          DataSetDataDB.queuePurge(conn, dataSet.getId(),
+            DataSetDataDB.PURGE_SENSOR_VALUES, newSensorValuesGeneration);
+        }
+
         conn.commit();
       } catch (Exception e1) {
         e1.printStackTrace();
@@ -291,13 +392,36 @@ public class AutoQCJob extends Job {
     }
   }
 
+  /**
+   * Remove the measurements in the span being processed. If the whole data
+   * set is being processed nothing is removed; the measurements are replaced
+   * by a new generation when data reduction is complete.
+   *
+   * @throws JobFailedException
+   *           If the measurements cannot be removed
+   */
   private void clearMeasurements() throws JobFailedException {
+    Connection conn = null;
+
     try {
-      DataSetDataDB.deleteMeasurements(dataSource,
-        Long.parseLong(parameters.get(ID_PARAM)));
+      LocalDateTime start = getTimeParameter(START_PARAM);
+
+      if (null != start) {
+        conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
+        DataSet spanDataSet = DataSetDB.getDataSet(conn,
+          Long.parseLong(parameters.get(ID_PARAM)));
+        DataSetDataDB.deleteMeasurements(conn, spanDataSet.getId(),
+          spanDataSet.getMeasurementsGeneration(), start,
+          getTimeParameter(END_PARAM));
+        conn.commit();
+      }
     } catch (Exception e) {
+      DatabaseUtils.rollBack(conn);
       throw new JobFailedException(Long.parseLong(parameters.get(ID_PARAM)),
         "Failed to clear previous measurement data", e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
     }
   }
 
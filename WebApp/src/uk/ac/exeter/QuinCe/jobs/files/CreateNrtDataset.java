@@ -72,11 +72,6 @@ public class CreateNrtDataset extends Job {
         ResourceManager.getInstance().getSensorsConfiguration(),
         ResourceManager.getInstance().getRunTypeCategoryConfiguration());
 
-      // Delete the existing NRT dataset
-      DataSetDB.deleteNrtDataSet(conn, instrumentId);
-
-      // Now create the new dataset
-
       // Default to 1st Jan 1900, or immediately after the last dataset.
       // The real dataset date will be adjusted when the records are extracted
       LocalDateTime nrtStartDate = LocalDateTime.of(1900, 1, 1, 0, 0, 0);
@@ -89,15 +84,41 @@ public class CreateNrtDataset extends Job {
       LocalDateTime endDate = DataFileDB.getLastFileDate(conn,
         instrument.getDatabaseId());
       String nrtDatasetName = buildNrtDatasetName(instrument);
-      DataSet newDataset = new DataSet(instrument.getDatabaseId(),
-        nrtDatasetName, nrtStartDate, endDate, true);
-      DataSetDB.addDataSet(conn, newDataset);
+
+      // If the existing NRT dataset has been extracted and still starts
+      // after the last dataset, it is extended and only the changed files
+      // are extracted. Otherwise it is replaced.
+      DataSet nrtDataset = DataSetDB.getNrtDataSet(conn, instrumentId);
+      boolean incremental = null != nrtDataset
+        && nrtDataset.getStatus() > DataSet.STATUS_DATA_EXTRACTION
+        && nrtDataset.getStatus() != DataSet.STATUS_EXPORTING
+        && null != nrtDataset
+          .getProperty(ExtractDataSetJob.EXTRACTION_TIME_PROPERTY)
+        && !nrtDataset.getStart().isBefore(nrtStartDate);
+
+      if (incremental) {
+        nrtDataset.setName(nrtDatasetName);
+        nrtDataset.setStart(nrtStartDate);
+        nrtDataset.setEnd(endDate);
+        DataSetDB.updateDataSet(conn, nrtDataset);
+      } else {
+        // Delete the existing NRT dataset
+        DataSetDB.deleteNrtDataSet(conn, instrumentId);
+
+        // Now create the new dataset
+        nrtDataset = new DataSet(instrument.getDatabaseId(), nrtDatasetName,
+          nrtStartDate, endDate, true);
+        DataSetDB.addDataSet(conn, nrtDataset);
+      }
 
       // TODO This is a copy of the code in DataSetsBean.addDataSet. Does it
       // need collapsing?
       Map<String, String> params = new HashMap<String, String>();
       params.put(ExtractDataSetJob.ID_PARAM,
-        String.valueOf(newDataset.getId()));
+        String.valueOf(nrtDataset.getId()));
+      if (incremental) {
+        params.put(ExtractDataSetJob.INCREMENTAL_PARAM, "true");
+      }
 
       JobManager.addJob(conn, UserDB.getUser(conn, instrument.getOwnerId()),
         ExtractDataSetJob.class.getCanonicalName(), params);
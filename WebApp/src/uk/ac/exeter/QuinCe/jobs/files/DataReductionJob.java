@@ -1,6 +1,7 @@
 package uk.ac.exeter.QuinCe.jobs.files;
 
 import java.sql.Connection;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -13,6 +14,7 @@ import uk.ac.exeter.QuinCe.api.nrt.MakeNrtDataset;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetStatistics;
 import uk.ac.exeter.QuinCe.data.Dataset.DateColumnGroupedSensorValues;
 import uk.ac.exeter.QuinCe.data.Dataset.Measurement;
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
@@ -41,6 +43,22 @@ import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 /**
  * The background job to perform data reduction on a data file.
  *
+ * <p>
+ * If the {@link #START_PARAM} and {@link #END_PARAM} parameters are set, only
+ * the measurements between those times are reduced. The rest of the data set
+ * is still loaded, so the reducers can use it for calibrations etc.
+ * </p>
+ *
+ * <p>
+ * If the {@link #GENERATION_PARAM} is set, the measurements in that generation
+ * are reduced, and it becomes the data set's current generation when the job
+ * succeeds. If the {@link #SENSOR_VALUES_GENERATION_PARAM} is also set, the
+ * measurements were located from a new generation of sensor values, which is
+ * used for the reduction and becomes current at the same time. If the job
+ * fails, the new generations are queued for purging and the data set keeps its
+ * previous values and results.
+ * </p>
+ *
  * @author Steve Jones
  */
 public class DataReductionJob extends Job {
@@ -50,6 +68,27 @@ public class DataReductionJob extends Job {
    */
   public static final String ID_PARAM = "id";
 
+  /**
+   * The parameter name for the start of the span to be processed
+   */
+  public static final String START_PARAM = "start";
+
+  /**
+   * The parameter name for the end of the span to be processed
+   */
+  public static final String END_PARAM = "end";
+
+  /**
+   * The parameter name for the measurements generation to be processed
+   */
+  public static final String GENERATION_PARAM = "generation";
+
+  /**
+   * The parameter name for the sensor values generation from which the
+   * measurements were located
+   */
+  public static final String SENSOR_VALUES_GENERATION_PARAM = "sensorValuesGeneration";
+
   /**
    * Name of the job, used for reporting
    */
@@ -91,6 +130,18 @@ public class DataReductionJob extends Job {
     DataSet dataSet = null;
     Instrument instrument = null;
 
+    // The new generations being processed, if there are any
+    Integer generation = null;
+    if (null != parameters.get(GENERATION_PARAM)) {
+      generation = Integer.parseInt(parameters.get(GENERATION_PARAM));
+    }
+
+    Integer sensorValuesGeneration = null;
+    if (null != parameters.get(SENSOR_VALUES_GENERATION_PARAM)) {
+      sensorValuesGeneration = Integer
+        .parseInt(parameters.get(SENSOR_VALUES_GENERATION_PARAM));
+    }
+
     try {
       conn = dataSource.getConnection();
       conn.setAutoCommit(false);
@@ -113,11 +164,14 @@ public class DataReductionJob extends Job {
       // Get all the sensor values for the dataset, ordered by date and then
       // grouped by sensor type
       DateColumnGroupedSensorValues groupedSensorValues = DataSetDataDB
-        .getSensorValuesByDateAndColumn(conn, instrument, dataSet.getId());
+        .getSensorValuesByDateAndColumn(conn, instrument, dataSet.getId(),
+          null == sensorValuesGeneration ? dataSet.getSensorValuesGeneration()
+            : sensorValuesGeneration);
 
       // Get all the measurement records
       List<Measurement> allMeasurements = DataSetDataDB.getMeasurements(conn,
-        instrument, dataSet.getId());
+        instrument, dataSet.getId(),
+        null == generation ? dataSet.getMeasurementsGeneration() : generation);
 
       // Get the most recent calibration data from before the dataset start
       CalibrationSet calibrationSet = null;
@@ -136,11 +190,17 @@ public class DataReductionJob extends Job {
       List<DataReductionRecord> dataReductionRecords = new ArrayList<DataReductionRecord>(
         allMeasurements.size());
 
+      LocalDateTime start = getTimeParameter(START_PARAM);
+      LocalDateTime end = getTimeParameter(END_PARAM);
+
       // Process each measurement individually
       for (Measurement measurement : allMeasurements) {
 
-        // Only process true measurements (not internal calibrations etc
-        if (isVariableMeasurement(instrument, measurement)) {
+        // Only process true measurements (not internal calibrations etc), and
+        // only those in the span being processed
+        if (isVariableMeasurement(instrument, measurement)
+          && (null == start || (!measurement.getTime().isBefore(start)
+            && !measurement.getTime().isAfter(end)))) {
 
           // Get the value to be used in calculation for each sensor type
           Map<SensorType, CalculationValue> calculationValues = new HashMap<SensorType, CalculationValue>();
@@ -200,13 +260,24 @@ public class DataReductionJob extends Job {
         if (dataSet.isNrt()) {
           dataSet.setStatus(DataSet.STATUS_READY_FOR_EXPORT);
         } else {
-          if (DataSetDataDB.getFlagsRequired(dataSource, dataSet.getId()) > 0) {
+          if (getFlagsRequired(conn, dataSet, sensorValuesGeneration) > 0) {
             dataSet.setStatus(DataSet.STATUS_USER_QC);
           } else {
             dataSet.setStatus(DataSet.STATUS_READY_FOR_SUBMISSION);
           }
         }
 
+        // Switch to the new sensor values and measurements. The old ones are
+        // removed in the background.
+        if (null != sensorValuesGeneration) {
+          DataSetDataDB.setSensorValuesGeneration(conn, dataSet.getId(),
+            sensorValuesGeneration, null == generation
+              ? dataSet.getMeasurementsGeneration() : generation);
+        } else if (null != generation) {
+          DataSetDataDB.setMeasurementsGeneration(conn, dataSet.getId(),
+            generation);
+        }
+
         // Set the dataset status
         DataSetDB.updateDataSet(conn, dataSet);
 
@@ -232,6 +303,19 @@ public class DataReductionJob extends Job {
           dataSet.setStatus(DataSet.STATUS_ERROR);
 
           DataSetDB.updateDataSet(conn, dataSet);
+
+          // The new generations will not be used. Measurements are queued
+          // before the sensor values they refer to.
+          if (null != generation) {
+            DataSetDataDB.queuePurge(conn, dataSet.getId(),
+              DataSetDataDB.PURGE_MEASUREMENTS, generation);
+          }
+
+          if (null != sensorValuesGeneration) {
+            DataSetDataDB.queuePurge(conn, dataSet.getId(),
+              DataSetDataDB.PURGE_SENSOR_VALUES, sensorValuesGeneration);
+          }
+
           conn.commit();
         }
       } catch (Exception e1) {
@@ -266,6 +350,19 @@ public class DataReductionJob extends Job {
     } catch (NumberFormatException e) {
       throw new InvalidJobParametersException(ID_PARAM + "is not numeric");
     }
+
+    for (String param : new String[] { GENERATION_PARAM,
+      SENSOR_VALUES_GENERATION_PARAM }) {
+
+      String generationString = parameters.get(param);
+      if (null != generationString) {
+        try {
+          Integer.parseInt(generationString);
+        } catch (NumberFormatException e) {
+          throw new InvalidJobParametersException(param + " is not numeric");
+        }
+      }
+    }
   }
 
   @Override
@@ -297,4 +394,38 @@ public class DataReductionJob extends Job {
 
     return result;
   }
+
+  /**
+   * Get the number of flags that the user must set once data reduction is
+   * complete. If a new generation of sensor values is being processed, the
+   * count is taken from its pending statistics, because the data set's own
+   * statistics still describe the current generation.
+   *
+   * @param conn
+   *          A database connection
+   * @param dataSet
+   *          The data set
+   * @param sensorValuesGeneration
+   *          The new sensor values generation, or {@code null} if the current
+   *          generation is being processed
+   * @return The number of flags required
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  private int getFlagsRequired(Connection conn, DataSet dataSet,
+    Integer sensorValuesGeneration)
+    throws MissingParamException, DatabaseException {
+
+    DataSetStatistics statistics = null;
+
+    if (null != sensorValuesGeneration) {
+      statistics = DataSetDB.getPendingStatistics(conn, dataSet.getId(),
+        sensorValuesGeneration);
+    }
+
+    return null != statistics ? statistics.getFlagsRequired()
+      : DataSetDataDB.getFlagsRequired(dataSource, dataSet.getId());
+  }
 }
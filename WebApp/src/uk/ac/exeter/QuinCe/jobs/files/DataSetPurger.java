@@ -0,0 +1,87 @@
+package uk.ac.exeter.QuinCe.jobs.files;
+
+import java.sql.Connection;
+
+import javax.servlet.annotation.WebListener;
+
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.utils.BackgroundTask;
+import uk.ac.exeter.QuinCe.utils.BackgroundTaskException;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
+
+/**
+ * Background task to remove replaced generations of data set contents.
+ *
+ * <p>
+ * When a data set is extracted or its measurements are rebuilt, the new
+ * contents are written in a new generation and the old generation is queued
+ * for purging (see {@link DataSetDataDB#queuePurge}). This task works through
+ * the queue in small chunks, committing each one separately so that no single
+ * transaction locks a large number of rows. It pauses between chunks, and
+ * stops after {@link #RUN_TIME_LIMIT} milliseconds so that it does not compete
+ * with the processing jobs for too long. Anything left is picked up on the
+ * next run.
+ * </p>
+ *
+ * <p>
+ * The task runs once per minute.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see DataSetDataDB#purgeChunk(Connection, int)
+ */
+@WebListener
+public class DataSetPurger extends BackgroundTask {
+
+  /**
+   * The maximum number of rows removed in each chunk
+   */
+  private static final int CHUNK_SIZE = 1000;
+
+  /**
+   * The pause between chunks, in milliseconds
+   */
+  private static final long CHUNK_PAUSE = 100;
+
+  /**
+   * The maximum time spent in each run, in milliseconds
+   */
+  private static final long RUN_TIME_LIMIT = 20000;
+
+  @Override
+  protected void doTask() throws BackgroundTaskException {
+
+    Connection conn = null;
+    long stopTime = System.currentTimeMillis() + RUN_TIME_LIMIT;
+
+    try {
+      conn = ResourceManager.getInstance().getDBDataSource().getConnection();
+      conn.setAutoCommit(false);
+
+      boolean purged = true;
+      while (purged && System.currentTimeMillis() < stopTime) {
+        purged = DataSetDataDB.purgeChunk(conn, CHUNK_SIZE);
+        conn.commit();
+
+        if (purged) {
+          Thread.sleep(CHUNK_PAUSE);
+        }
+      }
+    } catch (InterruptedException e) {
+      // The application is shutting down. The rest of the queue will be
+      // purged when it restarts.
+      DatabaseUtils.rollBack(conn);
+    } catch (Exception e) {
+      DatabaseUtils.rollBack(conn);
+      throw new BackgroundTaskException(e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+  }
+
+  @Override
+  protected long getRunInterval() {
+    return 60;
+  }
+}
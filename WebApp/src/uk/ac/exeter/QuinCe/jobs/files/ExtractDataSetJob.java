@@ -2,19 +2,23 @@ package uk.ac.exeter.QuinCe.jobs.files;
 
 import java.sql.Connection;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetStatistics;
 import uk.ac.exeter.QuinCe.data.Dataset.InvalidDataSetStatusException;
 import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriod;
 import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriods;
@@ -22,14 +26,12 @@ import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 import uk.ac.exeter.QuinCe.data.Files.DataFile;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
+import uk.ac.exeter.QuinCe.data.Files.ExtractionPlan;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
-import uk.ac.exeter.QuinCe.data.Instrument.Calibration.Calibration;
 import uk.ac.exeter.QuinCe.data.Instrument.Calibration.CalibrationSet;
 import uk.ac.exeter.QuinCe.data.Instrument.Calibration.SensorCalibrationDB;
-import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
-import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
 import uk.ac.exeter.QuinCe.jobs.InvalidJobParametersException;
 import uk.ac.exeter.QuinCe.jobs.Job;
 import uk.ac.exeter.QuinCe.jobs.JobFailedException;
@@ -45,6 +47,18 @@ import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 /**
  * Job to extract the data for a data set from the uploaded data files
  *
+ * <p>
+ * Normally all the data for the data set is extracted again from scratch
+ * into a new generation, which replaces the existing data when the
+ * {@link DataReductionJob} completes. If the {@link #INCREMENTAL_PARAM} is
+ * set, the job compares the data set's source files with those recorded by
+ * the previous extraction. Only the values in the {@link ExtractionSpan}
+ * covered by files that are new or have been modified since then are
+ * replaced, and the downstream jobs only process that span. If the span
+ * cannot be worked out, or the data set has not been processed successfully
+ * since its last extraction, the whole data set is extracted as normal.
+ * </p>
+ *
  * @author Steve Jones
  *
  */
@@ -55,6 +69,51 @@ public class ExtractDataSetJob extends Job {
    */
   public static final String ID_PARAM = "id";
 
+  /**
+   * Configuration property for the number of sensor values stored in each
+   * database batch
+   */
+  public static final String BATCH_SIZE_PROPERTY = "extraction.batch_size";
+
+  /**
+   * The default number of sensor values stored in each database batch
+   */
+  private static final int DEFAULT_BATCH_SIZE = 10000;
+
+  /**
+   * Configuration property that enables the bulk insert of sensor values.
+   * Enabled by default. If it is set to anything other than {@code true},
+   * values are stored one row at a time.
+   *
+   * @see DataSetDataDB#storeNewSensorValues(Connection, java.util.Collection,
+   *      int)
+   */
+  public static final String BULK_INSERT_PROPERTY = "extraction.bulk_insert";
+
+  /**
+   * The parameter name for the flag that requests an incremental extraction
+   */
+  public static final String INCREMENTAL_PARAM = "incremental";
+
+  /**
+   * Data set property holding the IDs of the files used in the last
+   * extraction, separated by commas
+   */
+  public static final String EXTRACTED_FILES_PROPERTY = "extraction.files";
+
+  /**
+   * Data set property holding the time range of each file used in the last
+   * extraction, in the form {@code id:start:end} separated by commas. The
+   * times are in milliseconds since the epoch.
+   */
+  public static final String EXTRACTED_RANGES_PROPERTY = "extraction.ranges";
+
+  /**
+   * Data set property holding the latest modification time of the files used
+   * in the last extraction, in milliseconds since the epoch
+   */
+  public static final String EXTRACTION_TIME_PROPERTY = "extraction.time";
+
   /**
    * The data set being processed by the job
    */
@@ -103,6 +162,7 @@ public class ExtractDataSetJob extends Job {
       // Get the new data set from the database
       dataSet = DataSetDB.getDataSet(conn,
         Long.parseLong(parameters.get(ID_PARAM)));
+      int previousStatus = dataSet.getStatus();
       dataSet.setStatus(DataSet.STATUS_DATA_EXTRACTION);
       DataSetDB.updateDataSet(conn, dataSet);
 
@@ -117,15 +177,60 @@ public class ExtractDataSetJob extends Job {
         DataSetDB.deleteNrtDataSet(conn, dataSet.getInstrumentId());
       }
 
-      // Reset the data set and all associated data
-      reset(conn);
-      conn.commit();
+      List<Long> sourceFiles = dataSet.getSourceFiles(conn);
+      Map<Long, LocalDateTime> fileModifications = DataFileDB
+        .getFileModifications(conn, sourceFiles);
 
       List<DataFile> files = DataFileDB.getDataFiles(conn,
-        ResourceManager.getInstance().getConfig(),
-        dataSet.getSourceFiles(conn));
+        ResourceManager.getInstance().getConfig(), sourceFiles);
+
+      // See if we only need to extract the span covered by changed files
+      LocalDateTime spanStart = null;
+      LocalDateTime spanEnd = null;
 
-      TreeSet<SensorValue> sensorValues = new TreeSet<SensorValue>();
+      // The previous extraction must have finished successfully
+      if (Boolean.parseBoolean(parameters.get(INCREMENTAL_PARAM))
+        && previousStatus > DataSet.STATUS_DATA_EXTRACTION) {
+
+        ExtractionSpan span = ExtractionSpan.getSpan(dataSet, files,
+          fileModifications);
+
+        if (null != span && span.isEmpty()) {
+          // Nothing has changed, so there's nothing to do
+          dataSet.setStatus(previousStatus);
+          DataSetDB.updateDataSet(conn, dataSet);
+          conn.commit();
+          return;
+        }
+
+        if (null != span) {
+          spanStart = span.getStart();
+          spanEnd = span.getEnd();
+        }
+      }
+
+      // The generation that the extracted values are written to
+      int generation;
+
+      if (null == spanStart) {
+        // Reset the data set. The values are extracted into a new generation,
+        // and the existing values and results are kept until data reduction
+        // of the new generation is complete.
+        reset(conn);
+        conn.commit();
+        generation = DataSetDataDB.getNewGeneration(conn, dataSet.getId(),
+          DataSetDataDB.PURGE_SENSOR_VALUES);
+      } else {
+        conn.commit();
+        generation = dataSet.getSensorValuesGeneration();
+
+        // Remove the data in the changed span. This is part of the main
+        // transaction, so the old values are kept if the extraction fails.
+        DataSetDataDB.deleteMeasurements(conn, dataSet.getId(),
+          dataSet.getMeasurementsGeneration(), spanStart, spanEnd);
+        DataSetDataDB.deleteSensorValues(conn, dataSet.getId(), generation,
+          spanStart, spanEnd);
+      }
 
       // We want to store when run types begin and end
       RunTypePeriods runTypePeriods = new RunTypePeriods();
@@ -139,105 +244,72 @@ public class ExtractDataSetJob extends Job {
       LocalDateTime realStartTime = null;
       LocalDateTime realEndTime = dataSet.getEnd();
 
-      // Collect the data bounds
-      double minLon = Double.MAX_VALUE;
-      double maxLon = Double.MIN_VALUE;
-      double minLat = Double.MAX_VALUE;
-      double maxLat = Double.MIN_VALUE;
-
-      for (DataFile file : files) {
-        FileDefinition fileDefinition = file.getFileDefinition();
-
-        int currentLine = file.getFirstDataLine();
-        while (currentLine < file.getContentLineCount()) {
+      // Collect the data bounds, record count and column summaries as the
+      // values are stored
+      DataSetStatistics statistics = new DataSetStatistics();
 
-          List<String> line = file.getLine(currentLine);
-          LocalDateTime time = file.getDate(line);
+      // The files are independent of each other, so they are scanned
+      // concurrently and then combined in file order
+      List<ExtractedFileValues> extractedFiles = scanFiles(files, instrument,
+        sensorCalibrations);
 
-          if ((time.equals(dataSet.getStart())
-            || time.isAfter(dataSet.getStart()))
-            && (time.isBefore(dataSet.getEnd())
-              || time.isEqual(dataSet.getEnd()))) {
+      // Run types are taken from all the files, but values are only
+      // extracted from the files that overlap the span being extracted
+      List<ExtractedFileValues> valueFiles = new ArrayList<ExtractedFileValues>(
+        extractedFiles.size());
+      long totalValues = 0;
 
-            if (null == realStartTime && null != time) {
-              realStartTime = time;
-            }
-
-            realEndTime = time;
+      for (ExtractedFileValues extractedFile : extractedFiles) {
+        if (null == realStartTime) {
+          realStartTime = extractedFile.getFirstTime();
+        }
 
-            if (null != fileDefinition.getLongitudeSpecification()) {
-              sensorValues.add(new SensorValue(dataSet.getId(),
-                FileDefinition.LONGITUDE_COLUMN_ID, time,
-                file.getLongitude(line)));
-            }
+        if (null != extractedFile.getLastTime()) {
+          realEndTime = extractedFile.getLastTime();
+        }
 
-            if (null != fileDefinition.getLatitudeSpecification()) {
-              sensorValues.add(new SensorValue(dataSet.getId(),
-                FileDefinition.LATITUDE_COLUMN_ID, time,
-                file.getLatitude(line)));
-            }
+        extractedFile.addRunTypes(runTypePeriods);
 
-            // Assigned columns
-            for (Entry<SensorType, List<SensorAssignment>> entry : instrument
-              .getSensorAssignments().entrySet()) {
-
-              for (SensorAssignment assignment : entry.getValue()) {
-                if (assignment.getDataFile()
-                  .equals(fileDefinition.getFileDescription())) {
-
-                  // For run types, follow all aliases
-                  if (entry.getKey().equals(SensorType.RUN_TYPE_SENSOR_TYPE)) {
-                    String runType = file.getFileDefinition()
-                      .getRunType(line, true).getRunName();
-
-                    sensorValues.add(new SensorValue(dataSet.getId(),
-                      assignment.getDatabaseId(), time, runType));
-
-                    runTypePeriods.add(runType, time);
-                  } else {
-
-                    // Create the SensorValue object
-                    SensorValue value = new SensorValue(dataSet.getId(),
-                      assignment.getDatabaseId(), time,
-                      file.getStringValue(line, assignment.getColumn(),
-                        assignment.getMissingValue()));
-
-                    // Apply calibration if required
-                    Calibration sensorCalibration = sensorCalibrations
-                      .getTargetCalibration(
-                        String.valueOf(assignment.getDatabaseId()));
-
-                    if (null != sensorCalibration) {
-                      value.calibrateValue(sensorCalibration);
-                    }
-
-                    // Add to storage list
-                    sensorValues.add(value);
-                  }
-                }
-              }
-            }
-          }
+        if (null == spanStart || (null != extractedFile.getFirstTime()
+          && !extractedFile.getFirstTime().isAfter(spanEnd)
+          && !extractedFile.getLastTime().isBefore(spanStart))) {
 
-          currentLine++;
+          valueFiles.add(extractedFile);
+          totalValues += extractedFile.getValueCount();
         }
       }
 
       // The last run type will cover the rest of time
       runTypePeriods.finish();
 
-      // Now flag all the values that are within the instrument's pre-
+      // The values are created from the files in time order, flagged if
+      // they're in a flushing period, and stored in batches so only one
+      // batch is held in memory at a time
+      int batchSize = getBatchSize();
+      boolean bulkInsert = Boolean
+        .parseBoolean(config.getProperty(BULK_INSERT_PROPERTY, "true").trim());
+      List<SensorValue> batch = new ArrayList<SensorValue>(batchSize);
+      long storedValues = 0;
+
+      // Flag all the values that are within the instrument's pre-
       // and post-flushing periods (if they're defined)
-      if (instrument.getPreFlushingTime() > 0
-        || instrument.getPostFlushingTime() > 0) {
+      boolean checkFlushing = instrument.getPreFlushingTime() > 0
+        || instrument.getPostFlushingTime() > 0;
 
-        RunTypePeriod currentPeriod = runTypePeriods.get(0);
-        int currentPeriodIndex = 0;
+      RunTypePeriod currentPeriod = checkFlushing ? runTypePeriods.get(0)
+        : null;
+      int currentPeriodIndex = 0;
 
-        Iterator<SensorValue> valuesIter = sensorValues.iterator();
-        while (valuesIter.hasNext()) {
-          SensorValue value = valuesIter.next();
+      Iterator<SensorValue> valuesIter = ExtractedFileValues.merge(valueFiles);
+      while (valuesIter.hasNext()) {
+        SensorValue value = valuesIter.next();
 
+        if (null != spanStart && (value.getTime().isBefore(spanStart)
+          || value.getTime().isAfter(spanEnd))) {
+          continue;
+        }
+
+        if (checkFlushing) {
           boolean periodFound = false;
 
           // Make sure we have the correct run type period
@@ -264,13 +336,26 @@ public class ExtractDataSetJob extends Job {
             value.setUserQC(Flag.FLUSHING, "");
           }
         }
+
+        statistics.add(value);
+        batch.add(value);
+        if (batch.size() >= batchSize) {
+          storeBatch(conn, batch, generation, bulkInsert);
+          storedValues += batch.size();
+          batch.clear();
+          setProgress(
+            Math.min(100D, (double) storedValues / totalValues * 100));
+        }
       }
 
       // Store the remaining values
-      if (sensorValues.size() > 0) {
-        DataSetDataDB.storeSensorValues(conn, sensorValues);
+      if (batch.size() > 0) {
+        storeBatch(conn, batch, generation, bulkInsert);
+        batch.clear();
       }
 
+      setProgress(100);
+
       // Adjust the Dataset limits to the actual extracted data
       if (null != realStartTime) {
         dataSet.setStart(realStartTime);
@@ -280,7 +365,19 @@ public class ExtractDataSetJob extends Job {
         dataSet.setEnd(realEndTime);
       }
 
-      dataSet.setBounds(minLon, minLat, maxLon, maxLat);
+      // The statistics only cover the whole data set if everything was
+      // extracted. Otherwise they are calculated by the Auto QC job, which
+      // sees all the values. They describe the new generation, so they are
+      // held until the data set switches to it.
+      if (null == spanStart) {
+        dataSet.setStatistics(statistics);
+        DataSetDB.storePendingStatistics(conn, dataSet.getId(), generation,
+          statistics);
+      }
+
+      // Record the files used in this extraction for the next incremental
+      // extraction
+      ExtractionSpan.recordExtraction(dataSet, files, fileModifications);
 
       // Trigger the Auto QC job
       dataSet.setStatus(DataSet.STATUS_AUTO_QC);
@@ -288,6 +385,16 @@ public class ExtractDataSetJob extends Job {
       Map<String, String> jobParams = new HashMap<String, String>();
       jobParams.put(AutoQCJob.ID_PARAM,
         String.valueOf(Long.parseLong(parameters.get(ID_PARAM))));
+      if (null != spanStart) {
+        jobParams.put(AutoQCJob.START_PARAM,
+          String.valueOf(DateTimeUtils.dateToLong(spanStart)));
+        jobParams.put(AutoQCJob.END_PARAM,
+          String.valueOf(DateTimeUtils.dateToLong(spanEnd)));
+      } else {
+        // The new values become current when data reduction is complete
+        jobParams.put(AutoQCJob.SENSOR_VALUES_GENERATION_PARAM,
+          String.valueOf(generation));
+      }
       JobManager.addJob(dataSource, JobManager.getJobOwner(dataSource, id),
         AutoQCJob.class.getCanonicalName(), jobParams);
 
@@ -315,6 +422,136 @@ public class ExtractDataSetJob extends Job {
     }
   }
 
+  /**
+   * Scan a set of data files ready for their values to be extracted. The
+   * files are scanned concurrently, using as many threads as there are
+   * processors.
+   *
+   * @param files
+   *          The data files
+   * @param instrument
+   *          The instrument to which the files belong
+   * @param sensorCalibrations
+   *          The sensor calibrations to apply to the values
+   * @return The scanned files, in the same order as the files
+   * @throws Exception
+   *           If any file cannot be read, or contains errors within the data
+   *           set's time range
+   * @see ExtractedFileValues#scan()
+   */
+  private List<ExtractedFileValues> scanFiles(List<DataFile> files,
+    Instrument instrument, CalibrationSet sensorCalibrations)
+    throws Exception {
+
+    // The plan for each file definition is built once and shared by all
+    // the definition's files
+    Map<Long, ExtractionPlan> plans = new HashMap<Long, ExtractionPlan>();
+    for (DataFile file : files) {
+      FileDefinition fileDefinition = file.getFileDefinition();
+      if (!plans.containsKey(fileDefinition.getDatabaseId())) {
+        plans.put(fileDefinition.getDatabaseId(),
+          ExtractionPlan.compile(fileDefinition,
+            instrument.getSensorAssignments(), sensorCalibrations));
+      }
+    }
+
+    List<ExtractedFileValues> result = new ArrayList<ExtractedFileValues>(
+      files.size());
+
+    for (DataFile file : files) {
+      result.add(new ExtractedFileValues(file,
+        plans.get(file.getFileDefinition().getDatabaseId()), dataSet.getId(),
+        dataSet.getStart(), dataSet.getEnd()));
+    }
+
+    if (result.size() == 1) {
+      result.get(0).scan();
+    } else if (result.size() > 1) {
+      int threads = Math.min(result.size(),
+        Runtime.getRuntime().availableProcessors());
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+      try {
+        List<Future<?>> futures = new ArrayList<Future<?>>(result.size());
+
+        for (ExtractedFileValues extractedFile : result) {
+          futures.add(executor.submit(() -> {
+            extractedFile.scan();
+            return null;
+          }));
+        }
+
+        for (Future<?> future : futures) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            // Report the error from the file, not the executor
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+              throw (Exception) cause;
+            } else {
+              throw e;
+            }
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Store a batch of newly extracted sensor values
+   *
+   * @param conn
+   *          A database connection
+   * @param batch
+   *          The sensor values
+   * @param generation
+   *          The generation that the values are stored in
+   * @param bulkInsert
+   *          Indicates whether the values should be stored using multi-row
+   *          inserts
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @see #BULK_INSERT_PROPERTY
+   */
+  private void storeBatch(Connection conn, List<SensorValue> batch,
+    int generation, boolean bulkInsert)
+    throws MissingParamException, DatabaseException {
+
+    if (bulkInsert) {
+      DataSetDataDB.storeNewSensorValues(conn, batch, generation);
+    } else {
+      DataSetDataDB.storeSensorValues(conn, batch, generation);
+    }
+  }
+
+  /**
+   * Get the number of sensor values to be stored in each database batch,
+   * from the {@link #BATCH_SIZE_PROPERTY} in the application configuration
+   *
+   * @return The batch size
+   */
+  private int getBatchSize() {
+    int result = DEFAULT_BATCH_SIZE;
+
+    String batchSize = config.getProperty(BATCH_SIZE_PROPERTY);
+    if (null != batchSize) {
+      try {
+        result = Math.max(1, Integer.parseInt(batchSize.trim()));
+      } catch (NumberFormatException e) {
+        // Use the default
+      }
+    }
+
+    return result;
+  }
+
   private boolean inFlushingPeriod(LocalDateTime time,
     RunTypePeriod runTypePeriod, Instrument instrument) {
 
@@ -343,7 +580,8 @@ public class ExtractDataSetJob extends Job {
   /**
    * Reset the data set processing.
    *
-   * Delete all related records and reset the status
+   * Reset the status. The existing records are not deleted here; they are
+   * replaced by a new generation when the extraction is complete.
    *
    * @throws MissingParamException
    *           If any of the parameters are invalid
@@ -357,7 +595,6 @@ public class ExtractDataSetJob extends Job {
   private void reset(Connection conn) throws MissingParamException,
     InvalidDataSetStatusException, DatabaseException, RecordNotFoundException {
 
-    DataSetDataDB.deleteSensorValues(conn, dataSet.getId());
     DataSetDB.setDatasetStatus(conn, dataSet.getId(), DataSet.STATUS_WAITING);
   }
 
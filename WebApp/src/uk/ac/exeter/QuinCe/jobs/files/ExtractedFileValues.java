@@ -0,0 +1,595 @@
+package uk.ac.exeter.QuinCe.jobs.files;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriods;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.ExtractionPlan;
+import uk.ac.exeter.QuinCe.data.Files.ParsedDataFile;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * The values extracted from a single data file for a data set.
+ *
+ * <p>
+ * Each file in a data set is first scanned with {@link #scan()}, which checks
+ * the lines within the data set's time range and collects the file's run types
+ * and time limits. The sensor values are not created at this stage. Once all
+ * the files have been scanned, {@link #merge(List)} produces the sensor values
+ * from all the files in time order, creating them as they are needed. Only a
+ * small number of values from each file are held in memory at once.
+ * </p>
+ *
+ * <p>
+ * The results are the same as adding every value from every file to a single
+ * {@link java.util.TreeSet} in file order: where two values are equal (see
+ * {@link SensorValue#compareTo(SensorValue)}), the one that would have been
+ * added first is kept.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see ExtractDataSetJob
+ */
+class ExtractedFileValues {
+
+  /**
+   * The data file
+   */
+  private final DataFile file;
+
+  /**
+   * The extraction plan for the file's definition
+   */
+  private final ExtractionPlan plan;
+
+  /**
+   * The ID of the data set
+   */
+  private final long dataSetId;
+
+  /**
+   * The start of the data set, in milliseconds since the epoch
+   */
+  private final long start;
+
+  /**
+   * The end of the data set, in milliseconds since the epoch
+   */
+  private final long end;
+
+  /**
+   * The parsed file. Files whose parsed data is memory mapped are released
+   * after they have been scanned, and mapped again when they are merged.
+   */
+  private ParsedDataFile parsedFile = null;
+
+  /**
+   * The lines within the data set's time range, in time order. {@code null}
+   * if the file's lines are already in time order.
+   */
+  private int[] sortedRows = null;
+
+  /**
+   * The number of lines within the data set's time range
+   */
+  private int rowCount = 0;
+
+  /**
+   * The run types found in the file. Consecutive lines with the same run type
+   * are recorded once, with the times of the first and last lines.
+   */
+  private List<String> runTypes = new ArrayList<String>();
+
+  /**
+   * The time of the first line of each entry in {@link #runTypes}
+   */
+  private List<LocalDateTime> runTypeStarts = new ArrayList<LocalDateTime>();
+
+  /**
+   * The time of the last line of each entry in {@link #runTypes}
+   */
+  private List<LocalDateTime> runTypeEnds = new ArrayList<LocalDateTime>();
+
+  /**
+   * The time of the first extracted line
+   */
+  private LocalDateTime firstTime = null;
+
+  /**
+   * The time of the last extracted line
+   */
+  private LocalDateTime lastTime = null;
+
+  /**
+   * The position of the next line to be read during a merge, counted over the
+   * lines within the data set's time range
+   */
+  private int position = 0;
+
+  /**
+   * The next line to be checked for its time range during a merge, for files
+   * whose lines are in time order
+   */
+  private int nextRow = 0;
+
+  /**
+   * The values for the current timestamp during a merge
+   */
+  private List<SensorValue> currentValues = new ArrayList<SensorValue>();
+
+  /**
+   * The position of the current value in {@link #currentValues}
+   */
+  private int currentIndex = 0;
+
+  /**
+   * Set up the extraction of a file
+   *
+   * @param file
+   *          The data file
+   * @param plan
+   *          The extraction plan for the file's definition
+   * @param dataSetId
+   *          The ID of the data set
+   * @param start
+   *          The start of the data set
+   * @param end
+   *          The end of the data set
+   */
+  protected ExtractedFileValues(DataFile file, ExtractionPlan plan,
+    long dataSetId, LocalDateTime start, LocalDateTime end) {
+    this.file = file;
+    this.plan = plan;
+    this.dataSetId = dataSetId;
+    this.start = DateTimeUtils.dateToLong(start);
+    this.end = DateTimeUtils.dateToLong(end);
+  }
+
+  /**
+   * Scan the lines of the file that are within the data set's time range. Any
+   * errors in those lines are reported, and the file's run types and time
+   * limits are recorded.
+   *
+   * @throws Exception
+   *           If the file cannot be read, or any line within the data set's
+   *           time range contains errors
+   */
+  protected void scan() throws Exception {
+    ParsedDataFile parsed = ParsedDataFile.getParsedFile(file, plan);
+
+    boolean hasRunType = false;
+    for (int i = 0; i < plan.getEntryCount(); i++) {
+      if (plan.getEntry(i).isRunType()) {
+        hasRunType = true;
+      }
+    }
+
+    boolean inOrder = true;
+    long previousTime = Long.MIN_VALUE;
+
+    for (int row = 0; row < parsed.getRowCount(); row++) {
+      long time = parsed.getTimeMillis(row);
+
+      if (time >= start && time <= end) {
+        parsed.checkRow(row);
+
+        LocalDateTime rowTime = DateTimeUtils.longToDate(time);
+        if (null == firstTime) {
+          firstTime = rowTime;
+        }
+        lastTime = rowTime;
+
+        if (hasRunType) {
+          addRunType(parsed.getRunType(row), rowTime);
+        }
+
+        if (time < previousTime) {
+          inOrder = false;
+        }
+        previousTime = time;
+
+        rowCount++;
+      }
+    }
+
+    if (!inOrder) {
+      sortRows(parsed);
+    }
+
+    // Mapped files are released until they are needed; files held on the
+    // heap can't be loaded any more cheaply, so they are kept
+    if (!parsed.isMapped()) {
+      parsedFile = parsed;
+    }
+  }
+
+  /**
+   * Record the run type of a line
+   *
+   * @param runType
+   *          The run type
+   * @param time
+   *          The time of the line
+   */
+  private void addRunType(String runType, LocalDateTime time) {
+    int last = runTypes.size() - 1;
+    if (last >= 0 && Objects.equals(runTypes.get(last), runType)) {
+      runTypeEnds.set(last, time);
+    } else {
+      runTypes.add(runType);
+      runTypeStarts.add(time);
+      runTypeEnds.add(time);
+    }
+  }
+
+  /**
+   * Build the list of lines within the data set's time range in time order.
+   * The sort is stable, so lines with the same time stay in file order.
+   *
+   * @param parsed
+   *          The parsed file
+   */
+  private void sortRows(ParsedDataFile parsed) {
+    Integer[] rows = new Integer[rowCount];
+    int count = 0;
+
+    for (int row = 0; row < parsed.getRowCount(); row++) {
+      long time = parsed.getTimeMillis(row);
+      if (time >= start && time <= end) {
+        rows[count] = row;
+        count++;
+      }
+    }
+
+    Arrays.sort(rows,
+      Comparator.comparingLong(row -> parsed.getTimeMillis(row)));
+
+    sortedRows = new int[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      sortedRows[i] = rows[i];
+    }
+  }
+
+  /**
+   * Add the file's run types to a set of run type periods
+   *
+   * @param runTypePeriods
+   *          The run type periods
+   */
+  protected void addRunTypes(RunTypePeriods runTypePeriods) {
+    for (int i = 0; i < runTypes.size(); i++) {
+      runTypePeriods.add(runTypes.get(i), runTypeStarts.get(i));
+      if (!runTypeEnds.get(i).equals(runTypeStarts.get(i))) {
+        runTypePeriods.add(runTypes.get(i), runTypeEnds.get(i));
+      }
+    }
+  }
+
+  /**
+   * Get the time of the first extracted line
+   *
+   * @return The first time, or {@code null} if no lines were extracted
+   */
+  protected LocalDateTime getFirstTime() {
+    return firstTime;
+  }
+
+  /**
+   * Get the time of the last extracted line
+   *
+   * @return The last time, or {@code null} if no lines were extracted
+   */
+  protected LocalDateTime getLastTime() {
+    return lastTime;
+  }
+
+  /**
+   * Get the number of sensor values that will be extracted from the file.
+   * Duplicated values are included.
+   *
+   * @return The number of values
+   */
+  protected long getValueCount() {
+    return (long) rowCount * plan.getEntryCount();
+  }
+
+  /**
+   * Prepare the file for merging
+   *
+   * @throws Exception
+   *           If the parsed file cannot be loaded
+   */
+  private void open() throws Exception {
+    if (null == parsedFile) {
+      parsedFile = ParsedDataFile.getParsedFile(file, plan);
+    }
+
+    position = 0;
+    nextRow = 0;
+    currentValues.clear();
+    currentIndex = 0;
+    loadNextTime();
+  }
+
+  /**
+   * Release the parsed file once it has been merged
+   */
+  private void close() {
+    parsedFile = null;
+    currentValues.clear();
+  }
+
+  /**
+   * Get the line at the current merge position
+   *
+   * @return The line index
+   */
+  private int getRow() {
+    int result;
+
+    if (null != sortedRows) {
+      result = sortedRows[position];
+    } else {
+      // Skip lines outside the data set's time range
+      while (parsedFile.getTimeMillis(nextRow) < start
+        || parsedFile.getTimeMillis(nextRow) > end) {
+        nextRow++;
+      }
+      result = nextRow;
+    }
+
+    return result;
+  }
+
+  /**
+   * Move past the line at the current merge position
+   */
+  private void nextRow() {
+    position++;
+    if (null == sortedRows) {
+      nextRow++;
+    }
+  }
+
+  /**
+   * Create the sensor values for all the lines with the next timestamp in the
+   * file. The values are sorted and duplicates are removed, keeping the value
+   * from the earliest line.
+   *
+   * @return {@code true} if values were created; {@code false} if there are
+   *         no more lines
+   */
+  private boolean loadNextTime() {
+    currentValues.clear();
+    currentIndex = 0;
+
+    if (position < rowCount) {
+      int row = getRow();
+      long time = parsedFile.getTimeMillis(row);
+      LocalDateTime rowTime = DateTimeUtils.longToDate(time);
+
+      while (position < rowCount
+        && parsedFile.getTimeMillis(row) == time) {
+
+        for (int i = 0; i < plan.getEntryCount(); i++) {
+          ExtractionPlan.Entry entry = plan.getEntry(i);
+
+          // For run types, follow all aliases
+          if (entry.isRunType()) {
+            currentValues.add(new SensorValue(dataSetId, entry.getColumnId(),
+              rowTime, parsedFile.getRunType(row)));
+          } else {
+
+            // Create the SensorValue object. Values are only created from
+            // text if they are not numeric.
+            double doubleValue = parsedFile
+              .getDoubleAt(entry.getValueIndex(), row);
+
+            SensorValue value;
+            if (Double.isNaN(doubleValue)) {
+              value = new SensorValue(dataSetId, entry.getColumnId(), rowTime,
+                parsedFile.getValueAt(entry.getValueIndex(), row));
+            } else {
+              value = new SensorValue(dataSetId, entry.getColumnId(), rowTime,
+                doubleValue);
+            }
+
+            // Apply calibration if required
+            if (null != entry.getCalibration()) {
+              value.calibrateValue(entry.getCalibration());
+            }
+
+            currentValues.add(value);
+          }
+        }
+
+        nextRow();
+        if (position < rowCount) {
+          row = getRow();
+        }
+      }
+
+      Collections.sort(currentValues);
+
+      List<SensorValue> unique = new ArrayList<SensorValue>(
+        currentValues.size());
+      SensorValue last = null;
+      for (SensorValue value : currentValues) {
+        if (null == last || value.compareTo(last) != 0) {
+          unique.add(value);
+          last = value;
+        }
+      }
+
+      currentValues = unique;
+    }
+
+    return currentValues.size() > 0;
+  }
+
+  /**
+   * Get the current value during a merge
+   *
+   * @return The value
+   */
+  private SensorValue current() {
+    return currentValues.get(currentIndex);
+  }
+
+  /**
+   * Move to the next value during a merge
+   *
+   * @return {@code true} if there is another value; {@code false} if all the
+   *         file's values have been read
+   */
+  private boolean next() {
+    currentIndex++;
+
+    boolean result = currentIndex < currentValues.size();
+    if (!result) {
+      result = loadNextTime();
+    }
+
+    if (!result) {
+      close();
+    }
+
+    return result;
+  }
+
+  /**
+   * Merge the values from a set of files into a single sequence in time order.
+   * If values from more than one file are equal, the value from the earliest
+   * file in the list is kept. The values are created as the sequence is read.
+   *
+   * @param files
+   *          The extracted files, each of which must have been scanned
+   * @return The merged values
+   * @throws Exception
+   *           If any of the files cannot be loaded
+   */
+  protected static Iterator<SensorValue> merge(List<ExtractedFileValues> files)
+    throws Exception {
+
+    PriorityQueue<MergeCursor> queue = new PriorityQueue<MergeCursor>(
+      Math.max(1, files.size()));
+
+    for (int i = 0; i < files.size(); i++) {
+      ExtractedFileValues file = files.get(i);
+      if (file.rowCount > 0) {
+        file.open();
+        if (file.currentValues.size() > 0) {
+          queue.add(new MergeCursor(i, file));
+        } else {
+          file.close();
+        }
+      }
+    }
+
+    return new Iterator<SensorValue>() {
+
+      /**
+       * The most recently returned value
+       */
+      private SensorValue last = null;
+
+      /**
+       * The next value to be returned
+       */
+      private SensorValue nextValue = findNext();
+
+      @Override
+      public boolean hasNext() {
+        return null != nextValue;
+      }
+
+      @Override
+      public SensorValue next() {
+        if (null == nextValue) {
+          throw new NoSuchElementException();
+        }
+
+        SensorValue result = nextValue;
+        last = result;
+        nextValue = findNext();
+        return result;
+      }
+
+      /**
+       * Find the next value that is not equal to the last value returned
+       *
+       * @return The next value, or {@code null} if there are no more values
+       */
+      private SensorValue findNext() {
+        SensorValue result = null;
+
+        while (null == result && !queue.isEmpty()) {
+          MergeCursor cursor = queue.poll();
+          SensorValue value = cursor.file.current();
+
+          if (null == last || value.compareTo(last) != 0) {
+            result = value;
+          }
+
+          if (cursor.file.next()) {
+            queue.add(cursor);
+          }
+        }
+
+        return result;
+      }
+    };
+  }
+
+  /**
+   * A file's position in a merge. Cursors are ordered by their file's current
+   * value, and then by file so that equal values are taken from the earliest
+   * file first.
+   *
+   * @author Steve Jones
+   */
+  private static class MergeCursor implements Comparable<MergeCursor> {
+
+    /**
+     * The index of the file in the list being merged
+     */
+    private final int fileIndex;
+
+    /**
+     * The file
+     */
+    private final ExtractedFileValues file;
+
+    /**
+     * Create a cursor for a file
+     *
+     * @param fileIndex
+     *          The index of the file
+     * @param file
+     *          The file
+     */
+    private MergeCursor(int fileIndex, ExtractedFileValues file) {
+      this.fileIndex = fileIndex;
+      this.file = file;
+    }
+
+    @Override
+    public int compareTo(MergeCursor o) {
+      int result = file.current().compareTo(o.file.current());
+      if (result == 0) {
+        result = Integer.compare(fileIndex, o.fileIndex);
+      }
+      return result;
+    }
+  }
+}
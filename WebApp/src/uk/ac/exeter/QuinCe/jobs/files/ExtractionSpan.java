@@ -0,0 +1,268 @@
+package uk.ac.exeter.QuinCe.jobs.files;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * The time span of a data set that must be extracted again after its source
+ * files have changed.
+ *
+ * <p>
+ * Each extraction records the data set's files, their time ranges and the
+ * latest modification time in the data set's properties. The span covers the
+ * current range of every file that is new or has been modified since then.
+ * For modified files it also covers the range that was extracted from the
+ * previous version of the file, so that values from the old version outside
+ * the new range are removed.
+ * </p>
+ *
+ * <p>
+ * If the span cannot be worked out, the whole data set must be extracted.
+ * This happens if the previous extraction was not recorded, if any files have
+ * been removed from the data set, or if a modified file's previous range was
+ * not recorded.
+ * </p>
+ *
+ * @author Steve Jones
+ * @see ExtractDataSetJob#EXTRACTED_FILES_PROPERTY
+ * @see ExtractDataSetJob#EXTRACTED_RANGES_PROPERTY
+ * @see ExtractDataSetJob#EXTRACTION_TIME_PROPERTY
+ */
+public class ExtractionSpan {
+
+  /**
+   * The start of the span, or {@code null} if nothing has changed
+   */
+  private final LocalDateTime start;
+
+  /**
+   * The end of the span, or {@code null} if nothing has changed
+   */
+  private final LocalDateTime end;
+
+  /**
+   * Create a span
+   *
+   * @param start
+   *          The start of the span
+   * @param end
+   *          The end of the span
+   */
+  private ExtractionSpan(LocalDateTime start, LocalDateTime end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Work out the span of a data set that must be extracted again
+   *
+   * @param dataSet
+   *          The data set
+   * @param files
+   *          The data set's current files
+   * @param fileModifications
+   *          The modification times of the files, keyed by file ID
+   * @return The span, which is empty if nothing has changed, or {@code null}
+   *         if the whole data set must be extracted
+   */
+  public static ExtractionSpan getSpan(DataSet dataSet, List<DataFile> files,
+    Map<Long, LocalDateTime> fileModifications) {
+
+    ExtractionSpan result = null;
+
+    String extractedFilesProperty = dataSet
+      .getProperty(ExtractDataSetJob.EXTRACTED_FILES_PROPERTY);
+    String extractionTimeProperty = dataSet
+      .getProperty(ExtractDataSetJob.EXTRACTION_TIME_PROPERTY);
+
+    if (null != extractedFilesProperty && null != extractionTimeProperty) {
+
+      LocalDateTime extractionTime = DateTimeUtils
+        .longToDate(Long.parseLong(extractionTimeProperty));
+
+      Map<Long, LocalDateTime[]> extractedRanges = parseRanges(
+        dataSet.getProperty(ExtractDataSetJob.EXTRACTED_RANGES_PROPERTY));
+
+      Set<Long> extractedFiles = new HashSet<Long>();
+      for (String fileId : extractedFilesProperty.split(",")) {
+        if (fileId.length() > 0) {
+          extractedFiles.add(Long.parseLong(fileId));
+        }
+      }
+
+      boolean spanKnown = true;
+      LocalDateTime spanStart = null;
+      LocalDateTime spanEnd = null;
+
+      for (DataFile file : files) {
+        LocalDateTime modified = fileModifications.get(file.getDatabaseId());
+        boolean previouslyExtracted = extractedFiles
+          .remove(file.getDatabaseId());
+
+        if (!previouslyExtracted || null == modified
+          || modified.isAfter(extractionTime)) {
+
+          List<LocalDateTime> times = new ArrayList<LocalDateTime>(4);
+          times.add(file.getStartDate());
+          times.add(file.getEndDate());
+
+          if (previouslyExtracted) {
+            LocalDateTime[] previousRange = extractedRanges
+              .get(file.getDatabaseId());
+
+            // Values from the previous version of the file can't be found
+            // without its range
+            if (null == previousRange) {
+              spanKnown = false;
+            } else {
+              times.add(previousRange[0]);
+              times.add(previousRange[1]);
+            }
+          }
+
+          for (LocalDateTime time : times) {
+            if (null == spanStart || time.isBefore(spanStart)) {
+              spanStart = time;
+            }
+
+            if (null == spanEnd || time.isAfter(spanEnd)) {
+              spanEnd = time;
+            }
+          }
+        }
+      }
+
+      // If any files have been removed from the data set, their values
+      // can't be identified so everything must be extracted again
+      if (spanKnown && extractedFiles.isEmpty()) {
+        if (null != spanStart) {
+          if (spanStart.isBefore(dataSet.getStart())) {
+            spanStart = dataSet.getStart();
+          }
+
+          if (spanEnd.isAfter(dataSet.getEnd())) {
+            spanEnd = dataSet.getEnd();
+          }
+        }
+
+        result = new ExtractionSpan(spanStart, spanEnd);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Record the files used in an extraction in the data set's properties, for
+   * use by the next incremental extraction
+   *
+   * @param dataSet
+   *          The data set
+   * @param files
+   *          The files that were extracted
+   * @param fileModifications
+   *          The modification times of the files, keyed by file ID
+   */
+  public static void recordExtraction(DataSet dataSet, List<DataFile> files,
+    Map<Long, LocalDateTime> fileModifications) {
+
+    StringBuilder ids = new StringBuilder();
+    StringBuilder ranges = new StringBuilder();
+
+    for (DataFile file : files) {
+      if (ids.length() > 0) {
+        ids.append(',');
+        ranges.append(',');
+      }
+
+      ids.append(file.getDatabaseId());
+
+      ranges.append(file.getDatabaseId());
+      ranges.append(':');
+      ranges.append(DateTimeUtils.dateToLong(file.getStartDate()));
+      ranges.append(':');
+      ranges.append(DateTimeUtils.dateToLong(file.getEndDate()));
+    }
+
+    dataSet.setProperty(ExtractDataSetJob.EXTRACTED_FILES_PROPERTY,
+      ids.toString());
+    dataSet.setProperty(ExtractDataSetJob.EXTRACTED_RANGES_PROPERTY,
+      ranges.toString());
+
+    LocalDateTime lastModification = null;
+    for (LocalDateTime modification : fileModifications.values()) {
+      if (null == lastModification
+        || modification.isAfter(lastModification)) {
+        lastModification = modification;
+      }
+    }
+
+    if (null != lastModification) {
+      dataSet.setProperty(ExtractDataSetJob.EXTRACTION_TIME_PROPERTY,
+        String.valueOf(DateTimeUtils.dateToLong(lastModification)));
+    }
+  }
+
+  /**
+   * Parse the file ranges recorded by
+   * {@link #recordExtraction(DataSet, List, Map)}
+   *
+   * @param property
+   *          The property value
+   * @return The start and end of each file's range, keyed by file ID
+   */
+  private static Map<Long, LocalDateTime[]> parseRanges(String property) {
+    Map<Long, LocalDateTime[]> result = new HashMap<Long, LocalDateTime[]>();
+
+    if (null != property) {
+      for (String range : property.split(",")) {
+        String[] parts = range.split(":");
+        if (parts.length == 3) {
+          result.put(Long.parseLong(parts[0]),
+            new LocalDateTime[] {
+              DateTimeUtils.longToDate(Long.parseLong(parts[1])),
+              DateTimeUtils.longToDate(Long.parseLong(parts[2])) });
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether or not any files have changed
+   *
+   * @return {@code true} if there is nothing to extract; {@code false} if
+   *         the span must be extracted
+   */
+  public boolean isEmpty() {
+    return null == start;
+  }
+
+  /**
+   * Get the start of the span
+   *
+   * @return The start of the span
+   */
+  public LocalDateTime getStart() {
+    return start;
+  }
+
+  /**
+   * Get the end of the span
+   *
+   * @return The end of the span
+   */
+  public LocalDateTime getEnd() {
+    return end;
+  }
+}
@@ -13,7 +13,6 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
-import uk.ac.exeter.QuinCe.data.Dataset.DateColumnGroupedSensorValues;
 import uk.ac.exeter.QuinCe.data.Dataset.Measurement;
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
@@ -35,7 +34,18 @@ import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 /**
  * Identifies individual measurements in a dataset and stores them in the
  * database. Followed by the ChooseSensorValues job, which picks the
- * SensorValues to use for that measurement
+ * SensorValues to use for that measurement.
+ *
+ * <p>
+ * If the {@link #START_PARAM} and {@link #END_PARAM} parameters are set, only
+ * the measurements between those times are located. If the
+ * {@link #GENERATION_PARAM} is set, the measurements are stored in that
+ * generation, which becomes the data set's current generation once data
+ * reduction is complete. If the {@link #SENSOR_VALUES_GENERATION_PARAM} is
+ * set, the measurements are located from that generation of sensor values
+ * instead of the data set's current ones. If this job fails, the new
+ * generations are queued for purging.
+ * </p>
  *
  * @author Steve Jones
  *
@@ -48,6 +58,27 @@ public class LocateMeasurementsJob extends Job {
    */
   public static final String ID_PARAM = "id";
 
+  /**
+   * The parameter name for the start of the span to be processed
+   */
+  public static final String START_PARAM = "start";
+
+  /**
+   * The parameter name for the end of the span to be processed
+   */
+  public static final String END_PARAM = "end";
+
+  /**
+   * The parameter name for the generation that the measurements are stored in
+   */
+  public static final String GENERATION_PARAM = "generation";
+
+  /**
+   * The parameter name for a new generation of sensor values from which the
+   * measurements are located
+   */
+  public static final String SENSOR_VALUES_GENERATION_PARAM = "sensorValuesGeneration";
+
   /**
    * Name of the job, used for reporting
    */
@@ -96,6 +127,11 @@ public class LocateMeasurementsJob extends Job {
   protected void execute(JobThread thread) throws JobFailedException {
     Connection conn = null;
 
+    // The new generations being processed, if there are any
+    String generation = parameters.get(GENERATION_PARAM);
+    String sensorValuesGeneration = parameters
+      .get(SENSOR_VALUES_GENERATION_PARAM);
+
     try {
       conn = dataSource.getConnection();
       conn.setAutoCommit(false);
@@ -108,84 +144,23 @@ public class LocateMeasurementsJob extends Job {
         ResourceManager.getInstance().getSensorsConfiguration(),
         ResourceManager.getInstance().getRunTypeCategoryConfiguration());
 
-      // Get all the sensor values for the dataset, ordered by date and then
-      // grouped by sensor type
-      DateColumnGroupedSensorValues groupedSensorValues = DataSetDataDB
-        .getSensorValuesByDateAndColumn(conn, instrument, dataSet.getId());
-
       // The list of measurements being built, to be stored in the database
-      List<Measurement> measurements = new ArrayList<Measurement>(
-        groupedSensorValues.size());
-
-      // Go through each date in turn
-      for (Map.Entry<LocalDateTime, Map<SensorType, List<SensorValue>>> entry : groupedSensorValues
-        .entrySet()) {
-
-        // See if there's a core value for each of the instrument's measured
-        // variables for this date
-        Map<SensorType, List<SensorValue>> sensorTypeGroups = entry.getValue();
-
-        for (InstrumentVariable variable : instrument.getVariables()) {
-          if (sensorTypeGroups.containsKey(variable.getCoreSensorType())) {
-
-            // We have a value. Therefore we have a measurement.
-            boolean measurementOK = true;
-
-            // Get the Run Type for this measurement
-            // We assume there's only one run type
-            List<SensorValue> runTypeValues = null;
-
-            if (variable.hasInternalCalibrations()) {
-              runTypeValues = sensorTypeGroups
-                .get(SensorType.RUN_TYPE_SENSOR_TYPE);
-              if (null == runTypeValues) {
-                throw new RecordNotFoundException(
-                  "Missing Run Type for measurement at " + entry.getKey());
-              }
-            }
-
-            // Ditto for longitude and latitude
-            List<SensorValue> longitudeValues = sensorTypeGroups
-              .get(SensorType.LONGITUDE_SENSOR_TYPE);
-            if (null == longitudeValues) {
-              measurementOK = false;
-            }
-
-            List<SensorValue> latitudeValues = sensorTypeGroups
-              .get(SensorType.LATITUDE_SENSOR_TYPE);
-            if (null == latitudeValues) {
-              measurementOK = false;
-            }
-
-            if (measurementOK) {
-
-              // Only store non-ignored run types (assume only one run type)
-              //
-              // Also don't store if either position is missing
-              String runType = null;
-              boolean ignoredRunType = false;
-
-              if (variable.hasInternalCalibrations()) {
-                runType = runTypeValues.get(0).getValue();
-                ignoredRunType = instrument.getRunTypeCategory(runType)
-                  .equals(RunTypeCategory.IGNORED);
-              }
-
-              double longitude = longitudeValues.get(0).getDoubleValue();
-              double latitude = latitudeValues.get(0).getDoubleValue();
-              boolean positionOK = null != longitudeValues.get(0).getValue()
-                && null != latitudeValues.get(0).getValue();
-
-              if (!ignoredRunType && positionOK) {
-                measurements.add(new Measurement(dataSet.getId(), variable,
-                  entry.getKey(), longitude, latitude, runType));
-              }
-            }
-          }
-        }
-      }
+      List<Measurement> measurements = new ArrayList<Measurement>();
+
+      // Go through the sensor values for the dataset (or the span being
+      // processed) one date at a time, as they are read from the database
+      LocalDateTime start = getTimeParameter(START_PARAM);
+      LocalDateTime end = getTimeParameter(END_PARAM);
 
-      DataSetDataDB.storeMeasurements(conn, measurements);
+      DataSetDataDB.streamSensorValuesByDate(conn, instrument, dataSet.getId(),
+        null == sensorValuesGeneration ? dataSet.getSensorValuesGeneration()
+          : Integer.parseInt(sensorValuesGeneration),
+        start, end, (time, sensorTypeGroups) -> locateMeasurements(time,
+          sensorTypeGroups, measurements));
+
+      DataSetDataDB.storeMeasurements(dataSource, conn, measurements,
+        null == generation ? dataSet.getMeasurementsGeneration()
+          : Integer.parseInt(generation));
 
       // Trigger the Build Measurements job
       dataSet.setStatus(DataSet.STATUS_DATA_REDUCTION);
@@ -193,6 +168,18 @@ public class LocateMeasurementsJob extends Job {
       Map<String, String> jobParams = new HashMap<String, String>();
       jobParams.put(LocateMeasurementsJob.ID_PARAM,
         String.valueOf(Long.parseLong(parameters.get(ID_PARAM))));
+      if (null != start) {
+        jobParams.put(DataReductionJob.START_PARAM,
+          parameters.get(START_PARAM));
+        jobParams.put(DataReductionJob.END_PARAM, parameters.get(END_PARAM));
+      }
+      if (null != generation) {
+        jobParams.put(DataReductionJob.GENERATION_PARAM, generation);
+      }
+      if (null != sensorValuesGeneration) {
+        jobParams.put(DataReductionJob.SENSOR_VALUES_GENERATION_PARAM,
+          sensorValuesGeneration);
+      }
       JobManager.addJob(dataSource, JobManager.getJobOwner(dataSource, id),
         DataReductionJob.class.getCanonicalName(), jobParams);
 
@@ -210,6 +197,20 @@ public class LocateMeasurementsJob extends Job {
         message.append(e.getMessage());
         dataSet.addMessage(message.toString(), ExceptionUtils.getStackTrace(e));
         DataSetDB.updateDataSet(conn, dataSet);
+
+        // The new generations will not be used. Measurements are queued
+        // before the sensor values they refer to.
+        if (null != generation) {
+          DataSetDataDB.queuePurge(conn, dataSet.getId(),
+            DataSetDataDB.PURGE_MEASUREMENTS, Integer.parseInt(generation));
+        }
+
+        if (null != sensorValuesGeneration) {
+          DataSetDataDB.queuePurge(conn, dataSet.getId(),
+            DataSetDataDB.PURGE_SENSOR_VALUES,
+            Integer.parseInt(sensorValuesGeneration));
+        }
+
         conn.commit();
       } catch (Exception e1) {
         e1.printStackTrace();
@@ -221,6 +222,84 @@ public class LocateMeasurementsJob extends Job {
 
   }
 
+  /**
+   * Find the measurements for a single time and add them to a list
+   *
+   * @param time
+   *          The time
+   * @param sensorTypeGroups
+   *          The sensor values at that time, grouped by sensor type
+   * @param measurements
+   *          The list of measurements
+   * @throws RecordNotFoundException
+   *           If a measurement's run type is missing
+   */
+  private void locateMeasurements(LocalDateTime time,
+    Map<SensorType, List<SensorValue>> sensorTypeGroups,
+    List<Measurement> measurements) throws RecordNotFoundException {
+
+    // See if there's a core value for each of the instrument's measured
+    // variables for this date
+    for (InstrumentVariable variable : instrument.getVariables()) {
+      if (sensorTypeGroups.containsKey(variable.getCoreSensorType())) {
+
+        // We have a value. Therefore we have a measurement.
+        boolean measurementOK = true;
+
+        // Get the Run Type for this measurement
+        // We assume there's only one run type
+        List<SensorValue> runTypeValues = null;
+
+        if (variable.hasInternalCalibrations()) {
+          runTypeValues = sensorTypeGroups
+            .get(SensorType.RUN_TYPE_SENSOR_TYPE);
+          if (null == runTypeValues) {
+            throw new RecordNotFoundException(
+              "Missing Run Type for measurement at " + time);
+          }
+        }
+
+        // Ditto for longitude and latitude
+        List<SensorValue> longitudeValues = sensorTypeGroups
+          .get(SensorType.LONGITUDE_SENSOR_TYPE);
+        if (null == longitudeValues) {
+          measurementOK = false;
+        }
+
+        List<SensorValue> latitudeValues = sensorTypeGroups
+          .get(SensorType.LATITUDE_SENSOR_TYPE);
+        if (null == latitudeValues) {
+          measurementOK = false;
+        }
+
+        if (measurementOK) {
+
+          // Only store non-ignored run types (assume only one run type)
+          //
+          // Also don't store if either position is missing
+          String runType = null;
+          boolean ignoredRunType = false;
+
+          if (variable.hasInternalCalibrations()) {
+            runType = runTypeValues.get(0).getValue();
+            ignoredRunType = instrument.getRunTypeCategory(runType)
+              .equals(RunTypeCategory.IGNORED);
+          }
+
+          double longitude = longitudeValues.get(0).getDoubleValue();
+          double latitude = latitudeValues.get(0).getDoubleValue();
+          boolean positionOK = null != longitudeValues.get(0).getValue()
+            && null != latitudeValues.get(0).getValue();
+
+          if (!ignoredRunType && positionOK) {
+            measurements.add(new Measurement(dataSet.getId(), variable,
+              time, longitude, latitude, runType));
+          }
+        }
+      }
+    }
+  }
+
   @Override
   protected void validateParameters() throws InvalidJobParametersException {
     // TODO Auto-generated method stub
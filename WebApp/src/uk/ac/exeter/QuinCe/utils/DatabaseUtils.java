@@ -9,6 +9,8 @@ import java.sql.Types;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.sql.DataSource;
+
 /**
  * A utility class providing useful methods for dealing with database-related
  * objects
@@ -31,6 +33,30 @@ public class DatabaseUtils {
    */
   public static final String IN_PARAMS_TOKEN = "%%IN_PARAMS%%";
 
+  /**
+   * The fetch size used for streaming statements on databases that do not
+   * support MySQL's row-by-row streaming
+   *
+   * @see #createStreamingStatement(Connection, String)
+   */
+  private static final int STREAMING_FETCH_SIZE = 1000;
+
+  /**
+   * Query to read and lock the next free ID of a sequence
+   *
+   * @see #reserveIds(DataSource, String, int)
+   */
+  private static final String GET_NEXT_ID_QUERY = "SELECT next_id "
+    + "FROM id_sequence WHERE name = ? FOR UPDATE";
+
+  /**
+   * Statement to set the next free ID of a sequence
+   *
+   * @see #reserveIds(DataSource, String, int)
+   */
+  private static final String SET_NEXT_ID_STATEMENT = "UPDATE id_sequence "
+    + "SET next_id = ? WHERE name = ?";
+
   /**
    * Close a set of {@link java.sql.ResultSet} objects, ignoring any errors
    *
@@ -127,6 +153,120 @@ public class DatabaseUtils {
     }
   }
 
+  /**
+   * Create a read-only, forward-only statement whose results are streamed from
+   * the database instead of being read into memory before the first row is
+   * returned.
+   *
+   * <p>
+   * The MySQL driver only streams results when the fetch size is
+   * {@link Integer#MIN_VALUE}; other databases are given a normal fetch size.
+   * While a MySQL result set is being streamed no other statements can be run
+   * on the same connection, so the rows must be read and the result set closed
+   * before the connection is used again.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param sql
+   *          The query
+   * @return The statement
+   * @throws SQLException
+   *           If the statement cannot be created
+   */
+  public static PreparedStatement createStreamingStatement(Connection conn,
+    String sql) throws SQLException {
+
+    PreparedStatement stmt = conn.prepareStatement(sql,
+      ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+    if (conn.getMetaData().getDatabaseProductName()
+      .equalsIgnoreCase("MySQL")) {
+      stmt.setFetchSize(Integer.MIN_VALUE);
+    } else {
+      stmt.setFetchSize(STREAMING_FETCH_SIZE);
+    }
+
+    return stmt;
+  }
+
+  /**
+   * Reserve a block of contiguous IDs from a sequence in the
+   * {@code id_sequence} table, so that records can be given their IDs before
+   * they are inserted. This avoids reading generated keys back from the
+   * database, and lets batches of records be written as multi-row inserts.
+   *
+   * <p>
+   * The reservation is made and committed on its own connection, so the
+   * sequence is only locked for as long as it takes to update it, and not for
+   * the whole of the caller's transaction. If the caller's transaction is
+   * rolled back, the reserved IDs are not used.
+   * </p>
+   *
+   * <p>
+   * A table whose IDs come from a sequence must not have records added with
+   * generated keys, or the keys may clash with reserved IDs.
+   * </p>
+   *
+   * @param dataSource
+   *          A data source
+   * @param sequence
+   *          The sequence name
+   * @param count
+   *          The number of IDs to reserve
+   * @return The first reserved ID. The block runs from this ID to
+   *         {@code first + count - 1}.
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If the sequence does not exist or a database error occurs
+   */
+  public static long reserveIds(DataSource dataSource, String sequence,
+    int count) throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(dataSource, "dataSource");
+    MissingParam.checkMissing(sequence, "sequence");
+    MissingParam.checkPositive(count, "count");
+
+    long firstId;
+    Connection conn = null;
+
+    try {
+      conn = dataSource.getConnection();
+      conn.setAutoCommit(false);
+
+      try (PreparedStatement getStmt = conn
+        .prepareStatement(GET_NEXT_ID_QUERY)) {
+        getStmt.setString(1, sequence);
+
+        try (ResultSet record = getStmt.executeQuery()) {
+          if (!record.next()) {
+            throw new DatabaseException("ID sequence '" + sequence
+              + "' does not exist");
+          }
+
+          firstId = record.getLong(1);
+        }
+      }
+
+      try (PreparedStatement setStmt = conn
+        .prepareStatement(SET_NEXT_ID_STATEMENT)) {
+        setStmt.setLong(1, firstId + count);
+        setStmt.setString(2, sequence);
+        setStmt.execute();
+      }
+
+      conn.commit();
+    } catch (SQLException e) {
+      rollBack(conn);
+      throw new DatabaseException("Error reserving IDs", e);
+    } finally {
+      closeConnection(conn);
+    }
+
+    return firstId;
+  }
+
   /**
    * Create an insert statement for a table and list of fields
    *
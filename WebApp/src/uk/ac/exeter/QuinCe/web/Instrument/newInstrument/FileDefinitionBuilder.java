@@ -34,6 +34,15 @@ public class FileDefinitionBuilder extends FileDefinition {
    */
   private static final int SEPARATOR_SEARCH_LINES = 10;
 
+  /**
+   * The number of lines from the start of a file that are searched for the
+   * end of the header and the column headers when guessing the layout from a
+   * sample of the file
+   *
+   * @see #setSampleContents(List)
+   */
+  private static final int HEADER_SEARCH_LINES = 1000;
+
   /**
    * The default description for new files
    */
@@ -222,6 +231,29 @@ public class FileDefinitionBuilder extends FileDefinition {
     this.fileContents = fileContents;
   }
 
+  /**
+   * Store a sample of a file's data that contains enough lines to guess the
+   * file's layout. Only the first {@link #HEADER_SEARCH_LINES} lines and the
+   * last {@link #SEPARATOR_SEARCH_LINES} lines of the file are used, so
+   * guessing the layout of a large file is no slower than for a small one.
+   *
+   * @param fileContents
+   *          The complete file data
+   * @see #guessFileLayout()
+   */
+  public void setSampleContents(List<String> fileContents) {
+    if (fileContents.size() <= HEADER_SEARCH_LINES + SEPARATOR_SEARCH_LINES) {
+      this.fileContents = fileContents;
+    } else {
+      List<String> sample = new ArrayList<String>(
+        HEADER_SEARCH_LINES + SEPARATOR_SEARCH_LINES);
+      sample.addAll(fileContents.subList(0, HEADER_SEARCH_LINES));
+      sample.addAll(fileContents.subList(
+        fileContents.size() - SEPARATOR_SEARCH_LINES, fileContents.size()));
+      this.fileContents = sample;
+    }
+  }
+
   /**
    * Create a deep copy of a {@code FileDefinitionBuilder} object.
    * 
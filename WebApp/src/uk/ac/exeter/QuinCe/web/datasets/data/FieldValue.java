@@ -62,6 +62,12 @@ public class FieldValue {
    */
   private boolean ghost = false;
 
+  /**
+   * Indicates whether the user QC flag stored in the database for this value
+   * is {@link Flag#NEEDED}
+   */
+  private boolean neededInDatabase;
+
   /**
    * Constructor to directly set all values, with the {@link #ghost} flag set to
    * the default {@code false}.
@@ -90,6 +96,7 @@ public class FieldValue {
     }
     this.qcFlag = qcFlag;
     this.needsFlag = needsFlag;
+    this.neededInDatabase = needsFlag;
     this.qcComment = qcComment;
     this.used = used;
     this.ghost = false;
@@ -125,6 +132,7 @@ public class FieldValue {
     }
     this.qcFlag = qcFlag;
     this.needsFlag = needsFlag;
+    this.neededInDatabase = needsFlag;
     this.qcComment = qcComment;
     this.used = used;
     this.ghost = ghost;
@@ -171,6 +179,7 @@ public class FieldValue {
       this.qcComment = qcComment;
     }
 
+    this.neededInDatabase = this.needsFlag;
     this.used = used;
     this.ghost = false;
   }
@@ -217,6 +226,7 @@ public class FieldValue {
       this.qcComment = qcComment;
     }
 
+    this.neededInDatabase = this.needsFlag;
     this.used = used;
     this.ghost = ghost;
     if (ghost) {
@@ -235,6 +245,7 @@ public class FieldValue {
     value = init.value;
     qcFlag = init.qcFlag;
     needsFlag = init.needsFlag;
+    neededInDatabase = init.neededInDatabase;
     qcComment = init.qcComment;
     used = init.used;
     ghost = init.ghost;
@@ -293,6 +304,24 @@ public class FieldValue {
     return ghost;
   }
 
+  /**
+   * Determine whether the user QC flag stored in the database for this value
+   * is {@link Flag#NEEDED}
+   *
+   * @return {@code true} if the stored flag is {@link Flag#NEEDED};
+   *         {@code false} otherwise
+   */
+  public boolean isNeededInDatabase() {
+    return neededInDatabase;
+  }
+
+  /**
+   * Record that the value's current QC flag has been stored in the database
+   */
+  public void setStored() {
+    neededInDatabase = qcFlag.equals(Flag.NEEDED);
+  }
+
   public void setQC(Flag flag, String comment) throws MeasurementDataException {
 
     if (flag.equals(Flag.NEEDED)) {
@@ -164,7 +164,8 @@ public class InternalCalibrationBean extends PlotPageBean {
 
       List<FieldValue> updatedValues = pageData.setQC(getSelectedRowsList(),
         selectedColumn, newFlag, useCalibrationsMessage);
-      DataSetDataDB.setQC(getDataSource(), updatedValues);
+      DataSetDataDB.setQC(getDataSource(), getDataset().getId(),
+        updatedValues);
       dirty = true;
     } catch (Exception e) {
       e.printStackTrace();
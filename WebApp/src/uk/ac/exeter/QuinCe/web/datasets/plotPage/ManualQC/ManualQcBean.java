@@ -237,7 +237,7 @@ public class ManualQcBean extends PlotPageBean {
 
     if (null != updates && updates.size() > 0) {
       try {
-        DataSetDataDB.setQC(getDataSource(), updates);
+        DataSetDataDB.setQC(getDataSource(), getDataset().getId(), updates);
 
         updateFlagsRequired();
         dirty = true;
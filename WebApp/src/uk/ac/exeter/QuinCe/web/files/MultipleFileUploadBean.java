@@ -1,30 +1,55 @@
 package uk.ac.exeter.QuinCe.web.files;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.faces.bean.ManagedBean;
+import javax.faces.application.FacesMessage;
 import javax.faces.bean.ViewScoped;
+import javax.ws.rs.core.Response.Status;
 
 import org.primefaces.model.UploadedFile;
 
 import uk.ac.exeter.QuinCe.data.Files.DataFile;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
 import uk.ac.exeter.QuinCe.data.Files.FileExistsException;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
 import uk.ac.exeter.QuinCe.utils.DatabaseException;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
 import uk.ac.exeter.QuinCe.web.FileUploadBean;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 @ManagedBean(name = "fileUpload")
 @ViewScoped
 public class MultipleFileUploadBean extends FileUploadBean {
   /**
-   * The data file object
+   * The data file object. The list is read by the page while files are being
+   * extracted in the background.
    */
-  private ArrayList<UploadedDataFile> dataFiles = new ArrayList<>();
+  private List<UploadedDataFile> dataFiles = new CopyOnWriteArrayList<>();
+
+  /**
+   * The files that have been submitted for extraction in batch mode
+   */
+  private Set<UploadedDataFile> queuedFiles = Collections
+    .synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+  /**
+   * The number of batch mode extractions that have not yet finished
+   */
+  private AtomicInteger pendingExtractions = new AtomicInteger(0);
+
   private String displayClass = "hidden";
 
   /**
@@ -63,9 +88,116 @@ public class MultipleFileUploadBean extends FileUploadBean {
     }
   }
 
+  /**
+   * Extract all files in the file list that are not yet extracted. The files
+   * are extracted concurrently on the application's file extraction executor,
+   * and each file's progress is shown as it completes (see
+   * {@link #isExtractionComplete()}). Once all the files have been extracted
+   * they are checked for overlaps with each other.
+   *
+   * @see ResourceManager#getFileExtractionExecutor()
+   */
+  public void extractAll() {
+    // The instrument and configuration come from the session, so they
+    // must be retrieved on the request thread
+    Instrument instrument = getCurrentInstrument();
+    Properties appConfig = getAppConfig();
+    ExecutorService executor = ResourceManager.getInstance()
+      .getFileExtractionExecutor();
+
+    for (UploadedDataFile file : dataFiles) {
+      if (file.getDataFile() == null && file.isStore()
+        && queuedFiles.add(file)) {
+        pendingExtractions.incrementAndGet();
+
+        try {
+          executor.submit(() -> {
+            try {
+              file.extractFile(instrument, appConfig, false, false);
+            } finally {
+              extractionFinished();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          file.putMessage(Status.SERVICE_UNAVAILABLE.getStatusCode(),
+            "The file could not be processed: the server is shutting down",
+            FacesMessage.SEVERITY_ERROR);
+          file.setProcessed(true);
+          extractionFinished();
+        }
+      }
+    }
+  }
+
+  /**
+   * Record that a batch mode extraction has finished. When the last one
+   * finishes, the batch is checked for overlapping files. The check is made
+   * before the extraction is marked as finished so that the page does not see
+   * a completed batch until the check is done.
+   */
+  private synchronized void extractionFinished() {
+    if (pendingExtractions.get() == 1) {
+      checkBatchOverlaps();
+    }
+
+    pendingExtractions.decrementAndGet();
+  }
+
+  /**
+   * Determine whether or not all batch mode extractions have finished
+   *
+   * @return {@code true} if no files are being extracted; {@code false}
+   *         otherwise
+   */
+  public boolean isExtractionComplete() {
+    return pendingExtractions.get() == 0;
+  }
+
+  /**
+   * Check the extracted files for overlaps with each other. Each file has
+   * already been checked against the files in the database, but two new files
+   * for the same file definition must not cover the same time period. Where
+   * two files overlap, the later one in the list is rejected.
+   */
+  private synchronized void checkBatchOverlaps() {
+    List<UploadedDataFile> accepted = new ArrayList<UploadedDataFile>();
+
+    for (UploadedDataFile file : dataFiles) {
+      DataFile dataFile = file.getDataFile();
+      if (file.isStore() && null != dataFile) {
+
+        boolean overlaps = false;
+
+        for (UploadedDataFile acceptedFile : accepted) {
+          DataFile acceptedDataFile = acceptedFile.getDataFile();
+          if (acceptedDataFile.getFileDefinition()
+            .getDatabaseId() == dataFile.getFileDefinition().getDatabaseId()
+            && !dataFile.getStartDate()
+              .isAfter(acceptedDataFile.getEndDate())
+            && !dataFile.getEndDate()
+              .isBefore(acceptedDataFile.getStartDate())) {
+
+            overlaps = true;
+            break;
+          }
+        }
+
+        if (overlaps) {
+          file.setDataFile(null);
+          file.putMessage(Status.CONFLICT.getStatusCode(),
+            "This file overlaps another file in this upload",
+            FacesMessage.SEVERITY_ERROR);
+        } else {
+          accepted.add(file);
+        }
+      }
+    }
+  }
+
   /**
    * Store selected files. This moves the file(s) to the file store, and updates
-   * the database with file info.
+   * the database with file info. All the files are stored in a single
+   * transaction.
    * 
    * @throws MissingParamException
    *           If any required parameters are missing
@@ -78,12 +210,20 @@ public class MultipleFileUploadBean extends FileUploadBean {
    */
   public void store() throws MissingParamException, FileExistsException,
     DatabaseException, RecordNotFoundException {
+    List<DataFile> filesToStore = new ArrayList<DataFile>();
+    List<Long> replacementIds = new ArrayList<Long>();
+
     for (UploadedDataFile file : dataFiles) {
       if (file.isStore() && null != file.getDataFile()) {
-        DataFileDB.storeFile(getDataSource(), getAppConfig(),
-          file.getDataFile(), file.getReplacementFile());
+        filesToStore.add(file.getDataFile());
+        replacementIds.add(file.getReplacementFile());
       }
     }
+
+    if (filesToStore.size() > 0) {
+      DataFileDB.storeFiles(getDataSource(), getAppConfig(), filesToStore,
+        replacementIds);
+    }
   }
 
   /**
@@ -132,7 +272,8 @@ public class MultipleFileUploadBean extends FileUploadBean {
     setForceInstrumentReload(true);
     initialiseInstruments();
     List<UploadedDataFile> tmplist = dataFiles;
-    dataFiles = new ArrayList<>();
+    dataFiles = new CopyOnWriteArrayList<>();
+    queuedFiles.clear();
     for (UploadedDataFile file : tmplist) {
       processUploadedFile(
         ((PrimeFacesUploadedDataFile) file).getUploadedFile());
@@ -1,5 +1,6 @@
 package uk.ac.exeter.QuinCe.web.files;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -17,6 +18,7 @@ import javax.ws.rs.core.Response.Status;
 import org.primefaces.json.JSONArray;
 import org.primefaces.json.JSONObject;
 
+import uk.ac.exeter.QuinCe.data.Files.ContentHash;
 import uk.ac.exeter.QuinCe.data.Files.DataFile;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
 import uk.ac.exeter.QuinCe.data.Files.DataFileException;
@@ -24,6 +26,7 @@ import uk.ac.exeter.QuinCe.data.Files.DataFileMessage;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentFileSet;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.web.Instrument.newInstrument.FileDefinitionBuilder;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
@@ -67,7 +70,7 @@ public abstract class UploadedDataFile {
   /**
    * Indicates whether or not the file has been extracted and processed
    */
-  private boolean processed = false;
+  private volatile boolean processed = false;
 
   /**
    * The database ID of the existing file that this file will replace -1
@@ -93,6 +96,41 @@ public abstract class UploadedDataFile {
     return fileLines;
   }
 
+  /**
+   * Get the file contents as a list of lines, or {@code null} if the file is
+   * empty. By default this is a view of {@link #getLines()}.
+   *
+   * @return The file lines
+   * @throws IOException
+   *           If the file contents cannot be read
+   */
+  protected List<String> getContentLines() throws IOException {
+    String[] lines = getLines();
+    return null == lines ? null : Arrays.asList(lines);
+  }
+
+  /**
+   * Create the {@link DataFile} object for the file once its file definition
+   * has been identified
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param fileDefinition
+   *          The file definition
+   * @param lines
+   *          The file lines
+   * @return The data file
+   * @throws IOException
+   *           If the file contents cannot be read
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   */
+  protected DataFile makeDataFile(String fileStore,
+    FileDefinition fileDefinition, List<String> lines)
+    throws IOException, MissingParamException {
+    return new DataFile(fileStore, fileDefinition, getName(), lines);
+  }
+
   /**
    * Get the filename of the file
    * 
@@ -306,7 +344,7 @@ public abstract class UploadedDataFile {
       DataSource dataSource = ResourceManager.getInstance().getDBDataSource();
 
       InstrumentFileSet fileDefinitions = instrument.getFileDefinitions();
-      String[] lines = getLines();
+      List<String> lines = getContentLines();
       if (null == lines) {
         if (allowEmpty) {
           fileEmpty = true;
@@ -320,7 +358,7 @@ public abstract class UploadedDataFile {
         FileDefinitionBuilder layoutGuesser = new FileDefinitionBuilder(
           "Guesser", fileDefinitions);
 
-        layoutGuesser.setFileContents(Arrays.asList(lines));
+        layoutGuesser.setSampleContents(lines);
         layoutGuesser.guessFileLayout();
 
         // See if any of the known definitions match the guessed layout
@@ -330,8 +368,8 @@ public abstract class UploadedDataFile {
         // NoSuchElementException
         // (handled below), and multiple matches just choose the first one
 
-        setDataFile(new DataFile(appConfig.getProperty("filestore"),
-          matchedDefinition, getName(), Arrays.asList(lines)));
+        setDataFile(makeDataFile(appConfig.getProperty("filestore"),
+          matchedDefinition, lines));
         if (getDataFile().getFirstDataLine() >= getDataFile()
           .getContentLineCount()) {
           if (allowEmpty) {
@@ -375,22 +413,25 @@ public abstract class UploadedDataFile {
                 fileMessage = "This file overlaps an existing file with a different name";
                 fileStatus = Status.CONFLICT.getStatusCode();
               } else {
-                String oldContents = existingFile.getContents();
-                String newContents = newFile.getContents();
-
-                if (newContents.length() < oldContents.length()) {
+                // The existing file's hash is stored in the database, so
+                // only the new file needs to be read. The new file is hashed
+                // up to the length of the existing file to see if it starts
+                // with the same contents.
+                ContentHash oldContents = existingFile.getContentHash();
+                ContentHash newContents = newFile
+                  .getContentHash(oldContents.getLength());
+
+                if (newContents.getLength() < oldContents.getLength()) {
                   fileOK = false;
                   fileMessage = "This file would replace an existing file with fewer records";
                   fileStatus = Status.CONFLICT.getStatusCode();
                 } else if (!allowExactDuplicate
-                  && newContents.length() == oldContents.length()) {
+                  && newContents.getLength() == oldContents.getLength()) {
                   fileOK = false;
                   fileMessage = "This is an exact copy of an existing file";
                   fileStatus = Status.CONFLICT.getStatusCode();
                 } else {
-                  String oldPartOfNewContents = newContents.substring(0,
-                    oldContents.length());
-                  if (!oldPartOfNewContents.equals(oldContents)) {
+                  if (!newContents.startsWith(oldContents)) {
                     fileOK = false;
                     fileMessage = "This file would update an existing file but change existing data";
                     fileStatus = Status.CONFLICT.getStatusCode();
@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -43,6 +45,12 @@ public class ResourceManager implements ServletContextListener {
    */
   public static final String QC_ROUTINES_CONFIG = "QC";
 
+  /**
+   * Configuration property for the number of threads used to extract uploaded
+   * files
+   */
+  public static final String EXTRACTION_THREADS_PROPERTY = "upload.extraction_threads";
+
   /**
    * The application's data source
    */
@@ -59,6 +67,12 @@ public class ResourceManager implements ServletContextListener {
 
   private QCRoutinesConfiguration qcRoutinesConfiguration;
 
+  /**
+   * The executor used to extract uploaded files. Created when it is first
+   * needed.
+   */
+  private ExecutorService fileExtractionExecutor = null;
+
   /**
    * The singleton instance of the resource manage
    */
@@ -130,7 +144,12 @@ public class ResourceManager implements ServletContextListener {
 
   @Override
   public void contextDestroyed(ServletContextEvent event) {
-    // NOOP.
+    synchronized (this) {
+      if (null != fileExtractionExecutor) {
+        fileExtractionExecutor.shutdownNow();
+        fileExtractionExecutor = null;
+      }
+    }
   }
 
   /**
@@ -163,6 +182,39 @@ public class ResourceManager implements ServletContextListener {
     return qcRoutinesConfiguration;
   }
 
+  /**
+   * Retrieve the executor used to extract uploaded files. The number of
+   * threads is set by the {@link #EXTRACTION_THREADS_PROPERTY} in the
+   * application configuration, and defaults to the number of available
+   * processors.
+   *
+   * @return The file extraction executor
+   */
+  public synchronized ExecutorService getFileExtractionExecutor() {
+    if (null == fileExtractionExecutor) {
+      int threads = Runtime.getRuntime().availableProcessors();
+
+      String threadsProperty = null == configuration ? null
+        : configuration.getProperty(EXTRACTION_THREADS_PROPERTY);
+      if (null != threadsProperty) {
+        try {
+          threads = Integer.parseInt(threadsProperty.trim());
+        } catch (NumberFormatException e) {
+          // Use the default
+        }
+      }
+
+      fileExtractionExecutor = Executors
+        .newFixedThreadPool(Math.max(1, threads), r -> {
+          Thread thread = new Thread(r, "FileExtraction");
+          thread.setDaemon(true);
+          return thread;
+        });
+    }
+
+    return fileExtractionExecutor;
+  }
+
   /**
    * Load the application configuration
    * 
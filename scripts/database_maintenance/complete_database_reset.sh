@@ -58,7 +58,7 @@ case $yn in
   * ) echo " Exit script"; exit;;
 esac
 
-rm $filestore_folder/*/*
-rmdir $filestore_folder/*
+# The compressed file store keeps its files in nested folders
+rm -r $filestore_folder/*
 
 scripts/upgrade.sh
@@ -0,0 +1,16 @@
+-- Sequences for records whose IDs are reserved in blocks before they are
+-- inserted, instead of being generated by the database. The measurements
+-- sequence starts after the highest existing measurement ID.
+CREATE TABLE id_sequence (
+  name varchar(50) NOT NULL,
+  next_id bigint(20) NOT NULL,
+  PRIMARY KEY (name)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO id_sequence (name, next_id)
+  SELECT 'measurements', COALESCE(MAX(id), 0) + 1 FROM measurements;
+
+
+-- ROLLBACK
+
+-- DROP TABLE id_sequence;
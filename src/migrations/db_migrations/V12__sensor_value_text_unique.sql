@@ -0,0 +1,25 @@
+-- Make sensor_value_text unique on its text, so each run type is stored once
+-- and new entries can be added only if they are absent. The text is compared
+-- exactly (case and accents included), as it is in the application.
+ALTER TABLE sensor_value_text MODIFY value varchar(100) CHARACTER SET utf8 COLLATE utf8_bin NOT NULL;
+
+-- Point sensor values at the first copy of any duplicated text, and remove
+-- the other copies
+UPDATE sensor_values sv
+  INNER JOIN sensor_value_text svt ON sv.text_value = svt.id
+  INNER JOIN (SELECT value, MIN(id) AS kept_id FROM sensor_value_text GROUP BY value) kept ON svt.value = kept.value
+  SET sv.text_value = kept.kept_id
+  WHERE sv.text_value <> kept.kept_id;
+
+DELETE svt FROM sensor_value_text svt
+  INNER JOIN sensor_value_text kept ON svt.value = kept.value AND svt.id > kept.id;
+
+ALTER TABLE sensor_value_text DROP INDEX SENSORVALUETEXT_VALUE_idx;
+ALTER TABLE sensor_value_text ADD UNIQUE KEY SENSORVALUETEXT_VALUE_UNIQUE (value);
+
+
+-- ROLLBACK
+
+-- ALTER TABLE sensor_value_text DROP INDEX SENSORVALUETEXT_VALUE_UNIQUE;
+-- ALTER TABLE sensor_value_text ADD KEY SENSORVALUETEXT_VALUE_idx (value);
+-- ALTER TABLE sensor_value_text MODIFY value varchar(100) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL;
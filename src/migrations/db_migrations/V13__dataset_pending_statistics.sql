@@ -0,0 +1,16 @@
+-- Statistics calculated for a new generation of a data set's sensor values
+-- are held here until the data set switches to that generation, so the
+-- statistics in the dataset table always describe its current contents.
+CREATE TABLE dataset_pending_statistics (
+  dataset_id int(11) NOT NULL,
+  generation int(11) NOT NULL,
+  record_count int(11) NOT NULL,
+  flags_required int(11) NOT NULL,
+  column_statistics text NULL,
+  PRIMARY KEY (dataset_id, generation)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+
+-- ROLLBACK
+
+-- DROP TABLE dataset_pending_statistics;
@@ -0,0 +1,13 @@
+-- Content details of stored files, used to detect uploads that append
+-- to an existing file without reading the existing file.
+-- The columns are NULL for files stored before this migration.
+ALTER TABLE data_file ADD COLUMN content_hash CHAR(64) NULL;
+ALTER TABLE data_file ADD COLUMN content_length BIGINT NULL;
+ALTER TABLE data_file ADD COLUMN line_count INT NULL;
+
+
+-- ROLLBACK
+
+-- ALTER TABLE data_file DROP COLUMN content_hash;
+-- ALTER TABLE data_file DROP COLUMN content_length;
+-- ALTER TABLE data_file DROP COLUMN line_count;
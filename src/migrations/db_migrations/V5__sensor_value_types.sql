@@ -0,0 +1,22 @@
+-- Typed storage for sensor values. Numeric values are stored in
+-- double_value, and text values (run types) are stored once in
+-- sensor_value_text and referenced by text_value.
+-- The value column is only used by values stored before this migration.
+CREATE TABLE sensor_value_text (
+  id int(11) NOT NULL AUTO_INCREMENT,
+  value varchar(100) NOT NULL,
+  PRIMARY KEY (id),
+  KEY SENSORVALUETEXT_VALUE_idx (value)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+ALTER TABLE sensor_values ADD COLUMN double_value DOUBLE NULL;
+ALTER TABLE sensor_values ADD COLUMN text_value int(11) NULL;
+ALTER TABLE sensor_values ADD CONSTRAINT SENSORVALUE_TEXT FOREIGN KEY (text_value) REFERENCES sensor_value_text (id);
+
+
+-- ROLLBACK
+
+-- ALTER TABLE sensor_values DROP FOREIGN KEY SENSORVALUE_TEXT;
+-- ALTER TABLE sensor_values DROP COLUMN text_value;
+-- ALTER TABLE sensor_values DROP COLUMN double_value;
+-- DROP TABLE sensor_value_text;
@@ -0,0 +1,13 @@
+-- Summary statistics for data sets, calculated during extraction and
+-- automatic QC so pages don't need to scan sensor_values.
+-- The columns are NULL for data sets processed before this migration.
+ALTER TABLE dataset ADD COLUMN record_count INT NULL;
+ALTER TABLE dataset ADD COLUMN flags_required INT NULL;
+ALTER TABLE dataset ADD COLUMN column_statistics text NULL;
+
+
+-- ROLLBACK
+
+-- ALTER TABLE dataset DROP COLUMN record_count;
+-- ALTER TABLE dataset DROP COLUMN flags_required;
+-- ALTER TABLE dataset DROP COLUMN column_statistics;
@@ -0,0 +1,35 @@
+-- Data set contents are versioned by generation. A full re-extraction or
+-- measurement rebuild writes a new generation and then switches the data
+-- set's pointer to it, instead of deleting the old rows in the job
+-- transaction. Retired generations are queued in dataset_purge and removed
+-- in small chunks by the DataSetPurger background task.
+-- Existing rows are all in generation 0.
+ALTER TABLE dataset ADD COLUMN sensor_values_generation INT NOT NULL DEFAULT 0;
+ALTER TABLE dataset ADD COLUMN measurements_generation INT NOT NULL DEFAULT 0;
+
+ALTER TABLE sensor_values ADD COLUMN generation INT NOT NULL DEFAULT 0;
+CREATE INDEX SENSORVALUE_GENERATION_idx ON sensor_values(dataset_id, generation);
+
+ALTER TABLE measurements ADD COLUMN generation INT NOT NULL DEFAULT 0;
+CREATE INDEX MEASUREMENT_GENERATION_idx ON measurements(dataset_id, generation);
+
+-- content is 0 for sensor values and 1 for measurements
+CREATE TABLE dataset_purge (
+  id int(11) NOT NULL AUTO_INCREMENT,
+  dataset_id int(11) NOT NULL,
+  content tinyint(1) NOT NULL,
+  generation int(11) NOT NULL,
+  created bigint(20) NOT NULL,
+  PRIMARY KEY (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+
+-- ROLLBACK
+
+-- DROP TABLE dataset_purge;
+-- DROP INDEX MEASUREMENT_GENERATION_idx ON measurements;
+-- ALTER TABLE measurements DROP COLUMN generation;
+-- DROP INDEX SENSORVALUE_GENERATION_idx ON sensor_values;
+-- ALTER TABLE sensor_values DROP COLUMN generation;
+-- ALTER TABLE dataset DROP COLUMN measurements_generation;
+-- ALTER TABLE dataset DROP COLUMN sensor_values_generation;